@@ -0,0 +1,20 @@
+package rst.pdfbox.layout.elements;
+
+import java.io.IOException;
+
+/**
+ * Optional extension of a {@link Drawable} that may draw outside of its
+ * bounds, like a {@link Cutter} drawing a slice of a drawable. The layout
+ * clips such drawables to the content area of the page. Any other drawable is
+ * only clipped if its bounds exceed the content area.
+ */
+public interface Clippable {
+
+    /**
+     * @return <code>true</code> if the drawable may draw outside of its
+     *         bounds, and therefore has to be clipped.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    boolean isClippingRequired() throws IOException;
+}
@@ -4,7 +4,7 @@ package rst.pdfbox.layout.elements;
  * ControlElements do not have a drawable representation, but control page flow,
  * rendering etc.
  */
-public class ControlElement implements Element {
+public class ControlElement implements Element, Replayable {
 
     /**
      * Triggers a new page in a document.
@@ -17,6 +17,11 @@ public class ControlElement implements Element {
 	this.name = name;
     }
 
+    @Override
+    public boolean isReplayable() {
+	return true;
+    }
+
     @Override
     public String toString() {
 	return "ControlElement [NEWPAGE=" + NEWPAGE + ", name=" + name + "]";
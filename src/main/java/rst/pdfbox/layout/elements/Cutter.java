@@ -7,12 +7,17 @@ import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 
 import rst.pdfbox.layout.text.DrawListener;
 import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.util.GraphicsState;
+import rst.pdfbox.layout.util.GraphicsStateAware;
 
 /**
  * A cutter transforms any Drawable element into a {@link Dividable}. It simply
  * <em>cuts</em> the drawable vertically into pieces matching the target height.
+ * If the drawable is a {@link ViewPortDrawable}, only the visible piece is
+ * drawn, otherwise the complete drawable is drawn and clipped by the layout.
  */
-public class Cutter implements Dividable, Drawable {
+public class Cutter implements Dividable, ViewPortDrawable, Clippable,
+	GraphicsStateAware {
 
     private final Drawable undividable;
     private final float viewPortY;
@@ -45,6 +50,17 @@ public class Cutter implements Dividable, Drawable {
 	return viewPortHeight;
     }
 
+    /**
+     * @return <code>true</code> if this is only a slice of the drawable, so
+     *         anything outside the slice has to be clipped.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    @Override
+    public boolean isClippingRequired() throws IOException {
+	return viewPortY != 0 || viewPortHeight < undividable.getHeight();
+    }
+
     @Override
     public Position getAbsolutePosition() {
 	return null;
@@ -53,12 +69,36 @@ public class Cutter implements Dividable, Drawable {
     @Override
     public void draw(PDDocument pdDocument, PDPageContentStream contentStream,
 	    Position upperLeft, DrawListener drawListener) throws IOException {
-	Position viewPortOrigin = upperLeft.add(0, -viewPortY);
-	undividable.draw(pdDocument, contentStream, viewPortOrigin, drawListener);
+	drawViewPort(pdDocument, contentStream, upperLeft, 0, viewPortHeight,
+		drawListener);
+    }
+
+    @Override
+    public void drawViewPort(PDDocument pdDocument,
+	    PDPageContentStream contentStream, Position upperLeft,
+	    float viewPortY, float viewPortHeight, DrawListener drawListener)
+	    throws IOException {
+	Position viewPortOrigin = upperLeft.add(0, -this.viewPortY);
+	if (undividable instanceof ViewPortDrawable) {
+	    float top = Math.max(0, viewPortY);
+	    float bottom = Math.min(this.viewPortHeight, viewPortY
+		    + viewPortHeight);
+	    GraphicsState.drawNestedViewPort((ViewPortDrawable) undividable,
+		    pdDocument, contentStream, viewPortOrigin, top
+			    - this.viewPortY, Math.max(0, bottom - top),
+		    drawListener);
+	} else {
+	    GraphicsState.drawNested(undividable, pdDocument, contentStream,
+		    viewPortOrigin, drawListener);
+	}
     }
 
     @Override
     public Drawable removeLeadingEmptyVerticalSpace() throws IOException {
+	if (viewPortY != 0) {
+	    // a tail piece, any leading space has already been cut off
+	    return this;
+	}
         return new Cutter(undividable.removeLeadingEmptyVerticalSpace());
     }
 
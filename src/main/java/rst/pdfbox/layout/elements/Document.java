@@ -1,26 +1,45 @@
 package rst.pdfbox.layout.elements;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 
 import rst.pdfbox.layout.elements.render.Layout;
 import rst.pdfbox.layout.elements.render.LayoutHint;
+import rst.pdfbox.layout.elements.render.PageCheckpoint;
+import rst.pdfbox.layout.elements.render.PageMap;
 import rst.pdfbox.layout.elements.render.RenderContext;
 import rst.pdfbox.layout.elements.render.RenderListener;
 import rst.pdfbox.layout.elements.render.Renderer;
 import rst.pdfbox.layout.elements.render.VerticalLayout;
 import rst.pdfbox.layout.elements.render.VerticalLayoutHint;
+import rst.pdfbox.layout.text.Invalidatable;
+import rst.pdfbox.layout.text.WidthRespecting;
+import rst.pdfbox.layout.util.CompatibilityHelper;
+import rst.pdfbox.layout.util.EncodedImage;
+import rst.pdfbox.layout.util.GraphicsState;
 
 /**
  * The central class for creating a document.
@@ -38,6 +57,9 @@ public class Document implements RenderListener {
 
     private PDDocument pdDocument;
     private PageFormat pageFormat;
+    private boolean preEncodeImages = true;
+    private boolean preMeasure = true;
+    private List<PageCheckpoint> checkpoints;
 
     /**
      * Creates a Document using the {@link #DEFAULT_PAGE_FORMAT}.
@@ -150,6 +172,14 @@ public class Document implements RenderListener {
 	elements.remove(element);
     }
 
+    /**
+     * @return the elements added to the document together with their layout
+     *         hints.
+     */
+    public List<Entry<Element, LayoutHint>> getElements() {
+	return Collections.unmodifiableList(elements);
+    }
+
     /**
      * @return the page format to use as default.
      */
@@ -271,6 +301,48 @@ public class Document implements RenderListener {
 	customRenderer.remove(renderer);
     }
 
+    /**
+     * @return <code>true</code> if all images are encoded concurrently ahead
+     *         of the layout. Default is <code>true</code>.
+     */
+    public boolean isPreEncodeImages() {
+	return preEncodeImages;
+    }
+
+    /**
+     * Indicates if the images of all {@link ImageElement}s - including those
+     * nested in {@link Frame}s - should be encoded concurrently on a worker
+     * pool while the layout is running. Otherwise each image is encoded on its
+     * first draw.
+     * 
+     * @param preEncodeImages
+     *            <code>true</code> if images should be pre-encoded.
+     */
+    public void setPreEncodeImages(boolean preEncodeImages) {
+	this.preEncodeImages = preEncodeImages;
+    }
+
+    /**
+     * @return <code>true</code> if the elements are measured concurrently
+     *         ahead of the layout. Default is <code>true</code>.
+     */
+    public boolean isPreMeasure() {
+	return preMeasure;
+    }
+
+    /**
+     * Indicates if all {@link WidthRespecting} elements caching their
+     * measurements (see {@link Invalidatable}) should be measured
+     * concurrently before the layout starts. The layout then finds e.g. the
+     * text of a paragraph already wrapped to the target width.
+     * 
+     * @param preMeasure
+     *            <code>true</code> if elements should be pre-measured.
+     */
+    public void setPreMeasure(boolean preMeasure) {
+	this.preMeasure = preMeasure;
+    }
+
     /**
      * Renders all elements and returns the resulting {@link PDDocument}.
      * 
@@ -279,19 +351,144 @@ public class Document implements RenderListener {
      *             by pdfbox
      */
     public PDDocument render() throws IOException {
+	return render(null, -1);
+    }
+
+    /**
+     * Re-renders the document after the element with the given index has been
+     * changed, e.g. the text of a paragraph has been edited. Elements must not
+     * have been added or removed since the previous rendering. The pages of the
+     * previous rendering are reused up to the last {@link PageCheckpoint
+     * checkpoint} before the changed element, and rendering resumes from
+     * there. As soon as the layout re-converges with the previous rendering,
+     * the remaining pages of the previous rendering are reused as well.
+     * <p>
+     * Rendering is only resumed if all elements are {@link Replayable
+     * replayable}. Otherwise - e.g. if the document contains anchors or
+     * internal hyperlinks - all elements are rendered again.
+     * <p>
+     * The pages are not copied, but the very same page objects - including
+     * their resources like fonts and images - are moved to the resulting
+     * document. So the previous document must not be closed before the
+     * resulting document has been saved, and must not be used otherwise.
+     * Also {@link RenderListener}s are only called for the re-rendered pages,
+     * and annotations resp. placeholders on the reused pages are not updated.
+     * 
+     * @param previous
+     *            the document returned by the previous rendering, if
+     *            <code>null</code> all elements are rendered.
+     * @param changedElementIndex
+     *            the index of the changed element.
+     * @return the resulting {@link PDDocument}
+     * @throws IOException
+     *             by pdfbox
+     */
+    public PDDocument render(final PDDocument previous,
+	    final int changedElementIndex) throws IOException {
 	PDDocument document = getPDDocument();
-	RenderContext renderContext = new RenderContext(this, document);
-	for (Entry<Element, LayoutHint> entry : elements) {
+	ExecutorService imageEncoder = null;
+	if (isPreEncodeImages()) {
+	    imageEncoder = preEncodeImages(document);
+	}
+	try {
+	    if (isPreMeasure()) {
+		preMeasure();
+	    }
+	    RenderContext renderContext = new RenderContext(this, document,
+		    previous, checkpoints, changedElementIndex);
+	    render(renderContext);
+	    checkpoints = renderContext.getCheckpoints();
+	} finally {
+	    if (imageEncoder != null) {
+		imageEncoder.shutdownNow();
+	    }
+	}
+
+	resetPDDocument();
+	return document;
+    }
+
+    /**
+     * Performs the layout of all elements without drawing anything, and
+     * returns where the elements have been placed. This is much cheaper than
+     * {@link #render() rendering}, since neither content streams nor any
+     * other pdfbox objects are created. So it may be used e.g. to determine
+     * the total number of pages or the page of some element before actually
+     * rendering the document.
+     * <p>
+     * Custom {@link Renderer}s are asked as usual, and have to check
+     * {@link RenderContext#isLayoutOnly()} before drawing.
+     * {@link RenderListener}s are not called. As nothing is drawn, the
+     * extent of the content on a page - which is used to position a newly set
+     * {@link Layout} - is derived from the bounds of the drawables.
+     * 
+     * @return the page map.
+     * @throws IOException
+     *             by pdfbox
+     */
+    public PageMap layout() throws IOException {
+	if (isPreMeasure()) {
+	    preMeasure();
+	}
+	RenderContext renderContext = new RenderContext(this);
+	render(renderContext);
+	return renderContext.getPageMap();
+    }
+
+    /**
+     * @return the {@link PageCheckpoint checkpoints} of the pages created by
+     *         the last call to {@link #render()}, or <code>null</code> if not
+     *         rendered yet.
+     */
+    public List<PageCheckpoint> getCheckpoints() {
+	return checkpoints;
+    }
+
+    private void render(final RenderContext renderContext) throws IOException {
+	try {
+	    renderElements(renderContext);
+	    renderContext.close();
+	} finally {
+	    // the tracked graphics state must not be left behind on this thread
+	    // if rendering fails
+	    renderContext.releaseGraphicsState();
+	}
+    }
+
+    private void renderElements(final RenderContext renderContext)
+	    throws IOException {
+	int startIndex = 0;
+	PageCheckpoint resumed = renderContext.getResumedCheckpoint();
+	if (resumed != null) {
+	    startIndex = resumed.getElementIndex();
+	    if (resumed.getDividedTail() != null) {
+		((VerticalLayout) resumed.getLayout()).renderDividedTail(
+			renderContext, resumed.getDividedTail(),
+			resumed.getLayoutHint());
+	    }
+	}
+
+	for (int index = startIndex; index < elements.size()
+		&& !renderContext.isConverged(); ++index) {
+	    Entry<Element, LayoutHint> entry = elements.get(index);
 	    Element element = entry.getKey();
 	    LayoutHint layoutHint = entry.getValue();
 	    boolean success = false;
+	    renderContext.beforeElement(index, element);
 
 	    // first ask custom renderer to render the element
 	    Iterator<Renderer> customRendererIterator = customRenderer
 		    .iterator();
 	    while (!success && customRendererIterator.hasNext()) {
-		success = customRendererIterator.next().render(renderContext,
-			element, layoutHint);
+		// custom renderers may modify the graphics state directly
+		GraphicsState.suspend();
+		try {
+		    success = customRendererIterator.next().render(
+			    renderContext, element, layoutHint);
+		} finally {
+		    GraphicsState.resume();
+		}
+		GraphicsState.invalidate(renderContext.getContentStream());
 	    }
 	    
 	    // if none of them felt responsible, let the default renderer do the job.
@@ -308,10 +505,272 @@ public class Document implements RenderListener {
 
 	    }
 	}
-	renderContext.close();
+    }
 
-	resetPDDocument();
-	return document;
+    /**
+     * Measures all {@link WidthRespecting} elements caching their measurements
+     * concurrently on a fork-join pool. Elements sharing any drawable are
+     * measured on the same thread, so no drawable is ever measured
+     * concurrently. The target width of each element is
+     * calculated from the page format and the {@link VerticalLayoutHint}
+     * margins, like the {@link VerticalLayout} does. Any page format or
+     * layout element is assumed to apply immediately, so the target width
+     * may be wrong for some elements, which are then just measured again
+     * during the layout. Elements with an explicit max width are left as
+     * they are.
+     */
+    protected void preMeasure() {
+	List<WidthRespecting> drawables = new ArrayList<WidthRespecting>();
+	List<Float> targetWidths = new ArrayList<Float>();
+	Set<Element> seen = Collections
+		.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+	PageFormat currentPageFormat = getPageFormat();
+	VerticalLayout layout = new VerticalLayout();
+	for (Entry<Element, LayoutHint> entry : elements) {
+	    Element element = entry.getKey();
+	    if (element instanceof PageFormat) {
+		currentPageFormat = (PageFormat) element;
+	    } else if (element instanceof Layout) {
+		layout = element instanceof VerticalLayout ? (VerticalLayout) element
+			: null;
+	    } else if (layout != null && isPreMeasurable(element)
+		    && ((WidthRespecting) element).getMaxWidth() < 0
+		    && seen.add(element)) {
+		float targetWidth = layout.getTargetWidth(currentPageFormat);
+		if (entry.getValue() instanceof VerticalLayoutHint) {
+		    VerticalLayoutHint hint = (VerticalLayoutHint) entry
+			    .getValue();
+		    targetWidth -= hint.getMarginLeft() + hint.getMarginRight();
+		}
+		drawables.add((WidthRespecting) element);
+		targetWidths.add(targetWidth);
+	    }
+	}
+	List<int[]> groups = groupSharedDrawables(drawables);
+	if (groups.size() < 2) {
+	    return;
+	}
+
+	ForkJoinPool pool = new ForkJoinPool();
+	try {
+	    pool.invoke(new MeasureTask(drawables, targetWidths, groups, 0,
+		    groups.size()));
+	} finally {
+	    pool.shutdown();
+	}
+    }
+
+    /**
+     * Groups the indices of the given drawables, so drawables sharing any
+     * (nested) drawable - like a paragraph added to the document and to a
+     * frame - are in the same group. The measurement caches are not thread
+     * safe, so each group is measured on one thread.
+     * 
+     * @param drawables
+     *            the drawables to group.
+     * @return the groups of indices, each in document order.
+     */
+    private static List<int[]> groupSharedDrawables(
+	    final List<WidthRespecting> drawables) {
+	int[] parents = new int[drawables.size()];
+	Map<Drawable, Integer> owners = new IdentityHashMap<Drawable, Integer>();
+	for (int index = 0; index < drawables.size(); ++index) {
+	    parents[index] = index;
+	    List<Drawable> nested = new ArrayList<Drawable>();
+	    collectNested((Drawable) drawables.get(index), nested);
+	    for (Drawable drawable : nested) {
+		Integer owner = owners.put(drawable, index);
+		if (owner != null) {
+		    parents[findRoot(parents, owner)] = findRoot(parents,
+			    index);
+		}
+	    }
+	}
+	Map<Integer, List<Integer>> groupsByRoot = new LinkedHashMap<Integer, List<Integer>>();
+	for (int index = 0; index < drawables.size(); ++index) {
+	    int root = findRoot(parents, index);
+	    List<Integer> group = groupsByRoot.get(root);
+	    if (group == null) {
+		group = new ArrayList<Integer>();
+		groupsByRoot.put(root, group);
+	    }
+	    group.add(index);
+	}
+	List<int[]> groups = new ArrayList<int[]>();
+	for (List<Integer> group : groupsByRoot.values()) {
+	    int[] indices = new int[group.size()];
+	    for (int i = 0; i < indices.length; ++i) {
+		indices[i] = group.get(i);
+	    }
+	    groups.add(indices);
+	}
+	return groups;
+    }
+
+    private static int findRoot(final int[] parents, int index) {
+	while (parents[index] != index) {
+	    index = parents[index];
+	}
+	return index;
+    }
+
+    private static void collectNested(final Drawable drawable,
+	    final List<Drawable> nested) {
+	nested.add(drawable);
+	if (drawable instanceof Frame) {
+	    for (Drawable inner : ((Frame) drawable).getInnerList()) {
+		collectNested(inner, nested);
+	    }
+	}
+    }
+
+    private boolean isPreMeasurable(final Element element) {
+	if (element instanceof Frame && !((Frame) element).isCacheable()) {
+	    return false;
+	}
+	return element instanceof WidthRespecting
+		&& element instanceof Invalidatable
+		&& element instanceof Drawable;
+    }
+
+    /**
+     * Measures a range of groups of drawables, splitting it until single
+     * groups are left. The drawables of a group are measured one after the
+     * other.
+     */
+    private static class MeasureTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<WidthRespecting> drawables;
+	private final List<Float> targetWidths;
+	private final List<int[]> groups;
+	private final int from;
+	private final int to;
+
+	MeasureTask(final List<WidthRespecting> drawables,
+		final List<Float> targetWidths, final List<int[]> groups,
+		final int from, final int to) {
+	    this.drawables = drawables;
+	    this.targetWidths = targetWidths;
+	    this.groups = groups;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+	    if (to - from > 1) {
+		int middle = (from + to) >>> 1;
+		invokeAll(new MeasureTask(drawables, targetWidths, groups,
+			from, middle), new MeasureTask(drawables, targetWidths,
+			groups, middle, to));
+		return;
+	    }
+	    // measuring a frame sets the max width of its inner drawables, which
+	    // must not affect the layout of drawables shared with the document
+	    List<Drawable> nested = new ArrayList<Drawable>();
+	    for (int index : groups.get(from)) {
+		collectNested((Drawable) drawables.get(index), nested);
+	    }
+	    float[] maxWidths = new float[nested.size()];
+	    for (int i = 0; i < maxWidths.length; ++i) {
+		maxWidths[i] = getMaxWidth(nested.get(i));
+	    }
+	    for (int index : groups.get(from)) {
+		measure(drawables.get(index), targetWidths.get(index));
+	    }
+	    for (int i = 0; i < maxWidths.length; ++i) {
+		if (getMaxWidth(nested.get(i)) != maxWidths[i]) {
+		    ((WidthRespecting) nested.get(i)).setMaxWidth(maxWidths[i]);
+		}
+	    }
+	}
+
+	private float getMaxWidth(final Drawable drawable) {
+	    if (drawable instanceof WidthRespecting) {
+		return ((WidthRespecting) drawable).getMaxWidth();
+	    }
+	    return -1;
+	}
+
+	private void measure(final WidthRespecting drawable,
+		final float targetWidth) {
+	    drawable.setMaxWidth(targetWidth);
+	    try {
+		((Drawable) drawable).getWidth();
+		((Drawable) drawable).getHeight();
+	    } catch (IOException | RuntimeException e) {
+		// the layout will run into this again and report it
+	    } finally {
+		// the measurements stay cached for the max width
+		drawable.setMaxWidth(-1);
+	    }
+	}
+    }
+
+    /**
+     * Starts encoding the images of all {@link ImageElement}s - including
+     * those nested in {@link Frame}s - on a worker pool. The encoded images
+     * are {@link CompatibilityHelper#preEncodeImage(PDDocument, BufferedImage, java.util.concurrent.Future)
+     * registered} with the document, so drawing an image only has to wrap the
+     * encoded data.
+     * 
+     * @param document
+     *            the document to render to.
+     * @return the executor performing the encoding, or <code>null</code> if
+     *         there are no images.
+     */
+    protected ExecutorService preEncodeImages(final PDDocument document) {
+	Map<BufferedImage, Integer> images = new LinkedHashMap<BufferedImage, Integer>();
+	for (Entry<Element, LayoutHint> entry : elements) {
+	    collectImages(entry.getKey(), images);
+	}
+	if (images.isEmpty()) {
+	    return null;
+	}
+
+	int threads = Math.min(images.size(), Runtime.getRuntime()
+		.availableProcessors());
+	ExecutorService executor = Executors.newFixedThreadPool(threads,
+		new ThreadFactory() {
+
+		    @Override
+		    public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable,
+				"pdfbox-layout-image-encoder");
+			thread.setDaemon(true);
+			return thread;
+		    }
+		});
+	for (final Entry<BufferedImage, Integer> image : images.entrySet()) {
+	    CompatibilityHelper.preEncodeImage(document, image.getKey(),
+		    executor.submit(new Callable<EncodedImage>() {
+
+			@Override
+			public EncodedImage call() throws Exception {
+			    return EncodedImage.encode(image.getKey(),
+				    image.getValue());
+			}
+		    }));
+	}
+	return executor;
+    }
+
+    private void collectImages(final Object element,
+	    final Map<BufferedImage, Integer> images) {
+	if (element instanceof ImageElement) {
+	    ImageElement imageElement = (ImageElement) element;
+	    if (!images.containsKey(imageElement.getImage())) {
+		images.put(imageElement.getImage(),
+			imageElement.getCCITTThreshold());
+	    }
+	}
+	if (element instanceof Frame) {
+	    for (Drawable inner : ((Frame) element).getInnerList()) {
+		collectImages(inner, images);
+	    }
+	}
     }
 
     /**
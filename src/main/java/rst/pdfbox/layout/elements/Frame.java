@@ -2,9 +2,13 @@ package rst.pdfbox.layout.elements;
 
 import java.awt.Color;
 import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.RandomAccess;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
@@ -12,9 +16,14 @@ import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 import rst.pdfbox.layout.shape.Rect;
 import rst.pdfbox.layout.shape.Shape;
 import rst.pdfbox.layout.shape.Stroke;
+import rst.pdfbox.layout.shape.ViewPortShape;
 import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Invalidatable;
+import rst.pdfbox.layout.text.InvalidationSupport;
 import rst.pdfbox.layout.text.Position;
 import rst.pdfbox.layout.text.WidthRespecting;
+import rst.pdfbox.layout.util.GraphicsState;
+import rst.pdfbox.layout.util.GraphicsStateAware;
 
 /**
  * The frame is a container for a {@link Drawable}, that allows to add margin,
@@ -23,9 +32,26 @@ import rst.pdfbox.layout.text.WidthRespecting;
  * contained item. The size available for the inner element is reduced by the
  * margin, padding and border width.
  */
-public class Frame implements Element, Drawable, WidthRespecting, Dividable {
+public class Frame implements Element, ViewPortDrawable, Clippable,
+	WidthRespecting, Dividable, Invalidatable, Replayable,
+	GraphicsStateAware {
 
-    private List<Drawable> innerList = new CopyOnWriteArrayList<Drawable>();
+    /**
+     * The drawables added while building the frame, or <code>null</code> if
+     * the drawables are shared with the frame this one has been divided from.
+     */
+    private List<Drawable> innerList = new ArrayList<Drawable>();
+    /**
+     * The immutable snapshot of the drawables used for layout and rendering.
+     * It is volatile, as it is taken lazily, e.g. by the concurrent
+     * pre-measuring, and then read by the layout.
+     */
+    private volatile ChildList frozenList;
+    /**
+     * The frame this one shares its drawables with, see
+     * {@link #share(Frame, ChildList)}.
+     */
+    private Frame source;
 
     private float paddingLeft;
     private float paddingRight;
@@ -49,6 +75,16 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
 
     private Position absolutePosition;
 
+    /**
+     * The cached width and height per max width. Only used if all inner
+     * drawables are {@link Invalidatable}.
+     */
+    private final Map<Float, Float> widthCache = new HashMap<Float, Float>();
+    private final Map<Float, Float> heightCache = new HashMap<Float, Float>();
+    private boolean cacheable = true;
+    private final InvalidationSupport invalidationSupport = new InvalidationSupport();
+    private ChildHeights childHeights;
+
     /**
      * Creates an empty frame.
      */
@@ -104,15 +140,100 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
     }
 
     /**
-     * Adds a drawable to the frame.
+     * Adds a drawable to the frame. Layout and rendering work on an immutable
+     * snapshot of the drawables, which is taken on first use after adding.
      * @param drawable
      */
     public void add(final Drawable drawable) {
-	innerList.add(drawable);
+	getBuilderList().add(drawable);
+	registerAsContainer(drawable);
+	invalidate();
     }
 
     protected void addAll(final Collection<Drawable> drawable) {
-	innerList.addAll(drawable);
+	getBuilderList().addAll(drawable);
+	for (Drawable inner : drawable) {
+	    registerAsContainer(inner);
+	}
+	invalidate();
+    }
+
+    /**
+     * @return <code>true</code> if the measurements are cached, that is, if
+     *         all inner drawables are {@link Invalidatable}.
+     */
+    boolean isCacheable() {
+	return cacheable;
+    }
+
+    private void registerAsContainer(final Drawable inner) {
+	if (inner instanceof Invalidatable) {
+	    ((Invalidatable) inner).addContainer(this);
+	} else {
+	    cacheable = false;
+	}
+    }
+
+    @Override
+    public void invalidate() {
+	widthCache.clear();
+	heightCache.clear();
+	childHeights = null;
+	invalidationSupport.invalidateContainers();
+    }
+
+    @Override
+    public void addContainer(Invalidatable container) {
+	invalidationSupport.addContainer(container);
+    }
+
+    /**
+     * @return an immutable snapshot of the drawables contained in this frame.
+     */
+    protected List<Drawable> getInnerList() {
+	ChildList snapshot = frozenList;
+	if (snapshot == null) {
+	    snapshot = new ChildList(null,
+		    innerList.toArray(new Drawable[innerList.size()]), 0,
+		    innerList.size());
+	    frozenList = snapshot;
+	}
+	return snapshot;
+    }
+
+    /**
+     * @return the list to add drawables to, the snapshot is dropped.
+     */
+    private List<Drawable> getBuilderList() {
+	if (innerList == null) {
+	    innerList = new ArrayList<Drawable>(frozenList);
+	}
+	frozenList = null;
+	return innerList;
+    }
+
+    /**
+     * Lets this (empty) frame share the given drawables with the given frame
+     * without copying or registering as container of each of them. Instead
+     * this frame is invalidated by the frame that originally contains the
+     * drawables.
+     * 
+     * @param frame
+     *            the frame to share the drawables with.
+     * @param children
+     *            the drawables to share.
+     */
+    private void share(final Frame frame, final ChildList children) {
+	Frame root = frame.source != null ? frame.source : frame;
+	this.source = root;
+	this.innerList = null;
+	this.frozenList = children;
+	this.cacheable = root.cacheable;
+	root.addContainer(this);
+	if (children.leading != null) {
+	    registerAsContainer(children.leading);
+	}
+	invalidate();
     }
 
     /**
@@ -130,6 +251,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setShape(Shape shape) {
 	this.shape = shape;
+	invalidate();
     }
 
     /**
@@ -149,6 +271,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setBorderStroke(Stroke borderStroke) {
 	this.borderStroke = borderStroke;
+	invalidate();
     }
 
     /**
@@ -182,6 +305,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setBorderColor(Color borderColor) {
 	this.borderColor = borderColor;
+	invalidate();
     }
 
     /**
@@ -252,6 +376,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setPaddingLeft(float paddingLeft) {
 	this.paddingLeft = paddingLeft;
+	invalidate();
     }
 
     /**
@@ -269,6 +394,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setPaddingRight(float paddingRight) {
 	this.paddingRight = paddingRight;
+	invalidate();
     }
 
     /**
@@ -286,6 +412,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setPaddingTop(float paddingTop) {
 	this.paddingTop = paddingTop;
+	invalidate();
     }
 
     /**
@@ -303,6 +430,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setPaddingBottom(float paddingBottom) {
 	this.paddingBottom = paddingBottom;
+	invalidate();
     }
 
     /**
@@ -339,6 +467,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setMarginLeft(float marginLeft) {
 	this.marginLeft = marginLeft;
+	invalidate();
     }
 
     /**
@@ -356,6 +485,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setMarginRight(float marginRight) {
 	this.marginRight = marginRight;
+	invalidate();
     }
 
     /**
@@ -373,6 +503,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setMarginTop(float marginTop) {
 	this.marginTop = marginTop;
+	invalidate();
     }
 
     /**
@@ -390,6 +521,7 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
      */
     public void setMarginBottom(float marginBottom) {
 	this.marginBottom = marginBottom;
+	invalidate();
     }
 
     /**
@@ -458,7 +590,14 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
 	if (getGivenWidth() != null) {
 	    return getGivenWidth() + getMarginLeft() + getMarginRight();
 	}
-	return getMaxWidth(innerList) + getHorizontalSpacing();
+	Float width = cacheable ? widthCache.get(maxWidth) : null;
+	if (width == null) {
+	    width = getMaxWidth(getInnerList()) + getHorizontalSpacing();
+	    if (cacheable) {
+		widthCache.put(maxWidth, width);
+	    }
+	}
+	return width;
     }
 
     protected float getMaxWidth(List<Drawable> drawableList) throws IOException {
@@ -476,7 +615,34 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
 	if (getGivenHeight() != null) {
 	    return getGivenHeight() + getMarginTop() + getMarginBottom();
 	}
-	return getHeight(innerList) + getVerticalSpacing();
+	Float height = cacheable ? heightCache.get(maxWidth) : null;
+	if (height == null) {
+	    height = getChildHeights().getHeight(getInnerList().size())
+		    + getVerticalSpacing();
+	    if (cacheable) {
+		heightCache.put(maxWidth, height);
+	    }
+	}
+	return height;
+    }
+
+    /**
+     * Clipping is required, if any inner drawable requires clipping, or the
+     * inner drawables exceed the given height.
+     */
+    @Override
+    public boolean isClippingRequired() throws IOException {
+	for (Drawable inner : getInnerList()) {
+	    if (inner instanceof Clippable
+		    && ((Clippable) inner).isClippingRequired()) {
+		return true;
+	    }
+	}
+	if (getGivenHeight() == null) {
+	    return false;
+	}
+	return getChildHeights().getHeight(getInnerList().size())
+		+ getVerticalSpacing() > getHeight();
     }
 
     protected float getHeight(List<Drawable> drawableList) throws IOException {
@@ -489,6 +655,29 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
 	return height;
     }
 
+    /**
+     * @return the cumulative heights of the inner drawables. These are kept
+     *         until the frame is {@link #invalidate() invalidated}, if all
+     *         inner drawables are {@link Invalidatable}.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    private ChildHeights getChildHeights() throws IOException {
+	if (childHeights != null) {
+	    return childHeights;
+	}
+	List<Drawable> children = getInnerList();
+	double[] sums = new double[children.size() + 1];
+	for (int index = 0; index < children.size(); ++index) {
+	    sums[index + 1] = sums[index] + children.get(index).getHeight();
+	}
+	ChildHeights heights = new ChildHeights(sums, 0, false, 0);
+	if (cacheable) {
+	    childHeights = heights;
+	}
+	return heights;
+    }
+
     @Override
     public Position getAbsolutePosition() throws IOException {
 	return absolutePosition;
@@ -511,9 +700,13 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
 
     @Override
     public void setMaxWidth(float maxWidth) {
-	this.maxWidth = maxWidth;
+	if (this.maxWidth != maxWidth) {
+	    this.maxWidth = maxWidth;
+	    // measurements are cached per max width, but containers must update
+	    invalidationSupport.invalidateContainers();
+	}
 
-	for (Drawable inner : innerList) {
+	for (Drawable inner : getInnerList()) {
 	    setMaxWidth(inner, maxWidth);
 	}
     }
@@ -546,6 +739,27 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
     @Override
     public void draw(PDDocument pdDocument, PDPageContentStream contentStream,
 	    Position upperLeft, DrawListener drawListener) throws IOException {
+	draw(pdDocument, contentStream, upperLeft, null, null, drawListener);
+    }
+
+    /**
+     * Draws only the inner drawables (at least partially) visible in the view
+     * port. Visible {@link ViewPortDrawable}s are asked to draw their visible
+     * slice only, and so is the shape if it is a {@link ViewPortShape}.
+     */
+    @Override
+    public void drawViewPort(PDDocument pdDocument,
+	    PDPageContentStream contentStream, Position upperLeft,
+	    float viewPortY, float viewPortHeight, DrawListener drawListener)
+	    throws IOException {
+	draw(pdDocument, contentStream, upperLeft, viewPortY, viewPortY
+		+ viewPortHeight, drawListener);
+    }
+
+    private void draw(PDDocument pdDocument,
+	    PDPageContentStream contentStream, Position frameUpperLeft,
+	    Float viewPortTop, Float viewPortBottom, DrawListener drawListener)
+	    throws IOException {
 
 	setInnerMaxWidthIfNecessary();
 
@@ -553,8 +767,8 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
 	if (getBorderWidth() > 0) {
 	    halfBorderWidth = getBorderWidth() / 2f;
 	}
-	upperLeft = upperLeft.add(getMarginLeft() + halfBorderWidth,
-		-getMarginTop() - halfBorderWidth);
+	Position upperLeft = frameUpperLeft.add(getMarginLeft()
+		+ halfBorderWidth, -getMarginTop() - halfBorderWidth);
 
 	if (getShape() != null) {
 	    float shapeWidth = getWidth() - getMarginLeft() - getMarginRight()
@@ -562,33 +776,102 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
 	    float shapeHeight = getHeight() - getMarginTop()
 		    - getMarginBottom() - getBorderWidth();
 
-	    if (getBackgroundColor() != null) {
-		getShape().fill(pdDocument, contentStream, upperLeft,
-			shapeWidth, shapeHeight, getBackgroundColor(),
-			drawListener);
-	    }
-	    if (hasBorder()) {
-		getShape().draw(pdDocument, contentStream, upperLeft,
-			shapeWidth, shapeHeight, getBorderColor(),
-			getBorderStroke(), drawListener);
+	    if (viewPortTop != null && getShape() instanceof ViewPortShape) {
+		ViewPortShape shape = (ViewPortShape) getShape();
+		float shapeTop = frameUpperLeft.getY() - upperLeft.getY();
+		float shapeViewPortY = viewPortTop - shapeTop;
+		float shapeViewPortHeight = viewPortBottom - viewPortTop;
+		if (getBackgroundColor() != null) {
+		    shape.fillViewPort(pdDocument, contentStream, upperLeft,
+			    shapeWidth, shapeHeight, shapeViewPortY,
+			    shapeViewPortHeight, getBackgroundColor(),
+			    drawListener);
+		}
+		if (hasBorder()) {
+		    shape.drawViewPort(pdDocument, contentStream, upperLeft,
+			    shapeWidth, shapeHeight, shapeViewPortY,
+			    shapeViewPortHeight, getBorderColor(),
+			    getBorderStroke(), drawListener);
+		}
+	    } else {
+		if (getBackgroundColor() != null) {
+		    getShape().fill(pdDocument, contentStream, upperLeft,
+			    shapeWidth, shapeHeight, getBackgroundColor(),
+			    drawListener);
+		}
+		if (hasBorder()) {
+		    getShape().draw(pdDocument, contentStream, upperLeft,
+			    shapeWidth, shapeHeight, getBorderColor(),
+			    getBorderStroke(), drawListener);
+		}
 	    }
 	}
 
 	Position innerUpperLeft = upperLeft.add(getPaddingLeft()
 		+ halfBorderWidth, -getPaddingTop() - halfBorderWidth);
 
-	for (Drawable inner : innerList) {
-	    inner.draw(pdDocument, contentStream, innerUpperLeft, drawListener);
-	    innerUpperLeft = innerUpperLeft.add(0, -inner.getHeight());
+	for (Drawable inner : getInnerList()) {
+	    float innerHeight = inner.getHeight();
+	    if (viewPortTop == null) {
+		GraphicsState.drawNested(inner, pdDocument, contentStream,
+			innerUpperLeft, drawListener);
+	    } else {
+		float innerTop = frameUpperLeft.getY() - innerUpperLeft.getY();
+		if (innerTop >= viewPortBottom) {
+		    // all following inner drawables are below the view port
+		    break;
+		}
+		if (innerTop + innerHeight > viewPortTop) {
+		    if (inner instanceof ViewPortDrawable) {
+			GraphicsState.drawNestedViewPort(
+				(ViewPortDrawable) inner, pdDocument,
+				contentStream, innerUpperLeft, viewPortTop
+					- innerTop, viewPortBottom
+					- viewPortTop, drawListener);
+		    } else {
+			GraphicsState.drawNested(inner, pdDocument,
+				contentStream, innerUpperLeft, drawListener);
+		    }
+		}
+	    }
+	    innerUpperLeft = innerUpperLeft.add(0, -innerHeight);
 	}
     }
 
+    /**
+     * A frame is replayable if all inner drawables are.
+     */
+    @Override
+    public boolean isReplayable() {
+	for (Drawable inner : getInnerList()) {
+	    if (!(inner instanceof Replayable)
+		    || !((Replayable) inner).isReplayable()) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
     @Override
     public Drawable removeLeadingEmptyVerticalSpace() throws IOException {
-	if (innerList.size() > 0) {
-	    Drawable drawableWithoutLeadingVerticalSpace = innerList.get(0)
+	ChildList children = (ChildList) getInnerList();
+	if (children.size() > 0) {
+	    Drawable drawableWithoutLeadingVerticalSpace = children.get(0)
 		    .removeLeadingEmptyVerticalSpace();
-	    innerList.set(0, drawableWithoutLeadingVerticalSpace);
+	    if (drawableWithoutLeadingVerticalSpace == children.get(0)) {
+		return this;
+	    }
+	    ChildHeights heights = childHeights;
+	    frozenList = children
+		    .replaceFirst(drawableWithoutLeadingVerticalSpace);
+	    innerList = null;
+	    registerAsContainer(drawableWithoutLeadingVerticalSpace);
+	    invalidate();
+	    if (heights != null && cacheable) {
+		// only the height of the first drawable has changed
+		childHeights = heights.replaceFirst(drawableWithoutLeadingVerticalSpace
+			.getHeight());
+	    }
 	}
 	return this;
     }
@@ -605,10 +888,13 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
 	// find first inner that does not fit on page
 	float spaceLeft = remainingHeight - getVerticalSpacing();
 
-	DividedList dividedList = divideList(innerList, spaceLeft);
+	ChildList children = (ChildList) getInnerList();
+	ChildHeights heights = getChildHeights();
+	int splitIndex = heights.indexOf(spaceLeft);
+	DividedList dividedList = divideList(children, heights, splitIndex,
+		spaceLeft);
 
-	float spaceLeftForDivided = spaceLeft
-		- getHeight(dividedList.getHead());
+	float spaceLeftForDivided = spaceLeft - heights.getHeight(splitIndex);
 	Divided divided = null;
 
 	if (dividedList.getDrawableToDivide() != null) {
@@ -637,50 +923,206 @@ public class Frame implements Element, Drawable, WidthRespecting, Dividable {
 	    first.add(divided.getFirst());
 	}
 
-	// create tail sub frame
+	// create tail sub frame sharing the remaining drawables
 	Frame tail = new Frame(getGivenWidth(), tailHeight);
 	copyAllButInnerAndSizeTo(tail);
-	if (divided != null) {
-	    tail.add(divided.getTail());
-	}
-	if (dividedList.getTail() != null) {
-	    tail.addAll(dividedList.getTail());
+	if (splitIndex < children.size()) {
+	    Drawable leading = divided != null ? divided.getTail() : null;
+	    tail.share(this, children.tail(splitIndex + 1, leading));
+	    if (cacheable && tail.cacheable) {
+		// the tail reuses the cumulative heights of the remaining
+		// drawables
+		tail.childHeights = heights.tail(splitIndex + 1,
+			leading != null,
+			leading != null ? leading.getHeight() : 0);
+	    }
 	}
 
 	return new Divided(first, tail);
     }
 
-    private DividedList divideList(List<Drawable> items, float spaceLeft)
-	    throws IOException {
+    private DividedList divideList(List<Drawable> items, ChildHeights heights,
+	    int index, float spaceLeft) throws IOException {
 	List<Drawable> head = null;
 	List<Drawable> tail = null;
 	Drawable toDivide = null;
 
-	float tmpHeight = 0;
-	int index = 0;
-	while (tmpHeight < spaceLeft) {
-	    tmpHeight += items.get(index).getHeight();
+	if (index >= items.size()) {
+	    // all drawables fit
+	    head = items;
+	} else if (heights.getHeight(index + 1) == spaceLeft) {
+	    // we can split between two drawables
+	    head = items.subList(0, index + 1);
+	    if (index + 1 < items.size()) {
+		tail = items.subList(index + 1, items.size());
+	    }
+	} else {
+	    head = items.subList(0, index);
+	    toDivide = items.get(index);
+	    if (index + 1 < items.size()) {
+		tail = items.subList(index + 1, items.size());
+	    }
+	}
 
-	    if (tmpHeight == spaceLeft) {
-		// we can split between two drawables
-		head = items.subList(0, index + 1);
-		if (index + 1 < items.size()) {
-		    tail = items.subList(index + 1, items.size());
-		}
+	return new DividedList(head, toDivide, tail);
+    }
+
+    /**
+     * An immutable list of drawables, backed by an array that may be shared
+     * with the frame this one has been divided from. In that case, the first
+     * drawable may be the tail of a divided drawable, which is not part of the
+     * shared array.
+     */
+    private static class ChildList extends AbstractList<Drawable> implements
+	    RandomAccess {
+
+	private final Drawable leading;
+	private final Drawable[] shared;
+	private final int from;
+	private final int to;
+
+	ChildList(final Drawable leading, final Drawable[] shared,
+		final int from, final int to) {
+	    this.leading = leading;
+	    this.shared = shared;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	@Override
+	public Drawable get(final int index) {
+	    if (index < 0 || index >= size()) {
+		throw new IndexOutOfBoundsException("index " + index
+			+ ", size " + size());
+	    }
+	    if (leading == null) {
+		return shared[from + index];
 	    }
+	    return index == 0 ? leading : shared[from + index - 1];
+	}
+
+	@Override
+	public int size() {
+	    return to - from + (leading != null ? 1 : 0);
+	}
 
-	    if (tmpHeight > spaceLeft) {
-		head = items.subList(0, index);
-		toDivide = items.get(index);
-		if (index + 1 < items.size()) {
-		    tail = items.subList(index + 1, items.size());
+	/**
+	 * @param index
+	 *            the index of the first drawable of the tail.
+	 * @param leading
+	 *            the divided drawable to put in front of the tail, or
+	 *            <code>null</code>.
+	 * @return the tail starting at the given index.
+	 */
+	ChildList tail(final int index, final Drawable leading) {
+	    return new ChildList(leading, shared, from + index
+		    - (this.leading != null ? 1 : 0), to);
+	}
+
+	/**
+	 * @param first
+	 *            the new first drawable.
+	 * @return the list with the first drawable replaced.
+	 */
+	ChildList replaceFirst(final Drawable first) {
+	    return new ChildList(first, shared, leading != null ? from
+		    : from + 1, to);
+	}
+    }
+
+    /**
+     * The cumulative heights of the inner drawables, used to find the point to
+     * divide a frame by binary search. The sums may be shared with the frame
+     * this one has been divided from, so the tail of a frame does not need to
+     * measure its drawables again. In that case, the first drawable may be the
+     * tail of a divided drawable, which is not covered by the shared sums.
+     */
+    private static class ChildHeights {
+
+	private final double[] sums;
+	private final int from;
+	private final boolean hasLeading;
+	private final float leadingHeight;
+
+	/**
+	 * @param sums
+	 *            <code>sums[i]</code> is the height of the first
+	 *            <code>i</code> shared drawables.
+	 * @param from
+	 *            the index of the first shared drawable of the frame.
+	 * @param hasLeading
+	 *            if the first drawable is not covered by the sums.
+	 * @param leadingHeight
+	 *            the height of that leading drawable.
+	 */
+	ChildHeights(final double[] sums, final int from,
+		final boolean hasLeading, final float leadingHeight) {
+	    this.sums = sums;
+	    this.from = from;
+	    this.hasLeading = hasLeading;
+	    this.leadingHeight = leadingHeight;
+	}
+
+	/**
+	 * @param count
+	 *            the number of drawables.
+	 * @return the height of the first <code>count</code> drawables.
+	 */
+	float getHeight(final int count) {
+	    if (!hasLeading) {
+		return (float) (sums[from + count] - sums[from]);
+	    }
+	    if (count == 0) {
+		return 0;
+	    }
+	    return (float) (leadingHeight + sums[from + count - 1] - sums[from]);
+	}
+
+	/**
+	 * @param height
+	 *            the height to search.
+	 * @return the index of the first drawable that reaches the given height,
+	 *         or the number of drawables if all of them together are not as
+	 *         high.
+	 */
+	int indexOf(final float height) {
+	    int low = 1;
+	    int high = sums.length - from - (hasLeading ? 0 : 1);
+	    while (low <= high) {
+		int middle = (low + high) >>> 1;
+		if (getHeight(middle) < height) {
+		    low = middle + 1;
+		} else {
+		    high = middle - 1;
 		}
 	    }
+	    return low - 1;
+	}
 
-	    ++index;
+	/**
+	 * @param index
+	 *            the index of the first drawable of the tail.
+	 * @param leading
+	 *            if a divided drawable is put in front of the tail.
+	 * @param leadingHeight
+	 *            the height of that leading drawable.
+	 * @return the heights of the tail starting at the given index.
+	 */
+	ChildHeights tail(final int index, final boolean leading,
+		final float leadingHeight) {
+	    return new ChildHeights(sums, from + index - (hasLeading ? 1 : 0),
+		    leading, leadingHeight);
 	}
 
-	return new DividedList(head, toDivide, tail);
+	/**
+	 * @param height
+	 *            the new height of the first drawable.
+	 * @return the heights with the first drawable replaced.
+	 */
+	ChildHeights replaceFirst(final float height) {
+	    return new ChildHeights(sums, hasLeading ? from : from + 1, true,
+		    height);
+	}
     }
 
     public static class DividedList {
@@ -8,18 +8,24 @@ import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 
 import rst.pdfbox.layout.shape.Stroke;
 import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Invalidatable;
+import rst.pdfbox.layout.text.InvalidationSupport;
 import rst.pdfbox.layout.text.Position;
 import rst.pdfbox.layout.text.WidthRespecting;
+import rst.pdfbox.layout.util.GraphicsState;
+import rst.pdfbox.layout.util.GraphicsStateAware;
 
 /**
  * A horizontal ruler that adjust its width to the given
  * {@link WidthRespecting#getMaxWidth() max width}.
  */
-public class HorizontalRuler implements Drawable, Element, WidthRespecting {
+public class HorizontalRuler implements Drawable, Element, WidthRespecting,
+	Invalidatable, Replayable, GraphicsStateAware {
 
     private Stroke stroke;
     private Color color;
     private float maxWidth = -1f;
+    private final InvalidationSupport invalidationSupport = new InvalidationSupport();
 
     public HorizontalRuler(Stroke stroke, Color color) {
 	super();
@@ -48,7 +54,20 @@ public class HorizontalRuler implements Drawable, Element, WidthRespecting {
 
     @Override
     public void setMaxWidth(float maxWidth) {
-	this.maxWidth = maxWidth;
+	if (this.maxWidth != maxWidth) {
+	    this.maxWidth = maxWidth;
+	    invalidate();
+	}
+    }
+
+    @Override
+    public void invalidate() {
+	invalidationSupport.invalidateContainers();
+    }
+
+    @Override
+    public void addContainer(Invalidatable container) {
+	invalidationSupport.addContainer(container);
     }
 
     @Override
@@ -73,7 +92,10 @@ public class HorizontalRuler implements Drawable, Element, WidthRespecting {
     public void draw(PDDocument pdDocument, PDPageContentStream contentStream,
 	    Position upperLeft, DrawListener drawListener) throws IOException {
 	if (getColor() != null) {
-	    contentStream.setStrokingColor(getColor());
+	    GraphicsState.setStrokingColor(contentStream, getColor());
+	} else if (GraphicsState.get(contentStream) != null) {
+	    // not isolated, so do not inherit the color of the previous drawable
+	    GraphicsState.setStrokingColor(contentStream, Color.black);
 	}
 	if (getStroke() != null) {
 	    getStroke().applyTo(contentStream);
@@ -87,6 +109,11 @@ public class HorizontalRuler implements Drawable, Element, WidthRespecting {
 	}
     }
 
+    @Override
+    public boolean isReplayable() {
+	return true;
+    }
+
     @Override
     public Drawable removeLeadingEmptyVerticalSpace() {
 	return this;
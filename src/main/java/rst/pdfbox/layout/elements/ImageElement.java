@@ -11,12 +11,16 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 
 import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Invalidatable;
+import rst.pdfbox.layout.text.InvalidationSupport;
 import rst.pdfbox.layout.text.Position;
 import rst.pdfbox.layout.text.WidthRespecting;
 import rst.pdfbox.layout.util.CompatibilityHelper;
+import rst.pdfbox.layout.util.EncodedImage;
+import rst.pdfbox.layout.util.GraphicsStateAware;
 
 public class ImageElement implements Element, Drawable, Dividable,
-	WidthRespecting {
+	WidthRespecting, Invalidatable, Replayable, GraphicsStateAware {
 
     /**
      * Set this to {@link #setWidth(float)} resp. {@link #setHeight(float)}
@@ -29,6 +33,8 @@ public class ImageElement implements Element, Drawable, Dividable,
     private float height;
     private float maxWidth = -1;
     private Position absolutePosition;
+    private final InvalidationSupport invalidationSupport = new InvalidationSupport();
+    private int ccittThreshold = EncodedImage.CCITT_DISABLED;
 
     public ImageElement(final BufferedImage image) {
 	this.image = image;
@@ -44,6 +50,37 @@ public class ImageElement implements Element, Drawable, Dividable,
 	this(ImageIO.read(new File(filePath)));
     }
 
+    /**
+     * @return the image to draw.
+     */
+    public BufferedImage getImage() {
+	return image;
+    }
+
+    /**
+     * @return the threshold for CCITT group 4 encoding.
+     */
+    public int getCCITTThreshold() {
+	return ccittThreshold;
+    }
+
+    /**
+     * Sets the threshold for CCITT group 4 encoding, which is way more
+     * compact than the default flate encoding for black and white images
+     * like scanned forms or signatures. Default is
+     * {@link EncodedImage#CCITT_DISABLED}, so flate encoding is always used,
+     * which may also be more compact for clean, synthetic black and white
+     * graphics. Set it to {@link EncodedImage#CCITT_BILEVEL} in order to CCITT
+     * encode black and white (1 bit) images, or to a luminance threshold
+     * (1-256) in order to convert any opaque image to bilevel.
+     * 
+     * @param ccittThreshold
+     *            the threshold to use.
+     */
+    public void setCCITTThreshold(int ccittThreshold) {
+	this.ccittThreshold = ccittThreshold;
+    }
+
     @Override
     public float getWidth() throws IOException {
 	if (width == SCALE_TO_RESPECT_WIDTH) {
@@ -65,6 +102,7 @@ public class ImageElement implements Element, Drawable, Dividable,
      */
     public void setWidth(float width) {
 	this.width = width;
+	invalidate();
     }
 
     @Override
@@ -90,6 +128,7 @@ public class ImageElement implements Element, Drawable, Dividable,
      */
     public void setHeight(float height) {
 	this.height = height;
+	invalidate();
     }
 
     @Override
@@ -108,7 +147,20 @@ public class ImageElement implements Element, Drawable, Dividable,
 
     @Override
     public void setMaxWidth(float maxWidth) {
-	this.maxWidth = maxWidth;
+	if (this.maxWidth != maxWidth) {
+	    this.maxWidth = maxWidth;
+	    invalidate();
+	}
+    }
+
+    @Override
+    public void invalidate() {
+	invalidationSupport.invalidateContainers();
+    }
+
+    @Override
+    public void addContainer(Invalidatable container) {
+	invalidationSupport.addContainer(container);
     }
 
     @Override
@@ -129,13 +181,18 @@ public class ImageElement implements Element, Drawable, Dividable,
     @Override
     public void draw(PDDocument pdDocument, PDPageContentStream contentStream,
 	    Position upperLeft, DrawListener drawListener) throws IOException {
-	CompatibilityHelper.drawImage(image, pdDocument, contentStream,
-		upperLeft, getWidth(), getHeight());
+	CompatibilityHelper.drawImage(image, ccittThreshold, pdDocument,
+		contentStream, upperLeft, getWidth(), getHeight());
 	if (drawListener != null) {
 	    drawListener.drawn(this, upperLeft, getWidth(), getHeight());
 	}
     }
 
+    @Override
+    public boolean isReplayable() {
+	return true;
+    }
+
     @Override
     public Drawable removeLeadingEmptyVerticalSpace() {
 	return this;
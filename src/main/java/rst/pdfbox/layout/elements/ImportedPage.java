@@ -0,0 +1,450 @@
+package rst.pdfbox.layout.elements;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Invalidatable;
+import rst.pdfbox.layout.text.InvalidationSupport;
+import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.text.WidthRespecting;
+import rst.pdfbox.layout.util.CompatibilityHelper;
+import rst.pdfbox.layout.util.GraphicsStateAware;
+
+/**
+ * Draws a page of an existing PDF, like a letterhead or a form background.
+ * The page is imported as a form XObject once per document, so it is drawn
+ * with a single <code>Do</code> operator on each page, and its vector content
+ * is preserved. Use it as the {@link PageFormat#getBackground() background}
+ * of a page format, or draw it in a
+ * {@link rst.pdfbox.layout.elements.render.RenderListener}.
+ * <p>
+ * It is also an element on its own, so you may embed vector graphics like
+ * charts produced elsewhere as PDF instead of converting them to images. The
+ * size defaults to the size of the visible area of the page, and may be
+ * changed like the size of an {@link ImageElement}.
+ * <p>
+ * Source files are parsed only once and cached across documents, so the
+ * template is not parsed again on each rendering. A source is parsed again if
+ * the file has been modified. The cache keeps at most
+ * {@link #setSourceCacheSize(int) a given number} of sources, the least
+ * recently used ones are closed. Call {@link #evictSource(File)} or
+ * {@link #clearSourceCache()} in order to release them explicitly.
+ */
+public class ImportedPage implements Element, Drawable, Dividable,
+	WidthRespecting, Invalidatable, Replayable, GraphicsStateAware {
+
+    /**
+     * Set this to {@link #setWidth(float)} resp. {@link #setHeight(float)}
+     * (usually both) in order to respect the {@link WidthRespecting width}.
+     */
+    public final static float SCALE_TO_RESPECT_WIDTH = -1f;
+
+    private final static int DEFAULT_SOURCE_CACHE_SIZE = 16;
+
+    /**
+     * The sources parsed from files by canonical path, in access order.
+     */
+    private final static Map<String, CachedSource> SOURCE_CACHE = new LinkedHashMap<String, CachedSource>(
+	    16, 0.75f, true);
+    private static int sourceCacheSize = DEFAULT_SOURCE_CACHE_SIZE;
+
+    private final PDDocument source;
+    private final File file;
+    private final int pageIndex;
+    private final Dimension pageSize;
+    private float width;
+    private float height;
+    private float maxWidth = -1;
+    private Position absolutePosition;
+    private final InvalidationSupport invalidationSupport = new InvalidationSupport();
+
+    /**
+     * Creates an imported page from the given source file.
+     *
+     * @param filePath
+     *            the path of the source PDF.
+     * @param pageIndex
+     *            the index of the page to import.
+     * @throws IOException
+     *             if reading the source fails.
+     */
+    public ImportedPage(final String filePath, final int pageIndex)
+	    throws IOException {
+	this(new File(filePath), pageIndex);
+    }
+
+    /**
+     * Creates an imported page from the given source file.
+     *
+     * @param file
+     *            the source PDF.
+     * @param pageIndex
+     *            the index of the page to import.
+     * @throws IOException
+     *             if reading the source fails.
+     */
+    public ImportedPage(final File file, final int pageIndex)
+	    throws IOException {
+	this(null, file, pageIndex, getPageSize(file, pageIndex));
+    }
+
+    /**
+     * Creates an imported page from the given source document. The source
+     * document is not cached, and must not be closed before all documents
+     * using the page have been drawn.
+     *
+     * @param source
+     *            the source document.
+     * @param pageIndex
+     *            the index of the page to import.
+     */
+    public ImportedPage(final PDDocument source, final int pageIndex) {
+	this(source, null, pageIndex, getPageSize(source, pageIndex));
+    }
+
+    private ImportedPage(final PDDocument source, final File file,
+	    final int pageIndex, final Dimension pageSize) {
+	this.source = source;
+	this.file = file;
+	this.pageIndex = pageIndex;
+	this.pageSize = pageSize;
+	this.width = pageSize.getWidth();
+	this.height = pageSize.getHeight();
+    }
+
+    /**
+     * @return the document to import the page from, or <code>null</code> if
+     *         the page is imported from a {@link #getFile() file}.
+     */
+    public PDDocument getSource() {
+	return source;
+    }
+
+    /**
+     * @return the file to import the page from, or <code>null</code> if the
+     *         page is imported from a {@link #getSource() document}.
+     */
+    public File getFile() {
+	return file;
+    }
+
+    /**
+     * @return the index of the page to import.
+     */
+    public int getPageIndex() {
+	return pageIndex;
+    }
+
+    /**
+     * @return the size of the visible area of the imported page.
+     */
+    public Dimension getPageSize() {
+	return pageSize;
+    }
+
+    @Override
+    public float getWidth() throws IOException {
+	if (width == SCALE_TO_RESPECT_WIDTH) {
+	    if (getMaxWidth() > 0 && pageSize.getWidth() > getMaxWidth()) {
+		return getMaxWidth();
+	    }
+	    return pageSize.getWidth();
+	}
+	return width;
+    }
+
+    /**
+     * Sets the width. Default is the width of the page. Set to
+     * {@link #SCALE_TO_RESPECT_WIDTH} in order to let the page
+     * {@link WidthRespecting respect any given width}.
+     * 
+     * @param width
+     *            the width to use.
+     */
+    public void setWidth(float width) {
+	this.width = width;
+	invalidate();
+    }
+
+    @Override
+    public float getHeight() throws IOException {
+	if (height == SCALE_TO_RESPECT_WIDTH) {
+	    if (getMaxWidth() > 0 && pageSize.getWidth() > getMaxWidth()) {
+		return getMaxWidth() / pageSize.getWidth()
+			* pageSize.getHeight();
+	    }
+	    return pageSize.getHeight();
+	}
+	return height;
+    }
+
+    /**
+     * Sets the height. Default is the height of the page. Set to
+     * {@link #SCALE_TO_RESPECT_WIDTH} in order to let the page
+     * {@link WidthRespecting respect any given width}. Usually this makes only
+     * sense if you also set the width to {@link #SCALE_TO_RESPECT_WIDTH}.
+     * 
+     * @param height
+     *            the height to use.
+     */
+    public void setHeight(float height) {
+	this.height = height;
+	invalidate();
+    }
+
+    @Override
+    public Divided divide(float remainingHeight, float nextPageHeight)
+	    throws IOException {
+	if (getHeight() <= nextPageHeight) {
+	    return new Divided(new VerticalSpacer(remainingHeight), this);
+	}
+	return new Cutter(this).divide(remainingHeight, nextPageHeight);
+    }
+
+    @Override
+    public float getMaxWidth() {
+	return maxWidth;
+    }
+
+    @Override
+    public void setMaxWidth(float maxWidth) {
+	if (this.maxWidth != maxWidth) {
+	    this.maxWidth = maxWidth;
+	    invalidate();
+	}
+    }
+
+    @Override
+    public void invalidate() {
+	invalidationSupport.invalidateContainers();
+    }
+
+    @Override
+    public void addContainer(Invalidatable container) {
+	invalidationSupport.addContainer(container);
+    }
+
+    @Override
+    public Position getAbsolutePosition() {
+	return absolutePosition;
+    }
+
+    /**
+     * Sets the absolute position to render at.
+     *
+     * @param absolutePosition
+     *            the absolute position.
+     */
+    public void setAbsolutePosition(Position absolutePosition) {
+	this.absolutePosition = absolutePosition;
+    }
+
+    @Override
+    public void draw(PDDocument pdDocument, PDPageContentStream contentStream,
+	    Position upperLeft, DrawListener drawListener) throws IOException {
+	if (source != null) {
+	    CompatibilityHelper.drawImportedPage(source, pageIndex,
+		    pdDocument, contentStream, upperLeft, getWidth(),
+		    getHeight());
+	} else {
+	    CachedSource cached = acquireSource(file);
+	    try {
+		CompatibilityHelper.drawImportedPage(cached.document,
+			pageIndex, pdDocument, contentStream, upperLeft,
+			getWidth(), getHeight());
+	    } finally {
+		releaseSource(cached);
+	    }
+	}
+	if (drawListener != null) {
+	    drawListener.drawn(this, upperLeft, getWidth(), getHeight());
+	}
+    }
+
+    @Override
+    public boolean isReplayable() {
+	return true;
+    }
+
+    @Override
+    public Drawable removeLeadingEmptyVerticalSpace() {
+	return this;
+    }
+
+    private static Dimension getPageSize(final PDDocument source,
+	    final int pageIndex) {
+	return CompatibilityHelper.getPageSize(CompatibilityHelper.getPage(
+		source, pageIndex));
+    }
+
+    private static Dimension getPageSize(final File file, final int pageIndex)
+	    throws IOException {
+	CachedSource cached = acquireSource(file);
+	try {
+	    return getPageSize(cached.document, pageIndex);
+	} finally {
+	    releaseSource(cached);
+	}
+    }
+
+    /**
+     * Returns the cached source of the given file, and marks it as in use
+     * until it is {@link #releaseSource(CachedSource) released}. The file is
+     * parsed outside of the lock if it is not cached or has been modified.
+     */
+    private static CachedSource acquireSource(final File file)
+	    throws IOException {
+	String key = file.getCanonicalPath();
+	long lastModified = file.lastModified();
+	synchronized (ImportedPage.class) {
+	    CachedSource cached = SOURCE_CACHE.get(key);
+	    if (cached != null && cached.lastModified == lastModified) {
+		++cached.users;
+		return cached;
+	    }
+	}
+
+	CachedSource parsed = new CachedSource(PDDocument.load(file),
+		lastModified);
+	CachedSource cached;
+	synchronized (ImportedPage.class) {
+	    cached = SOURCE_CACHE.get(key);
+	    if (cached == null || cached.lastModified != lastModified) {
+		if (cached != null) {
+		    evict(cached);
+		}
+		++parsed.users;
+		SOURCE_CACHE.put(key, parsed);
+		trimSourceCache();
+		return parsed;
+	    }
+	    // parsed concurrently by another thread
+	    ++cached.users;
+	}
+	parsed.document.close();
+	return cached;
+    }
+
+    private static synchronized void releaseSource(final CachedSource cached)
+	    throws IOException {
+	--cached.users;
+	if (cached.evicted && cached.users == 0) {
+	    cached.document.close();
+	}
+    }
+
+    /**
+     * Marks the given source as evicted, and closes it if it is not in use.
+     * Otherwise it is closed when it is released.
+     */
+    private static synchronized void evict(final CachedSource cached)
+	    throws IOException {
+	cached.evicted = true;
+	if (cached.users == 0) {
+	    cached.document.close();
+	}
+    }
+
+    private static synchronized void trimSourceCache() throws IOException {
+	Iterator<CachedSource> iterator = SOURCE_CACHE.values().iterator();
+	while (SOURCE_CACHE.size() > sourceCacheSize && iterator.hasNext()) {
+	    CachedSource cached = iterator.next();
+	    iterator.remove();
+	    evict(cached);
+	}
+    }
+
+    /**
+     * @return the cached source document of the given file, or
+     *         <code>null</code> if it is not cached.
+     * @throws IOException
+     *             if resolving the path fails.
+     */
+    static synchronized PDDocument getCachedSource(final File file)
+	    throws IOException {
+	CachedSource cached = SOURCE_CACHE.get(file.getCanonicalPath());
+	return cached == null ? null : cached.document;
+    }
+
+    /**
+     * @return the maximum number of cached source documents.
+     */
+    public static synchronized int getSourceCacheSize() {
+	return sourceCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of cached source documents. If more sources
+     * are parsed, the least recently used ones are closed. Default is
+     * {@value #DEFAULT_SOURCE_CACHE_SIZE}.
+     *
+     * @param sourceCacheSize
+     *            the maximum number of cached sources.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static synchronized void setSourceCacheSize(
+	    final int sourceCacheSize) throws IOException {
+	ImportedPage.sourceCacheSize = sourceCacheSize;
+	trimSourceCache();
+    }
+
+    /**
+     * Removes the source document of the given file from the cache and
+     * closes it. A source currently drawn by another thread is closed when
+     * the drawing is finished. Imported pages of the file may still be drawn,
+     * the file is parsed again then.
+     *
+     * @param file
+     *            the source PDF.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static synchronized void evictSource(final File file)
+	    throws IOException {
+	CachedSource cached = SOURCE_CACHE.remove(file.getCanonicalPath());
+	if (cached != null) {
+	    evict(cached);
+	}
+    }
+
+    /**
+     * Removes all source documents from the cache and closes them, see
+     * {@link #evictSource(File)}.
+     *
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static synchronized void clearSourceCache() throws IOException {
+	Iterator<CachedSource> iterator = SOURCE_CACHE.values().iterator();
+	while (iterator.hasNext()) {
+	    CachedSource cached = iterator.next();
+	    iterator.remove();
+	    evict(cached);
+	}
+    }
+
+    /**
+     * A parsed source file and the number of its current users.
+     */
+    private static class CachedSource {
+
+	private final PDDocument document;
+	private final long lastModified;
+	private int users;
+	private boolean evicted;
+
+	CachedSource(final PDDocument document, final long lastModified) {
+	    this.document = document;
+	    this.lastModified = lastModified;
+	}
+    }
+
+}
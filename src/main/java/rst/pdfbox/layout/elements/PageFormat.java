@@ -9,7 +9,7 @@ import rst.pdfbox.layout.text.Constants;
  * Defines the size and orientation of a page. The default is A4 portrait
  * without margins.
  */
-public class PageFormat implements Element {
+public class PageFormat implements Element, Replayable {
 
     private final float marginLeft;
     private final float marginRight;
@@ -18,6 +18,7 @@ public class PageFormat implements Element {
     private final PDRectangle mediaBox;
     private final Orientation orientation;
     private final int rotation;
+    private final Drawable background;
 
     /**
      * Creates a PageFormat with A4 portrait without margins.
@@ -93,6 +94,35 @@ public class PageFormat implements Element {
     public PageFormat(PDRectangle mediaBox, Orientation orientation,
 	    int rotation, float marginLeft, float marginRight,
 	    float marginTop, float marginBottom) {
+	this(mediaBox, orientation, rotation, marginLeft, marginRight,
+		marginTop, marginBottom, null);
+    }
+
+    /**
+     * Creates a Document based on the given media box and margins. By default,
+     * a {@link VerticalLayout} is used.
+     * 
+     * @param mediaBox
+     *            the media box to use.
+     * @param orientation
+     *            the orientation to use.
+     * @param rotation
+     *            the rotation to apply to the page after rendering.
+     * @param marginLeft
+     *            the left margin
+     * @param marginRight
+     *            the right margin
+     * @param marginTop
+     *            the top margin
+     * @param marginBottom
+     *            the bottom margin
+     * @param background
+     *            the background to draw on each page, may be
+     *            <code>null</code>.
+     */
+    public PageFormat(PDRectangle mediaBox, Orientation orientation,
+	    int rotation, float marginLeft, float marginRight,
+	    float marginTop, float marginBottom, Drawable background) {
 	this.mediaBox = mediaBox;
 	this.orientation = orientation;
 	this.rotation = rotation;
@@ -100,6 +130,7 @@ public class PageFormat implements Element {
 	this.marginRight = marginRight;
 	this.marginTop = marginTop;
 	this.marginBottom = marginBottom;
+	this.background = background;
     }
 
     /**
@@ -157,6 +188,24 @@ public class PageFormat implements Element {
 	return mediaBox;
     }
 
+    /**
+     * @return the background drawn at the upper left corner of each page
+     *         before any other content, may be <code>null</code>.
+     */
+    public Drawable getBackground() {
+	return background;
+    }
+
+    /**
+     * A page format is replayable if its background is.
+     */
+    @Override
+    public boolean isReplayable() {
+	return background == null
+		|| (background instanceof Replayable && ((Replayable) background)
+			.isReplayable());
+    }
+
     /**
      * @return a page format builder. The default of the builder is A4 portrait
      *         without margins.
@@ -173,6 +222,7 @@ public class PageFormat implements Element {
 	private PDRectangle mediaBox = Constants.A4;
 	private Orientation orientation;
 	private int rotation;
+	private Drawable background;
 
 	protected PageFormatBuilder() {
 	}
@@ -184,7 +234,7 @@ public class PageFormat implements Element {
 	 */
 	public PageFormat build() {
 	    return new PageFormat(mediaBox, orientation, rotation, marginLeft,
-		    marginRight, marginTop, marginBottom);
+		    marginRight, marginTop, marginBottom, background);
 	}
 
 	/**
@@ -390,6 +440,19 @@ public class PageFormat implements Element {
 	    this.rotation = angle;
 	    return this;
 	}
+
+	/**
+	 * Sets the background to draw on each page, like an
+	 * {@link ImportedPage imported} letterhead.
+	 * 
+	 * @param background
+	 *            the background to use.
+	 * @return the builder.
+	 */
+	public PageFormatBuilder background(Drawable background) {
+	    this.background = background;
+	    return this;
+	}
     }
 
 }
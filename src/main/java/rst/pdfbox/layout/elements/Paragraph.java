@@ -9,8 +9,13 @@ import rst.pdfbox.layout.text.Alignment;
 import rst.pdfbox.layout.text.DrawListener;
 import rst.pdfbox.layout.text.Position;
 import rst.pdfbox.layout.text.TextFlow;
+import rst.pdfbox.layout.text.TextFragment;
 import rst.pdfbox.layout.text.TextSequenceUtil;
 import rst.pdfbox.layout.text.WidthRespecting;
+import rst.pdfbox.layout.text.annotations.Annotated;
+import rst.pdfbox.layout.text.annotations.Annotations.AnchorAnnotation;
+import rst.pdfbox.layout.text.annotations.Annotations.HyperlinkAnnotation;
+import rst.pdfbox.layout.util.GraphicsStateAware;
 
 /**
  * A paragraph is used as a container for {@link TextFlow text} that is drawn as
@@ -18,8 +23,8 @@ import rst.pdfbox.layout.text.WidthRespecting;
  * alignment}, and {@link WidthRespecting respects a given width} by applying
  * word-wrap.
  */
-public class Paragraph extends TextFlow implements Drawable, Element,
-	WidthRespecting, Dividable {
+public class Paragraph extends TextFlow implements ViewPortDrawable, Element,
+	WidthRespecting, Dividable, Replayable, GraphicsStateAware {
 
     private Position absolutePosition;
     private Alignment alignment = Alignment.Left;
@@ -62,12 +67,47 @@ public class Paragraph extends TextFlow implements Drawable, Element,
 	drawText(contentStream, upperLeft, getAlignment(), drawListener	);
     }
 
+    @Override
+    public void drawViewPort(PDDocument pdDocument,
+	    PDPageContentStream contentStream, Position upperLeft,
+	    float viewPortY, float viewPortHeight, DrawListener drawListener)
+	    throws IOException {
+	TextSequenceUtil.drawText(this, contentStream, upperLeft, drawListener,
+		getAlignment(), getMaxWidth(), getLineSpacing(),
+		isApplyLineSpacingToFirstLine(), viewPortY, viewPortHeight);
+    }
+
     @Override
     public Divided divide(float remainingHeight, final float pageHeight)
 	    throws IOException {
 	return TextSequenceUtil.divide(this, getMaxWidth(), remainingHeight);
     }
 
+    /**
+     * A paragraph is not replayable if it contains anchors or internal
+     * hyperlinks.
+     */
+    @Override
+    public boolean isReplayable() {
+	for (TextFragment fragment : this) {
+	    if (!(fragment instanceof Annotated)) {
+		continue;
+	    }
+	    Annotated annotated = (Annotated) fragment;
+	    if (annotated.getAnnotationsOfType(AnchorAnnotation.class)
+		    .iterator().hasNext()) {
+		return false;
+	    }
+	    for (HyperlinkAnnotation hyperlink : annotated
+		    .getAnnotationsOfType(HyperlinkAnnotation.class)) {
+		if (hyperlink.getHyperlinkURI().startsWith("#")) {
+		    return false;
+		}
+	    }
+	}
+	return true;
+    }
+
     @Override
     public Paragraph removeLeadingEmptyVerticalSpace() throws IOException {
 	return removeLeadingEmptyLines();
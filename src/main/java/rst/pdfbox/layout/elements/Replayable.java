@@ -0,0 +1,23 @@
+package rst.pdfbox.layout.elements;
+
+/**
+ * Optional extension of an {@link Element} that may be rendered again with
+ * the same result, so rendering may be
+ * {@link Document#render(org.apache.pdfbox.pdmodel.PDDocument, int) resumed}
+ * from a checkpoint of a previous run. Elements not implementing this
+ * interface are considered not replayable, which makes the document render
+ * completely.
+ */
+public interface Replayable {
+
+    /**
+     * An element is not replayable if rendering consumes some state, or if its
+     * output refers to other pages, like anchors and internal hyperlinks do.
+     * The pages of the previous run are reused as they are, so such references
+     * could not be resolved.
+     *
+     * @return <code>true</code> if the element may be rendered again with the
+     *         same result.
+     */
+    boolean isReplayable();
+}
@@ -0,0 +1,139 @@
+package rst.pdfbox.layout.elements;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.util.CompatibilityHelper;
+import rst.pdfbox.layout.util.GraphicsState;
+import rst.pdfbox.layout.util.GraphicsStateAware;
+
+/**
+ * A stamp draws content repeated on many pages - like a header, footer or
+ * watermark - as a form XObject. The content is drawn only once per document
+ * into the form, and each page just references the form, so the content
+ * stream of the page contains a single <code>Do</code> operator instead of the
+ * complete content. Since the form is created on the first draw, the content
+ * must not be changed afterwards.
+ * <p>
+ * Annotations (like links) and placeholders are not supported in the
+ * content. Use the {@link #setOverlay(Drawable) overlay} for those and for
+ * any content that differs from page to page, like page numbers. The overlay
+ * is drawn on top of the form on each draw, e.g. in the
+ * {@link rst.pdfbox.layout.elements.render.RenderListener#afterPage(rst.pdfbox.layout.elements.render.RenderContext)
+ * afterPage()} of a render listener:
+ *
+ * <pre>
+ * Stamp footer = new Stamp(footerParagraph);
+ * ...
+ * public void afterPage(RenderContext renderContext) throws IOException {
+ *     footer.setOverlay(createPageNumberParagraph(renderContext));
+ *     footer.draw(renderContext.getPdDocument(),
+ *             renderContext.getContentStream(), upperLeft, renderContext);
+ * }
+ * </pre>
+ */
+public class Stamp implements Element, Drawable, Replayable,
+	GraphicsStateAware {
+
+    private final Drawable content;
+    private Drawable overlay;
+    private Position absolutePosition;
+
+    /**
+     * Creates a stamp drawing the given content.
+     *
+     * @param content
+     *            the content to draw.
+     */
+    public Stamp(final Drawable content) {
+	this.content = content;
+    }
+
+    /**
+     * @return the content drawn as form XObject.
+     */
+    public Drawable getContent() {
+	return content;
+    }
+
+    /**
+     * @return the overlay, may be <code>null</code>.
+     */
+    public Drawable getOverlay() {
+	return overlay;
+    }
+
+    /**
+     * Sets an overlay to draw on top of the content. The overlay is drawn
+     * directly into the content stream at the same upper left position as the
+     * content, so it may be changed from draw to draw. Keep it small.
+     *
+     * @param overlay
+     *            the overlay, may be <code>null</code>.
+     */
+    public void setOverlay(Drawable overlay) {
+	this.overlay = overlay;
+    }
+
+    @Override
+    public float getWidth() throws IOException {
+	return content.getWidth();
+    }
+
+    @Override
+    public float getHeight() throws IOException {
+	return content.getHeight();
+    }
+
+    @Override
+    public Position getAbsolutePosition() {
+	return absolutePosition;
+    }
+
+    /**
+     * Sets the absolute position to render at.
+     *
+     * @param absolutePosition
+     *            the absolute position.
+     */
+    public void setAbsolutePosition(Position absolutePosition) {
+	this.absolutePosition = absolutePosition;
+    }
+
+    @Override
+    public void draw(PDDocument pdDocument, PDPageContentStream contentStream,
+	    Position upperLeft, DrawListener drawListener) throws IOException {
+	CompatibilityHelper.drawForm(content, pdDocument, contentStream,
+		upperLeft);
+	if (overlay != null) {
+	    GraphicsState.drawNested(overlay, pdDocument, contentStream,
+		    upperLeft, drawListener);
+	}
+	if (drawListener != null) {
+	    drawListener.drawn(this, upperLeft, getWidth(), getHeight());
+	}
+    }
+
+    /**
+     * A stamp is replayable if both content and overlay are.
+     */
+    @Override
+    public boolean isReplayable() {
+	return isReplayable(content)
+		&& (overlay == null || isReplayable(overlay));
+    }
+
+    private static boolean isReplayable(final Drawable drawable) {
+	return drawable instanceof Replayable
+		&& ((Replayable) drawable).isReplayable();
+    }
+
+    @Override
+    public Drawable removeLeadingEmptyVerticalSpace() {
+	return this;
+    }
+}
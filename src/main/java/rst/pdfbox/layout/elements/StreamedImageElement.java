@@ -0,0 +1,731 @@
+package rst.pdfbox.layout.elements;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.w3c.dom.Node;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Invalidatable;
+import rst.pdfbox.layout.text.InvalidationSupport;
+import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.text.WidthRespecting;
+import rst.pdfbox.layout.util.CompatibilityHelper;
+import rst.pdfbox.layout.util.GraphicsStateAware;
+import rst.pdfbox.layout.util.SampleWriter;
+
+/**
+ * An image element for huge images (scans, maps, plots...). In contrast to the
+ * {@link ImageElement}, the image is never held in memory completely. Instead
+ * it is decoded by an {@link ImageReader} in one pass into a buffer of one
+ * strip, and the rows are deflated directly into the image stream as they are
+ * decoded. So the peak memory is proportional to one strip. Images the reader
+ * decodes in multiple passes (interlaced or progressive) are read strip by
+ * strip using a {@link ImageReadParam#setSourceRegion(Rectangle) source
+ * region} instead. If the image is divided across pages, each part encodes
+ * only its visible region of the image.
+ * <p>
+ * Transparency is not supported, the image is drawn opaque.
+ */
+public class StreamedImageElement implements Element, Drawable, Dividable,
+	WidthRespecting, Invalidatable, Replayable, GraphicsStateAware {
+
+    /**
+     * The default number of image rows read at once.
+     */
+    public final static int DEFAULT_STRIP_HEIGHT = 64;
+
+    private final ImageSource source;
+    private final int imageWidth;
+    private final int regionY;
+    private final int regionHeight;
+    private final boolean gray;
+    private int stripHeight = DEFAULT_STRIP_HEIGHT;
+    private float width;
+    private float height;
+    private float maxWidth = -1;
+    private Position absolutePosition;
+    private final InvalidationSupport invalidationSupport = new InvalidationSupport();
+
+    /**
+     * Creates an image element reading the first image of the given file. The
+     * file is opened on every encoding and closed afterwards.
+     *
+     * @param file
+     *            the image file.
+     * @throws IOException
+     *             if reading the image header fails.
+     */
+    public StreamedImageElement(final File file) throws IOException {
+	this(new ImageSource(file, null, 0));
+    }
+
+    /**
+     * See {@link #StreamedImageElement(File)}.
+     *
+     * @param filePath
+     *            the path of the image file.
+     * @throws IOException
+     *             if reading the image header fails.
+     */
+    public StreamedImageElement(final String filePath) throws IOException {
+	this(new File(filePath));
+    }
+
+    /**
+     * Creates an image element reading from the given reader. The input of the
+     * reader must stay open until the document has been rendered, it is
+     * neither closed nor disposed by this element.
+     *
+     * @param reader
+     *            the reader with its input already set.
+     * @param imageIndex
+     *            the index of the image to read.
+     * @throws IOException
+     *             if reading the image header fails.
+     */
+    public StreamedImageElement(final ImageReader reader, final int imageIndex)
+	    throws IOException {
+	this(new ImageSource(null, reader, imageIndex));
+    }
+
+    private StreamedImageElement(final ImageSource source) throws IOException {
+	ImageReader reader = source.open();
+	try {
+	    this.imageWidth = reader.getWidth(source.imageIndex);
+	    this.regionHeight = reader.getHeight(source.imageIndex);
+	    this.gray = isGray(reader.getRawImageType(source.imageIndex));
+	} finally {
+	    source.close(reader);
+	}
+	this.source = source;
+	this.regionY = 0;
+	this.width = imageWidth;
+	this.height = regionHeight;
+    }
+
+    private StreamedImageElement(final StreamedImageElement image,
+	    final int regionY, final int regionHeight, final float height)
+	    throws IOException {
+	this.source = image.source;
+	this.imageWidth = image.imageWidth;
+	this.gray = image.gray;
+	this.stripHeight = image.stripHeight;
+	this.regionY = regionY;
+	this.regionHeight = regionHeight;
+	this.width = image.getWidth();
+	this.height = height;
+    }
+
+    /**
+     * @return the number of image rows read at once.
+     */
+    public int getStripHeight() {
+	return stripHeight;
+    }
+
+    /**
+     * Sets the number of image rows read at once. Default is
+     * {@link #DEFAULT_STRIP_HEIGHT}.
+     *
+     * @param stripHeight
+     *            the strip height in pixel.
+     */
+    public void setStripHeight(int stripHeight) {
+	this.stripHeight = Math.max(1, stripHeight);
+    }
+
+    @Override
+    public float getWidth() throws IOException {
+	if (width == ImageElement.SCALE_TO_RESPECT_WIDTH) {
+	    if (getMaxWidth() > 0 && imageWidth > getMaxWidth()) {
+		return getMaxWidth();
+	    }
+	    return imageWidth;
+	}
+	return width;
+    }
+
+    /**
+     * Sets the width. Default is the image width. Set to
+     * {@link ImageElement#SCALE_TO_RESPECT_WIDTH} in order to let the image
+     * {@link WidthRespecting respect any given width}.
+     *
+     * @param width
+     *            the width to use.
+     */
+    public void setWidth(float width) {
+	this.width = width;
+	invalidate();
+    }
+
+    @Override
+    public float getHeight() throws IOException {
+	if (height == ImageElement.SCALE_TO_RESPECT_WIDTH) {
+	    if (getMaxWidth() > 0 && imageWidth > getMaxWidth()) {
+		return getMaxWidth() / (float) imageWidth
+			* (float) regionHeight;
+	    }
+	    return regionHeight;
+	}
+	return height;
+    }
+
+    /**
+     * Sets the height. Default is the image height. Set to
+     * {@link ImageElement#SCALE_TO_RESPECT_WIDTH} in order to let the image
+     * {@link WidthRespecting respect any given width}. Usually this makes only
+     * sense if you also set the width to
+     * {@link ImageElement#SCALE_TO_RESPECT_WIDTH}.
+     *
+     * @param height
+     *            the height to use.
+     */
+    public void setHeight(float height) {
+	this.height = height;
+	invalidate();
+    }
+
+    /**
+     * Divides the image at a row boundary, so each part encodes only the
+     * region of the image it actually shows.
+     */
+    @Override
+    public Divided divide(float remainingHeight, float nextPageHeight)
+	    throws IOException {
+	if (getHeight() <= nextPageHeight) {
+	    return new Divided(new VerticalSpacer(remainingHeight), this);
+	}
+	float rowHeight = getHeight() / regionHeight;
+	int rows = (int) (remainingHeight / rowHeight);
+	if (rows <= 0) {
+	    return new Divided(new VerticalSpacer(remainingHeight), this);
+	}
+	rows = Math.min(rows, regionHeight - 1);
+	float firstHeight = rows * rowHeight;
+	StreamedImageElement first = new StreamedImageElement(this, regionY,
+		rows, firstHeight);
+	StreamedImageElement tail = new StreamedImageElement(this, regionY
+		+ rows, regionHeight - rows, getHeight() - firstHeight);
+	return new Divided(first, tail);
+    }
+
+    @Override
+    public float getMaxWidth() {
+	return maxWidth;
+    }
+
+    @Override
+    public void setMaxWidth(float maxWidth) {
+	if (this.maxWidth != maxWidth) {
+	    this.maxWidth = maxWidth;
+	    invalidate();
+	}
+    }
+
+    @Override
+    public void invalidate() {
+	invalidationSupport.invalidateContainers();
+    }
+
+    @Override
+    public void addContainer(Invalidatable container) {
+	invalidationSupport.addContainer(container);
+    }
+
+    @Override
+    public Position getAbsolutePosition() {
+	return absolutePosition;
+    }
+
+    /**
+     * Sets the absolute position to render at.
+     *
+     * @param absolutePosition
+     *            the absolute position.
+     */
+    public void setAbsolutePosition(Position absolutePosition) {
+	this.absolutePosition = absolutePosition;
+    }
+
+    @Override
+    public void draw(PDDocument pdDocument, PDPageContentStream contentStream,
+	    Position upperLeft, DrawListener drawListener) throws IOException {
+	CompatibilityHelper.drawImage(getSamples(), pdDocument,
+		contentStream, upperLeft, getWidth(), getHeight());
+	if (drawListener != null) {
+	    drawListener.drawn(this, upperLeft, getWidth(), getHeight());
+	}
+    }
+
+    /**
+     * @return the samples of the image region shown by this element.
+     */
+    SampleWriter getSamples() {
+	return new RegionSamples(source, imageWidth, regionY, regionHeight,
+		gray, stripHeight);
+    }
+
+    @Override
+    public boolean isReplayable() {
+	return true;
+    }
+
+    @Override
+    public Drawable removeLeadingEmptyVerticalSpace() {
+	return this;
+    }
+
+    private static boolean isGray(final ImageTypeSpecifier type) {
+	if (type == null) {
+	    return false;
+	}
+	ColorModel colorModel = type.getColorModel();
+	return colorModel.getColorSpace().getType() == ColorSpace.TYPE_GRAY
+		&& colorModel.getNumComponents() == 1
+		&& colorModel.getComponentSize(0) <= 8;
+    }
+
+    /**
+     * The source of the image, either a file or a reader owned by the caller.
+     */
+    private static class ImageSource {
+
+	private final File file;
+	private final ImageReader reader;
+	private final int imageIndex;
+
+	ImageSource(final File file, final ImageReader reader,
+		final int imageIndex) {
+	    this.file = file;
+	    this.reader = reader;
+	    this.imageIndex = imageIndex;
+	}
+
+	ImageReader open() throws IOException {
+	    if (reader != null) {
+		return reader;
+	    }
+	    ImageInputStream input = ImageIO.createImageInputStream(file);
+	    if (input == null) {
+		throw new IOException("unable to open " + file);
+	    }
+	    Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+	    if (!readers.hasNext()) {
+		input.close();
+		throw new IOException("no image reader found for " + file);
+	    }
+	    ImageReader fileReader = readers.next();
+	    fileReader.setInput(input, false, true);
+	    return fileReader;
+	}
+
+	void close(final ImageReader opened) throws IOException {
+	    if (opened == reader) {
+		return;
+	    }
+	    Object input = opened.getInput();
+	    opened.dispose();
+	    if (input instanceof ImageInputStream) {
+		((ImageInputStream) input).close();
+	    }
+	}
+    }
+
+    /**
+     * Writes the samples of a horizontal region of the image, reading it strip
+     * by strip. Equal regions of the same source share one image XObject.
+     */
+    private static class RegionSamples implements SampleWriter {
+
+	private final ImageSource source;
+	private final int width;
+	private final int regionY;
+	private final int regionHeight;
+	private final boolean gray;
+	private final int stripHeight;
+	private int[] pixels;
+	private byte[] line;
+
+	RegionSamples(final ImageSource source, final int width,
+		final int regionY, final int regionHeight, final boolean gray,
+		final int stripHeight) {
+	    this.source = source;
+	    this.width = width;
+	    this.regionY = regionY;
+	    this.regionHeight = regionHeight;
+	    this.gray = gray;
+	    this.stripHeight = stripHeight;
+	}
+
+	@Override
+	public int getWidth() {
+	    return width;
+	}
+
+	@Override
+	public int getHeight() {
+	    return regionHeight;
+	}
+
+	@Override
+	public int getBitsPerComponent() {
+	    return 8;
+	}
+
+	@Override
+	public boolean isGray() {
+	    return gray;
+	}
+
+	/**
+	 * Writes the samples of the region. If the reader reports the rows
+	 * of the region in order, the region is decoded in one pass into a
+	 * {@link RingBuffer ring buffer} of one strip, and each row is
+	 * written as soon as it has been decoded. Otherwise, e.g. for
+	 * interlaced images, the remaining rows are read strip by strip using
+	 * source regions.
+	 */
+	@Override
+	public void writeSamples(OutputStream out) throws IOException {
+	    ImageReader reader = source.open();
+	    try {
+		int written = streamRows(reader, out);
+		readStrips(reader, out, regionY + written);
+	    } finally {
+		source.close(reader);
+	    }
+	}
+
+	/**
+	 * Decodes the region in one pass, writing the rows as they are
+	 * reported by the reader.
+	 * 
+	 * @return the number of rows written.
+	 */
+	private int streamRows(final ImageReader reader, final OutputStream out)
+		throws IOException {
+	    if (!isDecodedInOnePass(reader)) {
+		return 0;
+	    }
+	    BufferedImage ring = createRingImage(reader);
+	    if (ring == null) {
+		return 0;
+	    }
+	    ImageReadParam param = reader.getDefaultReadParam();
+	    param.setSourceRegion(new Rectangle(0, regionY, width, regionHeight));
+	    param.setDestination(ring);
+	    RowStreamer streamer = new RowStreamer(out);
+	    reader.addIIOReadUpdateListener(streamer);
+	    try {
+		reader.read(source.imageIndex, param);
+	    } finally {
+		reader.removeIIOReadUpdateListener(streamer);
+	    }
+	    if (streamer.writeException != null) {
+		throw streamer.writeException;
+	    }
+	    return streamer.nextRow;
+	}
+
+	/**
+	 * Reads the rows of the region starting at the given row strip by
+	 * strip.
+	 */
+	private void readStrips(final ImageReader reader,
+		final OutputStream out, final int fromY) throws IOException {
+	    ImageReadParam param = reader.getDefaultReadParam();
+	    for (int y = fromY; y < regionY + regionHeight; y += stripHeight) {
+		int rows = Math.min(stripHeight, regionY + regionHeight - y);
+		param.setSourceRegion(new Rectangle(0, y, width, rows));
+		BufferedImage strip = reader.read(source.imageIndex, param);
+		for (int row = 0; row < rows; ++row) {
+		    writeRow(strip, row, out);
+		}
+	    }
+	}
+
+	private void writeRow(final BufferedImage image, final int row,
+		final OutputStream out) throws IOException {
+	    if (pixels == null) {
+		pixels = new int[width];
+		line = new byte[gray ? width : width * 3];
+	    }
+	    if (gray) {
+		// the raw samples, getRGB() would convert linear gray to sRGB
+		image.getRaster().getSamples(0, row, width, 1, 0, pixels);
+		int maxSample = (1 << image.getColorModel().getComponentSize(0)) - 1;
+		for (int x = 0; x < width; ++x) {
+		    line[x] = (byte) (pixels[x] * 255 / maxSample);
+		}
+	    } else {
+		image.getRGB(0, row, width, 1, pixels, 0, width);
+		int index = 0;
+		for (int pixel : pixels) {
+		    line[index++] = (byte) ((pixel >> 16) & 0xFF);
+		    line[index++] = (byte) ((pixel >> 8) & 0xFF);
+		    line[index++] = (byte) (pixel & 0xFF);
+		}
+	    }
+	    out.write(line);
+	}
+
+	/**
+	 * Checks the native metadata of the known formats, whether the image
+	 * is decoded in one pass, so rows once reported are final. Other
+	 * readers may also write directly into the data buffer of the
+	 * destination, which is not supported by the ring buffer.
+	 */
+	private boolean isDecodedInOnePass(final ImageReader reader)
+		throws IOException {
+	    IIOMetadata metadata = reader.getImageMetadata(source.imageIndex);
+	    String format = metadata == null ? null : metadata
+		    .getNativeMetadataFormatName();
+	    if (format == null) {
+		return false;
+	    }
+	    Node root = metadata.getAsTree(format);
+	    if ("javax_imageio_png_1.0".equals(format)) {
+		return "none".equals(getAttribute(root, "IHDR",
+			"interlaceMethod"));
+	    }
+	    if ("javax_imageio_jpeg_image_1.0".equals(format)) {
+		return !"2".equals(getAttribute(root, "sof", "process"));
+	    }
+	    if ("javax_imageio_gif_image_1.0".equals(format)) {
+		return "FALSE".equals(getAttribute(root, "ImageDescriptor",
+			"interlaceFlag"));
+	    }
+	    return false;
+	}
+
+	private String getAttribute(final Node node, final String nodeName,
+		final String attributeName) {
+	    if (nodeName.equals(node.getNodeName())) {
+		Node attribute = node.getAttributes().getNamedItem(
+			attributeName);
+		return attribute == null ? null : attribute.getNodeValue();
+	    }
+	    for (Node child = node.getFirstChild(); child != null; child = child
+		    .getNextSibling()) {
+		String value = getAttribute(child, nodeName, attributeName);
+		if (value != null) {
+		    return value;
+		}
+	    }
+	    return null;
+	}
+
+	/**
+	 * Creates an image of the size of the region in the reader's image
+	 * type, whose data is held in a ring buffer of one strip.
+	 * 
+	 * @return the image, or <code>null</code> if the image type is not
+	 *         supported.
+	 */
+	private BufferedImage createRingImage(final ImageReader reader)
+		throws IOException {
+	    Iterator<ImageTypeSpecifier> types = reader
+		    .getImageTypes(source.imageIndex);
+	    if (types == null || !types.hasNext()) {
+		return null;
+	    }
+	    ImageTypeSpecifier type = types.next();
+	    ColorModel colorModel = type.getColorModel();
+	    SampleModel sampleModel = type.getSampleModel(width, 1);
+	    int scanlineStride;
+	    if (sampleModel instanceof ComponentSampleModel
+		    && isSingleBank((ComponentSampleModel) sampleModel)) {
+		scanlineStride = ((ComponentSampleModel) sampleModel)
+			.getScanlineStride();
+	    } else if (sampleModel instanceof SinglePixelPackedSampleModel) {
+		scanlineStride = ((SinglePixelPackedSampleModel) sampleModel)
+			.getScanlineStride();
+	    } else if (sampleModel instanceof MultiPixelPackedSampleModel) {
+		scanlineStride = ((MultiPixelPackedSampleModel) sampleModel)
+			.getScanlineStride();
+	    } else {
+		return null;
+	    }
+	    int dataType = sampleModel.getDataType();
+	    if ((long) scanlineStride * regionHeight > Integer.MAX_VALUE
+		    || (dataType != DataBuffer.TYPE_BYTE
+			    && dataType != DataBuffer.TYPE_USHORT && dataType != DataBuffer.TYPE_INT)) {
+		return null;
+	    }
+	    sampleModel = type.getSampleModel(width, regionHeight);
+	    RingBuffer buffer = new RingBuffer(dataType, scanlineStride
+		    * regionHeight, scanlineStride * stripHeight);
+	    WritableRaster raster = Raster.createWritableRaster(sampleModel,
+		    buffer, null);
+	    if (!colorModel.isCompatibleRaster(raster)) {
+		return null;
+	    }
+	    return new BufferedImage(colorModel, raster,
+		    colorModel.isAlphaPremultiplied(), null);
+	}
+
+	private boolean isSingleBank(final ComponentSampleModel sampleModel) {
+	    for (int bank : sampleModel.getBankIndices()) {
+		if (bank != 0) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+
+	/**
+	 * Writes the rows reported by the reader in order. If the reader
+	 * reports rows out of order, more rows than the ring buffer holds at
+	 * once, or a second pass, the read is aborted, and the remaining rows
+	 * are read strip by strip.
+	 */
+	private class RowStreamer implements IIOReadUpdateListener {
+
+	    private final OutputStream out;
+	    private int nextRow;
+	    private boolean aborted;
+	    private IOException writeException;
+
+	    RowStreamer(final OutputStream out) {
+		this.out = out;
+	    }
+
+	    private void abort(final ImageReader reader) {
+		aborted = true;
+		reader.abort();
+	    }
+
+	    @Override
+	    public void passStarted(ImageReader source, BufferedImage theImage,
+		    int pass, int minPass, int maxPass, int minX, int minY,
+		    int periodX, int periodY, int[] bands) {
+		if (pass != minPass || periodX != 1 || periodY != 1) {
+		    abort(source);
+		}
+	    }
+
+	    @Override
+	    public void imageUpdate(ImageReader source, BufferedImage theImage,
+		    int minX, int minY, int width, int height, int periodX,
+		    int periodY, int[] bands) {
+		if (aborted) {
+		    return;
+		}
+		if (minY != nextRow || minX != 0
+			|| width != RegionSamples.this.width || periodX != 1
+			|| periodY != 1 || height > stripHeight) {
+		    abort(source);
+		    return;
+		}
+		try {
+		    for (int row = minY; row < minY + height; ++row) {
+			writeRow(theImage, row, out);
+		    }
+		    nextRow = minY + height;
+		} catch (IOException e) {
+		    writeException = e;
+		    abort(source);
+		}
+	    }
+
+	    @Override
+	    public void passComplete(ImageReader source, BufferedImage theImage) {
+	    }
+
+	    @Override
+	    public void thumbnailPassStarted(ImageReader source,
+		    BufferedImage theThumbnail, int pass, int minPass,
+		    int maxPass, int minX, int minY, int periodX, int periodY,
+		    int[] bands) {
+	    }
+
+	    @Override
+	    public void thumbnailUpdate(ImageReader source,
+		    BufferedImage theThumbnail, int minX, int minY, int width,
+		    int height, int periodX, int periodY, int[] bands) {
+	    }
+
+	    @Override
+	    public void thumbnailPassComplete(ImageReader source,
+		    BufferedImage theThumbnail) {
+	    }
+	}
+
+	@Override
+	public int hashCode() {
+	    return (System.identityHashCode(source) * 31 + regionY) * 31
+		    + regionHeight;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj) {
+		return true;
+	    }
+	    if (!(obj instanceof RegionSamples)) {
+		return false;
+	    }
+	    RegionSamples other = (RegionSamples) obj;
+	    return source == other.source && regionY == other.regionY
+		    && regionHeight == other.regionHeight;
+	}
+    }
+
+    /**
+     * A data buffer of the size of a complete region, which actually holds
+     * only the elements of one strip. Row <code>y</code> is stored at row
+     * <code>y % stripHeight</code>, so the rows of the last strip decoded are
+     * available until they are overwritten by the next strip.
+     */
+    private static class RingBuffer extends DataBuffer {
+
+	private final int[] data;
+	private final int mask;
+
+	RingBuffer(final int dataType, final int size, final int ringSize) {
+	    super(dataType, size);
+	    this.data = new int[Math.min(size, ringSize)];
+	    if (dataType == TYPE_BYTE) {
+		mask = 0xFF;
+	    } else if (dataType == TYPE_USHORT) {
+		mask = 0xFFFF;
+	    } else {
+		mask = 0xFFFFFFFF;
+	    }
+	}
+
+	@Override
+	public int getElem(int bank, int i) {
+	    return data[i % data.length];
+	}
+
+	@Override
+	public void setElem(int bank, int i, int val) {
+	    data[i % data.length] = val & mask;
+	}
+    }
+}
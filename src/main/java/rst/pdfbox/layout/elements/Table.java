@@ -0,0 +1,606 @@
+package rst.pdfbox.layout.elements;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+
+import rst.pdfbox.layout.shape.Rect;
+import rst.pdfbox.layout.shape.Stroke;
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.text.WidthRespecting;
+import rst.pdfbox.layout.util.GraphicsState;
+import rst.pdfbox.layout.util.GraphicsStateAware;
+
+/**
+ * A table whose rows are taken from a list, an iterable or an iterator. In
+ * contrast to a grid of nested {@link Frame}s, the rows are measured one by
+ * one while the table is {@link #divide(float, float) divided} onto the
+ * pages, and the measurement of a row is released as soon as the page part
+ * containing it has been drawn. So even huge tables are paginated in linear
+ * time. The header rows are repeated on each page.
+ * <p>
+ * The rows of an iterator or iterable are pulled lazily, and kept in a list
+ * shared by the table and all its parts. So a table may be laid out and
+ * rendered any number of times, and dividing never changes the table, but
+ * returns independent parts. A list of rows is used as given, so rows added
+ * to it later are part of the table as well.
+ * <p>
+ * The column widths are computed from the given column widths relative to
+ * the {@link #getMaxWidth() max width}, or - if there is no max width - as
+ * given. A row is never divided, so it must fit on a page, otherwise it is
+ * cut off.
+ */
+public class Table implements Element, Drawable, Dividable, WidthRespecting,
+	Replayable, GraphicsStateAware {
+
+    /**
+     * The height up to which rows are pulled from the iterator in order to
+     * {@link #getHeight() measure} the table. Any table higher than that does
+     * not fit on any page, so its exact height does not matter. This is the
+     * maximum page size allowed by the PDF specification.
+     */
+    public final static float DEFAULT_LOOK_AHEAD_HEIGHT = 14400;
+
+    private final float[] columnWidths;
+    private final List<Row> headerRows;
+    private final RowSource rows;
+    /**
+     * The index of the first row of this table (part) in the row source.
+     */
+    private final int firstRow;
+    /**
+     * The rows from the first row on, already measured with the current
+     * column widths.
+     */
+    private final List<Row> lookAhead;
+    private final TableStyle style;
+    private float[] computedColumnWidths;
+    private float maxWidth = -1;
+    private Position absolutePosition;
+
+    /**
+     * Creates a table with the given column widths, taking its rows from the
+     * given iterator. Each row is a list of cell drawables, one for each
+     * column. {@link WidthRespecting} cells respect the width of their column.
+     *
+     * @param rows
+     *            the rows of the table.
+     * @param columnWidths
+     *            the widths of the columns, relative to the max width if set.
+     */
+    public Table(final Iterator<? extends List<? extends Drawable>> rows,
+	    final float... columnWidths) {
+	this(columnWidths, new ArrayList<Row>(), new RowSource(null, rows), 0,
+		new ArrayList<Row>(), new TableStyle());
+    }
+
+    /**
+     * See {@link #Table(Iterator, float...)}. If the given rows are a
+     * {@link List}, it is used directly.
+     *
+     * @param rows
+     *            the rows of the table.
+     * @param columnWidths
+     *            the widths of the columns, relative to the max width if set.
+     */
+    public Table(final Iterable<? extends List<? extends Drawable>> rows,
+	    final float... columnWidths) {
+	this(columnWidths, new ArrayList<Row>(), new RowSource(rows), 0,
+		new ArrayList<Row>(), new TableStyle());
+    }
+
+    private Table(final float[] columnWidths, final List<Row> headerRows,
+	    final RowSource rows, final int firstRow,
+	    final List<Row> lookAhead, final TableStyle style) {
+	this.columnWidths = columnWidths;
+	this.headerRows = headerRows;
+	this.rows = rows;
+	this.firstRow = firstRow;
+	this.lookAhead = lookAhead;
+	this.style = style;
+    }
+
+    /**
+     * Creates the tail of the given table, starting with the given row.
+     */
+    private Table(final Table table, final int firstRow,
+	    final List<Row> lookAhead) {
+	this(table.columnWidths, table.headerRows, table.rows, firstRow,
+		lookAhead, table.style);
+	this.computedColumnWidths = table.computedColumnWidths;
+	this.maxWidth = table.maxWidth;
+	this.absolutePosition = table.absolutePosition;
+    }
+
+    /**
+     * Adds a header row, which is repeated on each page.
+     *
+     * @param cells
+     *            the cells of the row, one for each column.
+     */
+    public void addHeaderRow(final Drawable... cells) {
+	headerRows.add(new Row(Arrays.asList(cells)));
+    }
+
+    private List<Row> getHeaderRows() throws IOException {
+	for (Row row : headerRows) {
+	    row.measure(getColumnWidths(), style);
+	}
+	return headerRows;
+    }
+
+    /**
+     * @return the padding of each cell.
+     */
+    public float getCellPadding() {
+	return style.cellPadding;
+    }
+
+    /**
+     * Sets the padding of each cell.
+     *
+     * @param cellPadding
+     *            the padding to use.
+     */
+    public void setCellPadding(float cellPadding) {
+	style.cellPadding = cellPadding;
+    }
+
+    /**
+     * @return the color to draw the cell borders with.
+     */
+    public Color getBorderColor() {
+	return style.borderColor;
+    }
+
+    /**
+     * @return the stroke to draw the cell borders with.
+     */
+    public Stroke getBorderStroke() {
+	return style.borderStroke;
+    }
+
+    /**
+     * Sets color and stroke to draw the cell borders with.
+     *
+     * @param borderColor
+     *            the border color, or <code>null</code> for no border.
+     * @param borderStroke
+     *            the stroke to use.
+     */
+    public void setBorder(Color borderColor, Stroke borderStroke) {
+	style.borderColor = borderColor;
+	style.borderStroke = borderStroke;
+    }
+
+    /**
+     * @return the background color of the header rows.
+     */
+    public Color getHeaderBackgroundColor() {
+	return style.headerBackgroundColor;
+    }
+
+    /**
+     * Sets the background color of the header rows.
+     *
+     * @param headerBackgroundColor
+     *            the background color, or <code>null</code>.
+     */
+    public void setHeaderBackgroundColor(Color headerBackgroundColor) {
+	style.headerBackgroundColor = headerBackgroundColor;
+    }
+
+    /**
+     * @return the height up to which rows are pulled from the iterator in
+     *         order to measure the table.
+     */
+    public float getLookAheadHeight() {
+	return style.lookAheadHeight;
+    }
+
+    /**
+     * Sets the height up to which rows are pulled from the iterator in order
+     * to measure the table. Default is {@link #DEFAULT_LOOK_AHEAD_HEIGHT}, it
+     * must not be less than the height of the pages.
+     *
+     * @param lookAheadHeight
+     *            the look ahead height.
+     */
+    public void setLookAheadHeight(float lookAheadHeight) {
+	style.lookAheadHeight = lookAheadHeight;
+    }
+
+    @Override
+    public float getMaxWidth() {
+	return maxWidth;
+    }
+
+    @Override
+    public void setMaxWidth(float maxWidth) {
+	if (this.maxWidth != maxWidth) {
+	    this.maxWidth = maxWidth;
+	    // the rows have to be measured with the new column widths
+	    computedColumnWidths = null;
+	    lookAhead.clear();
+	}
+    }
+
+    /**
+     * @return the column widths, computed on first use.
+     */
+    protected float[] getColumnWidths() {
+	if (computedColumnWidths == null) {
+	    float sum = 0;
+	    for (float width : columnWidths) {
+		sum += width;
+	    }
+	    float scale = maxWidth > 0 && sum > 0 ? maxWidth / sum : 1;
+	    computedColumnWidths = new float[columnWidths.length];
+	    for (int index = 0; index < columnWidths.length; index++) {
+		computedColumnWidths[index] = columnWidths[index] * scale;
+	    }
+	}
+	return computedColumnWidths;
+    }
+
+    @Override
+    public float getWidth() throws IOException {
+	float width = 0;
+	for (float columnWidth : getColumnWidths()) {
+	    width += columnWidth;
+	}
+	return width;
+    }
+
+    /**
+     * Measures rows until either all rows are measured, or the height exceeds
+     * the {@link #getLookAheadHeight() look ahead height}. So this is the
+     * exact height of the table only if the table is not higher than that,
+     * otherwise it is just higher than any page.
+     */
+    @Override
+    public float getHeight() throws IOException {
+	float height = getHeight(getHeaderRows()) + getHeight(lookAhead);
+	while (height <= getLookAheadHeight()
+		&& rows.exists(firstRow + lookAhead.size())) {
+	    Row row = measureRow(firstRow + lookAhead.size());
+	    lookAhead.add(row);
+	    height += row.getHeight();
+	}
+	return height;
+    }
+
+    private static float getHeight(final List<Row> rowList) {
+	float height = 0;
+	for (Row row : rowList) {
+	    height += row.getHeight();
+	}
+	return height;
+    }
+
+    /**
+     * @return the row at the given index of the row source, measured.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    private Row measureRow(final int index) throws IOException {
+	Row row = new Row(rows.get(index));
+	row.measure(getColumnWidths(), style);
+	return row;
+    }
+
+    /**
+     * @return the row at the given index relative to the first row, taken
+     *         from the look ahead if already measured.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    private Row getRow(final int index) throws IOException {
+	if (index < lookAhead.size()) {
+	    return lookAhead.get(index);
+	}
+	return measureRow(firstRow + index);
+    }
+
+    /**
+     * Divides the table into a part containing the header and the rows
+     * fitting into the remaining height, and a tail table containing the
+     * remaining rows. This table is left as it is.
+     */
+    @Override
+    public Divided divide(float remainingHeight, float nextPageHeight)
+	    throws IOException {
+	List<Row> firstRows = new ArrayList<Row>();
+	float height = getHeight(getHeaderRows());
+	int index = 0;
+	while (rows.exists(firstRow + index)) {
+	    Row row = getRow(index);
+	    if (height + row.getHeight() > remainingHeight
+		    && (!firstRows.isEmpty() || height + row.getHeight() <= nextPageHeight)) {
+		// the row does not fit, but either it is not the first one,
+		// or it will fit on the next page
+		break;
+	    }
+	    firstRows.add(row);
+	    height += row.getHeight();
+	    ++index;
+	}
+
+	List<Row> tailLookAhead = new ArrayList<Row>();
+	if (index < lookAhead.size()) {
+	    tailLookAhead.addAll(lookAhead.subList(index, lookAhead.size()));
+	}
+	Table tail = new Table(this, firstRow + index, tailLookAhead);
+	if (firstRows.isEmpty()) {
+	    return new Divided(new VerticalSpacer(remainingHeight), tail);
+	}
+	return new Divided(new Part(getHeaderRows(), firstRows,
+		getColumnWidths(), style), tail);
+    }
+
+    @Override
+    public Position getAbsolutePosition() throws IOException {
+	return absolutePosition;
+    }
+
+    /**
+     * Sets the absolute position to render at.
+     *
+     * @param absolutePosition
+     *            the absolute position.
+     */
+    public void setAbsolutePosition(Position absolutePosition) {
+	this.absolutePosition = absolutePosition;
+    }
+
+    /**
+     * Draws the header and all rows. Usually all rows have already been
+     * measured in order to {@link #getHeight() measure} the table.
+     */
+    @Override
+    public void draw(PDDocument pdDocument, PDPageContentStream contentStream,
+	    Position upperLeft, DrawListener drawListener) throws IOException {
+	float[] widths = getColumnWidths();
+	Position rowUpperLeft = drawRows(pdDocument, contentStream, upperLeft,
+		getHeaderRows(), true, widths, style, drawListener);
+	for (int index = 0; rows.exists(firstRow + index); ++index) {
+	    Row row = getRow(index);
+	    row.draw(pdDocument, contentStream, rowUpperLeft, false, widths,
+		    style, drawListener);
+	    rowUpperLeft = rowUpperLeft.add(0, -row.getHeight());
+	}
+    }
+
+    private static Position drawRows(PDDocument pdDocument,
+	    PDPageContentStream contentStream, Position upperLeft,
+	    final List<Row> rowList, final boolean header,
+	    final float[] widths, final TableStyle style,
+	    DrawListener drawListener) throws IOException {
+	Position rowUpperLeft = upperLeft;
+	for (Row row : rowList) {
+	    row.draw(pdDocument, contentStream, rowUpperLeft, header, widths,
+		    style, drawListener);
+	    rowUpperLeft = rowUpperLeft.add(0, -row.getHeight());
+	}
+	return rowUpperLeft;
+    }
+
+    /**
+     * A table is replayable if all its cells are. This pulls all rows.
+     */
+    @Override
+    public boolean isReplayable() {
+	for (Row row : headerRows) {
+	    if (!isReplayable(row.cells)) {
+		return false;
+	    }
+	}
+	for (int index = firstRow; rows.exists(index); ++index) {
+	    if (!isReplayable(rows.get(index))) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    private static boolean isReplayable(final List<? extends Drawable> cells) {
+	for (Drawable cell : cells) {
+	    if (!(cell instanceof Replayable)
+		    || !((Replayable) cell).isReplayable()) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    @Override
+    public Drawable removeLeadingEmptyVerticalSpace() throws IOException {
+	return this;
+    }
+
+    /**
+     * The style shared by a table and all its parts.
+     */
+    private static class TableStyle {
+	private float cellPadding = 2;
+	private Color borderColor;
+	private Stroke borderStroke = new Stroke();
+	private Color headerBackgroundColor;
+	private float lookAheadHeight = DEFAULT_LOOK_AHEAD_HEIGHT;
+    }
+
+    /**
+     * The rows of a table, shared by the table and all its parts. The rows of
+     * an iterator are pulled on demand and kept, so they are available to
+     * any number of layout and render runs.
+     */
+    private static class RowSource {
+
+	private final List<? extends List<? extends Drawable>> list;
+	private final Iterator<? extends List<? extends Drawable>> iterator;
+	private final List<List<? extends Drawable>> pulled = new ArrayList<List<? extends Drawable>>();
+
+	@SuppressWarnings("unchecked")
+	RowSource(final Iterable<? extends List<? extends Drawable>> rows) {
+	    this(rows instanceof List ? (List<? extends List<? extends Drawable>>) rows
+		    : null, rows instanceof List ? null : rows.iterator());
+	}
+
+	RowSource(final List<? extends List<? extends Drawable>> list,
+		final Iterator<? extends List<? extends Drawable>> iterator) {
+	    this.list = list;
+	    this.iterator = iterator;
+	}
+
+	/**
+	 * @return <code>true</code> if there is a row with the given index.
+	 */
+	boolean exists(final int index) {
+	    if (list != null) {
+		return index < list.size();
+	    }
+	    while (index >= pulled.size() && iterator.hasNext()) {
+		pulled.add(iterator.next());
+	    }
+	    return index < pulled.size();
+	}
+
+	/**
+	 * @return the cells of the row with the given index, which must
+	 *         {@link #exists(int) exist}.
+	 */
+	List<? extends Drawable> get(final int index) {
+	    if (list != null) {
+		return list.get(index);
+	    }
+	    return pulled.get(index);
+	}
+    }
+
+    /**
+     * A row of the table. It only refers to its cells, so it can be released
+     * independently of the table.
+     */
+    private static class Row {
+
+	private final List<? extends Drawable> cells;
+	private float height = -1;
+	private float[] measuredWidths;
+
+	Row(final List<? extends Drawable> cells) {
+	    this.cells = cells;
+	}
+
+	/**
+	 * Sets the max width of the cells and measures the row, if not done
+	 * yet for the given column widths.
+	 */
+	void measure(final float[] widths, final TableStyle style)
+		throws IOException {
+	    if (widths == measuredWidths) {
+		return;
+	    }
+	    measuredWidths = widths;
+	    float max = 0;
+	    for (int index = 0; index < cells.size(); index++) {
+		Drawable cell = cells.get(index);
+		if (cell instanceof WidthRespecting && index < widths.length) {
+		    ((WidthRespecting) cell).setMaxWidth(widths[index] - 2
+			    * style.cellPadding);
+		}
+		max = Math.max(max, cell.getHeight());
+	    }
+	    height = max + 2 * style.cellPadding;
+	}
+
+	float getHeight() {
+	    return height;
+	}
+
+	void draw(PDDocument pdDocument, PDPageContentStream contentStream,
+		Position upperLeft, final boolean header, final float[] widths,
+		final TableStyle style, DrawListener drawListener)
+		throws IOException {
+	    Position cellUpperLeft = upperLeft;
+	    for (int index = 0; index < widths.length; index++) {
+		if (header && style.headerBackgroundColor != null) {
+		    new Rect().fill(pdDocument, contentStream, cellUpperLeft,
+			    widths[index], height, style.headerBackgroundColor,
+			    drawListener);
+		}
+		if (index < cells.size()) {
+		    GraphicsState.drawNested(cells.get(index), pdDocument,
+			    contentStream, cellUpperLeft.add(style.cellPadding,
+				    -style.cellPadding), drawListener);
+		}
+		if (style.borderColor != null && style.borderStroke != null) {
+		    new Rect().draw(pdDocument, contentStream, cellUpperLeft,
+			    widths[index], height, style.borderColor,
+			    style.borderStroke, drawListener);
+		}
+		cellUpperLeft = cellUpperLeft.add(widths[index], 0);
+	    }
+	}
+    }
+
+    /**
+     * The part of the table drawn on one page: the header rows and the rows
+     * fitting on the page.
+     */
+    private static class Part implements Drawable, GraphicsStateAware {
+
+	private final List<Row> headerRows;
+	private final List<Row> partRows;
+	private final float[] widths;
+	private final TableStyle style;
+
+	Part(final List<Row> headerRows, final List<Row> partRows,
+		final float[] widths, final TableStyle style) {
+	    this.headerRows = headerRows;
+	    this.partRows = partRows;
+	    this.widths = widths;
+	    this.style = style;
+	}
+
+	@Override
+	public float getWidth() throws IOException {
+	    float width = 0;
+	    for (float columnWidth : widths) {
+		width += columnWidth;
+	    }
+	    return width;
+	}
+
+	@Override
+	public float getHeight() throws IOException {
+	    return Table.getHeight(headerRows) + Table.getHeight(partRows);
+	}
+
+	@Override
+	public Position getAbsolutePosition() throws IOException {
+	    return null;
+	}
+
+	@Override
+	public void draw(PDDocument pdDocument,
+		PDPageContentStream contentStream, Position upperLeft,
+		DrawListener drawListener) throws IOException {
+	    Position rowUpperLeft = drawRows(pdDocument, contentStream,
+		    upperLeft, headerRows, true, widths, style, drawListener);
+	    drawRows(pdDocument, contentStream, rowUpperLeft, partRows, false,
+		    widths, style, drawListener);
+	}
+
+	@Override
+	public Drawable removeLeadingEmptyVerticalSpace() throws IOException {
+	    return this;
+	}
+    }
+}
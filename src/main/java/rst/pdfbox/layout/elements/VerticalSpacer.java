@@ -6,13 +6,16 @@ import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 
 import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Invalidatable;
 import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.util.GraphicsStateAware;
 
 /**
  * A drawable element that occupies some vertical space without any graphical
  * representation.
  */
-public class VerticalSpacer implements Drawable, Element, Dividable {
+public class VerticalSpacer implements Drawable, Element, Dividable,
+	Invalidatable, Replayable, GraphicsStateAware {
 
     private float height;
 
@@ -36,6 +39,18 @@ public class VerticalSpacer implements Drawable, Element, Dividable {
 	return height;
     }
 
+    /**
+     * A vertical spacer is immutable, so there is nothing to invalidate.
+     */
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void addContainer(Invalidatable container) {
+	// immutable, so containers never need to be invalidated
+    }
+
     @Override
     public Position getAbsolutePosition() {
 	return null;
@@ -56,6 +71,11 @@ public class VerticalSpacer implements Drawable, Element, Dividable {
 		new VerticalSpacer(getHeight() - remainingHeight));
     }
 
+    @Override
+    public boolean isReplayable() {
+	return true;
+    }
+
     @Override
     public Drawable removeLeadingEmptyVerticalSpace() {
 	return this;
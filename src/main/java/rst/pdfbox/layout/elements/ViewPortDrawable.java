@@ -0,0 +1,46 @@
+package rst.pdfbox.layout.elements;
+
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Position;
+
+/**
+ * Optional extension of a {@link Drawable} that is able to draw only a
+ * vertical slice of itself. This is used by the {@link Cutter}, which
+ * otherwise has to draw the complete drawable on every page it spans, relying
+ * on clipping to hide anything outside the page.
+ */
+public interface ViewPortDrawable extends Drawable {
+
+    /**
+     * Draws the object at the given position like
+     * {@link #draw(PDDocument, PDPageContentStream, Position, DrawListener)},
+     * but emits only what is (at least partially) visible in the given
+     * vertical view port. Any content crossing the view port bounds may be
+     * drawn completely, so the caller is still responsible for clipping.
+     *
+     * @param pdDocument
+     *            the underlying pdfbox document.
+     * @param contentStream
+     *            the stream to draw to.
+     * @param upperLeft
+     *            the upper left position to start drawing.
+     * @param viewPortY
+     *            the offset of the view port from the top of the drawable.
+     * @param viewPortHeight
+     *            the height of the view port.
+     * @param drawListener
+     *            the listener to
+     *            {@link DrawListener#drawn(Object, Position, float, float)
+     *            notify} on drawn objects.
+     * @throws IOException
+     *             by pdfbox
+     */
+    void drawViewPort(PDDocument pdDocument, PDPageContentStream contentStream,
+	    Position upperLeft, float viewPortY, float viewPortHeight,
+	    DrawListener drawListener) throws IOException;
+}
@@ -1,30 +1,54 @@
 package rst.pdfbox.layout.elements.render;
 
 import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
 
 import rst.pdfbox.layout.elements.ControlElement;
 import rst.pdfbox.layout.elements.Drawable;
 import rst.pdfbox.layout.elements.Element;
+import rst.pdfbox.layout.text.TextFlow;
+import rst.pdfbox.layout.text.WidthRespecting;
 
 /**
  * The column layout divides the page vertically into columns. You can specify
  * the number of columns and the inter-column spacing. The layouting inside a
  * column is similar to the {@link VerticalLayout}. See there for more details
  * on the possiblities.
+ * <p>
+ * By default the columns are filled one after another. In
+ * {@link #setBalanced(boolean) balanced} mode, the content is distributed
+ * equally across the columns of the last page.
  */
-public class ColumnLayout extends VerticalLayout {
-    
+public class ColumnLayout extends VerticalLayout implements StatefulLayout {
+
     /**
      * Triggers flip to the next column.
      */
     public final static ControlElement NEWCOLUMN = new ControlElement("NEWCOLUMN");
 
+    /**
+     * The maximum number of iterations used to search the balanced column
+     * height.
+     */
+    private final static int MAX_BALANCING_ITERATIONS = 16;
+
+    /**
+     * The tolerance used to compare heights.
+     */
+    private final static float EPSILON = 0.01f;
 
     private final int columnCount;
     private float columnSpacing;
+    private boolean balanced;
     private int columnIndex = 0;
     private Float offsetY = null;
-    
+    private Balancing balancing;
+    private Reference<RenderContext> currentRenderContext;
+
 
     public ColumnLayout(int columnCount) {
 	this(columnCount, 0);
@@ -35,10 +59,30 @@ public class ColumnLayout extends VerticalLayout {
 	this.columnSpacing = columnSpacing;
     }
 
+    /**
+     * @return <code>true</code> if the columns of the last page are balanced.
+     */
+    public boolean isBalanced() {
+	return balanced;
+    }
+
+    /**
+     * Indicates if the columns of the last page should be balanced. If so, the
+     * consecutive drawables following in the document are measured once when
+     * the first of them is rendered, and the minimal column height needed to
+     * distribute the content of the last page across its columns is
+     * calculated. Default is <code>false</code>.
+     *
+     * @param balanced
+     *            <code>true</code> if the columns should be balanced.
+     */
+    public void setBalanced(boolean balanced) {
+	this.balanced = balanced;
+    }
+
     @Override
-    protected float getTargetWidth(final RenderContext renderContext) {
-	return (renderContext.getWidth() - ((columnCount - 1) * columnSpacing))
-		/ columnCount;
+    protected float getTargetWidth(final float width) {
+	return (width - ((columnCount - 1) * columnSpacing)) / columnCount;
     }
 
     /**
@@ -48,9 +92,11 @@ public class ColumnLayout extends VerticalLayout {
     protected void turnPage(final RenderContext renderContext)
 	    throws IOException {
 	if (++columnIndex >= columnCount) {
-	    renderContext.newPage();
+	    // reset before turning the page, so the page checkpoint records
+	    // the state of the new page
 	    columnIndex = 0;
 	    offsetY = 0f;
+	    renderContext.newPage();
 	} else {
 	    float nextColumnX = (getTargetWidth(renderContext) + columnSpacing)
 		    * columnIndex;
@@ -62,6 +108,7 @@ public class ColumnLayout extends VerticalLayout {
     @Override
     public boolean render(RenderContext renderContext, Element element,
             LayoutHint layoutHint) throws IOException {
+	resetOnNewRenderContext(renderContext);
 	if (element == ControlElement.NEWPAGE) {
 	    renderContext.newPage();
 	    return true;
@@ -72,23 +119,444 @@ public class ColumnLayout extends VerticalLayout {
 	}
         return super.render(renderContext, element, layoutHint);
     }
-    
+
     @Override
     public void render(RenderContext renderContext, Drawable drawable,
             LayoutHint layoutHint) throws IOException {
+	resetOnNewRenderContext(renderContext);
 	if (offsetY == null) {
 	    offsetY = renderContext.getUpperLeft().getY() - renderContext.getCurrentPosition().getY();
 	}
+	if (isBalanced()
+		&& drawable.getAbsolutePosition() == null
+		&& (balancing == null || renderContext.getElementIndex() >= balancing.sectionEnd)) {
+	    balancing = balance(renderContext, drawable);
+	}
         super.render(renderContext, drawable, layoutHint);
     }
-    
+
+    /**
+     * Limits the height of all but the last column on the balanced page.
+     */
+    @Override
+    protected float getRemainingHeight(final RenderContext renderContext) {
+	float remainingHeight = super.getRemainingHeight(renderContext);
+	if (balancing != null
+		&& renderContext.getPageIndex() == balancing.pageIndex
+		&& columnIndex < columnCount - 1) {
+	    float columnBottom = renderContext.getUpperLeft().getY() - offsetY
+		    - balancing.height - EPSILON;
+	    remainingHeight = Math.min(remainingHeight, renderContext
+		    .getCurrentPosition().getY() - columnBottom);
+	}
+	return remainingHeight;
+    }
+
+    /**
+     * Measures the given drawable and all drawables following in the
+     * document, and calculates on which page they end and the minimal column
+     * height needed on that page.
+     *
+     * @param renderContext
+     *            the current render context.
+     * @param drawable
+     *            the drawable to render next.
+     * @return the balancing, or <code>null</code> if the drawable is not
+     *         rendered as an element of the document.
+     * @throws IOException
+     *             by pdfbox
+     */
+    private Balancing balance(final RenderContext renderContext,
+	    final Drawable drawable) throws IOException {
+	List<Entry<Element, LayoutHint>> elements = renderContext
+		.getDocument().getElements();
+	int index = renderContext.getElementIndex();
+	if (index < 0 || index >= elements.size()
+		|| elements.get(index).getKey() != drawable) {
+	    return null;
+	}
+
+	List<HeightUnit> units = new ArrayList<HeightUnit>();
+	int sectionEnd = index;
+	while (sectionEnd < elements.size()
+		&& elements.get(sectionEnd).getKey() instanceof Drawable) {
+	    Drawable next = (Drawable) elements.get(sectionEnd).getKey();
+	    if (next.getAbsolutePosition() == null) {
+		addHeightUnits(renderContext, next,
+			elements.get(sectionEnd).getValue(), units);
+	    }
+	    ++sectionEnd;
+	}
+
+	float bottom = renderContext.getPageFormat().getMarginBottom();
+	float top = renderContext.getUpperLeft().getY() - offsetY;
+	float currentY = renderContext.getCurrentPosition().getY();
+	boolean fresh = columnIndex == 0 && currentY == top;
+	int pageIndex = renderContext.getPageIndex();
+	Cursor cursor = new Cursor();
+	while (cursor.index < units.size()) {
+	    if (fresh) {
+		Float height = findBalancedHeight(units, cursor, top - bottom);
+		if (height != null) {
+		    return new Balancing(pageIndex, height, sectionEnd);
+		}
+	    }
+	    // fill the page as usual
+	    Cursor pageStart = new Cursor(cursor);
+	    for (int column = fresh ? 0 : columnIndex; column < columnCount; ++column) {
+		float columnHeight = top - bottom;
+		if (!fresh && column == columnIndex) {
+		    columnHeight = currentY - bottom;
+		}
+		fillColumn(units, cursor, columnHeight);
+	    }
+	    if (fresh && pageStart.equals(cursor)) {
+		// no progress
+		break;
+	    }
+	    ++pageIndex;
+	    top = renderContext.getUpperLeft().getY();
+	    fresh = true;
+	}
+	return new Balancing(-1, 0, sectionEnd);
+    }
+
+    /**
+     * Adds the heights of the given drawable (including margins) as they are
+     * divided by the layout.
+     */
+    private void addHeightUnits(final RenderContext renderContext,
+	    final Drawable drawable, final LayoutHint layoutHint,
+	    final List<HeightUnit> units) throws IOException {
+	float targetWidth = getTargetWidth(renderContext);
+	VerticalLayoutHint verticalLayoutHint = null;
+	if (layoutHint instanceof VerticalLayoutHint) {
+	    verticalLayoutHint = (VerticalLayoutHint) layoutHint;
+	    targetWidth -= verticalLayoutHint.getMarginLeft();
+	    targetWidth -= verticalLayoutHint.getMarginRight();
+	    if (verticalLayoutHint.getMarginTop() > 0) {
+		units.add(new HeightUnit(verticalLayoutHint.getMarginTop(),
+			true));
+	    }
+	}
+
+	float oldMaxWidth = -1;
+	if (drawable instanceof WidthRespecting) {
+	    oldMaxWidth = ((WidthRespecting) drawable).getMaxWidth();
+	    if (oldMaxWidth < 0) {
+		((WidthRespecting) drawable).setMaxWidth(targetWidth);
+	    }
+	}
+	if (drawable instanceof TextFlow) {
+	    // text is divided between lines
+	    for (float lineHeight : ((TextFlow) drawable).getLineHeights()) {
+		units.add(new HeightUnit(lineHeight, false));
+	    }
+	} else {
+	    units.add(new HeightUnit(drawable.getHeight(), true));
+	}
+	if (drawable instanceof WidthRespecting && oldMaxWidth < 0) {
+	    ((WidthRespecting) drawable).setMaxWidth(oldMaxWidth);
+	}
+
+	if (verticalLayoutHint != null
+		&& verticalLayoutHint.getMarginBottom() > 0) {
+	    units.add(new HeightUnit(verticalLayoutHint.getMarginBottom(),
+		    true));
+	}
+    }
+
+    /**
+     * Searches the minimal column height needed to fit the remaining units
+     * into the columns of one page by a bounded binary search.
+     *
+     * @param units
+     *            the units to fit.
+     * @param start
+     *            the first unit to fit.
+     * @param columnHeight
+     *            the available column height.
+     * @return the column height, or <code>null</code> if the units do not fit
+     *         on one page.
+     */
+    private Float findBalancedHeight(final List<HeightUnit> units,
+	    final Cursor start, final float columnHeight) {
+	if (fillColumns(units, start, columnHeight) < 0) {
+	    return null;
+	}
+	float total = -start.consumed;
+	float low = 0;
+	for (int index = start.index; index < units.size(); ++index) {
+	    HeightUnit unit = units.get(index);
+	    total += unit.height;
+	    if (!unit.divisible) {
+		low = Math.max(low, unit.height);
+	    }
+	}
+	low = Math.max(low, total / columnCount);
+	float high = columnHeight;
+	for (int i = 0; i < MAX_BALANCING_ITERATIONS && high - low > EPSILON; ++i) {
+	    float middle = (low + high) / 2;
+	    if (fillColumns(units, start, middle) < 0) {
+		low = middle;
+	    } else {
+		high = middle;
+	    }
+	}
+	return fillColumns(units, start, high);
+    }
+
+    /**
+     * Fills the units into the columns of one page.
+     *
+     * @return the height of the highest column, or <code>-1</code> if the
+     *         units do not fit.
+     */
+    private float fillColumns(final List<HeightUnit> units,
+	    final Cursor start, final float columnHeight) {
+	Cursor cursor = new Cursor(start);
+	float maxHeight = 0;
+	for (int column = 0; column < columnCount; ++column) {
+	    maxHeight = Math.max(maxHeight,
+		    fillColumn(units, cursor, columnHeight));
+	}
+	if (cursor.index < units.size()) {
+	    return -1;
+	}
+	return maxHeight;
+    }
+
+    /**
+     * Fills the units into a column like the layout does, and moves the cursor
+     * to the first unit not fitting anymore.
+     *
+     * @return the height filled.
+     */
+    private float fillColumn(final List<HeightUnit> units,
+	    final Cursor cursor, final float columnHeight) {
+	float filled = 0;
+	while (cursor.index < units.size()) {
+	    HeightUnit unit = units.get(cursor.index);
+	    float rest = unit.height - cursor.consumed;
+	    if (filled + rest <= columnHeight + EPSILON) {
+		filled += rest;
+		cursor.next();
+	    } else {
+		if (unit.divisible) {
+		    cursor.consumed += columnHeight - filled;
+		    filled = columnHeight;
+		} else if (filled == 0) {
+		    // does not fit at all, so it is drawn anyway
+		    filled = rest;
+		    cursor.next();
+		}
+		break;
+	    }
+	}
+	return filled;
+    }
+
+    /**
+     * Resets the column state if the layout is used by another render context,
+     * e.g. if a document is {@link rst.pdfbox.layout.elements.Document#layout()
+     * laid out} before it is rendered.
+     *
+     * @param renderContext
+     *            the current render context.
+     */
+    private void resetOnNewRenderContext(final RenderContext renderContext) {
+	if (currentRenderContext == null
+		|| currentRenderContext.get() != renderContext) {
+	    currentRenderContext = new WeakReference<RenderContext>(
+		    renderContext);
+	    columnIndex = 0;
+	    offsetY = null;
+	    balancing = null;
+	}
+    }
+
+    @Override
+    public Object saveState(final RenderContext renderContext) {
+	resetOnNewRenderContext(renderContext);
+	return new ColumnState(columnIndex, offsetY, balancing);
+    }
+
+    @Override
+    public void restoreState(final RenderContext renderContext,
+	    final Object state) {
+	resetOnNewRenderContext(renderContext);
+	ColumnState columnState = (ColumnState) state;
+	columnIndex = columnState.columnIndex;
+	offsetY = columnState.offsetY;
+	balancing = columnState.balancing;
+    }
+
     @Override
     protected boolean isPositionTopOfPage(final RenderContext renderContext) {
 	float topPosition = renderContext.getUpperLeft().getY();
-	if (offsetY != null) { 
+	if (offsetY != null) {
 	    topPosition -= offsetY;
 	}
 	return renderContext.getCurrentPosition().getY() == topPosition;
     }
 
-}
\ No newline at end of file
+    /**
+     * The height of a part of the content, e.g. a line of text.
+     */
+    private static class HeightUnit {
+
+	private final float height;
+	private final boolean divisible;
+
+	public HeightUnit(final float height, final boolean divisible) {
+	    this.height = height;
+	    this.divisible = divisible;
+	}
+    }
+
+    /**
+     * Points to the next unit to fit, which might have been fit partially
+     * already.
+     */
+    private static class Cursor {
+
+	private int index;
+	private float consumed;
+
+	public Cursor() {
+	}
+
+	public Cursor(final Cursor cursor) {
+	    this.index = cursor.index;
+	    this.consumed = cursor.consumed;
+	}
+
+	public void next() {
+	    ++index;
+	    consumed = 0;
+	}
+
+	@Override
+	public int hashCode() {
+	    return 31 * index + Float.floatToIntBits(consumed);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (!(obj instanceof Cursor)) {
+		return false;
+	    }
+	    Cursor other = (Cursor) obj;
+	    return index == other.index && consumed == other.consumed;
+	}
+    }
+
+    /**
+     * The balanced column height of the page the drawables up to the end of
+     * the section end on.
+     */
+    private static class Balancing {
+
+	private final int pageIndex;
+	private final float height;
+	private final int sectionEnd;
+
+	public Balancing(final int pageIndex, final float height,
+		final int sectionEnd) {
+	    this.pageIndex = pageIndex;
+	    this.height = height;
+	    this.sectionEnd = sectionEnd;
+	}
+
+	@Override
+	public int hashCode() {
+	    final int prime = 31;
+	    int result = 1;
+	    result = prime * result + pageIndex;
+	    result = prime * result + Float.floatToIntBits(height);
+	    result = prime * result + sectionEnd;
+	    return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj)
+		return true;
+	    if (obj == null)
+		return false;
+	    if (getClass() != obj.getClass())
+		return false;
+	    Balancing other = (Balancing) obj;
+	    return pageIndex == other.pageIndex
+		    && Float.floatToIntBits(height) == Float
+			    .floatToIntBits(other.height)
+		    && sectionEnd == other.sectionEnd;
+	}
+
+	@Override
+	public String toString() {
+	    return "Balancing [pageIndex=" + pageIndex + ", height=" + height
+		    + ", sectionEnd=" + sectionEnd + "]";
+	}
+    }
+
+    /**
+     * The state of a column layout, see {@link StatefulLayout}.
+     */
+    private static class ColumnState {
+
+	private final int columnIndex;
+	private final Float offsetY;
+	private final Balancing balancing;
+
+	public ColumnState(final int columnIndex, final Float offsetY,
+		final Balancing balancing) {
+	    this.columnIndex = columnIndex;
+	    this.offsetY = offsetY;
+	    this.balancing = balancing;
+	}
+
+	@Override
+	public int hashCode() {
+	    final int prime = 31;
+	    int result = 1;
+	    result = prime * result + columnIndex;
+	    result = prime * result
+		    + ((offsetY == null) ? 0 : offsetY.hashCode());
+	    result = prime * result
+		    + ((balancing == null) ? 0 : balancing.hashCode());
+	    return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj)
+		return true;
+	    if (obj == null)
+		return false;
+	    if (getClass() != obj.getClass())
+		return false;
+	    ColumnState other = (ColumnState) obj;
+	    if (columnIndex != other.columnIndex)
+		return false;
+	    if (offsetY == null) {
+		if (other.offsetY != null)
+		    return false;
+	    } else if (!offsetY.equals(other.offsetY))
+		return false;
+	    if (balancing == null) {
+		if (other.balancing != null)
+		    return false;
+	    } else if (!balancing.equals(other.balancing))
+		return false;
+	    return true;
+	}
+
+	@Override
+	public String toString() {
+	    return "ColumnState [columnIndex=" + columnIndex + ", offsetY="
+		    + offsetY + ", balancing=" + balancing + "]";
+	}
+    }
+
+}
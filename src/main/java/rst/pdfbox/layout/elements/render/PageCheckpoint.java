@@ -0,0 +1,235 @@
+package rst.pdfbox.layout.elements.render;
+
+import rst.pdfbox.layout.elements.Document;
+import rst.pdfbox.layout.elements.Drawable;
+import rst.pdfbox.layout.elements.Element;
+import rst.pdfbox.layout.elements.PageFormat;
+import rst.pdfbox.layout.text.Position;
+
+/**
+ * The state of the render context at the beginning of a page, recorded on
+ * each {@link RenderContext#newPage() new page}. It allows to
+ * {@link Document#render(org.apache.pdfbox.pdmodel.PDDocument, int) resume}
+ * rendering on that page if the document has been changed afterwards, and to
+ * detect if a rendering run has re-converged with the previous one.
+ * <p>
+ * A checkpoint is {@link #isResumable() resumable}, if the page starts
+ * in-between two elements, or with the divided tail of an element rendered by
+ * a {@link VerticalLayout}. If e.g. a custom renderer turned the page, the
+ * remaining part of the element is not known.
+ */
+public class PageCheckpoint {
+
+    private final int pageIndex;
+    private final int elementIndex;
+    private final Element dividedElement;
+    private final Drawable dividedTail;
+    private final LayoutHint layoutHint;
+    private final ElementStart dividedElementStart;
+    private final Layout layout;
+    private final Object layoutState;
+    private final PageFormat pageFormat;
+    private final PageFormat nextPageFormat;
+    private final Position markedPosition;
+
+    PageCheckpoint(final int pageIndex, final int elementIndex,
+	    final Element dividedElement, final Drawable dividedTail,
+	    final LayoutHint layoutHint,
+	    final ElementStart dividedElementStart, final Layout layout,
+	    final Object layoutState, final PageFormat pageFormat,
+	    final PageFormat nextPageFormat, final Position markedPosition) {
+	this.pageIndex = pageIndex;
+	this.elementIndex = elementIndex;
+	this.dividedElement = dividedElement;
+	this.dividedTail = dividedTail;
+	this.layoutHint = layoutHint;
+	this.dividedElementStart = dividedElementStart;
+	this.layout = layout;
+	this.layoutState = layoutState;
+	this.pageFormat = pageFormat;
+	this.nextPageFormat = nextPageFormat;
+	this.markedPosition = markedPosition;
+    }
+
+    /**
+     * @return the index of the page (starting from 0).
+     */
+    public int getPageIndex() {
+	return pageIndex;
+    }
+
+    /**
+     * @return the index of the next element to render after the
+     *         {@link #getDividedTail() divided tail}, or <code>-1</code> if
+     *         the checkpoint is not {@link #isResumable() resumable}.
+     */
+    public int getElementIndex() {
+	return elementIndex;
+    }
+
+    /**
+     * @return <code>true</code> if rendering may be resumed at this page.
+     */
+    public boolean isResumable() {
+	return elementIndex >= 0;
+    }
+
+    /**
+     * @return the element divided by the page break, may be <code>null</code>
+     *         .
+     */
+    public Element getDividedElement() {
+	return dividedElement;
+    }
+
+    /**
+     * @return the remaining part of the {@link #getDividedElement() divided
+     *         element} to render on this page first, may be <code>null</code>
+     *         .
+     */
+    public Drawable getDividedTail() {
+	return dividedTail;
+    }
+
+    /**
+     * @return the layout hint of the divided element.
+     */
+    public LayoutHint getLayoutHint() {
+	return layoutHint;
+    }
+
+    ElementStart getDividedElementStart() {
+	return dividedElementStart;
+    }
+
+    /**
+     * @return the layout used at the beginning of the page.
+     */
+    public Layout getLayout() {
+	return layout;
+    }
+
+    /**
+     * @return the {@link StatefulLayout#saveState(RenderContext) state} of the
+     *         layout, or <code>null</code> if the layout is not stateful.
+     */
+    public Object getLayoutState() {
+	return layoutState;
+    }
+
+    /**
+     * @return the page format of the page.
+     */
+    public PageFormat getPageFormat() {
+	return pageFormat;
+    }
+
+    /**
+     * @return the page format to use for the next page, may be
+     *         <code>null</code>.
+     */
+    public PageFormat getNextPageFormat() {
+	return nextPageFormat;
+    }
+
+    /**
+     * @return the marked position, may be <code>null</code>.
+     */
+    public Position getMarkedPosition() {
+	return markedPosition;
+    }
+
+    /**
+     * Indicates if rendering from this checkpoint on would produce the same
+     * pages as rendering from the given checkpoint of a previous run, assuming
+     * that all elements after the changed element are unchanged.
+     *
+     * @param previous
+     *            the checkpoint of the same page of the previous run.
+     * @param changedElementIndex
+     *            the index of the changed element.
+     * @return <code>true</code> if the pages of the previous run may be
+     *         reused from here on.
+     */
+    boolean convergesWith(final PageCheckpoint previous,
+	    final int changedElementIndex) {
+	if (!isResumable() || !previous.isResumable()) {
+	    return false;
+	}
+	if (elementIndex - 1 <= changedElementIndex
+		|| pageIndex != previous.pageIndex
+		|| elementIndex != previous.elementIndex
+		|| layout != previous.layout
+		|| pageFormat != previous.pageFormat
+		|| nextPageFormat != previous.nextPageFormat
+		|| !equals(layoutState, previous.layoutState)
+		|| !equals(markedPosition, previous.markedPosition)) {
+	    return false;
+	}
+	if (dividedTail == null || previous.dividedTail == null) {
+	    return dividedTail == previous.dividedTail;
+	}
+	// the tails are equal, if the element has been started on the same
+	// page at the same position
+	return dividedElement == previous.dividedElement
+		&& dividedElementStart.equals(previous.dividedElementStart);
+    }
+
+    private static boolean equals(final Object one, final Object other) {
+	if (one == null) {
+	    return other == null;
+	}
+	return one.equals(other);
+    }
+
+    @Override
+    public String toString() {
+	return "PageCheckpoint [pageIndex=" + pageIndex + ", elementIndex="
+		+ elementIndex + ", dividedTail=" + dividedTail + ", layout="
+		+ layout + ", layoutState=" + layoutState + ", pageFormat="
+		+ pageFormat + ", markedPosition=" + markedPosition + "]";
+    }
+
+    /**
+     * The state the rendering of an element has been started with.
+     */
+    static class ElementStart {
+
+	private final int pageIndex;
+	private final Position position;
+	private final Object layoutState;
+
+	ElementStart(final int pageIndex, final Position position,
+		final Object layoutState) {
+	    this.pageIndex = pageIndex;
+	    this.position = position;
+	    this.layoutState = layoutState;
+	}
+
+	@Override
+	public int hashCode() {
+	    final int prime = 31;
+	    int result = 1;
+	    result = prime * result + pageIndex;
+	    result = prime * result
+		    + ((position == null) ? 0 : position.hashCode());
+	    result = prime * result
+		    + ((layoutState == null) ? 0 : layoutState.hashCode());
+	    return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj)
+		return true;
+	    if (obj == null)
+		return false;
+	    if (getClass() != obj.getClass())
+		return false;
+	    ElementStart other = (ElementStart) obj;
+	    return pageIndex == other.pageIndex
+		    && PageCheckpoint.equals(position, other.position)
+		    && PageCheckpoint.equals(layoutState, other.layoutState);
+	}
+    }
+}
@@ -0,0 +1,171 @@
+package rst.pdfbox.layout.elements.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import rst.pdfbox.layout.elements.Document;
+import rst.pdfbox.layout.elements.Element;
+import rst.pdfbox.layout.elements.PositionControl;
+import rst.pdfbox.layout.text.Position;
+
+/**
+ * The result of a {@link Document#layout() layout-only} run: the number of
+ * pages, the pages and positions each element has been placed at, and all
+ * {@link PositionControl#createMarkPosition() marked positions}. This allows
+ * e.g. to print <em>page X of Y</em> or to build an index without rendering
+ * the document twice.
+ */
+public class PageMap {
+
+    private final Map<Element, List<Placement>> placements = new IdentityHashMap<Element, List<Placement>>();
+    private final List<Placement> markedPositions = new ArrayList<Placement>();
+    private Element currentElement;
+    private int pageCount;
+
+    /**
+     * @return the number of pages.
+     */
+    public int getPageCount() {
+	return pageCount;
+    }
+
+    /**
+     * Returns all placements of the given element. An element divided onto
+     * multiple pages has one placement for each part.
+     *
+     * @param element
+     *            the element added to the document.
+     * @return the placements in rendering order, may be empty.
+     */
+    public List<Placement> getPlacements(final Element element) {
+	List<Placement> result = placements.get(element);
+	if (result == null) {
+	    return Collections.emptyList();
+	}
+	return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @param element
+     *            the element added to the document.
+     * @return the index of the page (starting from 0) the element starts on,
+     *         or <code>-1</code> if it has not been placed.
+     */
+    public int getPageIndex(final Element element) {
+	List<Placement> result = placements.get(element);
+	if (result == null) {
+	    return -1;
+	}
+	return result.get(0).getPageIndex();
+    }
+
+    /**
+     * @param element
+     *            the element added to the document.
+     * @return the upper left position the element starts at, or
+     *         <code>null</code> if it has not been placed.
+     */
+    public Position getPosition(final Element element) {
+	List<Placement> result = placements.get(element);
+	if (result == null) {
+	    return null;
+	}
+	return result.get(0).getUpperLeft();
+    }
+
+    /**
+     * @return the marked positions in rendering order.
+     */
+    public List<Placement> getMarkedPositions() {
+	return Collections.unmodifiableList(markedPositions);
+    }
+
+    void setCurrentElement(final Element element) {
+	this.currentElement = element;
+    }
+
+    Element getCurrentElement() {
+	return currentElement;
+    }
+
+    void place(final int pageIndex, final Position upperLeft,
+	    final float width, final float height) {
+	if (currentElement == null) {
+	    return;
+	}
+	List<Placement> elementPlacements = placements.get(currentElement);
+	if (elementPlacements == null) {
+	    elementPlacements = new ArrayList<Placement>();
+	    placements.put(currentElement, elementPlacements);
+	}
+	elementPlacements.add(new Placement(pageIndex, upperLeft, width,
+		height));
+    }
+
+    void mark(final int pageIndex, final Position position) {
+	markedPositions.add(new Placement(pageIndex, position, 0, 0));
+	place(pageIndex, position, 0, 0);
+    }
+
+    void setPageCount(final int pageCount) {
+	this.pageCount = pageCount;
+    }
+
+    /**
+     * The area an element (or a part of it) has been placed at.
+     */
+    public static class Placement {
+
+	private final int pageIndex;
+	private final Position upperLeft;
+	private final float width;
+	private final float height;
+
+	Placement(final int pageIndex, final Position upperLeft,
+		final float width, final float height) {
+	    this.pageIndex = pageIndex;
+	    this.upperLeft = upperLeft;
+	    this.width = width;
+	    this.height = height;
+	}
+
+	/**
+	 * @return the index of the page (starting from 0).
+	 */
+	public int getPageIndex() {
+	    return pageIndex;
+	}
+
+	/**
+	 * @return the upper left position in pdf coord space (origin in lower
+	 *         left corner).
+	 */
+	public Position getUpperLeft() {
+	    return upperLeft;
+	}
+
+	/**
+	 * @return the width.
+	 */
+	public float getWidth() {
+	    return width;
+	}
+
+	/**
+	 * @return the height.
+	 */
+	public float getHeight() {
+	    return height;
+	}
+
+	@Override
+	public String toString() {
+	    return "Placement [pageIndex=" + pageIndex + ", upperLeft="
+		    + upperLeft + ", width=" + width + ", height=" + height
+		    + "]";
+	}
+    }
+}
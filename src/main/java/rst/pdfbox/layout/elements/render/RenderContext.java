@@ -2,6 +2,10 @@ package rst.pdfbox.layout.elements.render;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
@@ -10,6 +14,7 @@ import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 
 import rst.pdfbox.layout.elements.ControlElement;
 import rst.pdfbox.layout.elements.Document;
+import rst.pdfbox.layout.elements.Drawable;
 import rst.pdfbox.layout.elements.Element;
 import rst.pdfbox.layout.elements.Orientation;
 import rst.pdfbox.layout.elements.PageFormat;
@@ -17,11 +22,16 @@ import rst.pdfbox.layout.elements.PositionControl;
 import rst.pdfbox.layout.elements.PositionControl.MarkPosition;
 import rst.pdfbox.layout.elements.PositionControl.MovePosition;
 import rst.pdfbox.layout.elements.PositionControl.SetPosition;
+import rst.pdfbox.layout.elements.Replayable;
+import rst.pdfbox.layout.elements.VerticalSpacer;
+import rst.pdfbox.layout.elements.render.PageCheckpoint.ElementStart;
 import rst.pdfbox.layout.text.DrawContext;
 import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.PlaceholderDrawListener;
 import rst.pdfbox.layout.text.Position;
 import rst.pdfbox.layout.text.annotations.AnnotationDrawListener;
 import rst.pdfbox.layout.util.CompatibilityHelper;
+import rst.pdfbox.layout.util.GraphicsState;
 
 /**
  * The render context is a container providing all state of the current
@@ -34,6 +44,8 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
     private PDPage page;
     private int pageIndex = 0;
     private PDPageContentStream contentStream;
+    private GraphicsState graphicsState;
+    private boolean pageOpen;
     private Position currentPosition;
     private Position markedPosition;
     private Position maxPositionOnPage;
@@ -43,6 +55,20 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
     private PageFormat pageFormat;
 
     private AnnotationDrawListener annotationDrawListener;
+    private PlaceholderDrawListener placeholderDrawListener;
+    private final PageMap pageMap;
+
+    private final List<PageCheckpoint> checkpoints = new ArrayList<PageCheckpoint>();
+    private final PDDocument previousPdDocument;
+    private final List<PageCheckpoint> previousCheckpoints;
+    private final int changedElementIndex;
+    private PageCheckpoint resumedCheckpoint;
+    private boolean converged;
+    private int elementIndex = -1;
+    private Element currentElement;
+    private ElementStart elementStart;
+    private Drawable dividedTail;
+    private LayoutHint dividedLayoutHint;
 
     /**
      * Creates a render context.
@@ -56,13 +82,327 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
      */
     public RenderContext(Document document, PDDocument pdDocument)
 	    throws IOException {
+	this(document, pdDocument, null, null, -1);
+    }
+
+    /**
+     * Creates a render context resuming a previous rendering run of the given
+     * document, after the element with the given index has been changed. The
+     * pages of the previous run are reused up to the last
+     * {@link PageCheckpoint#isResumable() resumable} checkpoint before the
+     * changed element, and rendering resumes with the
+     * {@link #getResumedCheckpoint() resumed checkpoint}. As soon as the
+     * checkpoint of a new page equals the one of the previous run, the
+     * remaining pages of the previous run are reused, and the context
+     * {@link #isConverged() converged}. If any element of the document is not
+     * {@link Replayable replayable}, all elements are rendered.
+     * 
+     * @param document
+     *            the document to render.
+     * @param pdDocument
+     *            the underlying pdfbox document.
+     * @param previousPdDocument
+     *            the document created by the previous run, may be
+     *            <code>null</code> for a complete rendering.
+     * @param previousCheckpoints
+     *            the {@link #getCheckpoints() checkpoints} of the previous
+     *            run, may be <code>null</code> for a complete rendering.
+     * @param changedElementIndex
+     *            the index of the changed element.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public RenderContext(Document document, PDDocument pdDocument,
+	    PDDocument previousPdDocument,
+	    List<PageCheckpoint> previousCheckpoints, int changedElementIndex)
+	    throws IOException {
 	this.document = document;
 	this.pdDocument = pdDocument;
 	this.pageFormat = document.getPageFormat();
 	this.annotationDrawListener = new AnnotationDrawListener(this);
+	this.placeholderDrawListener = new PlaceholderDrawListener(this);
+	this.pageMap = null;
+	if (previousPdDocument == null || previousCheckpoints == null) {
+	    this.previousPdDocument = null;
+	    this.previousCheckpoints = null;
+	    this.changedElementIndex = -1;
+	} else {
+	    this.previousPdDocument = previousPdDocument;
+	    this.previousCheckpoints = previousCheckpoints;
+	    this.changedElementIndex = changedElementIndex;
+	    PageCheckpoint checkpoint = findResumableCheckpoint();
+	    if (checkpoint != null) {
+		resume(checkpoint);
+		return;
+	    }
+	}
 	newPage();
     }
 
+    /**
+     * Creates a render context for a layout-only run. The layout is performed
+     * as usual, but nothing is drawn and no pdfbox objects are created, so
+     * there is neither a {@link #getPdDocument() document}, nor a
+     * {@link #getCurrentPage() page} or {@link #getContentStream() content
+     * stream}. Instead the placement of each element is recorded in the
+     * {@link #getPageMap() page map}. {@link RenderListener}s are not called.
+     * 
+     * @param document
+     *            the document to layout.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public RenderContext(Document document) throws IOException {
+	this.document = document;
+	this.pdDocument = null;
+	this.pageFormat = document.getPageFormat();
+	this.pageMap = new PageMap();
+	this.previousPdDocument = null;
+	this.previousCheckpoints = null;
+	this.changedElementIndex = -1;
+	newPage();
+    }
+
+    /**
+     * @return the last resumable checkpoint of the previous run before the
+     *         changed element, or <code>null</code> if there is none.
+     */
+    private PageCheckpoint findResumableCheckpoint() {
+	if (!isReplayable()) {
+	    return null;
+	}
+	int pageCount = Math.min(previousCheckpoints.size(),
+		previousPdDocument.getNumberOfPages());
+	for (int index = pageCount - 1; index >= 0; --index) {
+	    PageCheckpoint checkpoint = previousCheckpoints.get(index);
+	    if (checkpoint.isResumable()
+		    && checkpoint.getElementIndex() <= changedElementIndex) {
+		return checkpoint;
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Not only the elements rendered again have to be replayable: the pages of
+     * the previous run are reused as they are, so a hyperlink on a reused page
+     * could not refer to an anchor on a page rendered again, and vice versa.
+     * 
+     * @return <code>true</code> if all elements of the document are
+     *         {@link Replayable replayable}.
+     */
+    private boolean isReplayable() {
+	for (Entry<Element, LayoutHint> entry : document.getElements()) {
+	    Element element = entry.getKey();
+	    if (!(element instanceof Replayable)
+		    || !((Replayable) element).isReplayable()) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Reuses the pages of the previous run before the given checkpoint,
+     * restores the state of the checkpoint and opens its page.
+     * 
+     * @param checkpoint
+     *            the checkpoint to resume.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    private void resume(final PageCheckpoint checkpoint) throws IOException {
+	reusePreviousPages(0, checkpoint.getPageIndex());
+
+	this.pageIndex = checkpoint.getPageIndex();
+	this.pageFormat = checkpoint.getPageFormat();
+	this.nextPageFormat = checkpoint.getNextPageFormat();
+	this.markedPosition = checkpoint.getMarkedPosition();
+	this.layout = checkpoint.getLayout();
+	if (layout instanceof StatefulLayout) {
+	    ((StatefulLayout) layout).restoreState(this,
+		    checkpoint.getLayoutState());
+	}
+	this.elementIndex = checkpoint.getElementIndex() - 1;
+	this.currentElement = checkpoint.getDividedElement();
+	this.elementStart = checkpoint.getDividedElementStart();
+	this.resumedCheckpoint = checkpoint;
+
+	checkpoints.add(checkpoint);
+	openPage();
+    }
+
+    /**
+     * Adds the pages of the previous run to the document.
+     * 
+     * @param fromIndex
+     *            the index of the first page to reuse.
+     * @param toIndex
+     *            the index after the last page to reuse.
+     */
+    private void reusePreviousPages(final int fromIndex, final int toIndex) {
+	List<PDPage> pages = new ArrayList<PDPage>();
+	for (int index = fromIndex; index < toIndex; ++index) {
+	    pages.add(CompatibilityHelper.getPage(previousPdDocument, index));
+	}
+	for (int index = fromIndex; index < toIndex; ++index) {
+	    pdDocument.addPage(pages.get(index - fromIndex));
+	    checkpoints.add(previousCheckpoints.get(index));
+	}
+    }
+
+    /**
+     * @return <code>true</code> if this context performs the layout only,
+     *         without drawing anything. This is also the case, if a resumed
+     *         rendering {@link #isConverged() converged}.
+     */
+    public boolean isLayoutOnly() {
+	return pageMap != null || converged;
+    }
+
+    /**
+     * @return the checkpoints recorded on each new page. If the rendering
+     *         {@link #isConverged() converged}, the checkpoints of the
+     *         reused pages are taken from the previous run.
+     */
+    public List<PageCheckpoint> getCheckpoints() {
+	return Collections.unmodifiableList(checkpoints);
+    }
+
+    /**
+     * @return the checkpoint rendering has been resumed from, or
+     *         <code>null</code> if rendering starts with the first element.
+     */
+    public PageCheckpoint getResumedCheckpoint() {
+	return resumedCheckpoint;
+    }
+
+    /**
+     * @return <code>true</code> if the remaining pages of the previous
+     *         rendering run have been reused, so nothing has to be rendered
+     *         anymore.
+     */
+    public boolean isConverged() {
+	return converged;
+    }
+
+    /**
+     * @return the page map recorded by a {@link #isLayoutOnly() layout-only}
+     *         run, otherwise <code>null</code>.
+     */
+    public PageMap getPageMap() {
+	return pageMap;
+    }
+
+    /**
+     * Called before the given element is rendered. In a
+     * {@link #isLayoutOnly() layout-only} run, anything drawn is recorded as
+     * a placement of this element.
+     * 
+     * @param index
+     *            the index of the element in the document.
+     * @param element
+     *            the element to render next.
+     */
+    public void beforeElement(final int index, final Element element) {
+	this.elementIndex = index;
+	this.currentElement = element;
+	this.dividedTail = null;
+	this.dividedLayoutHint = null;
+	if (pageMap != null) {
+	    pageMap.setCurrentElement(element);
+	} else if (!isLayoutOnly()) {
+	    elementStart = new ElementStart(getPageIndex(),
+		    getCurrentPosition(), saveLayoutState());
+	}
+    }
+
+    /**
+     * @return the index of the document element currently rendered, or
+     *         <code>-1</code> if rendering has not started yet.
+     */
+    public int getElementIndex() {
+	return elementIndex;
+    }
+
+    /**
+     * Called by the layout before it turns the page while dividing a drawable,
+     * so the remaining part is recorded in the {@link PageCheckpoint} of the
+     * next page.
+     * 
+     * @param drawable
+     *            the drawable being divided.
+     * @param tail
+     *            the remaining part to be rendered on the next page.
+     * @param layoutHint
+     *            the layout hint of the drawable.
+     */
+    public void setDividedTail(final Drawable drawable, final Drawable tail,
+	    final LayoutHint layoutHint) {
+	if (drawable == currentElement) {
+	    this.dividedTail = tail;
+	    this.dividedLayoutHint = layoutHint;
+	} else {
+	    // e.g. a spacer, the element itself is not known
+	    this.dividedTail = null;
+	    this.dividedLayoutHint = null;
+	}
+    }
+
+    /**
+     * @return a checkpoint of the current state.
+     */
+    private PageCheckpoint createCheckpoint() {
+	int nextElementIndex = -1;
+	if (dividedTail != null) {
+	    nextElementIndex = elementIndex + 1;
+	} else if (elementIndex < 0
+		|| currentElement instanceof ControlElement) {
+	    nextElementIndex = elementIndex + 1;
+	}
+	PageCheckpoint checkpoint = new PageCheckpoint(getPageIndex(),
+		nextElementIndex, dividedTail != null ? currentElement : null,
+		dividedTail, dividedLayoutHint,
+		dividedTail != null ? elementStart : null, getLayout(),
+		saveLayoutState(), getPageFormat(), nextPageFormat,
+		getMarkedPosition());
+	dividedTail = null;
+	dividedLayoutHint = null;
+	return checkpoint;
+    }
+
+    private Object saveLayoutState() {
+	if (getLayout() instanceof StatefulLayout) {
+	    return ((StatefulLayout) getLayout()).saveState(this);
+	}
+	return null;
+    }
+
+    /**
+     * Checks if the given checkpoint equals the one of the previous run, and
+     * if so reuses the remaining pages of the previous run.
+     * 
+     * @param checkpoint
+     *            the checkpoint of the new page.
+     * @return <code>true</code> if the rendering converged.
+     */
+    private boolean converge(final PageCheckpoint checkpoint) {
+	if (previousCheckpoints == null) {
+	    return false;
+	}
+	int pageCount = Math.min(previousCheckpoints.size(),
+		previousPdDocument.getNumberOfPages());
+	if (getPageIndex() >= pageCount
+		|| !checkpoint.convergesWith(
+			previousCheckpoints.get(getPageIndex()),
+			changedElementIndex)) {
+	    return false;
+	}
+	reusePreviousPages(getPageIndex(), pageCount);
+	converged = true;
+	return true;
+    }
+
     /**
      * @return the current {@link Layout} used for rendering.
      */
@@ -204,6 +544,10 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
      * @return <code>true</code> if the page is rotated by 90/270 degrees.
      */
     public boolean isPageTilted() {
+	if (isLayoutOnly()) {
+	    // the page is considered turned to match the orientation already
+	    return false;
+	}
 	return CompatibilityHelper.getPageRotation(page) == 90
 		|| CompatibilityHelper.getPageRotation(page) == 270;
     }
@@ -213,6 +557,13 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
      *         height.
      */
     public float getPageWidth() {
+	if (isLayoutOnly()) {
+	    PDRectangle mediaBox = getPageFormat().getMediaBox();
+	    if (getPageFormat().getOrientation() == Orientation.Landscape) {
+		return Math.max(mediaBox.getWidth(), mediaBox.getHeight());
+	    }
+	    return Math.min(mediaBox.getWidth(), mediaBox.getHeight());
+	}
 	if (isPageTilted()) {
 	    return page.getMediaBox().getHeight();
 	}
@@ -224,6 +575,13 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
      *         width.
      */
     public float getPageHeight() {
+	if (isLayoutOnly()) {
+	    PDRectangle mediaBox = getPageFormat().getMediaBox();
+	    if (getPageFormat().getOrientation() == Orientation.Landscape) {
+		return Math.min(mediaBox.getWidth(), mediaBox.getHeight());
+	    }
+	    return Math.max(mediaBox.getWidth(), mediaBox.getHeight());
+	}
 	if (isPageTilted()) {
 	    return page.getMediaBox().getWidth();
 	}
@@ -295,6 +653,15 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
 	return contentStream;
     }
 
+    /**
+     * @return the shadow of the graphics state of the current content stream,
+     *         used to suppress redundant operators. May be <code>null</code>
+     *         if there is no current page.
+     */
+    public GraphicsState getGraphicsState() {
+	return graphicsState;
+    }
+
     /**
      * @return the current page index (starting from 0).
      */
@@ -331,6 +698,9 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
     protected boolean render(final PositionControl positionControl) {
 	if (positionControl instanceof MarkPosition) {
 	    setMarkedPosition(getCurrentPosition());
+	    if (pageMap != null) {
+		pageMap.mark(getPageIndex(), getCurrentPosition());
+	    }
 	    return true;
 	}
 	if (positionControl instanceof SetPosition) {
@@ -375,6 +745,29 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
 	    setPageFormat(nextPageFormat);
 	}
 
+	if (!isLayoutOnly()) {
+	    PageCheckpoint checkpoint = createCheckpoint();
+	    if (!converge(checkpoint)) {
+		checkpoints.add(checkpoint);
+	    }
+	}
+
+	if (isLayoutOnly()) {
+	    pageOpen = true;
+	    resetPositionToUpperLeft();
+	    resetMaxPositionOnPage();
+	    return;
+	}
+	openPage();
+    }
+
+    /**
+     * Creates and opens the page with the current page format.
+     * 
+     * @throws IOException
+     *             by pdfbox
+     */
+    private void openPage() throws IOException {
 	this.page = new PDPage(getPageFormat().getMediaBox());
 	this.pdDocument.addPage(page);
 	this.contentStream = CompatibilityHelper
@@ -393,10 +786,22 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
 	    CompatibilityHelper.transform(contentStream, 0, 1, -1, 0,
 		    getPageHeight(), 0);
 	}
+	if (getPageFormat().getBackground() != null) {
+	    getPageFormat().getBackground().draw(pdDocument, contentStream,
+		    new Position(0, getPageHeight()), null);
+	}
+	graphicsState = GraphicsState.track(contentStream);
 
 	resetPositionToUpperLeft();
 	resetMaxPositionOnPage();
-	document.beforePage(this);
+	// render listeners may modify the graphics state directly
+	GraphicsState.suspend();
+	try {
+	    document.beforePage(this);
+	} finally {
+	    GraphicsState.resume();
+	}
+	GraphicsState.invalidate(contentStream);
 	annotationDrawListener.beforePage(this);
     }
 
@@ -408,9 +813,16 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
      *             by pdfbox
      */
     public boolean closePage() throws IOException {
+	if (isLayoutOnly()) {
+	    boolean wasOpen = pageOpen;
+	    pageOpen = false;
+	    return wasOpen;
+	}
 	if (contentStream != null) {
 
 	    annotationDrawListener.afterPage(this);
+	    // render listeners may modify the graphics state directly
+	    releaseGraphicsState();
 	    document.afterPage(this);
 
 	    if (getPageFormat().getRotation() != 0) {
@@ -427,17 +839,46 @@ public class RenderContext implements Renderer, Closeable, DrawContext, DrawList
 	return false;
     }
 
+    /**
+     * Stops tracking the graphics state of the current content stream, if
+     * still tracked. This is done when the page is closed, but must also be
+     * done if rendering fails, since the tracking is bound to the rendering
+     * thread and holds on to the content stream - and so to the whole
+     * document.
+     */
+    public void releaseGraphicsState() {
+	if (graphicsState != null) {
+	    GraphicsState.untrack(contentStream);
+	    graphicsState = null;
+	}
+    }
+
     @Override
     public void close() throws IOException {
 	closePage();
+	if (pageMap != null) {
+	    pageMap.setPageCount(getPageIndex() + 1);
+	    return;
+	}
 	annotationDrawListener.afterRender();
+	placeholderDrawListener.afterRender();
     }
 
     @Override
     public void drawn(Object drawnObject, Position upperLeft, float width,
 	    float height) {
 	updateMaxPositionOnPage(upperLeft, width, height);
+	if (isLayoutOnly()) {
+	    // spacers only separate the parts of an element
+	    if (pageMap != null
+		    && (!(drawnObject instanceof VerticalSpacer) || pageMap
+			    .getCurrentElement() instanceof VerticalSpacer)) {
+		pageMap.place(getPageIndex(), upperLeft, width, height);
+	    }
+	    return;
+	}
 	annotationDrawListener.drawn(drawnObject, upperLeft, width, height);
+	placeholderDrawListener.drawn(drawnObject, upperLeft, width, height);
     }
 
     /**
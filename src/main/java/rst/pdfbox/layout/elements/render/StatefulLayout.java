@@ -0,0 +1,31 @@
+package rst.pdfbox.layout.elements.render;
+
+/**
+ * A layout keeping state across pages and elements, like the current column
+ * of the {@link ColumnLayout}. The state is recorded in the
+ * {@link PageCheckpoint} of each page, so rendering may be resumed from that
+ * page.
+ */
+public interface StatefulLayout extends Layout {
+
+    /**
+     * Returns the current state. The returned object must not change
+     * afterwards, and must implement {@link Object#equals(Object) equals()},
+     * since it is compared to the state of a previous rendering run.
+     *
+     * @param renderContext
+     *            the current render context.
+     * @return the current state.
+     */
+    Object saveState(final RenderContext renderContext);
+
+    /**
+     * Restores a state previously {@link #saveState(RenderContext) saved}.
+     *
+     * @param renderContext
+     *            the render context to resume rendering with.
+     * @param state
+     *            the state to restore.
+     */
+    void restoreState(final RenderContext renderContext, final Object state);
+}
@@ -2,20 +2,26 @@ package rst.pdfbox.layout.elements.render;
 
 import java.io.IOException;
 
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 
+import rst.pdfbox.layout.elements.Clippable;
 import rst.pdfbox.layout.elements.ControlElement;
 import rst.pdfbox.layout.elements.Cutter;
 import rst.pdfbox.layout.elements.Dividable;
 import rst.pdfbox.layout.elements.Dividable.Divided;
 import rst.pdfbox.layout.elements.Drawable;
 import rst.pdfbox.layout.elements.Element;
+import rst.pdfbox.layout.elements.Orientation;
 import rst.pdfbox.layout.elements.PageFormat;
+import rst.pdfbox.layout.elements.Replayable;
 import rst.pdfbox.layout.elements.VerticalSpacer;
 import rst.pdfbox.layout.text.Alignment;
 import rst.pdfbox.layout.text.Position;
 import rst.pdfbox.layout.text.WidthRespecting;
 import rst.pdfbox.layout.util.CompatibilityHelper;
+import rst.pdfbox.layout.util.GraphicsState;
+import rst.pdfbox.layout.util.GraphicsStateAware;
 
 /**
  * Layout implementation that stacks drawables vertically onto the page. If the
@@ -23,7 +29,9 @@ import rst.pdfbox.layout.util.CompatibilityHelper;
  * {@link Dividable divided}. Any given {@link VerticalLayoutHint} will be taken
  * into account to calculate the position, width, alignment etc.
  */
-public class VerticalLayout implements Layout {
+public class VerticalLayout implements Layout, Replayable {
+
+    private static final float EPSILON = 0.01f;
 
     protected boolean removeLeadingEmptyVerticalSpace = true;
 
@@ -49,6 +57,15 @@ public class VerticalLayout implements Layout {
 	this.removeLeadingEmptyVerticalSpace = removeLeadingEmptyLines;
     }
 
+    /**
+     * A layout is replayable, any state is restored from the
+     * {@link PageCheckpoint}.
+     */
+    @Override
+    public boolean isReplayable() {
+	return true;
+    }
+
     /**
      * Turns to the next area, usually a page.
      * 
@@ -68,8 +85,36 @@ public class VerticalLayout implements Layout {
      * @return the target width to draw to.
      */
     protected float getTargetWidth(final RenderContext renderContext) {
-	float targetWidth = renderContext.getWidth();
-	return targetWidth;
+	return getTargetWidth(renderContext.getWidth());
+    }
+
+    /**
+     * Calculates the target width on a page of the given format without
+     * rendering, e.g. to measure drawables in advance.
+     * 
+     * @param pageFormat
+     *            the page format.
+     * @return the target width to draw to.
+     */
+    public float getTargetWidth(final PageFormat pageFormat) {
+	PDRectangle mediaBox = pageFormat.getMediaBox();
+	// see RenderContext.newPage(), the page is turned to match the
+	// orientation
+	float pageWidth = Math.min(mediaBox.getWidth(), mediaBox.getHeight());
+	if (pageFormat.getOrientation() == Orientation.Landscape) {
+	    pageWidth = Math.max(mediaBox.getWidth(), mediaBox.getHeight());
+	}
+	return getTargetWidth(pageWidth - pageFormat.getMarginLeft()
+		- pageFormat.getMarginRight());
+    }
+
+    /**
+     * @param width
+     *            the width of the page respecting the margins.
+     * @return the target width to draw to.
+     */
+    protected float getTargetWidth(final float width) {
+	return width;
     }
 
     @Override
@@ -114,8 +159,37 @@ public class VerticalLayout implements Layout {
     protected void renderAbsolute(final RenderContext renderContext,
 	    Drawable drawable, final LayoutHint layoutHint,
 	    final Position position) throws IOException {
-	drawable.draw(renderContext.getPdDocument(),
-		renderContext.getContentStream(), position, renderContext);
+	if (renderContext.isLayoutOnly()) {
+	    renderContext.drawn(drawable, position, drawable.getWidth(),
+		    drawable.getHeight());
+	    return;
+	}
+	if (!isIsolationRequired(drawable)) {
+	    drawable.draw(renderContext.getPdDocument(),
+		    renderContext.getContentStream(), position, renderContext);
+	    return;
+	}
+	GraphicsState.suspend();
+	try {
+	    drawable.draw(renderContext.getPdDocument(),
+		    renderContext.getContentStream(), position, renderContext);
+	} finally {
+	    GraphicsState.resume();
+	}
+	// the drawable is not bracketed by save and restore, so we do not
+	// know what it has done to the graphics state
+	GraphicsState.invalidate(renderContext.getContentStream());
+    }
+
+    /**
+     * @param renderContext
+     *            the render context.
+     * @return the height available for the drawable at the current position,
+     *         by default the {@link RenderContext#getRemainingHeight()
+     *         remaining height on the page}.
+     */
+    protected float getRemainingHeight(final RenderContext renderContext) {
+	return renderContext.getRemainingHeight();
     }
 
     /**
@@ -156,6 +230,35 @@ public class VerticalLayout implements Layout {
 	}
     }
 
+    /**
+     * Renders the remaining part of a drawable divided by a page break, like
+     * {@link #renderReleative(RenderContext, Drawable, LayoutHint)} does after
+     * turning the page. This is used to resume rendering from a
+     * {@link PageCheckpoint}.
+     * 
+     * @param renderContext
+     *            the context providing all rendering state.
+     * @param tail
+     *            the remaining part of the divided drawable.
+     * @param layoutHint
+     *            the layout hint of the divided drawable.
+     * @throws IOException
+     *             by pdfbox
+     */
+    public void renderDividedTail(final RenderContext renderContext,
+	    Drawable tail, final LayoutHint layoutHint) throws IOException {
+	layoutAndDrawReleative(renderContext, tail, layoutHint);
+
+	if (layoutHint instanceof VerticalLayoutHint) {
+	    VerticalLayoutHint verticalLayoutHint = (VerticalLayoutHint) layoutHint;
+	    if (verticalLayoutHint.getMarginBottom() > 0) {
+		layoutAndDrawReleative(renderContext, new VerticalSpacer(
+			verticalLayoutHint.getMarginBottom()),
+			verticalLayoutHint);
+	    }
+	}
+    }
+
     /**
      * Adjusts the width of the drawable (if it is {@link WidthRespecting}), and
      * divides it onto multiple pages if necessary. Actual drawing is delegated
@@ -196,7 +299,7 @@ public class VerticalLayout implements Layout {
 
 	Drawable drawablePart = removeLeadingEmptyVerticalSpace(drawable,
 		renderContext);
-	while (renderContext.getRemainingHeight() < drawablePart.getHeight()) {
+	while (getRemainingHeight(renderContext) < drawablePart.getHeight()) {
 	    Dividable dividable = null;
 	    if (drawablePart instanceof Dividable) {
 		dividable = (Dividable) drawablePart;
@@ -204,12 +307,14 @@ public class VerticalLayout implements Layout {
 		dividable = new Cutter(drawablePart);
 	    }
 	    Divided divided = dividable.divide(
-		    renderContext.getRemainingHeight(),
+		    getRemainingHeight(renderContext),
 		    renderContext.getHeight());
 	    drawReletivePartAndMovePosition(renderContext, divided.getFirst(),
 		    layoutHint, true);
 
 	    // new page
+	    renderContext.setDividedTail(drawable, divided.getTail(),
+		    layoutHint);
 	    turnPage(renderContext);
 
 	    drawablePart = divided.getTail();
@@ -272,21 +377,100 @@ public class VerticalLayout implements Layout {
 	    }
 	}
 
-	contentStream.saveGraphicsState();
-	contentStream.addRect(0, pageFormat.getMarginBottom(), renderContext.getPageWidth(),
-		renderContext.getHeight());
-	CompatibilityHelper.clip(contentStream);
+	if (renderContext.isLayoutOnly()) {
+	    // just record where the drawable would have been drawn
+	    renderContext.drawn(drawable, renderContext.getCurrentPosition()
+		    .add(offsetX, 0), drawable.getWidth(), drawable.getHeight());
+	} else {
+	    Position upperLeft = renderContext.getCurrentPosition().add(
+		    offsetX, 0);
+	    boolean clip = isClippingRequired(renderContext, drawable,
+		    upperLeft);
+	    boolean isolate = isIsolationRequired(drawable);
+	    if (clip || isolate) {
+		GraphicsState.saveGraphicsState(contentStream);
+	    }
+	    if (clip) {
+		contentStream.addRect(0, pageFormat.getMarginBottom(),
+			renderContext.getPageWidth(), renderContext.getHeight());
+		CompatibilityHelper.clip(contentStream);
+	    }
 
-	drawable.draw(renderContext.getPdDocument(), contentStream,
-		renderContext.getCurrentPosition().add(offsetX, 0),renderContext);
+	    if (isolate) {
+		// the drawable may modify the graphics state directly
+		GraphicsState.suspend();
+	    }
+	    try {
+		drawable.draw(renderContext.getPdDocument(), contentStream,
+			upperLeft, renderContext);
+	    } finally {
+		if (isolate) {
+		    GraphicsState.resume();
+		}
+	    }
 
-	contentStream.restoreGraphicsState();
+	    if (clip || isolate) {
+		GraphicsState.restoreGraphicsState(contentStream);
+	    }
+	}
 
 	if (movePosition) {
 	    renderContext.movePositionBy(0, -drawable.getHeight());
 	}
     }
 
+    /**
+     * Indicates if the drawable has to be clipped to the content area of the
+     * page. This is the case if the drawable is {@link Clippable} and requires
+     * clipping, e.g. a slice of a {@link Cutter}, or if its bounds exceed the
+     * content area. All other drawables are drawn without clipping, since
+     * clipping adds bytes to the content stream and slows down rendering.
+     * 
+     * @param renderContext
+     *            the render context.
+     * @param drawable
+     *            the drawable to draw.
+     * @param upperLeft
+     *            the upper left position to draw the drawable at.
+     * @return <code>true</code> if the drawable has to be clipped.
+     * @throws IOException
+     *             by pdfbox
+     */
+    protected boolean isClippingRequired(final RenderContext renderContext,
+	    final Drawable drawable, final Position upperLeft)
+	    throws IOException {
+	if (drawable instanceof Clippable
+		&& ((Clippable) drawable).isClippingRequired()) {
+	    return true;
+	}
+	float bottom = renderContext.getPageFormat().getMarginBottom();
+	float top = bottom + renderContext.getHeight();
+	return upperLeft.getY() > top + EPSILON
+		|| upperLeft.getY() - drawable.getHeight() < bottom - EPSILON
+		|| upperLeft.getX() < -EPSILON
+		|| upperLeft.getX() + drawable.getWidth() > renderContext
+			.getPageWidth() + EPSILON;
+    }
+
+    /**
+     * Indicates if the drawable has to be isolated from the following ones by
+     * saving and restoring the graphics state. A {@link GraphicsStateAware}
+     * drawable sets the graphics state using {@link GraphicsState} and
+     * restores any transformation, so it does not need to be isolated.
+     * Containers like {@link rst.pdfbox.layout.elements.Frame} isolate their
+     * inner drawables on their own. Any other drawable might change the
+     * graphics state directly, so it is isolated, and tracking of the
+     * graphics state is suspended while it is drawn.
+     * 
+     * @param drawable
+     *            the drawable to draw.
+     * @return <code>true</code> if the graphics state has to be saved and
+     *         restored.
+     */
+    protected boolean isIsolationRequired(final Drawable drawable) {
+	return !(drawable instanceof GraphicsStateAware);
+    }
+
     /**
      * Indicates if the current position is the top of page.
      * 
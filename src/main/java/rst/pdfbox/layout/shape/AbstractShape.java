@@ -9,15 +9,16 @@ import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 import rst.pdfbox.layout.text.DrawListener;
 import rst.pdfbox.layout.text.Position;
 import rst.pdfbox.layout.util.CompatibilityHelper;
+import rst.pdfbox.layout.util.GraphicsState;
 
 /**
  * Abstract base class for shapes which performs the
  * {@link #fill(PDDocument, PDPageContentStream, Position, float, float, Color, DrawListener)}
  * and (@link
  * {@link #draw(PDDocument, PDPageContentStream, Position, float, float, Color, Stroke, DrawListener)}
- * .
+ * . In a view port, the shape is drawn completely if it is visible at all.
  */
-public abstract class AbstractShape implements Shape {
+public abstract class AbstractShape implements ViewPortShape {
 
     @Override
     public void draw(PDDocument pdDocument, PDPageContentStream contentStream,
@@ -30,7 +31,7 @@ public abstract class AbstractShape implements Shape {
 	    stroke.applyTo(contentStream);
 	}
 	if (color != null) {
-	    contentStream.setStrokingColor(color);
+	    GraphicsState.setStrokingColor(contentStream, color);
 	}
 	contentStream.stroke();
 
@@ -48,7 +49,7 @@ public abstract class AbstractShape implements Shape {
 	add(pdDocument, contentStream, upperLeft, width, height);
 
 	if (color != null) {
-	    contentStream.setNonStrokingColor(color);
+	    GraphicsState.setNonStrokingColor(contentStream, color);
 	}
 	CompatibilityHelper.fillNonZero(contentStream);
 
@@ -58,4 +59,37 @@ public abstract class AbstractShape implements Shape {
 
     }
 
+    @Override
+    public void drawViewPort(PDDocument pdDocument,
+	    PDPageContentStream contentStream, Position upperLeft, float width,
+	    float height, float viewPortY, float viewPortHeight, Color color,
+	    Stroke stroke, DrawListener drawListener) throws IOException {
+	float halfLineWidth = stroke != null ? stroke.getLineWidth() / 2 : 0;
+	if (isVisible(height, viewPortY, viewPortHeight, halfLineWidth)) {
+	    draw(pdDocument, contentStream, upperLeft, width, height, color,
+		    stroke, drawListener);
+	}
+    }
+
+    @Override
+    public void fillViewPort(PDDocument pdDocument,
+	    PDPageContentStream contentStream, Position upperLeft, float width,
+	    float height, float viewPortY, float viewPortHeight, Color color,
+	    DrawListener drawListener) throws IOException {
+	if (isVisible(height, viewPortY, viewPortHeight, 0)) {
+	    fill(pdDocument, contentStream, upperLeft, width, height, color,
+		    drawListener);
+	}
+    }
+
+    /**
+     * @return <code>true</code> if the bounding box of the given height,
+     *         extended by the given overhang, intersects the view port.
+     */
+    protected boolean isVisible(float height, float viewPortY,
+	    float viewPortHeight, float overhang) {
+	return viewPortY < height + overhang
+		&& viewPortY + viewPortHeight > -overhang;
+    }
+
 }
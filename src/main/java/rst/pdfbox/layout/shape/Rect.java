@@ -1,14 +1,17 @@
 package rst.pdfbox.layout.shape;
 
+import java.awt.Color;
 import java.io.IOException;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 
+import rst.pdfbox.layout.text.DrawListener;
 import rst.pdfbox.layout.text.Position;
 
 /**
- * A simple rectangular shape.
+ * A simple rectangular shape. In a view port, only the visible slice is
+ * filled.
  */
 public class Rect extends AbstractShape {
 
@@ -19,4 +22,17 @@ public class Rect extends AbstractShape {
 		width, height);
     }
 
+    @Override
+    public void fillViewPort(PDDocument pdDocument,
+	    PDPageContentStream contentStream, Position upperLeft, float width,
+	    float height, float viewPortY, float viewPortHeight, Color color,
+	    DrawListener drawListener) throws IOException {
+	float top = Math.max(0, viewPortY);
+	float bottom = Math.min(height, viewPortY + viewPortHeight);
+	if (bottom > top) {
+	    fill(pdDocument, contentStream, upperLeft.add(0, -top), width,
+		    bottom - top, color, drawListener);
+	}
+    }
+
 }
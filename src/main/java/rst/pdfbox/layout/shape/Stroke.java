@@ -4,6 +4,8 @@ import java.io.IOException;
 
 import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 
+import rst.pdfbox.layout.util.GraphicsState;
+
 /**
  * This is a container for all information needed to perform a stroke.
  */
@@ -175,17 +177,30 @@ public class Stroke {
      */
     public void applyTo(final PDPageContentStream contentStream)
 	    throws IOException {
+	// if the graphics state is tracked, drawables are not isolated, so
+	// anything not given is reset to the default instead of inheriting
+	// the value of the previous drawable
+	boolean tracked = GraphicsState.get(contentStream) != null;
 	if (getCapStyle() != null) {
-	    contentStream.setLineCapStyle(getCapStyle().value());
+	    GraphicsState.setLineCapStyle(contentStream, getCapStyle().value());
+	} else if (tracked) {
+	    GraphicsState.setLineCapStyle(contentStream,
+		    CapStyle.Cap.value());
 	}
 	if (getJoinStyle() != null) {
-	    contentStream.setLineJoinStyle(getJoinStyle().value());
+	    GraphicsState.setLineJoinStyle(contentStream, getJoinStyle()
+		    .value());
+	} else if (tracked) {
+	    GraphicsState.setLineJoinStyle(contentStream,
+		    JoinStyle.Miter.value());
 	}
 	if (getDashPattern() != null) {
-	    contentStream.setLineDashPattern(getDashPattern().getPattern(),
-		    getDashPattern().getPhase());
+	    GraphicsState.setLineDashPattern(contentStream, getDashPattern()
+		    .getPattern(), getDashPattern().getPhase());
+	} else if (tracked) {
+	    GraphicsState.setLineDashPattern(contentStream, new float[0], 0);
 	}
-	contentStream.setLineWidth(getLineWidth());
+	GraphicsState.setLineWidth(contentStream, getLineWidth());
     }
 
     /**
@@ -0,0 +1,95 @@
+package rst.pdfbox.layout.shape;
+
+import java.awt.Color;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+
+import rst.pdfbox.layout.elements.Cutter;
+import rst.pdfbox.layout.elements.ViewPortDrawable;
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Position;
+
+/**
+ * Optional extension of a {@link Shape} that is able to draw only a vertical
+ * slice of itself. This is the counterpart of the {@link ViewPortDrawable}
+ * for shapes, which are not drawables on their own but drawn by their
+ * containing element, e.g. a frame cut by a {@link Cutter} into several
+ * pages.
+ */
+public interface ViewPortShape extends Shape {
+
+    /**
+     * Draws (strokes) the shape like
+     * {@link #draw(PDDocument, PDPageContentStream, Position, float, float, Color, Stroke, DrawListener)}
+     * , but only if it is (at least partially) visible in the given vertical
+     * view port.
+     *
+     * @param pdDocument
+     *            the underlying pdfbox document.
+     * @param contentStream
+     *            the stream to draw to.
+     * @param upperLeft
+     *            the upper left position to start drawing.
+     * @param width
+     *            the width of the bounding box.
+     * @param height
+     *            the height of the bounding box.
+     * @param viewPortY
+     *            the offset of the view port from the top of the bounding
+     *            box.
+     * @param viewPortHeight
+     *            the height of the view port.
+     * @param color
+     *            the color to use.
+     * @param stroke
+     *            the stroke to use.
+     * @param drawListener
+     *            the listener to
+     *            {@link DrawListener#drawn(Object, Position, float, float)
+     *            notify} on drawn objects.
+     * @throws IOException
+     *             by pdfbox
+     */
+    void drawViewPort(PDDocument pdDocument,
+	    PDPageContentStream contentStream, Position upperLeft, float width,
+	    float height, float viewPortY, float viewPortHeight, Color color,
+	    Stroke stroke, DrawListener drawListener) throws IOException;
+
+    /**
+     * Fills the shape like
+     * {@link #fill(PDDocument, PDPageContentStream, Position, float, float, Color, DrawListener)}
+     * , but emits only what is (at least partially) visible in the given
+     * vertical view port. Any content crossing the view port bounds may be
+     * filled completely, so the caller is still responsible for clipping.
+     *
+     * @param pdDocument
+     *            the underlying pdfbox document.
+     * @param contentStream
+     *            the stream to draw to.
+     * @param upperLeft
+     *            the upper left position to start drawing.
+     * @param width
+     *            the width of the bounding box.
+     * @param height
+     *            the height of the bounding box.
+     * @param viewPortY
+     *            the offset of the view port from the top of the bounding
+     *            box.
+     * @param viewPortHeight
+     *            the height of the view port.
+     * @param color
+     *            the color to use.
+     * @param drawListener
+     *            the listener to
+     *            {@link DrawListener#drawn(Object, Position, float, float)
+     *            notify} on drawn objects.
+     * @throws IOException
+     *             by pdfbox
+     */
+    void fillViewPort(PDDocument pdDocument,
+	    PDPageContentStream contentStream, Position upperLeft, float width,
+	    float height, float viewPortY, float viewPortHeight, Color color,
+	    DrawListener drawListener) throws IOException;
+}
@@ -0,0 +1,195 @@
+package rst.pdfbox.layout.text;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+
+import rst.pdfbox.layout.util.CompatibilityHelper;
+
+/**
+ * Thread safe access to the metrics of a font. The pdfbox fonts are not safe
+ * for concurrent use, so the width of each character is retrieved once
+ * (synchronized on the font) and cached. As pdfbox calculates the width of a
+ * string as the sum of its character widths, the result is the same as of
+ * {@link PDFont#getStringWidth(String)}. Likewise the character codes of
+ * texts are cached, since the same words are drawn over and over again. The
+ * vertical metrics of a font are retrieved all at once, as pdfbox initializes
+ * the font descriptor lazily.
+ */
+public final class FontMetrics {
+
+    private final static Map<PDFont, Map<Integer, Float>> CHARACTER_WIDTHS = Collections
+	    .synchronizedMap(new WeakHashMap<PDFont, Map<Integer, Float>>());
+    private final static Map<PDFont, Map<String, byte[]>> ENCODED_TEXTS = Collections
+	    .synchronizedMap(new WeakHashMap<PDFont, Map<String, byte[]>>());
+    private final static Map<PDFont, VerticalMetrics> VERTICAL_METRICS = Collections
+	    .synchronizedMap(new WeakHashMap<PDFont, VerticalMetrics>());
+
+    /**
+     * The maximum number of encoded texts cached per font. Fonts like the
+     * standard 14 fonts live forever, so the cache is cleared if it grows
+     * beyond this size.
+     */
+    private final static int MAX_ENCODED_TEXTS = 10000;
+
+    private FontMetrics() {
+    }
+
+    /**
+     * See {@link PDFont#getStringWidth(String)}.
+     *
+     * @param font
+     *            the font to use.
+     * @param text
+     *            the text to measure.
+     * @return the width in 1000 unit of text space.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static float getStringWidth(final PDFont font, final String text)
+	    throws IOException {
+	Map<Integer, Float> widths = getCharacterWidths(font);
+	float width = 0;
+	int index = 0;
+	while (index < text.length()) {
+	    int codePoint = text.codePointAt(index);
+	    Float characterWidth = widths.get(codePoint);
+	    if (characterWidth == null) {
+		synchronized (font) {
+		    characterWidth = font.getStringWidth(new String(Character
+			    .toChars(codePoint)));
+		}
+		widths.put(codePoint, characterWidth);
+	    }
+	    width += characterWidth;
+	    index += Character.charCount(codePoint);
+	}
+	return width;
+    }
+
+    /**
+     * Returns the character codes of the given text in the given font, see
+     * {@link CompatibilityHelper#encodeText(PDFont, String)}. The returned
+     * array is shared, so it must not be modified.
+     *
+     * @param font
+     *            the font to use.
+     * @param text
+     *            the text to encode.
+     * @return the character codes.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static byte[] getEncodedText(final PDFont font, final String text)
+	    throws IOException {
+	Map<String, byte[]> encodedTexts = getEncodedTexts(font);
+	byte[] encoded = encodedTexts.get(text);
+	if (encoded == null) {
+	    synchronized (font) {
+		encoded = CompatibilityHelper.encodeText(font, text);
+	    }
+	    if (encodedTexts.size() >= MAX_ENCODED_TEXTS) {
+		encodedTexts.clear();
+	    }
+	    encodedTexts.put(text, encoded);
+	}
+	return encoded;
+    }
+
+    /**
+     * See {@link PDFont#getAverageFontWidth()}.
+     *
+     * @param font
+     *            the font to use.
+     * @return the average width in 1000 unit of text space.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static float getAverageFontWidth(final PDFont font)
+	    throws IOException {
+	synchronized (font) {
+	    return font.getAverageFontWidth();
+	}
+    }
+
+    /**
+     * See {@link PDFontDescriptor#getAscent()}.
+     *
+     * @param font
+     *            the font to use.
+     * @return the ascent in 1000 unit of text space.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static float getAscent(final PDFont font) throws IOException {
+	return getVerticalMetrics(font).ascent;
+    }
+
+    /**
+     * See {@link PDFontDescriptor#getDescent()}.
+     *
+     * @param font
+     *            the font to use.
+     * @return the descent in 1000 unit of text space, usually negative.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static float getDescent(final PDFont font) throws IOException {
+	return getVerticalMetrics(font).descent;
+    }
+
+    private static VerticalMetrics getVerticalMetrics(final PDFont font) {
+	synchronized (VERTICAL_METRICS) {
+	    VerticalMetrics metrics = VERTICAL_METRICS.get(font);
+	    if (metrics == null) {
+		metrics = new VerticalMetrics(font);
+		VERTICAL_METRICS.put(font, metrics);
+	    }
+	    return metrics;
+	}
+    }
+
+    private static Map<String, byte[]> getEncodedTexts(final PDFont font) {
+	synchronized (ENCODED_TEXTS) {
+	    Map<String, byte[]> encodedTexts = ENCODED_TEXTS.get(font);
+	    if (encodedTexts == null) {
+		encodedTexts = new ConcurrentHashMap<String, byte[]>();
+		ENCODED_TEXTS.put(font, encodedTexts);
+	    }
+	    return encodedTexts;
+	}
+    }
+
+    private static Map<Integer, Float> getCharacterWidths(final PDFont font) {
+	synchronized (CHARACTER_WIDTHS) {
+	    Map<Integer, Float> widths = CHARACTER_WIDTHS.get(font);
+	    if (widths == null) {
+		widths = new ConcurrentHashMap<Integer, Float>();
+		CHARACTER_WIDTHS.put(font, widths);
+	    }
+	    return widths;
+	}
+    }
+
+    /**
+     * The vertical metrics of a font, retrieved once when created.
+     */
+    private static class VerticalMetrics {
+
+	private final float ascent;
+	private final float descent;
+
+	VerticalMetrics(final PDFont font) {
+	    synchronized (font) {
+		PDFontDescriptor descriptor = font.getFontDescriptor();
+		this.ascent = descriptor.getAscent();
+		this.descent = descriptor.getDescent();
+	    }
+	}
+    }
+}
@@ -146,7 +146,8 @@ public class Indent extends ControlFragment {
 	float textWidth = 0;
 	if (label != null && !label.isEmpty()) {
 	    textWidth = fontDescriptor.getSize()
-		    * fontDescriptor.getFont().getStringWidth(label) / 1000f;
+		    * FontMetrics.getStringWidth(fontDescriptor.getFont(),
+			    label) / 1000f;
 	}
 	float marginLeft = 0;
 	float marginRight = 0;
@@ -0,0 +1,29 @@
+package rst.pdfbox.layout.text;
+
+/**
+ * An object which caches its measurements (width, height), e.g. a drawable.
+ * On any change affecting the measurements, the object invalidates its cache
+ * and propagates the invalidation upward to all containers it has been added
+ * to. This allows containers to cache measurements depending on their inner
+ * objects, as long as all of them are invalidatable.
+ */
+public interface Invalidatable {
+
+    /**
+     * Discards any cached measurements and invalidates all containers of this
+     * object. Call this after changing anything the measurement depends on,
+     * which is not reflected by the API (e.g. a mutable object shared by
+     * some drawables).
+     */
+    void invalidate();
+
+    /**
+     * Registers a container of this object, which is
+     * {@link #invalidate() invalidated} whenever this object is invalidated.
+     * The container is referenced weakly.
+     * 
+     * @param container
+     *            the container to register.
+     */
+    void addContainer(Invalidatable container);
+}
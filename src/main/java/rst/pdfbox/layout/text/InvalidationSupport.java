@@ -0,0 +1,41 @@
+package rst.pdfbox.layout.text;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps track of the containers of an {@link Invalidatable}, and propagates
+ * the invalidation to them.
+ */
+public class InvalidationSupport {
+
+    private Set<Invalidatable> containers;
+
+    /**
+     * Registers a container, see {@link Invalidatable#addContainer(Invalidatable)}.
+     * 
+     * @param container
+     *            the container to register.
+     */
+    public void addContainer(final Invalidatable container) {
+	if (containers == null) {
+	    containers = Collections
+		    .newSetFromMap(new WeakHashMap<Invalidatable, Boolean>());
+	}
+	containers.add(container);
+    }
+
+    /**
+     * Invalidates all registered containers.
+     */
+    public void invalidateContainers() {
+	if (containers == null || containers.isEmpty()) {
+	    return;
+	}
+	for (Invalidatable container : new ArrayList<Invalidatable>(containers)) {
+	    container.invalidate();
+	}
+    }
+}
@@ -0,0 +1,207 @@
+package rst.pdfbox.layout.text;
+
+import java.awt.Color;
+import java.io.IOException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+/**
+ * A text whose value is not known at the time it is drawn, e.g. the total
+ * number of pages or the page number of a cross reference. The placeholder
+ * reserves the width of the given text in the line, but draws nothing.
+ * Instead the {@link PlaceholderDrawListener} records where it has been drawn,
+ * and draws the actual value into the reserved space after all pages have
+ * been rendered. So a single rendering pass is sufficient for documents with
+ * forward references.
+ * <p>
+ * The value is either {@link #setValue(String) set} at any time before the
+ * rendering is finished, e.g. by a
+ * {@link rst.pdfbox.layout.elements.render.RenderListener} as soon as the
+ * referenced element has been rendered, or
+ * {@link #resolveValue(PDDocument, PDPage) resolved} by a subclass like the
+ * one created by {@link #createTotalPages(FontDescriptor, Color)}. The
+ * rendering API passes the render context as draw listener to all elements,
+ * but if you draw text e.g. in a render listener, you have to pass the
+ * {@link rst.pdfbox.layout.elements.render.RenderContext} as draw listener
+ * yourself.
+ * <p>
+ * The values are drawn by the rendering that drew the placeholder. If
+ * rendering is
+ * {@link rst.pdfbox.layout.elements.Document#render(PDDocument, int)
+ * resumed}, the pages reused from the previous rendering keep the values
+ * resolved back then, e.g. a total number of pages that has changed since.
+ * <p>
+ * The placeholder is never broken or split into words, so the reserved text
+ * should be short, e.g. <code>"999"</code>.
+ */
+public class Placeholder extends StyledText {
+
+    private final Placeholder source;
+    private String value;
+    private Alignment alignment = Alignment.Left;
+
+    /**
+     * Creates a placeholder.
+     *
+     * @param reservedText
+     *            the text used to calculate the reserved width.
+     * @param size
+     *            the size of the font.
+     * @param font
+     *            the font to use.
+     */
+    public Placeholder(final String reservedText, final float size,
+	    final PDFont font) {
+	this(reservedText, new FontDescriptor(font, size), Color.black);
+    }
+
+    /**
+     * Creates a placeholder.
+     *
+     * @param reservedText
+     *            the text used to calculate the reserved width.
+     * @param fontDescriptor
+     *            the font to use.
+     * @param color
+     *            the color to use.
+     */
+    public Placeholder(final String reservedText,
+	    final FontDescriptor fontDescriptor, final Color color) {
+	super(reservedText, fontDescriptor, color);
+	this.source = null;
+    }
+
+    /**
+     * Creates a copy of the given placeholder with different margins, sharing
+     * the value with the source.
+     *
+     * @param source
+     *            the placeholder to copy.
+     * @param leftMargin
+     *            the margin left to the text.
+     * @param rightMargin
+     *            the margin right to the text.
+     */
+    protected Placeholder(final Placeholder source, final float leftMargin,
+	    final float rightMargin) {
+	super(source.getText(), source.getFontDescriptor(), source.getColor(),
+		source.getBaselineOffset(), leftMargin, rightMargin);
+	this.source = source.getSource();
+    }
+
+    /**
+     * Creates a placeholder for the total number of pages of the document.
+     *
+     * @param fontDescriptor
+     *            the font to use.
+     * @param color
+     *            the color to use.
+     * @return the created placeholder.
+     */
+    public static Placeholder createTotalPages(
+	    final FontDescriptor fontDescriptor, final Color color) {
+	return new Placeholder("999", fontDescriptor, color) {
+
+	    @Override
+	    protected String resolveValue(PDDocument pdDocument, PDPage page) {
+		return String.valueOf(pdDocument.getNumberOfPages());
+	    }
+	};
+    }
+
+    /**
+     * @return the original placeholder all copies (created e.g. by word
+     *         wrapping) refer to.
+     */
+    public Placeholder getSource() {
+	return source == null ? this : source;
+    }
+
+    /**
+     * @return the value, may be <code>null</code> if not set (yet).
+     */
+    public String getValue() {
+	return getSource().value;
+    }
+
+    /**
+     * Sets the value to draw into the reserved space.
+     *
+     * @param value
+     *            the value.
+     */
+    public void setValue(final String value) {
+	getSource().value = value;
+    }
+
+    /**
+     * @return the alignment of the value inside the reserved space.
+     */
+    public Alignment getAlignment() {
+	return getSource().alignment;
+    }
+
+    /**
+     * Sets the alignment of the value inside the reserved space, default is
+     * {@link Alignment#Left}.
+     *
+     * @param alignment
+     *            the alignment.
+     */
+    public void setAlignment(final Alignment alignment) {
+	getSource().alignment = alignment;
+    }
+
+    /**
+     * Resolves the value to draw. This is called after all pages have been
+     * rendered, so you may override this to calculate the value from the
+     * final document. The default implementation returns the
+     * {@link #getValue() value}.
+     *
+     * @param pdDocument
+     *            the rendered document.
+     * @param page
+     *            the page the placeholder has been drawn to.
+     * @return the value to draw, <code>null</code> draws nothing.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    protected String resolveValue(final PDDocument pdDocument,
+	    final PDPage page) throws IOException {
+	return getValue();
+    }
+
+    /**
+     * Resolves the value of the {@link #getSource() source} placeholder, see
+     * {@link #resolveValue(PDDocument, PDPage)}.
+     *
+     * @param pdDocument
+     *            the rendered document.
+     * @param page
+     *            the page the placeholder has been drawn to.
+     * @return the value to draw, <code>null</code> draws nothing.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public String getResolvedValue(final PDDocument pdDocument,
+	    final PDPage page) throws IOException {
+	return getSource().resolveValue(pdDocument, page);
+    }
+
+    @Override
+    public Placeholder inheritAttributes(String text, float leftMargin,
+	    float rightMargin) {
+	return new Placeholder(this, leftMargin, rightMargin);
+    }
+
+    @Override
+    public String toString() {
+	return "Placeholder [text=" + getText() + ", value=" + getValue()
+		+ ", fontDescriptor=" + getFontDescriptor() + ", color="
+		+ getColor() + ", leftMargin=" + getLeftMargin()
+		+ ", rightMargin=" + getRightMargin() + "]";
+    }
+
+}
@@ -0,0 +1,134 @@
+package rst.pdfbox.layout.text;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+
+import rst.pdfbox.layout.util.CompatibilityHelper;
+
+/**
+ * This listener has to be passed to all
+ * {@link DrawableText#drawText(PDPageContentStream, Position, Alignment, DrawListener)
+ * draw()} methods, in order to collect the space reserved by
+ * {@link Placeholder}s. After all drawing is done, you have to call
+ * {@link #afterRender()}, which appends a content stream to each page
+ * containing placeholders and draws the resolved values into the reserved
+ * space. As the content stream is appended to the existing ones, it uses the
+ * same coordinate space the placeholders have been drawn in. This listener is
+ * used by the the rendering API, but you may also use it with the low-level
+ * text API.
+ */
+public class PlaceholderDrawListener implements DrawListener {
+
+    private final DrawContext drawContext;
+    private final Map<PDPage, List<Slot>> slotsByPage = new LinkedHashMap<PDPage, List<Slot>>();
+
+    /**
+     * Creates a PlaceholderDrawListener with the given {@link DrawContext}.
+     *
+     * @param drawContext
+     *            the context which provides the {@link PDDocument} and the
+     *            {@link PDPage} currently drawn to.
+     */
+    public PlaceholderDrawListener(final DrawContext drawContext) {
+	this.drawContext = drawContext;
+    }
+
+    @Override
+    public void drawn(Object drawnObject, Position upperLeft, float width,
+	    float height) {
+	if (!(drawnObject instanceof Placeholder)) {
+	    return;
+	}
+	PDPage page = drawContext.getCurrentPage();
+	List<Slot> slots = slotsByPage.get(page);
+	if (slots == null) {
+	    slots = new ArrayList<Slot>();
+	    slotsByPage.put(page, slots);
+	}
+	slots.add(new Slot((Placeholder) drawnObject, upperLeft, width));
+    }
+
+    /**
+     * Draws the resolved values of all placeholders drawn so far.
+     *
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public void afterRender() throws IOException {
+	PDDocument pdDocument = drawContext.getPdDocument();
+	for (Entry<PDPage, List<Slot>> entry : slotsByPage.entrySet()) {
+	    PDPage page = entry.getKey();
+	    PDPageContentStream contentStream = CompatibilityHelper
+		    .createAppendablePDPageContentStream(pdDocument, page);
+	    try {
+		for (Slot slot : entry.getValue()) {
+		    slot.draw(contentStream, pdDocument, page);
+		}
+	    } finally {
+		contentStream.close();
+	    }
+	}
+	slotsByPage.clear();
+    }
+
+    /**
+     * The space reserved by a placeholder on a page.
+     */
+    private static class Slot {
+
+	private final Placeholder placeholder;
+	private final Position upperLeft;
+	private final float width;
+
+	public Slot(final Placeholder placeholder, final Position upperLeft,
+		final float width) {
+	    this.placeholder = placeholder;
+	    this.upperLeft = upperLeft;
+	    this.width = width;
+	}
+
+	public void draw(final PDPageContentStream contentStream,
+		final PDDocument pdDocument, final PDPage page)
+		throws IOException {
+	    String value = placeholder.getResolvedValue(pdDocument, page);
+	    if (value == null || value.isEmpty()) {
+		return;
+	    }
+	    FontDescriptor fontDescriptor = placeholder.getFontDescriptor();
+	    float valueWidth = fontDescriptor.getSize()
+		    * FontMetrics.getStringWidth(fontDescriptor.getFont(),
+			    value) / 1000;
+	    float x = upperLeft.getX();
+	    switch (placeholder.getAlignment()) {
+	    case Right:
+		x += width - valueWidth;
+		break;
+	    case Center:
+		x += (width - valueWidth) / 2f;
+		break;
+	    default:
+		break;
+	    }
+	    float y = upperLeft.getY() - placeholder.getAsent();
+
+	    contentStream.saveGraphicsState();
+	    contentStream.beginText();
+	    contentStream.setFont(fontDescriptor.getFont(),
+		    fontDescriptor.getSize());
+	    contentStream.setNonStrokingColor(placeholder.getColor());
+	    CompatibilityHelper.setTextTranslation(contentStream, x, y);
+	    CompatibilityHelper.showText(contentStream, value);
+	    contentStream.endText();
+	    contentStream.restoreGraphicsState();
+	}
+    }
+
+}
@@ -26,7 +26,8 @@ public enum SpaceUnit {
     public float toPt(final float size, final FontDescriptor fontDescriptor) throws IOException {
 	if (this == em) {
 		return fontDescriptor.getSize()
-			* fontDescriptor.getFont().getAverageFontWidth() / 1000 * size;
+			* FontMetrics.getAverageFontWidth(fontDescriptor.getFont())
+			/ 1000 * size;
 	}
 	return size;
     }
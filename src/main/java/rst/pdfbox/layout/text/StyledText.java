@@ -154,7 +154,8 @@ public class StyledText implements TextFragment {
     public float getWidth() throws IOException {
 	if (width == null) {
 	    width = getFontDescriptor().getSize()
-		    * getFontDescriptor().getFont().getStringWidth(getText())
+		    * FontMetrics.getStringWidth(
+			    getFontDescriptor().getFont(), getText())
 		    / 1000;
 	    width += leftMargin;
 	    width += rightMargin;
@@ -178,8 +179,7 @@ public class StyledText implements TextFragment {
      */
     public float getAsent() throws IOException {
 	return getFontDescriptor().getSize()
-		* getFontDescriptor().getFont().getFontDescriptor().getAscent()
-		/ 1000;
+		* FontMetrics.getAscent(getFontDescriptor().getFont()) / 1000;
     }
 
     public float getBaselineOffset() {
@@ -0,0 +1,335 @@
+package rst.pdfbox.layout.text;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+
+import rst.pdfbox.layout.util.ContentStreamBuffer;
+import rst.pdfbox.layout.util.GraphicsState;
+
+/**
+ * Emits the text of a paragraph (or of the part of a paragraph drawn on one
+ * page) into a single text object. Instead of opening a new text object with
+ * an absolute text matrix for each line, the lines are positioned relative to
+ * each other using <code>Td</code>, or <code>T*</code> if the lines have the
+ * same distance. Baseline offsets are applied using the text rise, and
+ * justified lines may be spread using the word spacing. The font, color, text
+ * rise and word spacing are tracked across lines, so they are only set if they
+ * actually change.
+ * <p>
+ * Consecutive texts of a line sharing the same font, color and text rise are
+ * collected in a run, which is shown by a single operator: a <code>Tj</code>
+ * if the texts are adjacent, or a <code>TJ</code> array if there are gaps -
+ * like margins - in between.
+ * <p>
+ * The text operators are collected in a {@link ContentStreamBuffer}, which is
+ * written to the content stream at once, whenever the font or color are set -
+ * which is still done by pdfbox in order to register the resources - and on
+ * {@link #end()}. If the content stream is
+ * {@link GraphicsState#track(PDPageContentStream) tracked}, the text object is
+ * not bracketed by saving and restoring the graphics state, so font and color
+ * are also carried across paragraphs.
+ * <p>
+ * All operators are written lazily, so nothing is written to the content
+ * stream until some text is actually {@link #showText(String, float) shown}.
+ * Call {@link #end()} after all text has been emitted in order to close the
+ * text object.
+ */
+public class TextEmitter {
+
+    private static final float EPSILON = 0.001f;
+    private static final double PRECISION = 100000d;
+
+    private final PDPageContentStream contentStream;
+    private final List<Object> run = new ArrayList<Object>();
+    private final ContentStreamBuffer buffer = new ContentStreamBuffer();
+
+    private boolean open;
+    private boolean saved;
+    private boolean positioned;
+    private float lineX;
+    private float lineY;
+    private float leading;
+    private float baselineY;
+    private float textX;
+
+    private float x;
+    private float y;
+    private float rise;
+    private float wordSpacing;
+    private FontDescriptor fontDescriptor;
+    private Color color;
+
+    private FontDescriptor currentFontDescriptor;
+    private Color currentColor;
+    private float currentRise;
+    private float currentWordSpacing;
+
+    /**
+     * Creates a text emitter writing to the given content stream.
+     *
+     * @param contentStream
+     *            the content stream to write to.
+     */
+    public TextEmitter(final PDPageContentStream contentStream) {
+	this.contentStream = contentStream;
+    }
+
+    /**
+     * @return the content stream to write to.
+     */
+    public PDPageContentStream getContentStream() {
+	return contentStream;
+    }
+
+    /**
+     * Sets the (absolute) position the next text is shown at.
+     *
+     * @param x
+     *            the x coordinate.
+     * @param y
+     *            the y coordinate of the baseline of the line.
+     */
+    public void moveTo(final float x, final float y) {
+	this.x = x;
+	this.y = y;
+    }
+
+    /**
+     * Sets the text rise of the next text shown, which moves the text
+     * relative to the baseline of the line.
+     *
+     * @param rise
+     *            the text rise.
+     */
+    public void setRise(final float rise) {
+	this.rise = rise;
+    }
+
+    /**
+     * Sets the word spacing of the next text shown, which is added to the
+     * width of each space character. Be aware that the word spacing applies
+     * only to the single-byte code 32, so it has no effect on composite
+     * (Type0) fonts.
+     *
+     * @param wordSpacing
+     *            the word spacing.
+     */
+    public void setWordSpacing(final float wordSpacing) {
+	this.wordSpacing = wordSpacing;
+    }
+
+    /**
+     * Sets the font of the next text shown.
+     *
+     * @param fontDescriptor
+     *            the font to use.
+     */
+    public void setFont(final FontDescriptor fontDescriptor) {
+	this.fontDescriptor = fontDescriptor;
+    }
+
+    /**
+     * Sets the color of the next text shown.
+     *
+     * @param color
+     *            the color to use.
+     */
+    public void setColor(final Color color) {
+	this.color = color;
+    }
+
+    /**
+     * Shows the given text at the current position using the current font and
+     * color. The current position is advanced by the width of the text -
+     * plus the word spacing of the contained spaces - so consecutive texts do
+     * not need to be positioned explicitly.
+     *
+     * @param text
+     *            the text to show.
+     * @param width
+     *            the width of the text without any word spacing.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public void showText(final String text, final float width)
+	    throws IOException {
+	if (!open) {
+	    // if the graphics state is tracked, font and color are set only on
+	    // change anyway, so there is no need to save the state
+	    saved = GraphicsState.get(contentStream) == null;
+	    if (saved) {
+		contentStream.saveGraphicsState();
+	    }
+	    buffer.appendOperator("BT");
+	    open = true;
+	}
+	boolean fontChanged = fontDescriptor != null
+		&& !fontDescriptor.equals(currentFontDescriptor);
+	boolean colorChanged = color != null && !color.equals(currentColor);
+	if (fontChanged || colorChanged || rise != currentRise
+		|| wordSpacing != currentWordSpacing
+		|| (positioned && y != baselineY)) {
+	    showRun();
+	}
+	if (fontChanged) {
+	    currentFontDescriptor = fontDescriptor;
+	    buffer.flush(contentStream);
+	    GraphicsState.setFont(contentStream, fontDescriptor.getFont(),
+		    fontDescriptor.getSize());
+	}
+	if (colorChanged) {
+	    currentColor = color;
+	    buffer.flush(contentStream);
+	    GraphicsState.setNonStrokingColor(contentStream, color);
+	}
+	if (rise != currentRise) {
+	    currentRise = rise;
+	    buffer.appendOperand(rise).appendOperator("Ts");
+	}
+	if (wordSpacing != currentWordSpacing) {
+	    currentWordSpacing = wordSpacing;
+	    buffer.appendOperand(wordSpacing).appendOperator("Tw");
+	}
+	position();
+	append(FontMetrics.getEncodedText(currentFontDescriptor.getFont(),
+		text));
+	x += width;
+	if (wordSpacing != 0) {
+	    for (int index = 0; index < text.length(); ++index) {
+		if (text.charAt(index) == ' ') {
+		    x += wordSpacing;
+		}
+	    }
+	}
+	textX = x;
+    }
+
+    /**
+     * Moves to the current position. Inside a line, the gap is skipped by an
+     * adjustment in the run, otherwise the start of the new line is
+     * positioned relative to the start of the last line.
+     */
+    private void position() {
+	if (!positioned) {
+	    buffer.append("1 0 0 1 ").appendOperand(x).appendOperand(y)
+		    .appendOperator("Tm");
+	    positioned = true;
+	} else if (y == baselineY) {
+	    float gap = x - textX;
+	    if (Math.abs(gap) >= EPSILON) {
+		run.add(-gap * 1000f / currentFontDescriptor.getSize());
+	    }
+	    return;
+	} else {
+	    // the relative moves are rounded to the precision written to the
+	    // stream, and the actual start of the line is tracked, so the
+	    // rounding errors do not sum up
+	    float dx = round(x - lineX);
+	    float dy = round(y - lineY);
+	    if (dx == 0 && dy < 0) {
+		if (leading == 0) {
+		    leading = -dy;
+		    buffer.appendOperand(leading).appendOperator("TL");
+		}
+		if (dy == -leading) {
+		    buffer.appendOperator("T*");
+		} else {
+		    buffer.appendOperand(dx).appendOperand(dy).appendOperator("Td");
+		}
+	    } else {
+		buffer.appendOperand(dx).appendOperand(dy).appendOperator("Td");
+	    }
+	    lineX += dx;
+	    lineY += dy;
+	    baselineY = y;
+	    return;
+	}
+	lineX = x;
+	lineY = y;
+	baselineY = y;
+    }
+
+    private void append(final byte[] codes) {
+	int last = run.size() - 1;
+	if (last >= 0 && run.get(last) instanceof Text) {
+	    ((Text) run.get(last)).codes.add(codes);
+	} else {
+	    Text text = new Text();
+	    text.codes.add(codes);
+	    run.add(text);
+	}
+    }
+
+    /**
+     * Shows the current run, if any.
+     */
+    private void showRun() {
+	if (run.isEmpty()) {
+	    return;
+	}
+	if (run.size() == 1) {
+	    buffer.appendString(((Text) run.get(0)).codes);
+	    buffer.append(' ').appendOperator("Tj");
+	} else {
+	    buffer.append('[');
+	    for (Object item : run) {
+		if (item instanceof Text) {
+		    buffer.appendString(((Text) item).codes);
+		} else {
+		    // the string delimiters separate the adjustments
+		    buffer.append((Float) item);
+		}
+	    }
+	    buffer.append(']').appendOperator(" TJ");
+	}
+	run.clear();
+    }
+
+    private static float round(final float value) {
+	return (float) (Math.round(value * PRECISION) / PRECISION);
+    }
+
+    /**
+     * Closes the text object, if any text has been shown. The emitter may be
+     * reused afterwards.
+     *
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public void end() throws IOException {
+	if (open) {
+	    showRun();
+	    if (!saved && currentRise != 0) {
+		buffer.appendOperand(0).appendOperator("Ts");
+	    }
+	    if (!saved && currentWordSpacing != 0) {
+		buffer.appendOperand(0).appendOperator("Tw");
+	    }
+	    buffer.appendOperator("ET");
+	    buffer.flush(contentStream);
+	    if (saved) {
+		contentStream.restoreGraphicsState();
+	    }
+	}
+	open = false;
+	positioned = false;
+	leading = 0;
+	currentFontDescriptor = null;
+	currentColor = null;
+	currentRise = 0;
+	currentWordSpacing = 0;
+    }
+
+    /**
+     * The character codes of consecutive texts in a run, which are shown as
+     * one string.
+     */
+    private static class Text {
+
+	private final List<byte[]> codes = new ArrayList<byte[]>();
+    }
+}
@@ -38,30 +38,51 @@ import org.apache.pdfbox.pdmodel.font.PDFont;
  * Escape * with \* and _ with \_ in markup.
  * </pre>
  */
-public class TextFlow implements TextSequence, WidthRespecting {
+public class TextFlow implements TextSequence, WidthRespecting, Invalidatable {
 
     public static final float DEFAULT_LINE_SPACING = 1.2f;
     private static final String HEIGHT = "height";
     private static final String WIDTH = "width";
+    private static final String LINES = "lines";
 
-    private Map<String, Object> cache = new HashMap<String, Object>();
+    /**
+     * The cached measurements per max width.
+     */
+    private Map<Float, Map<String, Object>> cache = new HashMap<Float, Map<String, Object>>();
+    private final InvalidationSupport invalidationSupport = new InvalidationSupport();
 
     private final List<TextFragment> text = new ArrayList<TextFragment>();
     private float lineSpacing = DEFAULT_LINE_SPACING;
     private float maxWidth = -1;
     private boolean applyLineSpacingToFirstLine = true;
 
-    private void clearCache() {
-	cache.clear();
-    }
-
     private void setCachedValue(final String key, Object value) {
-	cache.put(key, value);
+	Map<String, Object> maxWidthCache = cache.get(maxWidth);
+	if (maxWidthCache == null) {
+	    maxWidthCache = new HashMap<String, Object>();
+	    cache.put(maxWidth, maxWidthCache);
+	}
+	maxWidthCache.put(key, value);
     }
 
     @SuppressWarnings("unchecked")
     private <T> T getCachedValue(final String key, Class<T> type) {
-	return (T) cache.get(key);
+	Map<String, Object> maxWidthCache = cache.get(maxWidth);
+	if (maxWidthCache == null) {
+	    return null;
+	}
+	return (T) maxWidthCache.get(key);
+    }
+
+    @Override
+    public void invalidate() {
+	cache.clear();
+	invalidationSupport.invalidateContainers();
+    }
+
+    @Override
+    public void addContainer(Invalidatable container) {
+	invalidationSupport.addContainer(container);
     }
 
     /**
@@ -142,7 +163,7 @@ public class TextFlow implements TextSequence, WidthRespecting {
      */
     public void add(final TextFragment fragment) {
 	text.add(fragment);
-	clearCache();
+	invalidate();
     }
 
     /**
@@ -152,7 +173,7 @@ public class TextFlow implements TextSequence, WidthRespecting {
      */
     public TextFragment removeLast() {
 	if (text.size() > 0) {
-	    clearCache();
+	    invalidate();
 	    return text.remove(text.size() - 1);
 	}
 	return null;
@@ -163,7 +184,7 @@ public class TextFlow implements TextSequence, WidthRespecting {
      */
     public TextFragment getLast() {
 	if (text.size() > 0) {
-	    clearCache();
+	    invalidate();
 	    return text.get(text.size() - 1);
 	}
 	return null;
@@ -188,8 +209,11 @@ public class TextFlow implements TextSequence, WidthRespecting {
 
     @Override
     public void setMaxWidth(float maxWidth) {
-	this.maxWidth = maxWidth;
-	clearCache();
+	if (this.maxWidth != maxWidth) {
+	    this.maxWidth = maxWidth;
+	    // measurements are cached per max width, but containers must update
+	    invalidationSupport.invalidateContainers();
+	}
     }
 
     /**
@@ -208,7 +232,7 @@ public class TextFlow implements TextSequence, WidthRespecting {
      */
     public void setLineSpacing(float lineSpacing) {
 	this.lineSpacing = lineSpacing;
-	clearCache();
+	invalidate();
     }
 
     /**
@@ -235,6 +259,41 @@ public class TextFlow implements TextSequence, WidthRespecting {
     public void setApplyLineSpacingToFirstLine(
 	    boolean applyLineSpacingToFirstLine) {
 	this.applyLineSpacingToFirstLine = applyLineSpacingToFirstLine;
+	invalidate();
+    }
+
+    /**
+     * @return the text word-wrapped to the max width. The lines are cached
+     *         like the measurements, and must not be modified.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    @SuppressWarnings("unchecked")
+    List<TextLine> getWrappedLines() throws IOException {
+	List<TextLine> lines = getCachedValue(LINES, List.class);
+	if (lines == null) {
+	    lines = TextSequenceUtil.wordWrapToLines(this, getMaxWidth());
+	    setCachedValue(LINES, lines);
+	}
+	return lines;
+    }
+
+    /**
+     * @return the heights of the {@link #getMaxWidth() word-wrapped} lines
+     *         including the line spacing, as used to divide the text.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public float[] getLineHeights() throws IOException {
+	List<TextLine> lines = getWrappedLines();
+	float[] heights = new float[lines.size()];
+	for (int i = 0; i < heights.length; i++) {
+	    heights[i] = lines.get(i).getHeight();
+	    if (i > 0 || isApplyLineSpacingToFirstLine()) {
+		heights[i] *= getLineSpacing();
+	    }
+	}
+	return heights;
     }
 
     @Override
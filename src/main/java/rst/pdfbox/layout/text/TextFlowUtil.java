@@ -2,12 +2,17 @@ package rst.pdfbox.layout.text;
 
 import java.awt.Color;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 
 import org.apache.pdfbox.pdmodel.font.PDFont;
@@ -27,6 +32,11 @@ import rst.pdfbox.layout.text.annotations.AnnotationCharacters.AnnotationControl
 
 public class TextFlowUtil {
 
+    /**
+     * The minimum number of new lines in markup to parse it concurrently.
+     */
+    public final static int PARALLEL_PARSE_MIN_NEW_LINES = 256;
+
     /**
      * Creates a text flow from the given text. The text may contain line
      * breaks.
@@ -98,6 +108,9 @@ public class TextFlowUtil {
      * Escape * with \* and _ with \_ in markup.
      * </pre>
      * 
+     * Markup with at least {@link #PARALLEL_PARSE_MIN_NEW_LINES} new lines is
+     * parsed concurrently in chunks, with the same result.
+     * 
      * @param markup
      *            the markup text.
      * @param fontSize
@@ -118,6 +131,34 @@ public class TextFlowUtil {
 	    final float fontSize, final PDFont plainFont,
 	    final PDFont boldFont, final PDFont italicFont,
 	    final PDFont boldItalicFont) throws IOException {
+	int parallelism = ForkJoinPool.getCommonPoolParallelism();
+	return createTextFlowFromMarkup(markup, PARALLEL_PARSE_MIN_NEW_LINES,
+		parallelism > 1 ? parallelism * 4 : 1, fontSize, plainFont,
+		boldFont, italicFont, boldItalicFont);
+    }
+
+    /**
+     * See
+     * {@link #createTextFlowFromMarkup(String, float, PDFont, PDFont, PDFont, PDFont)}
+     * . The markup is parsed in (at most) the given number of chunks if it
+     * contains at least the given number of new lines.
+     */
+    static TextFlow createTextFlowFromMarkup(final String markup,
+	    final int minNewLines, final int maxChunks, final float fontSize,
+	    final PDFont plainFont, final PDFont boldFont,
+	    final PDFont italicFont, final PDFont boldItalicFont)
+	    throws IOException {
+	List<Integer> newLines = new ArrayList<Integer>();
+	int newLine = markup.indexOf('\n');
+	while (newLine >= 0) {
+	    newLines.add(newLine);
+	    newLine = markup.indexOf('\n', newLine + 1);
+	}
+	if (maxChunks > 1 && newLines.size() >= minNewLines) {
+	    return createTextFlowFromMarkupParallel(markup, newLines,
+		    maxChunks, fontSize, plainFont, boldFont, italicFont,
+		    boldItalicFont);
+	}
 	final Iterable<CharSequence> parts = fromMarkup(markup);
 	return createTextFlow(parts, fontSize, plainFont, boldFont, italicFont,
 		boldItalicFont);
@@ -148,89 +189,135 @@ public class TextFlowUtil {
 	    final PDFont italicFont, final PDFont boldItalicFont)
 	    throws IOException {
 	final TextFlow result = new TextFlow();
-	boolean bold = false;
-	boolean italic = false;
-	Color color = Color.black;
-	MetricsControlCharacter metricsControl = null;
-	Map<Class<? extends Annotation>, Annotation> annotationMap = new HashMap<Class<? extends Annotation>, Annotation>();
-	Stack<IndentCharacter> indentStack = new Stack<IndentCharacter>();
+	FormattingState state = new FormattingState();
 	for (final CharSequence fragment : parts) {
-
 	    if (fragment instanceof ControlCharacter) {
-		if (fragment instanceof NewLineControlCharacter) {
-		    result.add(new NewLine(fontSize));
+		ControlCharacter controlCharacter = state
+			.apply((ControlCharacter) fragment);
+		TextFragment controlFragment = state.createControlFragment(
+			controlCharacter, fontSize, plainFont);
+		if (controlFragment != null) {
+		    result.add(controlFragment);
 		}
-		if (fragment instanceof BoldControlCharacter) {
-		    bold = !bold;
-		}
-		if (fragment instanceof ItalicControlCharacter) {
-		    italic = !italic;
-		}
-		if (fragment instanceof ColorControlCharacter) {
-		    color = ((ColorControlCharacter) fragment).getColor();
-		}
-		if (fragment instanceof AnnotationControlCharacter) {
-		    AnnotationControlCharacter<?> annotationControlCharacter = (AnnotationControlCharacter<?>) fragment;
-		    if (annotationMap.containsKey(annotationControlCharacter.getAnnotationType())) {
-			annotationMap.remove(annotationControlCharacter
-				.getAnnotationType());
-		    } else {
-			annotationMap.put(
-				annotationControlCharacter.getAnnotationType(),
-				annotationControlCharacter.getAnnotation());
+	    } else {
+		result.add(state.createText(fragment, fontSize, plainFont,
+			boldFont, italicFont, boldItalicFont));
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * Parses the markup in chunks concurrently. The markup is split after a
+     * new line, so the chunks are tokenized independently with the same
+     * result. The formatting state at the start of each chunk is then
+     * determined by a scan over the control characters of the preceding
+     * chunks. This scan also creates the indents, since enumerations count
+     * on every indent. Finally the chunks create their fragments
+     * concurrently, starting with their formatting state.
+     */
+    private static TextFlow createTextFlowFromMarkupParallel(
+	    final String markup, final List<Integer> newLines,
+	    final int maxChunks, final float fontSize, final PDFont plainFont,
+	    final PDFont boldFont, final PDFont italicFont,
+	    final PDFont boldItalicFont) throws IOException {
+	int chunkCount = Math.min(maxChunks, newLines.size());
+	final int[] chunkStarts = new int[chunkCount + 1];
+	for (int chunk = 1; chunk < chunkCount; ++chunk) {
+	    chunkStarts[chunk] = newLines.get(chunk * newLines.size()
+		    / chunkCount) + 1;
+	}
+	chunkStarts[chunkCount] = markup.length();
+
+	final List<List<CharSequence>> chunkParts = new ArrayList<List<CharSequence>>();
+	List<RecursiveAction> tokenizeTasks = new ArrayList<RecursiveAction>();
+	for (int chunk = 0; chunk < chunkCount; ++chunk) {
+	    final int index = chunk;
+	    chunkParts.add(null);
+	    tokenizeTasks.add(new RecursiveAction() {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+		    List<CharSequence> parts = new ArrayList<CharSequence>();
+		    for (CharSequence part : fromMarkup(markup.substring(
+			    chunkStarts[index], chunkStarts[index + 1]))) {
+			parts.add(part);
 		    }
+		    chunkParts.set(index, parts);
 		}
-		if (fragment instanceof MetricsControlCharacter) {
-		    if (metricsControl != null && metricsControl.toString().equals(fragment.toString())) {
-			// end marker
-			metricsControl = null;
-		    } else {
-			metricsControl = (MetricsControlCharacter)fragment;
+	    });
+	}
+	ForkJoinTask.invokeAll(tokenizeTasks);
+
+	// scan of the formatting state
+	final FormattingState[] startStates = new FormattingState[chunkCount];
+	final List<List<TextFragment>> chunkIndents = new ArrayList<List<TextFragment>>();
+	FormattingState state = new FormattingState();
+	for (int chunk = 0; chunk < chunkCount; ++chunk) {
+	    startStates[chunk] = state.copy();
+	    List<TextFragment> indents = new ArrayList<TextFragment>();
+	    for (CharSequence part : chunkParts.get(chunk)) {
+		if (part instanceof ControlCharacter) {
+		    ControlCharacter controlCharacter = state
+			    .apply((ControlCharacter) part);
+		    if (controlCharacter instanceof IndentCharacter) {
+			indents.add(state.createControlFragment(
+				controlCharacter, fontSize, plainFont));
 		    }
 		}
-		if (fragment instanceof IndentCharacter) {
-		    IndentCharacter currentIndent = (IndentCharacter) fragment;
-		    if (currentIndent.getLevel() == 0) {
-			// indentation of 0 resets indent
-			indentStack.clear();
-			result.add(Indent.UNINDENT);
-			continue;
-		    } else {
-			IndentCharacter last = null;
-			while (!indentStack.isEmpty()
-				&& indentStack.peek() != null
-				&& currentIndent.getLevel() <= indentStack
-					.peek().getLevel()) {
-			    last = indentStack.pop();
-			}
-			if (last != null && last.equals(currentIndent)) {
-			    currentIndent = last;
+	    }
+	    chunkIndents.add(indents);
+	}
+
+	final TextFlow[] flows = new TextFlow[chunkCount];
+	List<RecursiveAction> createTasks = new ArrayList<RecursiveAction>();
+	for (int chunk = 0; chunk < chunkCount; ++chunk) {
+	    final int index = chunk;
+	    createTasks.add(new RecursiveAction() {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+		    FormattingState chunkState = startStates[index];
+		    Iterator<TextFragment> indents = chunkIndents.get(index)
+			    .iterator();
+		    TextFlow flow = new TextFlow();
+		    try {
+			for (CharSequence part : chunkParts.get(index)) {
+			    if (part instanceof ControlCharacter) {
+				ControlCharacter controlCharacter = chunkState
+					.apply((ControlCharacter) part);
+				if (controlCharacter instanceof IndentCharacter) {
+				    flow.add(indents.next());
+				} else if (controlCharacter instanceof NewLineControlCharacter) {
+				    flow.add(chunkState.createControlFragment(
+					    controlCharacter, fontSize, plainFont));
+				}
+			    } else {
+				flow.add(chunkState.createText(part, fontSize,
+					plainFont, boldFont, italicFont,
+					boldItalicFont));
+			    }
 			}
-			indentStack.push(currentIndent);
-			result.add(currentIndent.createNewIndent(fontSize,
-				plainFont, color));
+		    } catch (IOException e) {
+			throw new UncheckedIOException(e);
 		    }
+		    flows[index] = flow;
 		}
-	    } else {
-		PDFont font = getFont(bold, italic, plainFont, boldFont,
-			italicFont, boldItalicFont);
-		float baselineOffset = 0;
-		float currentFontSize = fontSize;
-		if (metricsControl != null) {
-		     baselineOffset = metricsControl.getBaselineOffsetScale() * fontSize;
-		     currentFontSize *= metricsControl.getFontScale();
-		}
-		if (annotationMap.isEmpty()) {
-		    StyledText styledText = new StyledText(fragment.toString(),
-			    currentFontSize, font, color, baselineOffset);
-		    result.add(styledText);
-		} else {
-		    AnnotatedStyledText styledText = new AnnotatedStyledText(
-			    fragment.toString(), currentFontSize, font, color, baselineOffset,
-			    annotationMap.values());
-		    result.add(styledText);
-		}
-	    }
+	    });
+	}
+	try {
+	    ForkJoinTask.invokeAll(createTasks);
+	} catch (UncheckedIOException e) {
+	    throw e.getCause();
+	}
+
+	TextFlow result = new TextFlow();
+	for (TextFlow flow : flows) {
+	    result.add(flow);
 	}
 	return result;
     }
@@ -390,4 +477,134 @@ public class TextFlowUtil {
 	return result;
     }
 
+    /**
+     * The formatting state while walking the parsed markup.
+     */
+    private static class FormattingState {
+
+	private boolean bold = false;
+	private boolean italic = false;
+	private Color color = Color.black;
+	private MetricsControlCharacter metricsControl = null;
+	private final Map<Class<? extends Annotation>, Annotation> annotationMap = new LinkedHashMap<Class<? extends Annotation>, Annotation>();
+	private final Stack<IndentCharacter> indentStack = new Stack<IndentCharacter>();
+
+	FormattingState copy() {
+	    FormattingState copy = new FormattingState();
+	    copy.bold = bold;
+	    copy.italic = italic;
+	    copy.color = color;
+	    copy.metricsControl = metricsControl;
+	    copy.annotationMap.putAll(annotationMap);
+	    copy.indentStack.addAll(indentStack);
+	    return copy;
+	}
+
+	/**
+	 * Applies the given control character to the state.
+	 * 
+	 * @param fragment
+	 *            the control character.
+	 * @return the control character, or in case of an indent the one
+	 *         actually to use.
+	 */
+	ControlCharacter apply(final ControlCharacter fragment) {
+	    if (fragment instanceof BoldControlCharacter) {
+		bold = !bold;
+	    }
+	    if (fragment instanceof ItalicControlCharacter) {
+		italic = !italic;
+	    }
+	    if (fragment instanceof ColorControlCharacter) {
+		color = ((ColorControlCharacter) fragment).getColor();
+	    }
+	    if (fragment instanceof AnnotationControlCharacter) {
+		AnnotationControlCharacter<?> annotationControlCharacter = (AnnotationControlCharacter<?>) fragment;
+		if (annotationMap.containsKey(annotationControlCharacter.getAnnotationType())) {
+		    annotationMap.remove(annotationControlCharacter
+			    .getAnnotationType());
+		} else {
+		    annotationMap.put(
+			    annotationControlCharacter.getAnnotationType(),
+			    annotationControlCharacter.getAnnotation());
+		}
+	    }
+	    if (fragment instanceof MetricsControlCharacter) {
+		if (metricsControl != null && metricsControl.toString().equals(fragment.toString())) {
+		    // end marker
+		    metricsControl = null;
+		} else {
+		    metricsControl = (MetricsControlCharacter)fragment;
+		}
+	    }
+	    if (fragment instanceof IndentCharacter) {
+		IndentCharacter currentIndent = (IndentCharacter) fragment;
+		if (currentIndent.getLevel() == 0) {
+		    // indentation of 0 resets indent
+		    indentStack.clear();
+		} else {
+		    IndentCharacter last = null;
+		    while (!indentStack.isEmpty()
+			    && indentStack.peek() != null
+			    && currentIndent.getLevel() <= indentStack
+				    .peek().getLevel()) {
+			last = indentStack.pop();
+		    }
+		    if (last != null && last.equals(currentIndent)) {
+			currentIndent = last;
+		    }
+		    indentStack.push(currentIndent);
+		}
+		return currentIndent;
+	    }
+	    return fragment;
+	}
+
+	/**
+	 * Creates the fragment for a control character already
+	 * {@link #apply(ControlCharacter) applied}.
+	 * 
+	 * @return the fragment, or <code>null</code> if the control character
+	 *         does not create one.
+	 * @throws IOException
+	 *             by pdfbox
+	 */
+	TextFragment createControlFragment(
+		final ControlCharacter controlCharacter, final float fontSize,
+		final PDFont plainFont) throws IOException {
+	    if (controlCharacter instanceof NewLineControlCharacter) {
+		return new NewLine(fontSize);
+	    }
+	    if (controlCharacter instanceof IndentCharacter) {
+		IndentCharacter indent = (IndentCharacter) controlCharacter;
+		if (indent.getLevel() == 0) {
+		    return Indent.UNINDENT;
+		}
+		return indent.createNewIndent(fontSize, plainFont, color);
+	    }
+	    return null;
+	}
+
+	StyledText createText(final CharSequence fragment,
+		final float fontSize, final PDFont plainFont,
+		final PDFont boldFont, final PDFont italicFont,
+		final PDFont boldItalicFont) {
+	    PDFont font = getFont(bold, italic, plainFont, boldFont,
+		    italicFont, boldItalicFont);
+	    float baselineOffset = 0;
+	    float currentFontSize = fontSize;
+	    if (metricsControl != null) {
+		 baselineOffset = metricsControl.getBaselineOffsetScale() * fontSize;
+		 currentFontSize *= metricsControl.getFontScale();
+	    }
+	    if (annotationMap.isEmpty()) {
+		return new StyledText(fragment.toString(), currentFontSize,
+			font, color, baselineOffset);
+	    }
+	    return new AnnotatedStyledText(fragment.toString(),
+		    currentFontSize, font, color, baselineOffset,
+		    annotationMap.values());
+	}
+    }
+
 }
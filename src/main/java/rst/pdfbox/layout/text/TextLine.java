@@ -1,6 +1,5 @@
 package rst.pdfbox.layout.text;
 
-import java.awt.Color;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -10,8 +9,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
-
-import rst.pdfbox.layout.util.CompatibilityHelper;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
 
 /**
  * A text of line containing only {@link StyledText}s. It may be terminated by a
@@ -147,8 +145,8 @@ public class TextLine implements TextSequence {
 	    ascent = 0f;
 	    for (TextFragment fragment : this) {
 		float currentAscent = fragment.getFontDescriptor().getSize()
-			* fragment.getFontDescriptor().getFont()
-				.getFontDescriptor().getAscent() / 1000;
+			* FontMetrics.getAscent(fragment.getFontDescriptor()
+				.getFont()) / 1000;
 		ascent = Math.max(ascent, currentAscent);
 	    }
 	    setCachedValue(ASCENT, ascent);
@@ -165,47 +163,65 @@ public class TextLine implements TextSequence {
     public void drawAligned(PDPageContentStream contentStream, Position upperLeft,
 	    Alignment alignment, float availableLineWidth,
 	    DrawListener drawListener) throws IOException {
-	contentStream.saveGraphicsState();
-	contentStream.beginText();
+	TextEmitter textEmitter = new TextEmitter(contentStream);
+	drawAligned(textEmitter, upperLeft, alignment, availableLineWidth,
+		drawListener);
+	textEmitter.end();
+    }
 
+    /**
+     * Draws the line using the given text emitter, so multiple lines may share
+     * one text object and its state. The text object is not closed.
+     * 
+     * @param textEmitter
+     *            the emitter to draw the text with.
+     * @param upperLeft
+     *            the upper left position of the line.
+     * @param alignment
+     *            how to align the line.
+     * @param availableLineWidth
+     *            the width to align the line in.
+     * @param drawListener
+     *            the listener to notify on drawn objects, may be
+     *            <code>null</code>.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public void drawAligned(TextEmitter textEmitter, Position upperLeft,
+	    Alignment alignment, float availableLineWidth,
+	    DrawListener drawListener) throws IOException {
 	float x = upperLeft.getX();
 	float y = upperLeft.getY() - getAscent(); // the baseline
 	float offset = TextSequenceUtil.getOffset(this, availableLineWidth, alignment);
 	x += offset;
-	CompatibilityHelper.setTextTranslation(contentStream, x, y);
 	float extraWordSpacing = 0;
 	if (alignment == Alignment.Justify && (getNewLine() instanceof WrappingNewLine) ){
 	    extraWordSpacing = (availableLineWidth - getWidth()) / (styledTextList.size()-1);
 	}
-	
-	FontDescriptor lastFontDesc = null;
-	float lastBaselineOffset = 0;
-	Color lastColor = null;
+	// if possible, the extra word spacing is applied by the word spacing
+	// operator to the leading space of each word
+	float wordSpacing = 0;
+	if (extraWordSpacing != 0 && isWordSpacingApplicable()) {
+	    wordSpacing = extraWordSpacing;
+	}
+	textEmitter.setWordSpacing(wordSpacing);
+
 	float gap = 0;
+	boolean first = true;
 	for (StyledText styledText : styledTextList) {
-	    if (!styledText.getFontDescriptor().equals(lastFontDesc)) {
-		lastFontDesc = styledText.getFontDescriptor();
-		contentStream.setFont(lastFontDesc.getFont(),
-			lastFontDesc.getSize());
-	    }
-	    if (!styledText.getColor().equals(lastColor)) {
-		lastColor = styledText.getColor();
-		contentStream.setNonStrokingColor(lastColor);
-	    }
 	    if (styledText.getLeftMargin() > 0) {
 		gap += styledText.getLeftMargin();
 	    }
-
-	    boolean moveBaseline = styledText.getBaselineOffset() != lastBaselineOffset;
-	    if (moveBaseline || gap > 0) {
-		float baselineDelta = lastBaselineOffset - styledText.getBaselineOffset();
-		lastBaselineOffset = styledText.getBaselineOffset();
-		CompatibilityHelper.moveTextPosition(contentStream, gap, baselineDelta);
-		x += gap;
-	    }
-	    if (styledText.getText().length() > 0) {
-		CompatibilityHelper.showText(contentStream,
-			styledText.getText());
+	    x += gap;
+
+	    if (styledText.getText().length() > 0
+		    && !(styledText instanceof Placeholder)) {
+		textEmitter.setFont(styledText.getFontDescriptor());
+		textEmitter.setColor(styledText.getColor());
+		textEmitter.moveTo(first ? x : x - wordSpacing, y);
+		textEmitter.setRise(-styledText.getBaselineOffset());
+		textEmitter.showText(styledText.getText(),
+			styledText.getWidthWithoutMargin());
 	    }
 
 	    if (drawListener != null) {
@@ -221,9 +237,35 @@ public class TextLine implements TextSequence {
 	    if (styledText.getRightMargin() > 0) {
 		gap += styledText.getRightMargin();
 	    }
+	    first = false;
+	}
+    }
+
+    /**
+     * The word spacing operator adds the spacing to each space character, so
+     * it is only applicable if each but the first text starts with a single
+     * space, and there are no other spaces. Also it does not apply to
+     * composite fonts.
+     */
+    private boolean isWordSpacingApplicable() {
+	for (int index = 0; index < styledTextList.size(); ++index) {
+	    StyledText styledText = styledTextList.get(index);
+	    String text = styledText.getText();
+	    if (text.length() == 0 || styledText instanceof Placeholder
+		    || styledText.getFontDescriptor().getFont() instanceof PDType0Font) {
+		return false;
+	    }
+	    int spaces = 0;
+	    for (int charIndex = 0; charIndex < text.length(); ++charIndex) {
+		if (text.charAt(charIndex) == ' ') {
+		    ++spaces;
+		}
+	    }
+	    if (index == 0 ? spaces != 0 : spaces != 1 || text.charAt(0) != ' ') {
+		return false;
+	    }
 	}
-	contentStream.endText();
-	contentStream.restoreGraphicsState();
+	return true;
     }
 
     @Override
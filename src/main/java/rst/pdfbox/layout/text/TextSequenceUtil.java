@@ -1,8 +1,12 @@
 package rst.pdfbox.layout.text;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 
@@ -16,6 +20,12 @@ import rst.pdfbox.layout.util.WordBreakerFactory;
  */
 public class TextSequenceUtil {
 
+    /**
+     * The minimum number of (non-wrapping) new lines in a text to
+     * {@link #wordWrap(TextSequence, float) word-wrap} it in parallel.
+     */
+    public final static int PARALLEL_WRAP_MIN_NEW_LINES = 256;
+
     /**
      * Dissects the given sequence into {@link TextLine}s.
      * 
@@ -62,8 +72,7 @@ public class TextSequenceUtil {
      */
     public static Divided divide(final TextSequence text, final float maxWidth,
 	    final float maxHeight) throws IOException {
-	TextFlow wrapped = wordWrap(text, maxWidth);
-	List<TextLine> lines = getLines(wrapped);
+	List<TextLine> lines = getWrappedLines(text, maxWidth);
 
 	Paragraph first = new Paragraph();
 	Paragraph tail = new Paragraph();
@@ -118,12 +127,110 @@ public class TextSequenceUtil {
      */
     public static TextFlow wordWrap(final TextSequence text,
 	    final float maxWidth) throws IOException {
+	int parallelism = ForkJoinPool.getCommonPoolParallelism();
+	return wordWrap(text, maxWidth, PARALLEL_WRAP_MIN_NEW_LINES,
+		parallelism > 1 ? parallelism * 4 : 1);
+    }
+
+    /**
+     * See {@link #wordWrap(TextSequence, float)}. The text is wrapped in (at
+     * most) the given number of chunks if it contains at least the given
+     * number of (non-wrapping) new lines.
+     */
+    static TextFlow wordWrap(final TextSequence text, final float maxWidth,
+	    final int minNewLines, final int maxChunks) throws IOException {
+	List<TextFragment> fragments = new ArrayList<TextFragment>();
+	List<Integer> newLines = new ArrayList<Integer>();
+	for (TextFragment fragment : text) {
+	    if (isHardNewLine(fragment)) {
+		newLines.add(fragments.size());
+	    }
+	    fragments.add(fragment);
+	}
 
-	float indentation = 0;
 	TextFlow result = new TextFlow();
+	if (maxChunks > 1 && newLines.size() >= minNewLines) {
+	    wordWrapParallel(fragments, newLines, maxChunks, maxWidth, result);
+	} else {
+	    wordWrap(fragments, 0, maxWidth, result);
+	}
+	return result;
+    }
+
+    private static boolean isHardNewLine(final TextFragment fragment) {
+	return fragment instanceof NewLine
+		&& !(fragment instanceof WrappingNewLine);
+    }
+
+    /**
+     * Word-wraps the text in chunks concurrently. Wrapping starts over at
+     * every non-wrapping new line, only the indentation is carried on. So the
+     * text is split into chunks starting at a new line, the indentation at
+     * the start of each chunk is calculated in advance, and the chunks are
+     * wrapped independently. As each chunk starts with its new line, any
+     * indentation added after that new line is part of the chunk.
+     */
+    private static void wordWrapParallel(final List<TextFragment> fragments,
+	    final List<Integer> newLines, final int maxChunks,
+	    final float maxWidth, final TextFlow result) throws IOException {
+	int chunkCount = Math.min(maxChunks, newLines.size());
+	final int[] chunkStarts = new int[chunkCount + 1];
+	for (int chunk = 1; chunk < chunkCount; ++chunk) {
+	    chunkStarts[chunk] = newLines.get(chunk * newLines.size()
+		    / chunkCount);
+	}
+	chunkStarts[chunkCount] = fragments.size();
+
+	// prefix scan of the indentation
+	final float[] indentations = new float[chunkCount];
+	for (int chunk = 1; chunk < chunkCount; ++chunk) {
+	    indentations[chunk] = indentations[chunk - 1];
+	    for (int index = chunkStarts[chunk - 1]; index < chunkStarts[chunk]; ++index) {
+		if (fragments.get(index) instanceof Indent) {
+		    indentations[chunk] = fragments.get(index).getWidth();
+		}
+	    }
+	}
+
+	final TextFlow[] wrapped = new TextFlow[chunkCount];
+	List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+	for (int chunk = 0; chunk < chunkCount; ++chunk) {
+	    final int index = chunk;
+	    tasks.add(new RecursiveAction() {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+		    wrapped[index] = new TextFlow();
+		    try {
+			wordWrap(fragments.subList(chunkStarts[index],
+				chunkStarts[index + 1]), indentations[index],
+				maxWidth, wrapped[index]);
+		    } catch (IOException e) {
+			throw new UncheckedIOException(e);
+		    }
+		}
+	    });
+	}
+	try {
+	    ForkJoinTask.invokeAll(tasks);
+	} catch (UncheckedIOException e) {
+	    throw e.getCause();
+	}
+
+	for (TextFlow chunk : wrapped) {
+	    result.add(chunk);
+	}
+    }
+
+    private static void wordWrap(final List<TextFragment> fragments,
+	    final float startIndentation, final float maxWidth,
+	    final TextFlow result) throws IOException {
+	float indentation = startIndentation;
 	float lineLength = indentation;
 	boolean isWrappedLine = false;
-	for (TextFragment fragment : text) {
+	for (TextFragment fragment : fragments) {
 	    if (fragment instanceof NewLine) {
 		isWrappedLine = fragment instanceof WrappingNewLine;
 		result.add(fragment);
@@ -155,7 +262,6 @@ public class TextSequenceUtil {
 		}
 	    }
 	}
-	return result;
     }
 
     private static WordWrapContext wordWrap(final WordWrapContext context,
@@ -322,6 +428,19 @@ public class TextSequenceUtil {
 	return lines;
     }
 
+    /**
+     * Like {@link #wordWrapToLines(TextSequence, float)}, but uses the lines
+     * cached by a {@link TextFlow} if it is wrapped to the same width.
+     */
+    private static List<TextLine> getWrappedLines(final TextSequence text,
+	    final float maxWidth) throws IOException {
+	if (text instanceof TextFlow
+		&& ((TextFlow) text).getMaxWidth() == maxWidth) {
+	    return ((TextFlow) text).getWrappedLines();
+	}
+	return wordWrapToLines(text, maxWidth);
+    }
+
     /**
      * Splits the fragment into words.
      * 
@@ -331,7 +450,7 @@ public class TextSequenceUtil {
      */
     public static TextFlow splitWords(final TextFragment text) {
 	TextFlow result = new TextFlow();
-	if (text instanceof NewLine) {
+	if (text instanceof NewLine || text instanceof Placeholder) {
 	    result.add(text);
 	} else {
 	    float leftMargin = 0;
@@ -389,6 +508,10 @@ public class TextSequenceUtil {
     private static Pair<TextFragment> breakWord(TextFragment word,
 	    float wordWidth, final float remainingLineWidth, float maxWidth,
 	    boolean breakHard) throws IOException {
+	if (word instanceof Placeholder) {
+	    // placeholders are atomic
+	    return null;
+	}
 
 	float leftMargin = 0;
 	float rightMargin = 0;
@@ -435,7 +558,8 @@ public class TextSequenceUtil {
     public static float getStringWidth(final String text,
 	    final FontDescriptor fontDescriptor) throws IOException {
 	return fontDescriptor.getSize()
-		* fontDescriptor.getFont().getStringWidth(text) / 1000;
+		* FontMetrics.getStringWidth(fontDescriptor.getFont(), text)
+		/ 1000;
     }
 
     /**
@@ -469,10 +593,65 @@ public class TextSequenceUtil {
 	    DrawListener drawListener, Alignment alignment, float maxWidth,
 	    final float lineSpacing, final boolean applyLineSpacingToFirstLine)
 	    throws IOException {
-	List<TextLine> lines = wordWrapToLines(text, maxWidth);
+	drawLines(text, contentStream, upperLeft, drawListener, alignment,
+		maxWidth, lineSpacing, applyLineSpacingToFirstLine, null, null);
+    }
+
+    /**
+     * Draws those lines of the given text sequence, that are (at least
+     * partially) visible in the given vertical view port. See
+     * {@link #drawText(TextSequence, PDPageContentStream, Position, DrawListener, Alignment, float, float, boolean)}
+     * .
+     * 
+     * @param text
+     *            the text to draw.
+     * @param contentStream
+     *            the stream to draw to
+     * @param upperLeft
+     *            the position of the start of the first line.
+     * @param drawListener
+     *            the listener to
+     *            {@link DrawListener#drawn(Object, Position, float, float)
+     *            notify} on drawn objects.
+     * @param alignment
+     *            how to align the text lines.
+     * @param maxWidth
+     *            if &gt; 0, the text may be word-wrapped to match the width.
+     * @param lineSpacing
+     *            the line spacing factor.
+     * @param applyLineSpacingToFirstLine
+     *            indicates if the line spacing should be applied to the first
+     *            line also. Makes sense in most cases to do so.
+     * @param viewPortY
+     *            the offset of the view port from the top of the text.
+     * @param viewPortHeight
+     *            the height of the view port.
+     * @throws IOException
+     *             by pdfbox
+     */
+    public static void drawText(TextSequence text,
+	    PDPageContentStream contentStream, Position upperLeft,
+	    DrawListener drawListener, Alignment alignment, float maxWidth,
+	    final float lineSpacing, final boolean applyLineSpacingToFirstLine,
+	    final float viewPortY, final float viewPortHeight)
+	    throws IOException {
+	drawLines(text, contentStream, upperLeft, drawListener, alignment,
+		maxWidth, lineSpacing, applyLineSpacingToFirstLine,
+		upperLeft.getY() - viewPortY, upperLeft.getY() - viewPortY
+			- viewPortHeight);
+    }
+
+    private static void drawLines(TextSequence text,
+	    PDPageContentStream contentStream, Position upperLeft,
+	    DrawListener drawListener, Alignment alignment, float maxWidth,
+	    final float lineSpacing, final boolean applyLineSpacingToFirstLine,
+	    final Float viewPortTop, final Float viewPortBottom)
+	    throws IOException {
+	List<TextLine> lines = getWrappedLines(text, maxWidth);
 	float maxLineWidth = Math.max(maxWidth, getMaxWidth(lines));
 	Position position = upperLeft;
 	float lastLineHeight = 0;
+	TextEmitter textEmitter = new TextEmitter(contentStream);
 	for (int i = 0; i < lines.size(); i++) {
 	    boolean applyLineSpacing = i > 0 || applyLineSpacingToFirstLine;
 	    TextLine textLine = lines.get(i);
@@ -483,8 +662,18 @@ public class TextSequenceUtil {
 	    }
 	    lastLineHeight = currentLineHeight;
 	    position = position.add(0, -lead);
-	    textLine.drawAligned(contentStream, position, alignment, maxLineWidth, drawListener);
+	    if (viewPortTop != null) {
+		if (position.getY() <= viewPortBottom) {
+		    // all following lines are below the view port
+		    break;
+		}
+		if (position.getY() - currentLineHeight >= viewPortTop) {
+		    continue;
+		}
+	    }
+	    textLine.drawAligned(textEmitter, position, alignment, maxLineWidth, drawListener);
 	}
+	textEmitter.end();
 
     }
 
@@ -546,7 +735,7 @@ public class TextSequenceUtil {
      */
     public static float getWidth(final TextSequence textSequence,
 	    final float maxWidth) throws IOException {
-	List<TextLine> lines = wordWrapToLines(textSequence, maxWidth);
+	List<TextLine> lines = getWrappedLines(textSequence, maxWidth);
 	float max = 0;
 	for (TextLine line : lines) {
 	    max = Math.max(max, line.getWidth());
@@ -573,7 +762,7 @@ public class TextSequenceUtil {
     public static float getHeight(final TextSequence textSequence,
 	    final float maxWidth, final float lineSpacing,
 	    final boolean applyLineSpacingToFirstLine) throws IOException {
-	List<TextLine> lines = wordWrapToLines(textSequence, maxWidth);
+	List<TextLine> lines = getWrappedLines(textSequence, maxWidth);
 	float sum = 0;
 	for (int i = 0; i < lines.size(); i++) {
 	    boolean applyLineSpacing = i > 0 || applyLineSpacingToFirstLine;
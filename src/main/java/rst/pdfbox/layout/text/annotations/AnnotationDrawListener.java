@@ -12,6 +12,8 @@ import rst.pdfbox.layout.text.DrawContext;
 import rst.pdfbox.layout.text.DrawListener;
 import rst.pdfbox.layout.text.DrawableText;
 import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.util.GraphicsState;
+import rst.pdfbox.layout.util.GraphicsStateAware;
 
 /**
  * This listener has to be passed to all
@@ -21,6 +23,10 @@ import rst.pdfbox.layout.text.Position;
  * necessary annotations and sets them to the corresponding pages. This listener
  * is used by the the rendering API, but you may also use it with the low-level
  * text API.
+ * <p>
+ * Annotation processors not being {@link GraphicsStateAware} may write to the
+ * content stream directly, so tracking of the {@link GraphicsState} is
+ * suspended while they are called.
  */
 public class AnnotationDrawListener implements DrawListener, RenderListener {
 
@@ -47,6 +53,7 @@ public class AnnotationDrawListener implements DrawListener, RenderListener {
 	    return;
 	}
 	for (AnnotationProcessor annotationProcessor : annotationProcessors) {
+	    boolean suspended = suspend(annotationProcessor);
 	    try {
 		annotationProcessor.annotatedObjectDrawn(
 			(Annotated) drawnObject, drawContext, upperLeft, width,
@@ -54,6 +61,8 @@ public class AnnotationDrawListener implements DrawListener, RenderListener {
 	    } catch (IOException e) {
 		throw new RuntimeException(
 			"exception on annotation processing", e);
+	    } finally {
+		resume(suspended);
 	    }
 	}
     }
@@ -70,11 +79,14 @@ public class AnnotationDrawListener implements DrawListener, RenderListener {
     @Override
     public void beforePage(RenderContext renderContext) throws IOException {
 	for (AnnotationProcessor annotationProcessor : annotationProcessors) {
+	    boolean suspended = suspend(annotationProcessor);
 	    try {
 		annotationProcessor.beforePage(drawContext);
 	    } catch (IOException e) {
 		throw new RuntimeException(
 			"exception on annotation processing", e);
+	    } finally {
+		resume(suspended);
 	    }
 	}
     }
@@ -82,16 +94,42 @@ public class AnnotationDrawListener implements DrawListener, RenderListener {
     @Override
     public void afterPage(RenderContext renderContext) throws IOException {
 	for (AnnotationProcessor annotationProcessor : annotationProcessors) {
+	    boolean suspended = suspend(annotationProcessor);
 	    try {
 		annotationProcessor.afterPage(drawContext);
 	    } catch (IOException e) {
 		throw new RuntimeException(
 			"exception on annotation processing", e);
+	    } finally {
+		resume(suspended);
 	    }
 	}
     }
 
 
+    /**
+     * Suspends tracking of the graphics state, if the given processor is not
+     * {@link GraphicsStateAware}.
+     */
+    private boolean suspend(final AnnotationProcessor annotationProcessor) {
+	if (annotationProcessor instanceof GraphicsStateAware) {
+	    return false;
+	}
+	GraphicsState.suspend();
+	return true;
+    }
+
+    /**
+     * Resumes tracking, and invalidates the graphics state which may have
+     * been modified by the processor.
+     */
+    private void resume(final boolean suspended) {
+	if (suspended) {
+	    GraphicsState.resume();
+	    GraphicsState.invalidate(drawContext.getCurrentPageContentStream());
+	}
+    }
+
     public void afterRender() throws IOException {
 	for (AnnotationProcessor annotationProcessor : annotationProcessors) {
 	    try {
@@ -20,13 +20,15 @@ import rst.pdfbox.layout.text.annotations.Annotations.AnchorAnnotation;
 import rst.pdfbox.layout.text.annotations.Annotations.HyperlinkAnnotation;
 import rst.pdfbox.layout.text.annotations.Annotations.HyperlinkAnnotation.LinkStyle;
 import rst.pdfbox.layout.util.CompatibilityHelper;
+import rst.pdfbox.layout.util.GraphicsStateAware;
 
 /**
  * This annotation processor handles both {@link HyperlinkAnnotation}s and
  * {@link AnchorAnnotation}s, and adds the needed hyperlink metadata to the PDF
  * document.
  */
-public class HyperlinkAnnotationProcessor implements AnnotationProcessor {
+public class HyperlinkAnnotationProcessor implements AnnotationProcessor,
+	GraphicsStateAware {
 
     private Map<String, PageAnchor> anchorMap = new HashMap<String, PageAnchor>();
     private Map<PDPage, List<Hyperlink>> linkMap = new HashMap<PDPage, List<Hyperlink>>();
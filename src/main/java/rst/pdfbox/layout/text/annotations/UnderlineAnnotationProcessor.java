@@ -10,15 +10,19 @@ import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
 
 import rst.pdfbox.layout.shape.Stroke;
 import rst.pdfbox.layout.text.DrawContext;
+import rst.pdfbox.layout.text.FontMetrics;
 import rst.pdfbox.layout.text.Position;
 import rst.pdfbox.layout.text.StyledText;
 import rst.pdfbox.layout.text.annotations.Annotations.UnderlineAnnotation;
+import rst.pdfbox.layout.util.GraphicsState;
+import rst.pdfbox.layout.util.GraphicsStateAware;
 
 /**
  * This annotation processor handles the {@link UnderlineAnnotation}s, and adds
  * the needed hyperlink metadata to the PDF document.
  */
-public class UnderlineAnnotationProcessor implements AnnotationProcessor {
+public class UnderlineAnnotationProcessor implements AnnotationProcessor,
+	GraphicsStateAware {
 
     private List<Line> linesOnPage = new ArrayList<Line>();
 
@@ -36,8 +40,8 @@ public class UnderlineAnnotationProcessor implements AnnotationProcessor {
 		.getAnnotationsOfType(UnderlineAnnotation.class)) {
 	    float fontSize = drawnText.getFontDescriptor().getSize();
 	    float ascent = fontSize
-		    * drawnText.getFontDescriptor().getFont()
-			    .getFontDescriptor().getAscent() / 1000;
+		    * FontMetrics.getAscent(drawnText.getFontDescriptor()
+			    .getFont()) / 1000;
 
 	    float baselineOffset = fontSize * underlineAnnotation.getBaselineOffsetScale();
 	    float thickness = (0.01f + fontSize * 0.05f)
@@ -87,7 +91,7 @@ public class UnderlineAnnotationProcessor implements AnnotationProcessor {
 
 	public void draw(PDPageContentStream contentStream) throws IOException {
 	    if (color != null) {
-		contentStream.setStrokingColor(color);
+		GraphicsState.setStrokingColor(contentStream, color);
 	    }
 	    if (stroke != null) {
 		stroke.applyTo(contentStream);
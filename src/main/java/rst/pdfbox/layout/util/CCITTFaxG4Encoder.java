@@ -0,0 +1,343 @@
+package rst.pdfbox.layout.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes bilevel images using CCITT group 4 (T.6) compression, as decoded
+ * by the <code>CCITTFaxDecode</code> filter with <code>K = -1</code>. pdfbox 1
+ * has no CCITT encoder, so this is a plain implementation working on the
+ * image rows directly. It is used by the pdfbox 1 {@link CompatibilityHelper}
+ * only, the pdfbox 2 build excludes it and uses the CCITT factory of pdfbox.
+ */
+final class CCITTFaxG4Encoder {
+
+    private static final int[][] WHITE_CODES = {
+	    { // 4 bits
+	    0x7, 0x8, 0xb, 0xc, 0xe, 0xf },
+	    { // 5 bits
+	    0x12, 0x13, 0x14, 0x1b, 0x7, 0x8 },
+	    { // 6 bits
+	    0x17, 0x18, 0x2a, 0x2b, 0x3, 0x34, 0x35, 0x7, 0x8 },
+	    { // 7 bits
+	    0x13, 0x17, 0x18, 0x24, 0x27, 0x28, 0x2b, 0x3, 0x37, 0x4, 0x8,
+		    0xc },
+	    { // 8 bits
+	    0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x1a, 0x1b, 0x2, 0x24, 0x25,
+		    0x28, 0x29, 0x2a, 0x2b, 0x2c, 0x2d, 0x3, 0x32, 0x33, 0x34,
+		    0x35, 0x36, 0x37, 0x4, 0x4a, 0x4b, 0x5, 0x52, 0x53, 0x54,
+		    0x55, 0x58, 0x59, 0x5a, 0x5b, 0x64, 0x65, 0x67, 0x68, 0xa,
+		    0xb },
+	    { // 9 bits
+	    0x98, 0x99, 0x9a, 0x9b, 0xcc, 0xcd, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6,
+		    0xd7, 0xd8, 0xd9, 0xda, 0xdb },
+	    { // 10 bits
+	    },
+	    { // 11 bits
+	    0x8, 0xc, 0xd },
+	    { // 12 bits
+	    0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x1c, 0x1d, 0x1e, 0x1f } };
+
+    private static final int[][] WHITE_RUN_LENGTHS = {
+	    { // 4 bits
+	    2, 3, 4, 5, 6, 7 },
+	    { // 5 bits
+	    128, 8, 9, 64, 10, 11 },
+	    { // 6 bits
+	    192, 1664, 16, 17, 13, 14, 15, 1, 12 },
+	    { // 7 bits
+	    26, 21, 28, 27, 18, 24, 25, 22, 256, 23, 20, 19 },
+	    { // 8 bits
+	    33, 34, 35, 36, 37, 38, 31, 32, 29, 53, 54, 39, 40, 41, 42, 43,
+		    44, 30, 61, 62, 63, 0, 320, 384, 45, 59, 60, 46, 49, 50,
+		    51, 52, 55, 56, 57, 58, 448, 512, 640, 576, 47, 48 },
+	    { // 9 bits
+	    1472, 1536, 1600, 1728, 704, 768, 832, 896, 960, 1024, 1088, 1152,
+		    1216, 1280, 1344, 1408 },
+	    { // 10 bits
+	    },
+	    { // 11 bits
+	    1792, 1856, 1920 },
+	    { // 12 bits
+	    1984, 2048, 2112, 2176, 2240, 2304, 2368, 2432, 2496, 2560 } };
+
+    private static final int[][] BLACK_CODES = {
+	    { // 2 bits
+	    0x2, 0x3 },
+	    { // 3 bits
+	    0x2, 0x3 },
+	    { // 4 bits
+	    0x2, 0x3 },
+	    { // 5 bits
+	    0x3 },
+	    { // 6 bits
+	    0x4, 0x5 },
+	    { // 7 bits
+	    0x4, 0x5, 0x7 },
+	    { // 8 bits
+	    0x4, 0x7 },
+	    { // 9 bits
+	    0x18 },
+	    { // 10 bits
+	    0x17, 0x18, 0x37, 0x8, 0xf },
+	    { // 11 bits
+	    0x17, 0x18, 0x28, 0x37, 0x67, 0x68, 0x6c, 0x8, 0xc, 0xd },
+	    { // 12 bits
+	    0x12, 0x13, 0x14, 0x15, 0x16, 0x17, 0x1c, 0x1d, 0x1e, 0x1f, 0x24,
+		    0x27, 0x28, 0x2b, 0x2c, 0x33, 0x34, 0x35, 0x37, 0x38, 0x52,
+		    0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x5b, 0x64,
+		    0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x6b, 0x6c, 0x6d, 0xc8,
+		    0xc9, 0xca, 0xcb, 0xcc, 0xcd, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6,
+		    0xd7, 0xda, 0xdb },
+	    { // 13 bits
+	    0x4a, 0x4b, 0x4c, 0x4d, 0x52, 0x53, 0x54, 0x55, 0x5a, 0x5b, 0x64,
+		    0x65, 0x6c, 0x6d, 0x72, 0x73, 0x74, 0x75, 0x76, 0x77 } };
+
+    private static final int[][] BLACK_RUN_LENGTHS = {
+	    { // 2 bits
+	    3, 2 },
+	    { // 3 bits
+	    1, 4 },
+	    { // 4 bits
+	    6, 5 },
+	    { // 5 bits
+	    7 },
+	    { // 6 bits
+	    9, 8 },
+	    { // 7 bits
+	    10, 11, 12 },
+	    { // 8 bits
+	    13, 14 },
+	    { // 9 bits
+	    15 },
+	    { // 10 bits
+	    16, 17, 0, 18, 64 },
+	    { // 11 bits
+	    24, 25, 23, 22, 19, 20, 21, 1792, 1856, 1920 },
+	    { // 12 bits
+	    1984, 2048, 2112, 2176, 2240, 2304, 2368, 2432, 2496, 2560, 52,
+		    55, 56, 59, 60, 320, 384, 448, 53, 54, 50, 51, 44, 45, 46,
+		    47, 57, 58, 61, 256, 48, 49, 62, 63, 30, 31, 32, 33, 40, 41,
+		    128, 192, 26, 27, 28, 29, 34, 35, 36, 37, 38, 39, 42, 43 },
+	    { // 13 bits
+	    640, 704, 768, 832, 1280, 1344, 1408, 1472, 1536, 1600, 1664,
+		    1728, 512, 576, 896, 960, 1024, 1088, 1152, 1216 } };
+
+    /**
+     * Code and length (in the upper and lower 16 bits) indexed by run length
+     * for runs &lt; 64, resp. by run length / 64 for the make up codes.
+     */
+    private static final int[] WHITE_TERMINATING = new int[64];
+    private static final int[] WHITE_MAKE_UP = new int[41];
+    private static final int[] BLACK_TERMINATING = new int[64];
+    private static final int[] BLACK_MAKE_UP = new int[41];
+
+    static {
+	fillCodes(WHITE_CODES, WHITE_RUN_LENGTHS, 4, WHITE_TERMINATING,
+		WHITE_MAKE_UP);
+	fillCodes(BLACK_CODES, BLACK_RUN_LENGTHS, 2, BLACK_TERMINATING,
+		BLACK_MAKE_UP);
+    }
+
+    private final int columns;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int buffer;
+    private int bufferLength;
+
+    private CCITTFaxG4Encoder(final int columns) {
+	this.columns = columns;
+    }
+
+    /**
+     * Encodes the given image. A pixel is considered black, if its luminance
+     * is below the given threshold.
+     *
+     * @param image
+     *            the image to encode.
+     * @param threshold
+     *            the luminance threshold (1-256).
+     * @return the encoded data.
+     */
+    static byte[] encode(final BufferedImage image, final int threshold) {
+	int width = image.getWidth();
+	CCITTFaxG4Encoder encoder = new CCITTFaxG4Encoder(width);
+	int[] line = new int[width];
+	// for indexed images decide per palette entry instead of per pixel
+	boolean[] blackIndex = null;
+	if (image.getColorModel() instanceof IndexColorModel) {
+	    IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+	    blackIndex = new boolean[colorModel.getMapSize()];
+	    for (int i = 0; i < blackIndex.length; ++i) {
+		blackIndex[i] = isBlack(colorModel.getRGB(i), threshold);
+	    }
+	}
+	// changing elements, terminated by two times the line width
+	int[] reference = new int[width + 2];
+	int[] current = new int[width + 2];
+	reference[0] = width;
+	reference[1] = width;
+	for (int y = 0; y < image.getHeight(); ++y) {
+	    if (blackIndex != null) {
+		image.getRaster().getSamples(0, y, width, 1, 0, line);
+	    } else {
+		image.getRGB(0, y, width, 1, line, 0, width);
+	    }
+	    int changes = 0;
+	    boolean black = false;
+	    for (int x = 0; x < width; ++x) {
+		boolean pixelBlack = blackIndex != null ? blackIndex[line[x]]
+			: isBlack(line[x], threshold);
+		if (pixelBlack != black) {
+		    current[changes++] = x;
+		    black = !black;
+		}
+	    }
+	    current[changes] = width;
+	    current[changes + 1] = width;
+
+	    encoder.encodeLine(current, reference);
+
+	    int[] swap = reference;
+	    reference = current;
+	    current = swap;
+	}
+	// EOFB
+	encoder.write(1, 12);
+	encoder.write(1, 12);
+	encoder.flush();
+	return encoder.out.toByteArray();
+    }
+
+    private static boolean isBlack(final int rgb, final int threshold) {
+	int r = (rgb >> 16) & 0xFF;
+	int g = (rgb >> 8) & 0xFF;
+	int b = rgb & 0xFF;
+	return (r * 299 + g * 587 + b * 114) / 1000 < threshold;
+    }
+
+    /**
+     * Encodes one line in two-dimensional mode. The change at an even index
+     * is a change to black, at an odd index a change to white.
+     */
+    private void encodeLine(final int[] current, final int[] reference) {
+	int a0 = -1;
+	boolean black = false;
+	int a1Index = 0;
+	int b0Index = 0;
+	while (a0 < columns) {
+	    while (current[a1Index] <= a0 && current[a1Index] < columns) {
+		++a1Index;
+	    }
+	    int a1 = current[a1Index];
+
+	    // b1 is the first change right of a0 to the opposite color
+	    while (reference[b0Index] <= a0 && reference[b0Index] < columns) {
+		++b0Index;
+	    }
+	    int b1Index = b0Index;
+	    if (b1Index % 2 == (black ? 0 : 1)
+		    && reference[b1Index] < columns) {
+		++b1Index;
+	    }
+	    int b1 = reference[b1Index];
+	    int b2 = b1 < columns ? reference[b1Index + 1] : columns;
+
+	    if (b2 < a1) {
+		// pass mode
+		write(0x1, 4);
+		a0 = b2;
+	    } else if (Math.abs(a1 - b1) <= 3) {
+		writeVertical(a1 - b1);
+		a0 = a1;
+		black = !black;
+	    } else {
+		int a2 = a1 < columns ? current[a1Index + 1] : columns;
+		write(0x1, 3);
+		writeRun(a1 - Math.max(a0, 0), black);
+		writeRun(a2 - a1, !black);
+		a0 = a2;
+	    }
+	}
+    }
+
+    private void writeVertical(final int difference) {
+	switch (difference) {
+	case 0:
+	    write(0x1, 1);
+	    break;
+	case 1:
+	    write(0x3, 3);
+	    break;
+	case 2:
+	    write(0x3, 6);
+	    break;
+	case 3:
+	    write(0x3, 7);
+	    break;
+	case -1:
+	    write(0x2, 3);
+	    break;
+	case -2:
+	    write(0x2, 6);
+	    break;
+	default:
+	    write(0x2, 7);
+	    break;
+	}
+    }
+
+    private void writeRun(final int runLength, final boolean black) {
+	int[] terminating = black ? BLACK_TERMINATING : WHITE_TERMINATING;
+	int[] makeUp = black ? BLACK_MAKE_UP : WHITE_MAKE_UP;
+	int run = runLength;
+	while (run >= 2560) {
+	    writeCode(makeUp[40]);
+	    run -= 2560;
+	}
+	if (run >= 64) {
+	    writeCode(makeUp[run / 64]);
+	    run %= 64;
+	}
+	writeCode(terminating[run]);
+    }
+
+    private void writeCode(final int code) {
+	write(code >>> 16, code & 0xFFFF);
+    }
+
+    private void write(final int code, final int length) {
+	for (int i = length - 1; i >= 0; --i) {
+	    buffer = (buffer << 1) | ((code >> i) & 1);
+	    if (++bufferLength == 8) {
+		out.write(buffer);
+		buffer = 0;
+		bufferLength = 0;
+	    }
+	}
+    }
+
+    private void flush() {
+	if (bufferLength > 0) {
+	    out.write(buffer << (8 - bufferLength));
+	    buffer = 0;
+	    bufferLength = 0;
+	}
+    }
+
+    private static void fillCodes(final int[][] codes,
+	    final int[][] runLengths, final int minLength,
+	    final int[] terminating, final int[] makeUp) {
+	for (int i = 0; i < codes.length; ++i) {
+	    for (int j = 0; j < codes[i].length; ++j) {
+		int code = (codes[i][j] << 16) | (i + minLength);
+		int runLength = runLengths[i][j];
+		if (runLength < 64) {
+		    terminating[runLength] = code;
+		} else {
+		    makeUp[runLength / 64] = code;
+		}
+	    }
+	}
+    }
+}
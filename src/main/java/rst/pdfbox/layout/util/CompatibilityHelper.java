@@ -5,18 +5,32 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.PathIterator;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
 import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
 import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceGray;
+import org.apache.pdfbox.pdmodel.graphics.color.PDDeviceRGB;
 import org.apache.pdfbox.pdmodel.graphics.color.PDGamma;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDCcitt;
 import org.apache.pdfbox.pdmodel.graphics.xobject.PDPixelMap;
+import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectForm;
 import org.apache.pdfbox.pdmodel.graphics.xobject.PDXObjectImage;
 import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionGoTo;
 import org.apache.pdfbox.pdmodel.interactive.action.type.PDActionURI;
@@ -24,7 +38,10 @@ import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotation;
 import org.apache.pdfbox.pdmodel.interactive.annotation.PDAnnotationLink;
 import org.apache.pdfbox.pdmodel.interactive.annotation.PDBorderStyleDictionary;
 import org.apache.pdfbox.pdmodel.interactive.documentnavigation.destination.PDDestination;
+import org.apache.pdfbox.util.LayerUtility;
 
+import rst.pdfbox.layout.elements.Dimension;
+import rst.pdfbox.layout.elements.Drawable;
 import rst.pdfbox.layout.text.Position;
 import rst.pdfbox.layout.text.annotations.Annotations.HyperlinkAnnotation.LinkStyle;
 
@@ -37,8 +54,13 @@ public class CompatibilityHelper {
     private final static String DOUBLE_ANGLE = Character.toString((char) 187);
 
     private static final String IMAGE_CACHE = "IMAGE_CACHE";
+    private static final String PRE_ENCODED_IMAGE_CACHE = "PRE_ENCODED_IMAGE_CACHE";
+    private static final String STREAMED_IMAGE_CACHE = "STREAMED_IMAGE_CACHE";
+    private static final String FORM_CACHE = "FORM_CACHE";
+    private static final String IMPORTED_PAGE_CACHE = "IMPORTED_PAGE_CACHE";
     private static Map<PDDocument, Map<String, Map<?, ?>>> documentCaches = new WeakHashMap<PDDocument, Map<String, Map<?, ?>>>();
     private static PDBorderStyleDictionary noBorder;
+    private static final Field contentStreamOutput = getContentStreamOutput();
 
     /**
      * Returns the bullet character for the given level. Actually only two
@@ -103,6 +125,70 @@ public class CompatibilityHelper {
 	contentStream.concatenate2CTM(1, 0, 0, 1, x, y);
     }
 
+    /**
+     * Encodes the given text into the character codes of the given font. Use
+     * {@link rst.pdfbox.layout.text.FontMetrics#getEncodedText(PDFont, String)}
+     * in order to benefit from caching.
+     * 
+     * @param font
+     *            the font to encode the text for.
+     * @param text
+     *            the text to encode.
+     * @return the character codes.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static byte[] encodeText(final PDFont font, final String text)
+	    throws IOException {
+	return new COSString(text).getBytes();
+    }
+
+    public static void appendRawCommands(
+	    final PDPageContentStream contentStream, final byte[] commands)
+	    throws IOException {
+	contentStream.appendRawCommands(commands);
+    }
+
+    /**
+     * Appends the given range of raw commands without copying them, by
+     * writing directly to the output stream of the content stream, which is
+     * not accessible otherwise. Falls back to copying the range if the output
+     * stream cannot be accessed.
+     */
+    public static void appendRawCommands(
+	    final PDPageContentStream contentStream, final byte[] commands,
+	    final int offset, final int length) throws IOException {
+	OutputStream output = getOutput(contentStream);
+	if (output != null) {
+	    output.write(commands, offset, length);
+	} else {
+	    contentStream.appendRawCommands(Arrays.copyOfRange(commands,
+		    offset, offset + length));
+	}
+    }
+
+    private static OutputStream getOutput(
+	    final PDPageContentStream contentStream) {
+	if (contentStreamOutput == null) {
+	    return null;
+	}
+	try {
+	    return (OutputStream) contentStreamOutput.get(contentStream);
+	} catch (IllegalAccessException e) {
+	    return null;
+	}
+    }
+
+    private static Field getContentStreamOutput() {
+	try {
+	    Field field = PDPageContentStream.class.getDeclaredField("output");
+	    field.setAccessible(true);
+	    return field;
+	} catch (Exception e) {
+	    return null;
+	}
+    }
+
     public static PDPageContentStream createAppendablePDPageContentStream(
 	    final PDDocument pdDocument, final PDPage page) throws IOException {
 	return new PDPageContentStream(pdDocument, page, true, true);
@@ -112,12 +198,79 @@ public class CompatibilityHelper {
 	    final PDDocument document, final PDPageContentStream contentStream,
 	    Position upperLeft, final float width, final float height)
 	    throws IOException {
-	PDXObjectImage cachedImage = getCachedImage(document, image);
+	drawImage(image, EncodedImage.CCITT_DISABLED, document, contentStream,
+		upperLeft, width, height);
+    }
+
+    /**
+     * Draws the given image. Depending on the given threshold, the image is
+     * CCITT group 4 encoded, see
+     * {@link EncodedImage#isCCITTApplicable(BufferedImage, int)}. The image
+     * XObject is created once per document and image, so the threshold of
+     * the first draw wins.
+     * 
+     * @param image
+     *            the image to draw.
+     * @param ccittThreshold
+     *            {@link EncodedImage#CCITT_DISABLED},
+     *            {@link EncodedImage#CCITT_BILEVEL} or the luminance threshold
+     *            (1-256) to convert the image to bilevel.
+     * @param document
+     *            the document to draw to.
+     * @param contentStream
+     *            the content stream to draw to.
+     * @param upperLeft
+     *            the upper left position to draw at.
+     * @param width
+     *            the width to draw.
+     * @param height
+     *            the height to draw.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static void drawImage(final BufferedImage image,
+	    final int ccittThreshold, final PDDocument document,
+	    final PDPageContentStream contentStream, Position upperLeft,
+	    final float width, final float height) throws IOException {
+	PDXObjectImage cachedImage = getCachedImage(document, image, ccittThreshold);
 	float x = upperLeft.getX();
 	float y = upperLeft.getY() - height;
 	contentStream.drawXObject(cachedImage, x, y, width, height);
     }
 
+    /**
+     * Registers a (pending) pre-encoding of the given image. On the first
+     * {@link #drawImage(BufferedImage, PDDocument, PDPageContentStream, Position, float, float)
+     * draw} of the image, the XObject is created from the encoded data instead
+     * of encoding the image on the render thread.
+     * 
+     * @param document
+     *            the document the image will be drawn to.
+     * @param image
+     *            the image.
+     * @param encodedImage
+     *            the (pending) encoding of the image.
+     */
+    public static synchronized void preEncodeImage(final PDDocument document,
+	    final BufferedImage image, final Future<EncodedImage> encodedImage) {
+	getPreEncodedImageCache(document).put(image, encodedImage);
+    }
+
+    /**
+     * CCITT group 4 encodes the given image. A pixel is considered black, if
+     * its luminance is below the given threshold. pdfbox 1 has no encoder, so
+     * the {@link CCITTFaxG4Encoder} is used.
+     * 
+     * @param image
+     *            the image to encode.
+     * @param threshold
+     *            the luminance threshold (1-256).
+     * @return the encoded data.
+     */
+    static byte[] encodeCCITT(final BufferedImage image, final int threshold) {
+	return CCITTFaxG4Encoder.encode(image, threshold);
+    }
+
     /**
      * Renders the given page as an RGB image.
      * 
@@ -138,10 +291,149 @@ public class CompatibilityHelper {
 	return page.convertToImage(BufferedImage.TYPE_INT_RGB, resolution);
     }
 
+    /**
+     * Returns the decoded content of the given page, e.g. in order to inspect
+     * the operators.
+     * 
+     * @param document
+     *            the document containing the page.
+     * @param pageIndex
+     *            the index of the page.
+     * @return the content of the page.
+     * @throws IOException
+     *             by pdfbox
+     */
+    public static byte[] getPageContent(final PDDocument document,
+	    final int pageIndex) throws IOException {
+	PDStream contents = getPage(document, pageIndex).getContents();
+	if (contents == null) {
+	    return new byte[0];
+	}
+	return contents.getByteArray();
+    }
+
+    /**
+     * Draws the image whose samples are written by the given writer. The
+     * samples are deflated row by row, so the decoded image never has to be
+     * held in memory completely. The XObject is created once per document and
+     * (equal) sample writer.
+     * 
+     * @param samples
+     *            the writer providing the image samples.
+     * @param document
+     *            the document to draw to.
+     * @param contentStream
+     *            the content stream to draw to.
+     * @param upperLeft
+     *            the upper left position to draw at.
+     * @param width
+     *            the width to draw.
+     * @param height
+     *            the height to draw.
+     * @throws IOException
+     *             by pdfbox or if reading the image fails.
+     */
+    public static void drawImage(final SampleWriter samples,
+	    final PDDocument document, final PDPageContentStream contentStream,
+	    Position upperLeft, final float width, final float height)
+	    throws IOException {
+	PDXObjectImage cachedImage = getCachedImage(document, samples);
+	float x = upperLeft.getX();
+	float y = upperLeft.getY() - height;
+	contentStream.drawXObject(cachedImage, x, y, width, height);
+    }
+
+    /**
+     * Draws the given drawable as a form XObject. The form is created once
+     * per document and drawable by drawing it on a scratch page, so all
+     * further draws just reference the form.
+     * 
+     * @param content
+     *            the drawable to draw.
+     * @param document
+     *            the document to draw to.
+     * @param contentStream
+     *            the content stream to draw to.
+     * @param upperLeft
+     *            the upper left position to draw to.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static void drawForm(final Drawable content,
+	    final PDDocument document, final PDPageContentStream contentStream,
+	    final Position upperLeft) throws IOException {
+	PDXObjectForm form = getCachedForm(document, content);
+	float x = upperLeft.getX();
+	float y = upperLeft.getY() - form.getBBox().getHeight();
+	contentStream.drawXObject(form,
+		AffineTransform.getTranslateInstance(x, y));
+    }
+
+    /**
+     * @param page
+     *            the page.
+     * @return the size of the visible area (the crop box) of the page,
+     *         respecting the rotation of the page.
+     */
+    public static Dimension getPageSize(final PDPage page) {
+	PDRectangle box = page.findCropBox();
+	if (Math.abs(page.findRotation()) % 180 == 90) {
+	    return new Dimension(box.getHeight(), box.getWidth());
+	}
+	return new Dimension(box.getWidth(), box.getHeight());
+    }
+
+    /**
+     * Draws a page of the given source document. The page is imported as a
+     * form XObject once per document and page, so all further draws just
+     * reference the form.
+     * 
+     * @param source
+     *            the document to import the page from.
+     * @param pageIndex
+     *            the index of the page to import.
+     * @param document
+     *            the document to draw to.
+     * @param contentStream
+     *            the content stream to draw to.
+     * @param upperLeft
+     *            the upper left position to draw to.
+     * @param width
+     *            the width to draw.
+     * @param height
+     *            the height to draw.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public static void drawImportedPage(final PDDocument source,
+	    final int pageIndex, final PDDocument document,
+	    final PDPageContentStream contentStream, final Position upperLeft,
+	    final float width, final float height) throws IOException {
+	PDXObjectForm form = getCachedImportedPage(document, source, pageIndex);
+	Dimension size = getPageSize(getPage(source, pageIndex));
+	float x = upperLeft.getX();
+	float y = upperLeft.getY() - height;
+	contentStream.drawXObject(form, new AffineTransform(width
+		/ size.getWidth(), 0, 0, height / size.getHeight(), x, y));
+    }
+
     public static int getPageRotation(final PDPage page) {
 	return page.getRotation() == null ? 0 : page.getRotation();
     }
 
+    /**
+     * @param document
+     *            the document containing the page.
+     * @param pageIndex
+     *            the index of the page.
+     * @return the page with the given index.
+     */
+    public static PDPage getPage(final PDDocument document,
+	    final int pageIndex) {
+	return (PDPage) document.getDocumentCatalog().getAllPages()
+		.get(pageIndex);
+    }
+
     public static PDAnnotationLink createLink(PDPage page, PDRectangle rect, Color color,
 	    LinkStyle linkStyle, final String uri) {
 	PDAnnotationLink pdLink = createLink(page, rect, color, linkStyle);
@@ -302,6 +594,106 @@ public class CompatibilityHelper {
 	return noBorder;
     }
 
+    private static synchronized Map<Drawable, PDXObjectForm> getFormCache(
+	    final PDDocument document) {
+	Map<String, Map<?, ?>> documentCache = getDocumentCache(document);
+	@SuppressWarnings("unchecked")
+	Map<Drawable, PDXObjectForm> formCache = (Map<Drawable, PDXObjectForm>) documentCache
+		.get(FORM_CACHE);
+	if (formCache == null) {
+	    formCache = new HashMap<Drawable, PDXObjectForm>();
+	    documentCache.put(FORM_CACHE, formCache);
+	}
+	return formCache;
+    }
+
+    private static synchronized PDXObjectForm getCachedForm(
+	    final PDDocument document, final Drawable content)
+	    throws IOException {
+	Map<Drawable, PDXObjectForm> formCache = getFormCache(document);
+	PDXObjectForm form = formCache.get(content);
+	if (form == null) {
+	    form = createForm(document, content);
+	    formCache.put(content, form);
+	}
+	return form;
+    }
+
+    private static PDXObjectForm createForm(final PDDocument document,
+	    final Drawable content) throws IOException {
+	float width = content.getWidth();
+	float height = content.getHeight();
+	// the scratch page is not added to the document, it just provides the
+	// content stream and resources of the form
+	PDPage page = new PDPage(new PDRectangle(width, height));
+	PDPageContentStream contentStream = createAppendablePDPageContentStream(
+		document, page);
+	try {
+	    content.draw(document, contentStream, new Position(0, height),
+		    null);
+	} finally {
+	    contentStream.close();
+	}
+	PDXObjectForm form = new PDXObjectForm(page.getContents());
+	form.setResources(page.findResources());
+	form.setBBox(new PDRectangle(width, height));
+	return form;
+    }
+
+    private static synchronized Map<COSDictionary, PDXObjectForm> getImportedPageCache(
+	    final PDDocument document) {
+	Map<String, Map<?, ?>> documentCache = getDocumentCache(document);
+	@SuppressWarnings("unchecked")
+	Map<COSDictionary, PDXObjectForm> importedPageCache = (Map<COSDictionary, PDXObjectForm>) documentCache
+		.get(IMPORTED_PAGE_CACHE);
+	if (importedPageCache == null) {
+	    importedPageCache = new HashMap<COSDictionary, PDXObjectForm>();
+	    documentCache.put(IMPORTED_PAGE_CACHE, importedPageCache);
+	}
+	return importedPageCache;
+    }
+
+    private static synchronized PDXObjectForm getCachedImportedPage(
+	    final PDDocument document, final PDDocument source,
+	    final int pageIndex) throws IOException {
+	Map<COSDictionary, PDXObjectForm> importedPageCache = getImportedPageCache(document);
+	PDPage sourcePage = getPage(source, pageIndex);
+	COSDictionary page = sourcePage.getCOSDictionary();
+	PDXObjectForm form = importedPageCache.get(page);
+	if (form == null) {
+	    form = new LayerUtility(document).importPageAsForm(source,
+		    pageIndex);
+	    // the matrix set by the layer utility distorts rotated pages
+	    form.setMatrix(getImportTransform(sourcePage.findCropBox(),
+		    sourcePage.findRotation()));
+	    importedPageCache.put(page, form);
+	}
+	return form;
+    }
+
+    /**
+     * Returns the transformation of an imported page, mapping the visible
+     * area of the page to the rectangle (0, 0) - {@link #getPageSize(PDPage)
+     * size}, rotated like the page is displayed.
+     */
+    private static AffineTransform getImportTransform(final PDRectangle box,
+	    final int rotation) {
+	float llx = box.getLowerLeftX();
+	float lly = box.getLowerLeftY();
+	float width = box.getWidth();
+	float height = box.getHeight();
+	switch ((rotation % 360 + 360) % 360) {
+	case 90:
+	    return new AffineTransform(0, -1, 1, 0, -lly, width + llx);
+	case 180:
+	    return new AffineTransform(-1, 0, 0, -1, width + llx, height + lly);
+	case 270:
+	    return new AffineTransform(0, 1, -1, 0, height + lly, -llx);
+	default:
+	    return AffineTransform.getTranslateInstance(-llx, -lly);
+	}
+    }
+
     private static synchronized Map<String, Map<?, ?>> getDocumentCache(
 	    final PDDocument document) {
 	Map<String, Map<?, ?>> cache = documentCaches.get(document);
@@ -319,22 +711,157 @@ public class CompatibilityHelper {
 	Map<BufferedImage, PDXObjectImage> imageCache = (Map<BufferedImage, PDXObjectImage>) documentCache
 		.get(IMAGE_CACHE);
 	if (imageCache == null) {
-	    imageCache = new HashMap<BufferedImage, PDXObjectImage>();
+	    imageCache = new ConcurrentHashMap<BufferedImage, PDXObjectImage>();
 	    documentCache.put(IMAGE_CACHE, imageCache);
 	}
 	return imageCache;
     }
 
-    private static synchronized PDXObjectImage getCachedImage(
-	    final PDDocument document, final BufferedImage image)
-	    throws IOException {
+    private static synchronized Map<BufferedImage, Future<EncodedImage>> getPreEncodedImageCache(
+	    final PDDocument document) {
+	Map<String, Map<?, ?>> documentCache = getDocumentCache(document);
+	@SuppressWarnings("unchecked")
+	Map<BufferedImage, Future<EncodedImage>> preEncodedImageCache = (Map<BufferedImage, Future<EncodedImage>>) documentCache
+		.get(PRE_ENCODED_IMAGE_CACHE);
+	if (preEncodedImageCache == null) {
+	    preEncodedImageCache = new ConcurrentHashMap<BufferedImage, Future<EncodedImage>>();
+	    documentCache.put(PRE_ENCODED_IMAGE_CACHE, preEncodedImageCache);
+	}
+	return preEncodedImageCache;
+    }
+
+    /**
+     * Returns the cached image XObject of the given image, or creates it. The
+     * (maybe pre-encoded) image is awaited resp. encoded without holding the
+     * lock, so only the lookup and the insert into the cache are serialized.
+     */
+    private static PDXObjectImage getCachedImage(
+	    final PDDocument document, final BufferedImage image,
+	    final int ccittThreshold) throws IOException {
 	Map<BufferedImage, PDXObjectImage> imageCache = getImageCache(document);
 	PDXObjectImage pdxObjectImage = imageCache.get(image);
-	if (pdxObjectImage == null) {
-	    pdxObjectImage = new PDPixelMap(document, image);
-	    imageCache.put(image, pdxObjectImage);
+	if (pdxObjectImage != null) {
+	    return pdxObjectImage;
+	}
+	Map<BufferedImage, Future<EncodedImage>> preEncodedImageCache = getPreEncodedImageCache(document);
+	Future<EncodedImage> preEncodedImage = preEncodedImageCache.get(image);
+	EncodedImage encodedImage = null;
+	if (preEncodedImage != null) {
+	    encodedImage = EncodedImage.await(preEncodedImage);
+	} else if (EncodedImage.isCCITTApplicable(image, ccittThreshold)) {
+	    encodedImage = EncodedImage.encode(image, ccittThreshold);
+	}
+	synchronized (CompatibilityHelper.class) {
+	    pdxObjectImage = imageCache.get(image);
+	    if (pdxObjectImage == null) {
+		if (encodedImage != null) {
+		    pdxObjectImage = createImage(document, encodedImage);
+		} else {
+		    pdxObjectImage = new PDPixelMap(document, image);
+		}
+		imageCache.put(image, pdxObjectImage);
+		preEncodedImageCache.remove(image);
+	    }
+	}
+	return pdxObjectImage;
+    }
+
+    private static synchronized Map<SampleWriter, PDXObjectImage> getStreamedImageCache(
+	    final PDDocument document) {
+	Map<String, Map<?, ?>> documentCache = getDocumentCache(document);
+	@SuppressWarnings("unchecked")
+	Map<SampleWriter, PDXObjectImage> streamedImageCache = (Map<SampleWriter, PDXObjectImage>) documentCache
+		.get(STREAMED_IMAGE_CACHE);
+	if (streamedImageCache == null) {
+	    streamedImageCache = new ConcurrentHashMap<SampleWriter, PDXObjectImage>();
+	    documentCache.put(STREAMED_IMAGE_CACHE, streamedImageCache);
+	}
+	return streamedImageCache;
+    }
+
+    /**
+     * Returns the cached image XObject of the given samples, or creates it.
+     * The samples are encoded without holding the lock, so only the lookup
+     * and the insert into the cache are serialized.
+     */
+    private static PDXObjectImage getCachedImage(
+	    final PDDocument document, final SampleWriter samples)
+	    throws IOException {
+	Map<SampleWriter, PDXObjectImage> imageCache = getStreamedImageCache(document);
+	PDXObjectImage pdxObjectImage = imageCache.get(samples);
+	if (pdxObjectImage != null) {
+	    return pdxObjectImage;
+	}
+	EncodedImage encodedImage = EncodedImage.encode(samples);
+	synchronized (CompatibilityHelper.class) {
+	    pdxObjectImage = imageCache.get(samples);
+	    if (pdxObjectImage == null) {
+		pdxObjectImage = createImage(document, encodedImage);
+		imageCache.put(samples, pdxObjectImage);
+	    }
 	}
 	return pdxObjectImage;
     }
 
+    private static PDXObjectImage createImage(final PDDocument document,
+	    final EncodedImage encodedImage) throws IOException {
+	PDStream stream = new PDStream(document);
+	OutputStream out = stream.getStream().createFilteredStream();
+	try {
+	    out.write(encodedImage.getData());
+	} finally {
+	    out.close();
+	}
+	if (encodedImage.isCCITT()) {
+	    return createCCITTImage(stream, encodedImage.getWidth(),
+		    encodedImage.getHeight());
+	}
+	PDPixelMap pixelMap = createPixelMap(stream, encodedImage.getWidth(),
+		encodedImage.getHeight(), encodedImage.getBitsPerComponent(),
+		encodedImage.isGray());
+	if (encodedImage.getAlpha() != null) {
+	    stream.getStream().setItem(COSName.SMASK,
+		    createImage(document, encodedImage.getAlpha()));
+	}
+	return pixelMap;
+    }
+
+    private static PDCcitt createCCITTImage(final PDStream stream,
+	    final int width, final int height) {
+	COSDictionary decodeParms = new COSDictionary();
+	decodeParms.setInt(COSName.K, -1);
+	decodeParms.setInt(COSName.COLUMNS, width);
+	decodeParms.setInt(COSName.ROWS, height);
+	stream.getStream().setItem(COSName.FILTER, COSName.CCITTFAX_DECODE);
+	stream.getStream().setItem(COSName.DECODE_PARMS, decodeParms);
+	stream.getStream().setItem(COSName.TYPE, COSName.XOBJECT);
+	stream.getStream().setItem(COSName.SUBTYPE, COSName.IMAGE);
+
+	PDCcitt ccitt = new PDCcitt(stream);
+	ccitt.setWidth(width);
+	ccitt.setHeight(height);
+	ccitt.setBitsPerComponent(1);
+	ccitt.setColorSpace(new PDDeviceGray());
+	return ccitt;
+    }
+
+    private static PDPixelMap createPixelMap(final PDStream stream,
+	    final int width, final int height, final int bitsPerComponent,
+	    final boolean gray) {
+	stream.getStream().setItem(COSName.FILTER, COSName.FLATE_DECODE);
+	stream.getStream().setItem(COSName.TYPE, COSName.XOBJECT);
+	stream.getStream().setItem(COSName.SUBTYPE, COSName.IMAGE);
+
+	PDPixelMap pixelMap = new PDPixelMap(stream);
+	pixelMap.setWidth(width);
+	pixelMap.setHeight(height);
+	pixelMap.setBitsPerComponent(bitsPerComponent);
+	if (gray) {
+	    pixelMap.setColorSpace(new PDDeviceGray());
+	} else {
+	    pixelMap.setColorSpace(PDDeviceRGB.INSTANCE);
+	}
+	return pixelMap;
+    }
+
 }
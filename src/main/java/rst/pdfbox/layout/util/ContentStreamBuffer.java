@@ -0,0 +1,274 @@
+package rst.pdfbox.layout.util;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+
+/**
+ * A growable buffer collecting content stream operators, which are written
+ * to the content stream at once on {@link #flush(PDPageContentStream)}. This
+ * avoids the overhead of writing each operand and operator separately, and
+ * numbers are formatted without creating any objects.
+ * <p>
+ * Be aware that the content stream does not know about the buffered
+ * operators, so the buffer has to be flushed before anything else is written
+ * to the content stream.
+ */
+public class ContentStreamBuffer {
+
+    /**
+     * The number of fraction digits numbers are formatted with.
+     */
+    public final static int PRECISION = 5;
+
+    private final static long SCALE = 100000L;
+    private final static double MAX_FRACTION = 1e13;
+    private final static double MAX_LONG = Long.MAX_VALUE;
+    private final static byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    private byte[] bytes;
+    private int length;
+
+    /**
+     * Creates a buffer with a default initial capacity.
+     */
+    public ContentStreamBuffer() {
+	this(1024);
+    }
+
+    /**
+     * Creates a buffer with the given initial capacity.
+     *
+     * @param capacity
+     *            the initial capacity.
+     */
+    public ContentStreamBuffer(final int capacity) {
+	this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * @return the number of buffered bytes.
+     */
+    public int length() {
+	return length;
+    }
+
+    /**
+     * @return a copy of the buffered bytes.
+     */
+    public byte[] toByteArray() {
+	return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Discards all buffered bytes.
+     */
+    public void clear() {
+	length = 0;
+    }
+
+    /**
+     * Writes the buffered bytes to the given content stream, and clears the
+     * buffer.
+     *
+     * @param contentStream
+     *            the content stream to write to.
+     * @throws IOException
+     *             by pdfbox.
+     */
+    public void flush(final PDPageContentStream contentStream)
+	    throws IOException {
+	if (length > 0) {
+	    CompatibilityHelper.appendRawCommands(contentStream, bytes, 0,
+		    length);
+	    clear();
+	}
+    }
+
+    /**
+     * Appends the given bytes.
+     *
+     * @param data
+     *            the bytes to append.
+     * @return this buffer.
+     */
+    public ContentStreamBuffer append(final byte[] data) {
+	ensureCapacity(length + data.length);
+	System.arraycopy(data, 0, bytes, length, data.length);
+	length += data.length;
+	return this;
+    }
+
+    /**
+     * Appends the given ASCII character.
+     *
+     * @param c
+     *            the character to append.
+     * @return this buffer.
+     */
+    public ContentStreamBuffer append(final char c) {
+	ensureCapacity(length + 1);
+	bytes[length++] = (byte) c;
+	return this;
+    }
+
+    /**
+     * Appends the given ASCII string, usually an operator.
+     *
+     * @param ascii
+     *            the string to append.
+     * @return this buffer.
+     */
+    public ContentStreamBuffer append(final String ascii) {
+	ensureCapacity(length + ascii.length());
+	for (int index = 0; index < ascii.length(); ++index) {
+	    bytes[length++] = (byte) ascii.charAt(index);
+	}
+	return this;
+    }
+
+    /**
+     * Appends the given number with (at most) {@link #PRECISION} fraction
+     * digits. Trailing zeros are omitted.
+     *
+     * @param value
+     *            the number to append.
+     * @return this buffer.
+     */
+    public ContentStreamBuffer append(final float value) {
+	if (Float.isNaN(value) || Float.isInfinite(value)) {
+	    // not meaningful in a content stream anyway
+	    return append('0');
+	}
+	double abs = Math.abs((double) value);
+	if (abs >= MAX_FRACTION) {
+	    // the scaled value would overflow, and floats have no fraction
+	    // digits in this range anyway
+	    if (value < 0) {
+		append('-');
+	    }
+	    if (abs < MAX_LONG) {
+		appendDigits(Math.round(abs), 1);
+	    } else {
+		// would be clamped to Long.MAX_VALUE, floats are integral here
+		append(new BigDecimal(abs).toBigInteger().toString());
+	    }
+	    return this;
+	}
+	long scaled = Math.round(abs * SCALE);
+	if (scaled == 0) {
+	    return append('0');
+	}
+	if (value < 0) {
+	    append('-');
+	}
+	appendDigits(scaled / SCALE, 1);
+	long fraction = scaled % SCALE;
+	if (fraction != 0) {
+	    int digits = PRECISION;
+	    while (fraction % 10 == 0) {
+		fraction /= 10;
+		--digits;
+	    }
+	    append('.');
+	    appendDigits(fraction, digits);
+	}
+	return this;
+    }
+
+    /**
+     * Appends a string operand consisting of the given character codes. Like
+     * pdfbox does, the string is written in literal form if all codes are
+     * ASCII, otherwise in hex form.
+     *
+     * @param chunks
+     *            the character codes of the string, which are concatenated.
+     * @return this buffer.
+     */
+    public ContentStreamBuffer appendString(final List<byte[]> chunks) {
+	if (isAscii(chunks)) {
+	    append('(');
+	    for (byte[] chunk : chunks) {
+		ensureCapacity(length + 2 * chunk.length);
+		for (byte b : chunk) {
+		    if (b == '(' || b == ')' || b == '\\') {
+			bytes[length++] = '\\';
+		    }
+		    bytes[length++] = b;
+		}
+	    }
+	    return append(')');
+	}
+	append('<');
+	for (byte[] chunk : chunks) {
+	    ensureCapacity(length + 2 * chunk.length);
+	    for (byte b : chunk) {
+		bytes[length++] = HEX[(b >> 4) & 0x0f];
+		bytes[length++] = HEX[b & 0x0f];
+	    }
+	}
+	return append('>');
+    }
+
+    private static boolean isAscii(final List<byte[]> chunks) {
+	for (byte[] chunk : chunks) {
+	    for (byte b : chunk) {
+		// EOL markers within a string are troublesome
+		if (b < 0 || b == 0x0d || b == 0x0a) {
+		    return false;
+		}
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Appends the given number, followed by a space.
+     *
+     * @param value
+     *            the operand to append.
+     * @return this buffer.
+     */
+    public ContentStreamBuffer appendOperand(final float value) {
+	return append(value).append(' ');
+    }
+
+    /**
+     * Appends the given operator, followed by a new line.
+     *
+     * @param operator
+     *            the operator to append.
+     * @return this buffer.
+     */
+    public ContentStreamBuffer appendOperator(final String operator) {
+	return append(operator).append('\n');
+    }
+
+    /**
+     * Appends the decimal digits of the given non-negative number, padded
+     * with leading zeros to the given minimum number of digits.
+     */
+    private void appendDigits(long value, final int minDigits) {
+	int digits = 1;
+	for (long rest = value / 10; rest != 0; rest /= 10) {
+	    ++digits;
+	}
+	digits = Math.max(digits, minDigits);
+	ensureCapacity(length + digits);
+	for (int index = length + digits - 1; index >= length; --index) {
+	    bytes[index] = (byte) ('0' + value % 10);
+	    value /= 10;
+	}
+	length += digits;
+    }
+
+    private void ensureCapacity(final int capacity) {
+	if (capacity > bytes.length) {
+	    bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+	}
+    }
+
+}
@@ -0,0 +1,356 @@
+package rst.pdfbox.layout.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * The flate encoded samples of an image, ready to be wrapped into an image
+ * XObject. Encoding does not need a pdfbox document, so it may be performed
+ * concurrently for several images, e.g. while the document layout is running.
+ * Wrapping the encoded data into an XObject is done by the
+ * {@link CompatibilityHelper}.
+ */
+public class EncodedImage {
+
+    /**
+     * Never use CCITT group 4 encoding.
+     */
+    public final static int CCITT_DISABLED = -1;
+
+    /**
+     * Use CCITT group 4 encoding for bilevel (1 bit) images only. Any
+     * threshold greater than zero also converts other opaque images to
+     * bilevel, considering all pixels with a luminance below the threshold as
+     * black.
+     */
+    public final static int CCITT_BILEVEL = 0;
+
+    private final int width;
+    private final int height;
+    private final int bitsPerComponent;
+    private final boolean gray;
+    private final byte[] data;
+    private final EncodedImage alpha;
+    private final boolean ccitt;
+
+    /**
+     * Creates an encoded image.
+     *
+     * @param width
+     *            the width in pixel.
+     * @param height
+     *            the height in pixel.
+     * @param bitsPerComponent
+     *            the bits per color component.
+     * @param gray
+     *            <code>true</code> if the samples are gray, otherwise RGB.
+     * @param data
+     *            the flate encoded samples.
+     * @param alpha
+     *            the encoded alpha channel, or <code>null</code>.
+     */
+    public EncodedImage(final int width, final int height,
+	    final int bitsPerComponent, final boolean gray, final byte[] data,
+	    final EncodedImage alpha) {
+	this(width, height, bitsPerComponent, gray, data, alpha, false);
+    }
+
+    private EncodedImage(final int width, final int height,
+	    final int bitsPerComponent, final boolean gray, final byte[] data,
+	    final EncodedImage alpha, final boolean ccitt) {
+	this.width = width;
+	this.height = height;
+	this.bitsPerComponent = bitsPerComponent;
+	this.gray = gray;
+	this.data = data;
+	this.alpha = alpha;
+	this.ccitt = ccitt;
+    }
+
+    /**
+     * @return the width in pixel.
+     */
+    public int getWidth() {
+	return width;
+    }
+
+    /**
+     * @return the height in pixel.
+     */
+    public int getHeight() {
+	return height;
+    }
+
+    /**
+     * @return the bits per color component.
+     */
+    public int getBitsPerComponent() {
+	return bitsPerComponent;
+    }
+
+    /**
+     * @return <code>true</code> if the samples are gray, otherwise they are
+     *         RGB.
+     */
+    public boolean isGray() {
+	return gray;
+    }
+
+    /**
+     * @return <code>true</code> if the data is CCITT group 4 encoded (1 bit,
+     *         gray), otherwise it is flate encoded.
+     */
+    public boolean isCCITT() {
+	return ccitt;
+    }
+
+    /**
+     * @return the encoded samples.
+     */
+    public byte[] getData() {
+	return data;
+    }
+
+    /**
+     * @return the encoded alpha channel to be used as soft mask, or
+     *         <code>null</code> if the image is opaque.
+     */
+    public EncodedImage getAlpha() {
+	return alpha;
+    }
+
+    /**
+     * Encodes the given image. 8 bit gray images and black and white bilevel
+     * images are encoded as gray using their raw samples, all others as 8 bit
+     * RGB. An alpha channel is encoded as separate 8 bit gray image.
+     *
+     * @param image
+     *            the image to encode.
+     * @return the encoded image.
+     * @throws IOException
+     *             if encoding fails.
+     */
+    public static EncodedImage encode(final BufferedImage image)
+	    throws IOException {
+	return encode(image, CCITT_DISABLED);
+    }
+
+    /**
+     * Encodes the given image like {@link #encode(BufferedImage)}, but uses
+     * CCITT group 4 encoding if {@link #isCCITTApplicable(BufferedImage, int)
+     * applicable}.
+     *
+     * @param image
+     *            the image to encode.
+     * @param ccittThreshold
+     *            {@link #CCITT_DISABLED}, {@link #CCITT_BILEVEL} or the
+     *            luminance threshold (1-256) to convert the image to bilevel.
+     * @return the encoded image.
+     * @throws IOException
+     *             if encoding fails.
+     */
+    public static EncodedImage encode(final BufferedImage image,
+	    final int ccittThreshold) throws IOException {
+	if (isCCITTApplicable(image, ccittThreshold)) {
+	    int threshold = ccittThreshold == CCITT_BILEVEL ? 128
+		    : ccittThreshold;
+	    return new EncodedImage(image.getWidth(), image.getHeight(), 1,
+		    true, CompatibilityHelper.encodeCCITT(image, threshold),
+		    null, true);
+	}
+	boolean gray = isGray(image);
+	int bitsPerComponent = gray ? image.getColorModel().getPixelSize() : 8;
+
+	byte[] data = deflateSamples(image, gray, bitsPerComponent);
+	EncodedImage alpha = null;
+	if (image.getColorModel().hasAlpha()) {
+	    alpha = new EncodedImage(image.getWidth(), image.getHeight(), 8,
+		    true, deflateAlpha(image), null);
+	}
+	return new EncodedImage(image.getWidth(), image.getHeight(),
+		bitsPerComponent, gray, data, alpha);
+    }
+
+    /**
+     * Encodes the samples written by the given writer. The samples are
+     * deflated while they are written, so only the encoded data is held in
+     * memory.
+     *
+     * @param samples
+     *            the writer providing the image samples.
+     * @return the encoded image.
+     * @throws IOException
+     *             if reading the image fails.
+     */
+    public static EncodedImage encode(final SampleWriter samples)
+	    throws IOException {
+	ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	try (OutputStream out = new DeflaterOutputStream(bos)) {
+	    samples.writeSamples(out);
+	}
+	return new EncodedImage(samples.getWidth(), samples.getHeight(),
+		samples.getBitsPerComponent(), samples.isGray(),
+		bos.toByteArray(), null);
+    }
+
+    /**
+     * Indicates if the image will be CCITT group 4 encoded using the given
+     * threshold. This is the case for opaque images with a black and white
+     * palette, unless {@link #CCITT_DISABLED disabled}, or any opaque image if
+     * a threshold is given. Other two color palettes are not converted to
+     * black and white silently.
+     *
+     * @param image
+     *            the image to encode.
+     * @param ccittThreshold
+     *            {@link #CCITT_DISABLED}, {@link #CCITT_BILEVEL} or the
+     *            luminance threshold (1-256) to convert the image to bilevel.
+     * @return <code>true</code> if CCITT encoding will be used.
+     */
+    public static boolean isCCITTApplicable(final BufferedImage image,
+	    final int ccittThreshold) {
+	if (ccittThreshold == CCITT_DISABLED
+		|| image.getColorModel().hasAlpha()) {
+	    return false;
+	}
+	return ccittThreshold > CCITT_BILEVEL
+		|| isBlackAndWhite(image.getColorModel(), false);
+    }
+
+    /**
+     * Indicates if the raster samples of the given image are gray values
+     * which may be written as they are. This is the case for 8 bit gray
+     * images, and for bilevel images whose palette maps 0 to black and 1 to
+     * white.
+     */
+    private static boolean isGray(final BufferedImage image) {
+	ColorModel colorModel = image.getColorModel();
+	if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+	    return colorModel.getPixelSize() == 8;
+	}
+	return image.getType() == BufferedImage.TYPE_BYTE_BINARY
+		&& isBlackAndWhite(colorModel, true);
+    }
+
+    /**
+     * Indicates if the given color model is a 1 bit palette of black and
+     * white.
+     *
+     * @param colorModel
+     *            the color model to check.
+     * @param blackFirst
+     *            if <code>true</code>, black must be the first entry.
+     */
+    private static boolean isBlackAndWhite(final ColorModel colorModel,
+	    final boolean blackFirst) {
+	if (colorModel.getPixelSize() != 1
+		|| !(colorModel instanceof IndexColorModel)) {
+	    return false;
+	}
+	IndexColorModel palette = (IndexColorModel) colorModel;
+	int first = palette.getRGB(0) & 0xFFFFFF;
+	int second = palette.getRGB(1) & 0xFFFFFF;
+	if (first == 0x000000 && second == 0xFFFFFF) {
+	    return true;
+	}
+	return !blackFirst && first == 0xFFFFFF && second == 0x000000;
+    }
+
+    /**
+     * Waits for the given encoding to finish.
+     *
+     * @param encodedImage
+     *            the pending encoding.
+     * @return the encoded image.
+     * @throws IOException
+     *             if encoding failed or waiting was interrupted.
+     */
+    public static EncodedImage await(final Future<EncodedImage> encodedImage)
+	    throws IOException {
+	try {
+	    return encodedImage.get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("interrupted on image encoding");
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException) {
+		throw (IOException) e.getCause();
+	    }
+	    throw new IOException("exception on image encoding", e.getCause());
+	}
+    }
+
+    private static byte[] deflateSamples(final BufferedImage image,
+	    final boolean gray, final int bitsPerComponent) throws IOException {
+	int width = image.getWidth();
+	int[] pixels = new int[width];
+	byte[] line = new byte[gray ? (width * bitsPerComponent + 7) / 8
+		: width * 3];
+	ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	try (OutputStream out = new DeflaterOutputStream(bos)) {
+	    for (int y = 0; y < image.getHeight(); ++y) {
+		if (gray) {
+		    // the raw samples, getRGB() would convert linear gray to sRGB
+		    image.getRaster().getSamples(0, y, width, 1, 0, pixels);
+		    packGray(pixels, bitsPerComponent, line);
+		} else {
+		    image.getRGB(0, y, width, 1, pixels, 0, width);
+		    int index = 0;
+		    for (int pixel : pixels) {
+			line[index++] = (byte) ((pixel >> 16) & 0xFF);
+			line[index++] = (byte) ((pixel >> 8) & 0xFF);
+			line[index++] = (byte) (pixel & 0xFF);
+		    }
+		}
+		out.write(line);
+	    }
+	}
+	return bos.toByteArray();
+    }
+
+    private static byte[] deflateAlpha(final BufferedImage image)
+	    throws IOException {
+	int width = image.getWidth();
+	int[] rgbLine = new int[width];
+	byte[] line = new byte[width];
+	ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	try (OutputStream out = new DeflaterOutputStream(bos)) {
+	    for (int y = 0; y < image.getHeight(); ++y) {
+		image.getRGB(0, y, width, 1, rgbLine, 0, width);
+		for (int x = 0; x < width; ++x) {
+		    line[x] = (byte) ((rgbLine[x] >>> 24) & 0xFF);
+		}
+		out.write(line);
+	    }
+	}
+	return bos.toByteArray();
+    }
+
+    /**
+     * Packs the gray samples of the line into <code>bitsPerComponent</code>
+     * wide samples, each row starting on a byte boundary.
+     */
+    private static void packGray(final int[] samples,
+	    final int bitsPerComponent, final byte[] line) {
+	if (bitsPerComponent == 8) {
+	    for (int x = 0; x < samples.length; ++x) {
+		line[x] = (byte) samples[x];
+	    }
+	    return;
+	}
+	Arrays.fill(line, (byte) 0);
+	for (int x = 0; x < samples.length; ++x) {
+	    int bitIndex = x * bitsPerComponent;
+	    line[bitIndex / 8] |= samples[x] << (8 - bitsPerComponent - bitIndex % 8);
+	}
+    }
+}
@@ -0,0 +1,497 @@
+package rst.pdfbox.layout.util;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import rst.pdfbox.layout.elements.Drawable;
+import rst.pdfbox.layout.elements.ViewPortDrawable;
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Position;
+
+/**
+ * A shadow of the graphics state of a content stream, used to suppress
+ * operators which would not change the state anyway. The shadow is owned by
+ * the {@link rst.pdfbox.layout.elements.render.RenderContext}, which
+ * {@link #track(PDPageContentStream) tracks} the content stream of each page.
+ * All drawing code of this library sets the state using the static methods of
+ * this class, like {@link #setStrokingColor(PDPageContentStream, Color)}, which
+ * look up the shadow of the given content stream. If the content stream is not
+ * tracked, the operators are written unconditionally.
+ * <p>
+ * The shadow is only valid as long as nobody else writes to the content
+ * stream. So whenever foreign code - like render listeners, custom renderers,
+ * annotation processors or drawables not being {@link GraphicsStateAware} -
+ * gets hold of the content stream, tracking is {@link #suspend() suspended},
+ * and the shadow is {@link #invalidate(PDPageContentStream) invalidated}
+ * afterwards, unless the foreign code has been bracketed by
+ * {@link #saveGraphicsState(PDPageContentStream) save} and
+ * {@link #restoreGraphicsState(PDPageContentStream) restore}. The shadow
+ * follows save and restore, so the state is known again after a restore.
+ * <p>
+ * Tracking is bound to the current thread, since a content stream is drawn by
+ * one thread only anyway.
+ */
+public class GraphicsState {
+
+    private static final ThreadLocal<Tracking> TRACKING = new ThreadLocal<Tracking>();
+
+    private final PDPageContentStream contentStream;
+    private final List<State> stack = new ArrayList<State>();
+    private State current = new State();
+
+    private GraphicsState(final PDPageContentStream contentStream) {
+	this.contentStream = contentStream;
+    }
+
+    /**
+     * Starts tracking the state of the given content stream on the current
+     * thread. Initially all values are unknown, so the first operator setting
+     * a value is always written.
+     *
+     * @param contentStream
+     *            the content stream to track.
+     * @return the shadow of the graphics state, owned by the caller.
+     */
+    public static GraphicsState track(final PDPageContentStream contentStream) {
+	Tracking tracking = TRACKING.get();
+	if (tracking == null) {
+	    tracking = new Tracking();
+	    TRACKING.set(tracking);
+	}
+	GraphicsState graphicsState = new GraphicsState(contentStream);
+	tracking.tracked.add(graphicsState);
+	return graphicsState;
+    }
+
+    /**
+     * Stops tracking the state of the given content stream.
+     *
+     * @param contentStream
+     *            the content stream.
+     */
+    public static void untrack(final PDPageContentStream contentStream) {
+	Tracking tracking = TRACKING.get();
+	if (tracking == null) {
+	    return;
+	}
+	tracking.tracked.remove(find(tracking, contentStream));
+	if (tracking.isEmpty()) {
+	    TRACKING.remove();
+	}
+    }
+
+    /**
+     * @param contentStream
+     *            the content stream.
+     * @return the shadow of the graphics state of the given content stream,
+     *         or <code>null</code> if not tracked or tracking is
+     *         {@link #suspend() suspended}.
+     */
+    public static GraphicsState get(final PDPageContentStream contentStream) {
+	Tracking tracking = TRACKING.get();
+	if (tracking == null || tracking.suspended > 0) {
+	    return null;
+	}
+	return find(tracking, contentStream);
+    }
+
+    private static GraphicsState find(final Tracking tracking,
+	    final PDPageContentStream contentStream) {
+	for (GraphicsState graphicsState : tracking.tracked) {
+	    if (graphicsState.contentStream == contentStream) {
+		return graphicsState;
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Suspends tracking on the current thread before foreign code gets hold of
+     * a content stream, so any drawing code of this library called by the
+     * foreign code writes its operators unconditionally. Each call has to be
+     * followed by a call to {@link #resume()}, usually in a finally block.
+     */
+    public static void suspend() {
+	Tracking tracking = TRACKING.get();
+	if (tracking == null) {
+	    tracking = new Tracking();
+	    TRACKING.set(tracking);
+	}
+	++tracking.suspended;
+    }
+
+    /**
+     * Resumes tracking {@link #suspend() suspended} before. Be aware that the
+     * shadow is still the one from before the suspension, so it has to be
+     * {@link #invalidate(PDPageContentStream) invalidated} unless the foreign
+     * code has been bracketed by save and restore.
+     */
+    public static void resume() {
+	Tracking tracking = TRACKING.get();
+	if (tracking == null || tracking.suspended == 0) {
+	    return;
+	}
+	--tracking.suspended;
+	if (tracking.isEmpty()) {
+	    TRACKING.remove();
+	}
+    }
+
+    /**
+     * Marks the current state of the given content stream as unknown, so all
+     * following operators are written until the state is known again.
+     *
+     * @param contentStream
+     *            the content stream.
+     */
+    public static void invalidate(final PDPageContentStream contentStream) {
+	GraphicsState graphicsState = get(contentStream);
+	if (graphicsState != null) {
+	    graphicsState.current = new State();
+	}
+    }
+
+    /**
+     * Draws a drawable nested in a container, like the inner drawables of a
+     * {@link rst.pdfbox.layout.elements.Frame}. If the content stream is
+     * tracked and the drawable is not {@link GraphicsStateAware}, it is
+     * isolated by saving and restoring the graphics state, and tracking is
+     * suspended while it is drawn.
+     *
+     * @param drawable
+     *            the drawable to draw.
+     * @param pdDocument
+     *            the underlying pdfbox document.
+     * @param contentStream
+     *            the stream to draw to.
+     * @param upperLeft
+     *            the upper left position to start drawing.
+     * @param drawListener
+     *            the listener to
+     *            {@link DrawListener#drawn(Object, Position, float, float)
+     *            notify} on drawn objects.
+     * @throws IOException
+     *             by pdfbox
+     */
+    public static void drawNested(final Drawable drawable,
+	    final PDDocument pdDocument,
+	    final PDPageContentStream contentStream, final Position upperLeft,
+	    final DrawListener drawListener) throws IOException {
+	boolean isolated = beginIsolation(drawable, contentStream);
+	try {
+	    drawable.draw(pdDocument, contentStream, upperLeft, drawListener);
+	} finally {
+	    endIsolation(isolated);
+	}
+	if (isolated) {
+	    restoreGraphicsState(contentStream);
+	}
+    }
+
+    /**
+     * Draws the view port of a drawable nested in a container like
+     * {@link #drawNested(Drawable, PDDocument, PDPageContentStream, Position, DrawListener)
+     * drawNested()} does.
+     *
+     * @param drawable
+     *            the drawable to draw.
+     * @param pdDocument
+     *            the underlying pdfbox document.
+     * @param contentStream
+     *            the stream to draw to.
+     * @param upperLeft
+     *            the upper left position of the complete drawable.
+     * @param viewPortY
+     *            the offset of the view port from the top of the drawable.
+     * @param viewPortHeight
+     *            the height of the view port.
+     * @param drawListener
+     *            the listener to
+     *            {@link DrawListener#drawn(Object, Position, float, float)
+     *            notify} on drawn objects.
+     * @throws IOException
+     *             by pdfbox
+     */
+    public static void drawNestedViewPort(final ViewPortDrawable drawable,
+	    final PDDocument pdDocument,
+	    final PDPageContentStream contentStream, final Position upperLeft,
+	    final float viewPortY, final float viewPortHeight,
+	    final DrawListener drawListener) throws IOException {
+	boolean isolated = beginIsolation(drawable, contentStream);
+	try {
+	    drawable.drawViewPort(pdDocument, contentStream, upperLeft,
+		    viewPortY, viewPortHeight, drawListener);
+	} finally {
+	    endIsolation(isolated);
+	}
+	if (isolated) {
+	    restoreGraphicsState(contentStream);
+	}
+    }
+
+    private static boolean beginIsolation(final Object drawable,
+	    final PDPageContentStream contentStream) throws IOException {
+	if (drawable instanceof GraphicsStateAware
+		|| get(contentStream) == null) {
+	    return false;
+	}
+	saveGraphicsState(contentStream);
+	suspend();
+	return true;
+    }
+
+    private static void endIsolation(final boolean isolated) {
+	if (isolated) {
+	    resume();
+	}
+    }
+
+    public static void saveGraphicsState(
+	    final PDPageContentStream contentStream) throws IOException {
+	contentStream.saveGraphicsState();
+	GraphicsState graphicsState = get(contentStream);
+	if (graphicsState != null) {
+	    graphicsState.stack.add(graphicsState.current);
+	    graphicsState.current = new State(graphicsState.current);
+	}
+    }
+
+    public static void restoreGraphicsState(
+	    final PDPageContentStream contentStream) throws IOException {
+	contentStream.restoreGraphicsState();
+	GraphicsState graphicsState = get(contentStream);
+	if (graphicsState != null) {
+	    if (graphicsState.stack.isEmpty()) {
+		// unbalanced, so we do not know anything
+		graphicsState.current = new State();
+	    } else {
+		graphicsState.current = graphicsState.stack
+			.remove(graphicsState.stack.size() - 1);
+	    }
+	}
+    }
+
+    public static void setFont(final PDPageContentStream contentStream,
+	    final PDFont font, final float fontSize) throws IOException {
+	State state = getState(contentStream);
+	if (state != null && state.font == font && state.fontSize != null
+		&& state.fontSize == fontSize) {
+	    return;
+	}
+	contentStream.setFont(font, fontSize);
+	if (state != null) {
+	    state.font = font;
+	    state.fontSize = fontSize;
+	}
+    }
+
+    public static void setStrokingColor(
+	    final PDPageContentStream contentStream, final Color color)
+	    throws IOException {
+	State state = getState(contentStream);
+	if (state != null && color.equals(state.strokingColor)) {
+	    return;
+	}
+	contentStream.setStrokingColor(color);
+	if (state != null) {
+	    state.strokingColor = color;
+	}
+    }
+
+    public static void setNonStrokingColor(
+	    final PDPageContentStream contentStream, final Color color)
+	    throws IOException {
+	State state = getState(contentStream);
+	if (state != null && color.equals(state.nonStrokingColor)) {
+	    return;
+	}
+	contentStream.setNonStrokingColor(color);
+	if (state != null) {
+	    state.nonStrokingColor = color;
+	}
+    }
+
+    public static void setLineWidth(final PDPageContentStream contentStream,
+	    final float lineWidth) throws IOException {
+	State state = getState(contentStream);
+	if (state != null && state.lineWidth != null
+		&& state.lineWidth == lineWidth) {
+	    return;
+	}
+	contentStream.setLineWidth(lineWidth);
+	if (state != null) {
+	    state.lineWidth = lineWidth;
+	}
+    }
+
+    public static void setLineCapStyle(
+	    final PDPageContentStream contentStream, final int capStyle)
+	    throws IOException {
+	State state = getState(contentStream);
+	if (state != null && state.capStyle != null
+		&& state.capStyle == capStyle) {
+	    return;
+	}
+	contentStream.setLineCapStyle(capStyle);
+	if (state != null) {
+	    state.capStyle = capStyle;
+	}
+    }
+
+    public static void setLineJoinStyle(
+	    final PDPageContentStream contentStream, final int joinStyle)
+	    throws IOException {
+	State state = getState(contentStream);
+	if (state != null && state.joinStyle != null
+		&& state.joinStyle == joinStyle) {
+	    return;
+	}
+	contentStream.setLineJoinStyle(joinStyle);
+	if (state != null) {
+	    state.joinStyle = joinStyle;
+	}
+    }
+
+    public static void setLineDashPattern(
+	    final PDPageContentStream contentStream, final float[] pattern,
+	    final float phase) throws IOException {
+	State state = getState(contentStream);
+	if (state != null && state.dashPattern != null
+		&& Arrays.equals(state.dashPattern, pattern)
+		&& state.dashPhase == phase) {
+	    return;
+	}
+	contentStream.setLineDashPattern(pattern, phase);
+	if (state != null) {
+	    state.dashPattern = pattern.clone();
+	    state.dashPhase = phase;
+	}
+    }
+
+    private static State getState(final PDPageContentStream contentStream) {
+	GraphicsState graphicsState = get(contentStream);
+	return graphicsState == null ? null : graphicsState.current;
+    }
+
+    /**
+     * @return the number of currently saved graphics states, which is also
+     *         the depth of the current transformation matrix.
+     */
+    public int getDepth() {
+	return stack.size();
+    }
+
+    /**
+     * @return the current font, or <code>null</code> if not known.
+     */
+    public PDFont getFont() {
+	return current.font;
+    }
+
+    /**
+     * @return the current font size, or <code>null</code> if not known.
+     */
+    public Float getFontSize() {
+	return current.fontSize;
+    }
+
+    /**
+     * @return the current stroking color, or <code>null</code> if not known.
+     */
+    public Color getStrokingColor() {
+	return current.strokingColor;
+    }
+
+    /**
+     * @return the current non-stroking color, or <code>null</code> if not
+     *         known.
+     */
+    public Color getNonStrokingColor() {
+	return current.nonStrokingColor;
+    }
+
+    /**
+     * @return the current line width, or <code>null</code> if not known.
+     */
+    public Float getLineWidth() {
+	return current.lineWidth;
+    }
+
+    /**
+     * @return the current line cap style, or <code>null</code> if not known.
+     */
+    public Integer getLineCapStyle() {
+	return current.capStyle;
+    }
+
+    /**
+     * @return the current line join style, or <code>null</code> if not known.
+     */
+    public Integer getLineJoinStyle() {
+	return current.joinStyle;
+    }
+
+    @Override
+    public String toString() {
+	return "GraphicsState [depth=" + getDepth() + ", font="
+		+ current.font + ", fontSize=" + current.fontSize
+		+ ", strokingColor=" + current.strokingColor
+		+ ", nonStrokingColor=" + current.nonStrokingColor
+		+ ", lineWidth=" + current.lineWidth + ", capStyle="
+		+ current.capStyle + ", joinStyle=" + current.joinStyle
+		+ ", dashPattern=" + Arrays.toString(current.dashPattern)
+		+ ", dashPhase=" + current.dashPhase + "]";
+    }
+
+    /**
+     * The known values of one level of the graphics state, <code>null</code>
+     * means unknown.
+     */
+    private static class State {
+
+	private PDFont font;
+	private Float fontSize;
+	private Color strokingColor;
+	private Color nonStrokingColor;
+	private Float lineWidth;
+	private Integer capStyle;
+	private Integer joinStyle;
+	private float[] dashPattern;
+	private float dashPhase;
+
+	public State() {
+	}
+
+	public State(final State other) {
+	    this.font = other.font;
+	    this.fontSize = other.fontSize;
+	    this.strokingColor = other.strokingColor;
+	    this.nonStrokingColor = other.nonStrokingColor;
+	    this.lineWidth = other.lineWidth;
+	    this.capStyle = other.capStyle;
+	    this.joinStyle = other.joinStyle;
+	    this.dashPattern = other.dashPattern;
+	    this.dashPhase = other.dashPhase;
+	}
+    }
+
+    /**
+     * The content streams tracked on one thread.
+     */
+    private static class Tracking {
+
+	private final List<GraphicsState> tracked = new ArrayList<GraphicsState>();
+	private int suspended;
+
+	private boolean isEmpty() {
+	    return tracked.isEmpty() && suspended == 0;
+	}
+    }
+}
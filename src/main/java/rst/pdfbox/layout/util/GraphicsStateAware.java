@@ -0,0 +1,15 @@
+package rst.pdfbox.layout.util;
+
+/**
+ * Marker interface for code drawing to a content stream - like drawables or
+ * annotation processors - which sets the graphics state only using the
+ * methods of {@link GraphicsState}, and restores anything else it changes,
+ * like a transformation or a clipping path. The graphics state of a
+ * {@link GraphicsState#track(org.apache.pdfbox.pdmodel.edit.PDPageContentStream)
+ * tracked} content stream is kept while calling such code. Any other code is
+ * considered foreign, so tracking is {@link GraphicsState#suspend()
+ * suspended} while it is called.
+ */
+public interface GraphicsStateAware {
+
+}
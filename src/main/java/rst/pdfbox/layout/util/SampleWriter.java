@@ -0,0 +1,44 @@
+package rst.pdfbox.layout.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the (unencoded) samples of an image row by row. This allows the
+ * {@link CompatibilityHelper} to stream the samples through the encoder,
+ * without holding the complete decoded image in memory.
+ */
+public interface SampleWriter {
+
+    /**
+     * @return the width in pixel.
+     */
+    int getWidth();
+
+    /**
+     * @return the height in pixel.
+     */
+    int getHeight();
+
+    /**
+     * @return the bits per color component.
+     */
+    int getBitsPerComponent();
+
+    /**
+     * @return <code>true</code> if the samples are gray, otherwise they are
+     *         RGB.
+     */
+    boolean isGray();
+
+    /**
+     * Writes all rows of samples to the given stream, each row starting on a
+     * byte boundary.
+     *
+     * @param out
+     *            the stream to write to.
+     * @throws IOException
+     *             by pdfbox or if reading the image fails.
+     */
+    void writeSamples(final OutputStream out) throws IOException;
+}
@@ -0,0 +1,222 @@
+package rst.pdfbox.layout.elements;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import rst.pdfbox.layout.elements.render.PageCheckpoint;
+import rst.pdfbox.layout.util.CompatibilityHelper;
+
+public class DocumentTest {
+
+  private static final PDFont FONT = PDType1Font.HELVETICA;
+  private static final String TEXT = "Lorem ipsum dolor sit amet, consetetur "
+      + "sadipscing elitr, sed diam nonumy eirmod tempor invidunt ut labore "
+      + "et dolore magna aliquyam erat, sed diam voluptua.\n";
+  private static final int ELEMENTS = 200;
+  private static final int CHANGED = 120;
+
+  @Test
+  public void testResumedRenderingEqualsFullRendering() throws Exception {
+    assertResumedRenderingEqualsFullRendering(false, true);
+  }
+
+  @Test
+  public void testInternalLinkIsRenderedCompletely() throws Exception {
+    assertResumedRenderingEqualsFullRendering(true, false);
+  }
+
+  @Test
+  public void testReplayable() throws Exception {
+    List<List<Drawable>> rows = new ArrayList<List<Drawable>>();
+    rows.add(Arrays.<Drawable> asList(paragraph("text")));
+    assertEquals(true, new Table(rows, 100).isReplayable());
+    assertEquals(true, new Frame(new Table(rows, 100)).isReplayable());
+    rows.add(Arrays.<Drawable> asList(paragraph("{anchor:row}row{anchor}")));
+    assertEquals(false, new Table(rows, 100).isReplayable());
+    assertEquals(false, new Frame(new Table(rows, 100)).isReplayable());
+    assertEquals(true, new Frame(paragraph("text")).isReplayable());
+    assertEquals(true, paragraph("{link[http://example.com]}external{link}")
+        .isReplayable());
+    assertEquals(false, paragraph("{link[#anchor]}internal{link}")
+        .isReplayable());
+    assertEquals(false, paragraph("{anchor:anchor}anchor{anchor}")
+        .isReplayable());
+  }
+
+  @Test
+  public void testPreMeasureSharedParagraphs() throws Exception {
+    PDDocument preMeasured = createSharedParagraphsDocument(true).render();
+    PDDocument measured = createSharedParagraphsDocument(false).render();
+    try {
+      assertEquals(measured.getNumberOfPages(),
+          preMeasured.getNumberOfPages());
+      for (int index = 0; index < measured.getNumberOfPages(); ++index) {
+        assertArrayEquals("page " + index,
+            CompatibilityHelper.getPageContent(measured, index),
+            CompatibilityHelper.getPageContent(preMeasured, index));
+      }
+    } finally {
+      preMeasured.close();
+      measured.close();
+    }
+  }
+
+  /**
+   * Creates a document of paragraphs, each also added to a frame, and some
+   * frames also added to another frame, so the paragraphs are shared between
+   * elements measured at different widths.
+   */
+  private static Document createSharedParagraphsDocument(
+      final boolean preMeasure) throws IOException {
+    Document document = new Document(40, 60, 40, 60);
+    document.setPreMeasure(preMeasure);
+    Frame outer = new Frame();
+    outer.setPadding(20, 20, 0, 0);
+    for (int index = 0; index < 40; ++index) {
+      Paragraph paragraph = paragraph(index + ": " + TEXT);
+      Frame frame = new Frame(paragraph);
+      frame.setPadding(10 + index % 3 * 10, 0, 0, 0);
+      document.add(paragraph);
+      document.add(frame);
+      if (index % 4 == 0) {
+        outer.add(frame);
+      }
+    }
+    document.add(outer);
+    return document;
+  }
+
+  /**
+   * Renders a document, changes one paragraph and renders it again resuming
+   * the first run. The result must equal the rendering of a new document
+   * containing the changed paragraph. If resumed, the pages before the
+   * resumed checkpoint are taken from the first run, otherwise no page is.
+   */
+  private void assertResumedRenderingEqualsFullRendering(
+      final boolean withInternalLink, final boolean resumed)
+      throws Exception {
+    List<Paragraph> paragraphs = new ArrayList<Paragraph>();
+    Document document = createDocument(paragraphs, withInternalLink);
+    PDDocument previous = document.render();
+    int resumedPageIndex = getResumedPageIndex(document.getCheckpoints());
+    PDDocument incremental = null;
+    PDDocument full = null;
+    try {
+      paragraphs.get(CHANGED).addText(TEXT + TEXT + TEXT, 11, FONT);
+      incremental = document.render(previous, CHANGED);
+
+      full = createChangedDocument(withInternalLink).render();
+
+      assertEquals(full.getNumberOfPages(), incremental.getNumberOfPages());
+      for (int index = 0; index < full.getNumberOfPages(); ++index) {
+        assertArrayEquals("page " + index,
+            CompatibilityHelper.getPageContent(full, index),
+            CompatibilityHelper.getPageContent(incremental, index));
+        assertEquals("page " + index, getAnnotationCount(full, index),
+            getAnnotationCount(incremental, index));
+      }
+      if (resumed) {
+        assertTrue(resumedPageIndex > 0);
+        for (int index = 0; index < resumedPageIndex; ++index) {
+          assertTrue("page " + index + " reused",
+              isSamePage(previous, incremental, index));
+        }
+        assertTrue(!isSamePage(previous, incremental, resumedPageIndex));
+      } else {
+        for (int index = 0; index < incremental.getNumberOfPages(); ++index) {
+          assertTrue("page " + index + " rendered",
+              !isSamePage(previous, incremental, index));
+        }
+      }
+      incremental.save(new ByteArrayOutputStream());
+    } finally {
+      if (incremental != null) {
+        incremental.close();
+      }
+      if (full != null) {
+        full.close();
+      }
+      previous.close();
+    }
+  }
+
+  /**
+   * @return the index of the page of the last resumable checkpoint before
+   *         the changed element.
+   */
+  private static int getResumedPageIndex(
+      final List<PageCheckpoint> checkpoints) {
+    int pageIndex = -1;
+    for (PageCheckpoint checkpoint : checkpoints) {
+      if (checkpoint.isResumable() && checkpoint.getElementIndex() <= CHANGED) {
+        pageIndex = checkpoint.getPageIndex();
+      }
+    }
+    return pageIndex;
+  }
+
+  /**
+   * Compares the page objects by identity, so a failure message does not
+   * need to print the page.
+   */
+  private static boolean isSamePage(final PDDocument previous,
+      final PDDocument current, final int pageIndex) {
+    return CompatibilityHelper.getPage(previous, pageIndex)
+        .getCOSObject() == CompatibilityHelper.getPage(current, pageIndex)
+        .getCOSObject();
+  }
+
+  private static Document createChangedDocument(
+      final boolean withInternalLink) throws IOException {
+    List<Paragraph> paragraphs = new ArrayList<Paragraph>();
+    Document document = createDocument(paragraphs, withInternalLink);
+    paragraphs.get(CHANGED).addText(TEXT + TEXT + TEXT, 11, FONT);
+    return document;
+  }
+
+  /**
+   * Creates a document of several pages with a hyperlink on the first page,
+   * which is internal if requested.
+   */
+  private static Document createDocument(final List<Paragraph> paragraphs,
+      final boolean withInternalLink) throws IOException {
+    Document document = new Document(40, 60, 40, 60);
+    String link = withInternalLink ? "#end" : "http://example.com";
+    Paragraph first = paragraph("{link[" + link + "]}link{link}\n");
+    paragraphs.add(first);
+    document.add(first);
+    for (int index = 1; index < ELEMENTS; ++index) {
+      Paragraph paragraph = paragraph(index + ": " + TEXT);
+      paragraphs.add(paragraph);
+      document.add(paragraph);
+    }
+    if (withInternalLink) {
+      document.add(paragraph("{anchor:end}end{anchor}"));
+    }
+    return document;
+  }
+
+  private static Paragraph paragraph(final String markup) throws IOException {
+    Paragraph paragraph = new Paragraph();
+    paragraph.addMarkup(markup, 11, FONT, FONT, FONT, FONT);
+    return paragraph;
+  }
+
+  private static int getAnnotationCount(final PDDocument pdDocument,
+      final int pageIndex) throws IOException {
+    return CompatibilityHelper.getPage(pdDocument, pageIndex)
+        .getAnnotations().size();
+  }
+}
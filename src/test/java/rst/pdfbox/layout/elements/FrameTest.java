@@ -0,0 +1,255 @@
+package rst.pdfbox.layout.elements;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.junit.Test;
+
+import rst.pdfbox.layout.elements.Dividable.Divided;
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Position;
+
+public class FrameTest {
+
+  @Test
+  public void testDivideAtExactBoundaries() throws Exception {
+    float[] heights = { 10, 20, 30, 40 };
+    assertDivideLikeLinearSplit(heights, 10);
+    assertDivideLikeLinearSplit(heights, 30);
+    assertDivideLikeLinearSplit(heights, 60);
+  }
+
+  @Test
+  public void testDivideIfFirstDoesNotFit() throws Exception {
+    float[] heights = { 10, 20, 30, 40 };
+    assertDivideLikeLinearSplit(heights, 5);
+    assertDivideLikeLinearSplit(heights, 0.5f);
+  }
+
+  @Test
+  public void testDivideWithZeroHeights() throws Exception {
+    float[] heights = { 0, 10, 0, 0, 20, 0, 30, 0 };
+    assertDivideLikeLinearSplit(heights, 10);
+    assertDivideLikeLinearSplit(heights, 15);
+    assertDivideLikeLinearSplit(heights, 30);
+    assertDivideLikeLinearSplit(heights, 45);
+  }
+
+  @Test
+  public void testDivideLikeLinearSplit() throws Exception {
+    Random random = new Random(4711);
+    float[] heights = new float[50];
+    float total = 0;
+    for (int index = 0; index < heights.length; ++index) {
+      // a quarter of the drawables have no height
+      heights[index] = random.nextInt(4) == 0 ? 0 : random.nextInt(20) + 1;
+      total += heights[index];
+    }
+    for (float spaceLeft = 0.5f; spaceLeft < total; spaceLeft += 0.5f) {
+      assertDivideLikeLinearSplit(heights, spaceLeft);
+    }
+  }
+
+  @Test
+  public void testDivideTailLikeLinearSplit() throws Exception {
+    float[] heights = { 10, 20, 0, 30, 40, 0, 50 };
+    Frame frame = createFrame(heights);
+    // the tail starts with the rest of the divided drawable
+    Frame tail = (Frame) frame.divide(15, 1000).getTail();
+    float[] tailHeights = getHeights(tail.getInnerList());
+    assertEquals(15, tailHeights[0], 0);
+    float total = tail.getHeight();
+    for (float spaceLeft = 0.5f; spaceLeft < total; spaceLeft += 0.5f) {
+      assertDivideLikeLinearSplit(tail, tailHeights, spaceLeft);
+    }
+  }
+
+  @Test
+  public void testFrozenListIsCopiedOnAdd() throws Exception {
+    Frame frame = new Frame();
+    Block first = new Block(10);
+    frame.add(first);
+    List<Drawable> frozen = frame.getInnerList();
+    assertSame(frozen, frame.getInnerList());
+    assertEquals(10, frame.getHeight(), 0);
+
+    Block second = new Block(20);
+    frame.add(second);
+    List<Drawable> copy = frame.getInnerList();
+    assertNotSame(frozen, copy);
+    assertEquals(1, frozen.size());
+    assertEquals(2, copy.size());
+    assertSame(first, copy.get(0));
+    assertSame(second, copy.get(1));
+    assertEquals(30, frame.getHeight(), 0);
+
+    try {
+      copy.add(new Block(30));
+      fail("the frozen list must not be modifiable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSharedListIsCopiedOnAdd() throws Exception {
+    Frame frame = createFrame(new float[] { 10, 20, 30 });
+    Frame tail = (Frame) frame.divide(10, 1000).getTail();
+    List<Drawable> shared = tail.getInnerList();
+    assertEquals(2, shared.size());
+
+    Block added = new Block(5);
+    tail.add(added);
+    assertEquals(3, tail.getInnerList().size());
+    assertSame(added, tail.getInnerList().get(2));
+    assertEquals(55, tail.getHeight(), 0);
+    // neither the shared list nor the divided frame is affected
+    assertEquals(2, shared.size());
+    assertEquals(3, frame.getInnerList().size());
+    assertEquals(60, frame.getHeight(), 0);
+  }
+
+  private static void assertDivideLikeLinearSplit(final float[] heights,
+      final float spaceLeft) throws IOException {
+    assertDivideLikeLinearSplit(createFrame(heights), heights, spaceLeft);
+  }
+
+  /**
+   * Asserts that dividing the frame at the given height results in the same
+   * split as the linear search formerly used.
+   */
+  private static void assertDivideLikeLinearSplit(final Frame frame,
+      final float[] heights, final float spaceLeft) throws IOException {
+    String message = "space left " + spaceLeft;
+    List<Drawable> children = new ArrayList<Drawable>(frame.getInnerList());
+    int[] split = linearSplit(heights, spaceLeft);
+    int headSize = split[0];
+    int toDivide = split[1];
+
+    Divided divided = frame.divide(spaceLeft, 1000);
+    List<Drawable> head = ((Frame) divided.getFirst()).getInnerList();
+    List<Drawable> tail = ((Frame) divided.getTail()).getInnerList();
+    for (int index = 0; index < headSize; ++index) {
+      assertSame(message, children.get(index), head.get(index));
+    }
+    int rest = headSize;
+    if (toDivide >= 0) {
+      assertEquals(message, headSize + 1, head.size());
+      float headHeight = sum(heights, 0, headSize);
+      assertEquals(message, spaceLeft - headHeight, head.get(headSize)
+          .getHeight(), 0.001);
+      assertEquals(message, heights[toDivide] - spaceLeft + headHeight, tail
+          .get(0).getHeight(), 0.001);
+      rest = toDivide + 1;
+      tail = tail.subList(1, tail.size());
+    } else {
+      assertEquals(message, headSize, head.size());
+    }
+    assertEquals(message, children.size() - rest, tail.size());
+    for (int index = 0; index < tail.size(); ++index) {
+      assertSame(message, children.get(rest + index), tail.get(index));
+    }
+  }
+
+  /**
+   * The linear search formerly used to divide a frame.
+   *
+   * @return the number of drawables in the head, and the index of the
+   *         drawable to divide or -1.
+   */
+  private static int[] linearSplit(final float[] heights,
+      final float spaceLeft) {
+    float height = 0;
+    int index = 0;
+    while (height < spaceLeft && index < heights.length) {
+      height += heights[index];
+      if (height == spaceLeft) {
+        // we can split between two drawables
+        return new int[] { index + 1, -1 };
+      }
+      if (height > spaceLeft) {
+        return new int[] { index, index };
+      }
+      ++index;
+    }
+    return new int[] { heights.length, -1 };
+  }
+
+  private static float sum(final float[] heights, final int from,
+      final int to) {
+    float sum = 0;
+    for (int index = from; index < to; ++index) {
+      sum += heights[index];
+    }
+    return sum;
+  }
+
+  private static float[] getHeights(final List<Drawable> drawables)
+      throws IOException {
+    float[] heights = new float[drawables.size()];
+    for (int index = 0; index < heights.length; ++index) {
+      heights[index] = drawables.get(index).getHeight();
+    }
+    return heights;
+  }
+
+  private static Frame createFrame(final float[] heights) {
+    Frame frame = new Frame();
+    for (float height : heights) {
+      frame.add(new Block(height));
+    }
+    return frame;
+  }
+
+  /**
+   * An undividable drawable of a fixed height.
+   */
+  private static class Block implements Drawable {
+
+    private final float height;
+
+    Block(final float height) {
+      this.height = height;
+    }
+
+    @Override
+    public float getWidth() {
+      return 100;
+    }
+
+    @Override
+    public float getHeight() {
+      return height;
+    }
+
+    @Override
+    public Position getAbsolutePosition() {
+      return null;
+    }
+
+    @Override
+    public void draw(PDDocument pdDocument,
+        PDPageContentStream contentStream, Position upperLeft,
+        DrawListener drawListener) throws IOException {
+    }
+
+    @Override
+    public Drawable removeLeadingEmptyVerticalSpace() {
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return "Block [height=" + height + "]";
+    }
+  }
+}
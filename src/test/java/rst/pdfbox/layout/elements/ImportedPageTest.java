@@ -0,0 +1,298 @@
+package rst.pdfbox.layout.elements;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSDocument;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNumber;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.junit.Test;
+
+import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.util.CompatibilityHelper;
+
+public class ImportedPageTest {
+
+  private static final Pattern DO = Pattern.compile("/\\S+ Do\\b");
+  private static final float LLX = 30;
+  private static final float LLY = 50;
+  private static final float WIDTH = 200;
+  private static final float HEIGHT = 100;
+
+  @Test
+  public void testImportTransformRotation0() throws Exception {
+    assertImportTransform(0);
+  }
+
+  @Test
+  public void testImportTransformRotation90() throws Exception {
+    assertImportTransform(90);
+  }
+
+  @Test
+  public void testImportTransformRotation180() throws Exception {
+    assertImportTransform(180);
+  }
+
+  @Test
+  public void testImportTransformRotation270() throws Exception {
+    assertImportTransform(270);
+  }
+
+  @Test
+  public void testRenderedDocumentOutlivesTheSourceFile() throws Exception {
+    File file = File.createTempFile("imported", ".pdf");
+    try {
+      saveSource(file, 0);
+      ImportedPage page = new ImportedPage(file, 0);
+      for (int run = 0; run < 2; ++run) {
+        Document document = new Document();
+        document.add(page);
+        document.add(page);
+        PDDocument pdDocument = document.render();
+        try {
+          // the page has been copied into the rendered document
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          pdDocument.save(out);
+          PDDocument saved = PDDocument.load(new ByteArrayInputStream(out
+              .toByteArray()));
+          try {
+            assertEquals(2, count(DO, new String(CompatibilityHelper
+                .getPageContent(saved, 0), "ISO-8859-1")));
+          } finally {
+            saved.close();
+          }
+        } finally {
+          pdDocument.close();
+        }
+        // the file may be replaced between renderings
+        saveSource(file, 90);
+      }
+    } finally {
+      ImportedPage.clearSourceCache();
+      assertTrue(file.delete());
+    }
+  }
+
+  @Test
+  public void testSourceIsParsedOnceForSeveralRenderings() throws Exception {
+    File file = File.createTempFile("imported", ".pdf");
+    try {
+      saveSource(file, 0);
+      ImportedPage page = new ImportedPage(file, 0);
+      PDDocument source = ImportedPage.getCachedSource(file);
+      assertNotNull(source);
+      for (int run = 0; run < 2; ++run) {
+        Document document = new Document();
+        document.add(page);
+        document.add(new ImportedPage(file, 0));
+        document.render().close();
+        assertSame(source, ImportedPage.getCachedSource(file));
+      }
+      assertFalse(isClosed(source));
+    } finally {
+      ImportedPage.clearSourceCache();
+      assertTrue(file.delete());
+    }
+  }
+
+  @Test
+  public void testModifiedSourceIsParsedAgain() throws Exception {
+    File file = File.createTempFile("imported", ".pdf");
+    try {
+      saveSource(file, 0);
+      ImportedPage page = new ImportedPage(file, 0);
+      PDDocument source = ImportedPage.getCachedSource(file);
+
+      long lastModified = file.lastModified();
+      saveSource(file, 90);
+      assertTrue(file.setLastModified(lastModified + 2000));
+      Document document = new Document();
+      document.add(page);
+      document.render().close();
+
+      PDDocument modified = ImportedPage.getCachedSource(file);
+      assertNotNull(modified);
+      assertNotSame(source, modified);
+      assertTrue(isClosed(source));
+
+      ImportedPage.evictSource(file);
+      assertNull(ImportedPage.getCachedSource(file));
+      assertTrue(isClosed(modified));
+    } finally {
+      ImportedPage.clearSourceCache();
+      assertTrue(file.delete());
+    }
+  }
+
+  @Test
+  public void testSourceCacheIsBounded() throws Exception {
+    int cacheSize = ImportedPage.getSourceCacheSize();
+    File first = File.createTempFile("imported", ".pdf");
+    File second = File.createTempFile("imported", ".pdf");
+    try {
+      ImportedPage.setSourceCacheSize(1);
+      saveSource(first, 0);
+      saveSource(second, 0);
+      new ImportedPage(first, 0);
+      PDDocument source = ImportedPage.getCachedSource(first);
+      new ImportedPage(second, 0);
+      assertNull(ImportedPage.getCachedSource(first));
+      assertNotNull(ImportedPage.getCachedSource(second));
+      assertTrue(isClosed(source));
+    } finally {
+      ImportedPage.setSourceCacheSize(cacheSize);
+      ImportedPage.clearSourceCache();
+      assertTrue(first.delete());
+      assertTrue(second.delete());
+    }
+  }
+
+  /**
+   * Imports a page with the given rotation and a crop box not located at the
+   * origin, and asserts that the form matrix maps the corners of the crop box
+   * to the corners of the form as the page is displayed.
+   */
+  private static void assertImportTransform(final int rotation)
+      throws IOException {
+    PDDocument source = createSource(rotation);
+    PDDocument pdDocument = new PDDocument();
+    try {
+      ImportedPage importedPage = new ImportedPage(source, 0);
+      boolean rotated = rotation % 180 != 0;
+      float width = rotated ? HEIGHT : WIDTH;
+      float height = rotated ? WIDTH : HEIGHT;
+      assertEquals(width, importedPage.getWidth(), 0.01);
+      assertEquals(height, importedPage.getHeight(), 0.01);
+
+      PDPage page = new PDPage();
+      pdDocument.addPage(page);
+      PDPageContentStream contentStream = new PDPageContentStream(
+          pdDocument, page);
+      importedPage.draw(pdDocument, contentStream, new Position(0, 500),
+          null);
+      contentStream.close();
+      float[] matrix = getFormMatrix(pdDocument);
+
+      // upper left, upper right, lower right and lower left corner
+      float[][] cropCorners = { { LLX, LLY + HEIGHT },
+          { LLX + WIDTH, LLY + HEIGHT }, { LLX + WIDTH, LLY }, { LLX, LLY } };
+      float[][] formCorners = { { 0, height }, { width, height },
+          { width, 0 }, { 0, 0 } };
+      // displaying the page rotates it clockwise
+      int shift = rotation / 90;
+      for (int index = 0; index < 4; ++index) {
+        float[] corner = transform(matrix, cropCorners[index]);
+        float[] expected = formCorners[(index + shift) % 4];
+        String message = "rotation " + rotation + ", corner " + index;
+        assertEquals(message, expected[0], corner[0], 0.01);
+        assertEquals(message, expected[1], corner[1], 0.01);
+      }
+    } finally {
+      pdDocument.close();
+      source.close();
+    }
+  }
+
+  private static PDDocument createSource(final int rotation)
+      throws IOException {
+    PDDocument source = new PDDocument();
+    PDPage page = new PDPage();
+    source.addPage(page);
+    COSArray cropBox = new COSArray();
+    cropBox.add(new COSFloat(LLX));
+    cropBox.add(new COSFloat(LLY));
+    cropBox.add(new COSFloat(LLX + WIDTH));
+    cropBox.add(new COSFloat(LLY + HEIGHT));
+    COSDictionary dictionary = (COSDictionary) page.getCOSObject();
+    dictionary.setItem(COSName.getPDFName("CropBox"), cropBox);
+    dictionary.setItem(COSName.getPDFName("Rotate"),
+        COSInteger.get(rotation));
+
+    PDPageContentStream contentStream = new PDPageContentStream(source, page);
+    contentStream.moveTo(LLX, LLY);
+    contentStream.lineTo(LLX + WIDTH, LLY + HEIGHT);
+    contentStream.stroke();
+    contentStream.close();
+    return source;
+  }
+
+  private static void saveSource(final File file, final int rotation)
+      throws Exception {
+    PDDocument source = createSource(rotation);
+    try {
+      source.save(file.getPath());
+    } finally {
+      source.close();
+    }
+  }
+
+  /**
+   * pdfbox 1.8 drops the COS document on close, while pdfbox 2 keeps it but
+   * has no accessor common to both versions.
+   */
+  private static boolean isClosed(final PDDocument pdDocument)
+      throws Exception {
+    COSDocument document = pdDocument.getDocument();
+    if (document == null) {
+      return true;
+    }
+    Field closed = COSDocument.class.getDeclaredField("closed");
+    closed.setAccessible(true);
+    return closed.getBoolean(document);
+  }
+
+  private static float[] getFormMatrix(final PDDocument pdDocument) {
+    COSDictionary page = (COSDictionary) CompatibilityHelper.getPage(
+        pdDocument, 0).getCOSObject();
+    COSDictionary resources = (COSDictionary) page
+        .getDictionaryObject(COSName.RESOURCES);
+    COSDictionary xObjects = (COSDictionary) resources
+        .getDictionaryObject(COSName.XOBJECT);
+    assertEquals(1, xObjects.size());
+    COSDictionary form = (COSDictionary) xObjects
+        .getDictionaryObject(xObjects.keySet().iterator().next());
+    COSArray array = (COSArray) form.getDictionaryObject(COSName
+        .getPDFName("Matrix"));
+    float[] matrix = new float[6];
+    for (int index = 0; index < matrix.length; ++index) {
+      matrix[index] = ((COSNumber) array.getObject(index)).floatValue();
+    }
+    return matrix;
+  }
+
+  private static float[] transform(final float[] matrix, final float[] point) {
+    return new float[] {
+        matrix[0] * point[0] + matrix[2] * point[1] + matrix[4],
+        matrix[1] * point[0] + matrix[3] * point[1] + matrix[5] };
+  }
+
+  private static int count(final Pattern pattern, final String text) {
+    Matcher matcher = pattern.matcher(text);
+    int count = 0;
+    while (matcher.find()) {
+      ++count;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,160 @@
+package rst.pdfbox.layout.elements;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import rst.pdfbox.layout.elements.render.RenderContext;
+import rst.pdfbox.layout.elements.render.RenderListener;
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.util.CompatibilityHelper;
+
+public class StampTest {
+
+  private static final Pattern DO = Pattern.compile("/\\S+ Do\\b");
+  private static final String TEXT = "Lorem ipsum dolor sit amet, consetetur "
+      + "sadipscing elitr, sed diam nonumy eirmod tempor invidunt ut labore "
+      + "et magna aliquyam erat, sed diam voluptua.\n";
+
+  @Test
+  public void testFormIsDrawnOncePerPage() throws Exception {
+    CountingDrawable content = new CountingDrawable();
+    CountingDrawable overlay = new CountingDrawable();
+    final Stamp stamp = new Stamp(content);
+    stamp.setOverlay(overlay);
+
+    Document document = new Document(40, 60, 40, 60);
+    for (int index = 0; index < 100; ++index) {
+      Paragraph paragraph = new Paragraph();
+      paragraph.addText(TEXT, 11, PDType1Font.HELVETICA);
+      document.add(paragraph);
+    }
+    document.addRenderListener(new RenderListener() {
+
+      @Override
+      public void beforePage(RenderContext renderContext) {
+      }
+
+      @Override
+      public void afterPage(RenderContext renderContext) throws IOException {
+        stamp.draw(renderContext.getPdDocument(),
+            renderContext.getContentStream(), new Position(20, 30),
+            renderContext);
+      }
+    });
+
+    PDDocument pdDocument = document.render();
+    try {
+      int pages = pdDocument.getNumberOfPages();
+      assertTrue(pages > 2);
+      // the content is drawn into the form once, the overlay on every page
+      assertEquals(1, content.draws);
+      assertEquals(pages, overlay.draws);
+
+      COSBase form = null;
+      for (int index = 0; index < pages; ++index) {
+        String pageContent = new String(CompatibilityHelper.getPageContent(
+            pdDocument, index), "ISO-8859-1");
+        assertEquals("page " + index, 1, count(DO, pageContent));
+        COSDictionary xObjects = getXObjects(pdDocument, index);
+        assertEquals("page " + index, 1, xObjects.size());
+        COSBase pageForm = xObjects.getDictionaryObject(xObjects.keySet()
+            .iterator().next());
+        if (form == null) {
+          form = pageForm;
+        }
+        assertSame("page " + index, form, pageForm);
+      }
+    } finally {
+      pdDocument.close();
+    }
+  }
+
+  @Test
+  public void testFormIsCreatedPerDocument() throws Exception {
+    CountingDrawable content = new CountingDrawable();
+    Stamp stamp = new Stamp(content);
+    for (int run = 1; run <= 2; ++run) {
+      Document document = new Document();
+      document.add(stamp);
+      document.add(stamp);
+      PDDocument pdDocument = document.render();
+      try {
+        assertEquals(run, content.draws);
+        assertEquals(2, count(DO, new String(CompatibilityHelper
+            .getPageContent(pdDocument, 0), "ISO-8859-1")));
+      } finally {
+        pdDocument.close();
+      }
+    }
+  }
+
+  private static int count(final Pattern pattern, final String text) {
+    Matcher matcher = pattern.matcher(text);
+    int count = 0;
+    while (matcher.find()) {
+      ++count;
+    }
+    return count;
+  }
+
+  private static COSDictionary getXObjects(final PDDocument pdDocument,
+      final int pageIndex) {
+    COSDictionary page = (COSDictionary) CompatibilityHelper.getPage(
+        pdDocument, pageIndex).getCOSObject();
+    COSDictionary resources = (COSDictionary) page
+        .getDictionaryObject(COSName.RESOURCES);
+    return (COSDictionary) resources.getDictionaryObject(COSName.XOBJECT);
+  }
+
+  /**
+   * Draws a line and counts how often it has been drawn.
+   */
+  private static class CountingDrawable implements Drawable {
+
+    private int draws;
+
+    @Override
+    public float getWidth() throws IOException {
+      return 100;
+    }
+
+    @Override
+    public float getHeight() throws IOException {
+      return 10;
+    }
+
+    @Override
+    public Position getAbsolutePosition() throws IOException {
+      return null;
+    }
+
+    @Override
+    public void draw(PDDocument pdDocument,
+        PDPageContentStream contentStream, Position upperLeft,
+        DrawListener drawListener) throws IOException {
+      ++draws;
+      contentStream.moveTo(upperLeft.getX(), upperLeft.getY());
+      contentStream.lineTo(upperLeft.getX() + getWidth(), upperLeft.getY());
+      contentStream.stroke();
+    }
+
+    @Override
+    public Drawable removeLeadingEmptyVerticalSpace() throws IOException {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package rst.pdfbox.layout.elements;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Test;
+
+import rst.pdfbox.layout.elements.Dividable.Divided;
+import rst.pdfbox.layout.util.SampleWriter;
+
+public class StreamedImageElementTest {
+
+  private static final int WIDTH = 7;
+  private static final int HEIGHT = 150;
+  private static final int STRIP_HEIGHT = 16;
+
+  @Test
+  public void testSamplesAreWrittenInOnePass() throws Exception {
+    ReadCounter counter = new ReadCounter();
+    StreamedImageElement element = createElement(false, counter);
+
+    SampleWriter samples = element.getSamples();
+    assertEquals(WIDTH, samples.getWidth());
+    assertEquals(HEIGHT, samples.getHeight());
+    assertArrayEquals(getExpectedSamples(0, HEIGHT), writeSamples(samples));
+    assertEquals(1, counter.reads);
+  }
+
+  @Test
+  public void testInterlacedSamplesAreReadStripByStrip() throws Exception {
+    ReadCounter counter = new ReadCounter();
+    StreamedImageElement element = createElement(true, counter);
+
+    assertArrayEquals(getExpectedSamples(0, HEIGHT),
+        writeSamples(element.getSamples()));
+    assertTrue(counter.reads > 1);
+  }
+
+  @Test
+  public void testDividedSamples() throws Exception {
+    assertDividedSamples(false);
+    assertDividedSamples(true);
+  }
+
+  @Test
+  public void testGraySamplesAreNotConverted() throws Exception {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_BYTE_GRAY);
+    byte[] expected = new byte[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        int sample = getPixel(x, y) & 0xFF;
+        image.getRaster().setSample(x, y, 0, sample);
+        expected[y * WIDTH + x] = (byte) sample;
+      }
+    }
+    for (boolean interlaced : new boolean[] { false, true }) {
+      StreamedImageElement element = createElement(image, interlaced, null);
+      SampleWriter samples = element.getSamples();
+      assertTrue(samples.isGray());
+      assertArrayEquals(expected, writeSamples(samples));
+    }
+  }
+
+  private void assertDividedSamples(final boolean interlaced)
+      throws Exception {
+    StreamedImageElement element = createElement(interlaced, null);
+    // divide in the middle of a strip
+    int firstRows = STRIP_HEIGHT * 2 + 5;
+    Divided divided = element.divide(firstRows + 0.5f, HEIGHT / 2);
+    StreamedImageElement head = (StreamedImageElement) divided.getFirst();
+    StreamedImageElement tail = (StreamedImageElement) divided.getTail();
+
+    assertEquals(firstRows, head.getHeight(), 0.01);
+    assertEquals(HEIGHT - firstRows, tail.getHeight(), 0.01);
+    assertEquals(firstRows, head.getSamples().getHeight());
+    assertEquals(HEIGHT - firstRows, tail.getSamples().getHeight());
+    assertArrayEquals(getExpectedSamples(0, firstRows),
+        writeSamples(head.getSamples()));
+    assertArrayEquals(getExpectedSamples(firstRows, HEIGHT),
+        writeSamples(tail.getSamples()));
+  }
+
+  private static StreamedImageElement createElement(final boolean interlaced,
+      final ReadCounter counter) throws IOException {
+    return createElement(createImage(), interlaced, counter);
+  }
+
+  private static StreamedImageElement createElement(
+      final BufferedImage image, final boolean interlaced,
+      final ReadCounter counter) throws IOException {
+    ImageInputStream input = ImageIO.createImageInputStream(
+        new ByteArrayInputStream(createPng(image, interlaced)));
+    ImageReader reader = ImageIO.getImageReaders(input).next();
+    reader.setInput(input);
+    if (counter != null) {
+      reader.addIIOReadProgressListener(counter);
+    }
+    StreamedImageElement element = new StreamedImageElement(reader, 0);
+    element.setStripHeight(STRIP_HEIGHT);
+    return element;
+  }
+
+  private static BufferedImage createImage() {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        image.setRGB(x, y, getPixel(x, y));
+      }
+    }
+    return image;
+  }
+
+  private static byte[] createPng(final BufferedImage image,
+      final boolean interlaced) throws IOException {
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+    ImageWriter writer = writers.next();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setProgressiveMode(interlaced ? ImageWriteParam.MODE_DEFAULT
+        : ImageWriteParam.MODE_DISABLED);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ImageOutputStream output = ImageIO.createImageOutputStream(bos);
+    writer.setOutput(output);
+    writer.write(null, new IIOImage(image, null, null), param);
+    output.close();
+    writer.dispose();
+    return bos.toByteArray();
+  }
+
+  private static int getPixel(final int x, final int y) {
+    return (y << 16) | ((x * 30) << 8) | ((x + y) & 0xFF);
+  }
+
+  private static byte[] getExpectedSamples(final int fromRow, final int toRow) {
+    byte[] expected = new byte[(toRow - fromRow) * WIDTH * 3];
+    int index = 0;
+    for (int y = fromRow; y < toRow; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        int pixel = getPixel(x, y);
+        expected[index++] = (byte) (pixel >> 16);
+        expected[index++] = (byte) (pixel >> 8);
+        expected[index++] = (byte) pixel;
+      }
+    }
+    return expected;
+  }
+
+  private static byte[] writeSamples(final SampleWriter samples)
+      throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    samples.writeSamples(bos);
+    return bos.toByteArray();
+  }
+
+  private static class ReadCounter implements IIOReadProgressListener {
+
+    private int reads;
+
+    @Override
+    public void imageStarted(ImageReader source, int imageIndex) {
+      ++reads;
+    }
+
+    @Override
+    public void sequenceStarted(ImageReader source, int minIndex) {
+    }
+
+    @Override
+    public void sequenceComplete(ImageReader source) {
+    }
+
+    @Override
+    public void imageProgress(ImageReader source, float percentageDone) {
+    }
+
+    @Override
+    public void imageComplete(ImageReader source) {
+    }
+
+    @Override
+    public void thumbnailStarted(ImageReader source, int imageIndex,
+        int thumbnailIndex) {
+    }
+
+    @Override
+    public void thumbnailProgress(ImageReader source, float percentageDone) {
+    }
+
+    @Override
+    public void thumbnailComplete(ImageReader source) {
+    }
+
+    @Override
+    public void readAborted(ImageReader source) {
+    }
+  }
+}
@@ -0,0 +1,282 @@
+package rst.pdfbox.layout.elements;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import rst.pdfbox.layout.elements.Dividable.Divided;
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.util.CompatibilityHelper;
+
+public class TableTest {
+
+  private static final int ROWS = 100;
+  private static final float ROW_HEIGHT = 20;
+
+  @Test
+  public void testAllRowsAreDrawnOnMultiplePages() throws Exception {
+    List<String> drawn = new ArrayList<String>();
+    Document document = createDocument(createRows(drawn).iterator(), drawn);
+    PDDocument pdDocument = document.render();
+    try {
+      assertTrue(pdDocument.getNumberOfPages() > 2);
+      assertDrawn(pdDocument.getNumberOfPages(), drawn);
+    } finally {
+      pdDocument.close();
+    }
+  }
+
+  @Test
+  public void testRepeatedRendering() throws Exception {
+    List<String> drawn = new ArrayList<String>();
+    Document document = createDocument(createRows(drawn).iterator(), drawn);
+    document.layout();
+    drawn.clear();
+    PDDocument first = document.render();
+    List<String> firstDrawn = new ArrayList<String>(drawn);
+    drawn.clear();
+    PDDocument second = document.render();
+    try {
+      assertDrawn(first.getNumberOfPages(), firstDrawn);
+      assertEquals(firstDrawn, drawn);
+      assertPagesEqual(first, second);
+    } finally {
+      first.close();
+      second.close();
+    }
+  }
+
+  @Test
+  public void testResumedRendering() throws Exception {
+    List<String> drawn = new ArrayList<String>();
+    Document document = createDocument(createRows(drawn).iterator(), drawn);
+    PDDocument previous = document.render();
+    drawn.clear();
+    PDDocument resumed = document.render(previous, 1);
+    List<String> resumedDrawn = new ArrayList<String>(drawn);
+    PDDocument full = createDocument(createRows(drawn).iterator(), drawn)
+        .render();
+    try {
+      assertPagesEqual(full, resumed);
+      assertDrawn(resumed.getNumberOfPages(), resumedDrawn);
+    } finally {
+      previous.close();
+      resumed.close();
+      full.close();
+    }
+  }
+
+  @Test
+  public void testDivideLeavesTableUnchanged() throws Exception {
+    List<String> drawn = new ArrayList<String>();
+    Table table = createTable(createRows(drawn).iterator(), drawn);
+    float height = table.getHeight();
+    float pageHeight = 10.5f * ROW_HEIGHT;
+
+    Divided divided = table.divide(pageHeight, pageHeight);
+    Divided again = table.divide(pageHeight, pageHeight);
+
+    assertEquals(height, table.getHeight(), 0.01);
+    assertEquals(divided.getFirst().getHeight(), again.getFirst()
+        .getHeight(), 0.01);
+    assertEquals(divided.getTail().getHeight(), again.getTail().getHeight(),
+        0.01);
+    // header plus nine rows on the first page, the header repeated on each
+    // page of the tail
+    assertEquals(10 * ROW_HEIGHT, divided.getFirst().getHeight(), 0.01);
+    assertEquals((ROWS - 9 + 1) * ROW_HEIGHT, divided.getTail().getHeight(),
+        0.01);
+
+    // dividing the tail does not change the tail
+    Table tail = (Table) divided.getTail();
+    Divided tailDivided = tail.divide(pageHeight, pageHeight);
+    assertEquals(10 * ROW_HEIGHT, tailDivided.getFirst().getHeight(), 0.01);
+    assertEquals((ROWS - 18 + 1) * ROW_HEIGHT, tailDivided.getTail()
+        .getHeight(), 0.01);
+    assertEquals((ROWS - 9 + 1) * ROW_HEIGHT, tail.getHeight(), 0.01);
+    assertEquals(height, table.getHeight(), 0.01);
+  }
+
+  @Test
+  public void testDividedPartsDrawTheirRows() throws Exception {
+    List<String> drawn = new ArrayList<String>();
+    Table table = createTable(createRows(drawn).iterator(), drawn);
+    float pageHeight = 10.5f * ROW_HEIGHT;
+
+    Drawable tail = table;
+    List<String> expected = new ArrayList<String>();
+    PDDocument pdDocument = new PDDocument();
+    try {
+      for (int row = 0; row < ROWS; row += 9) {
+        Divided divided = ((Dividable) tail).divide(pageHeight, pageHeight);
+        draw(pdDocument, divided.getFirst());
+        expected.add("header");
+        for (int index = row; index < Math.min(row + 9, ROWS); ++index) {
+          expected.add("row " + index);
+        }
+        tail = divided.getTail();
+      }
+      assertEquals(expected, drawn);
+
+      // the table still draws all rows
+      drawn.clear();
+      draw(pdDocument, table);
+      assertDrawn(1, drawn);
+    } finally {
+      pdDocument.close();
+    }
+  }
+
+  @Test
+  public void testSetMaxWidthRemeasures() throws Exception {
+    List<List<Drawable>> rows = new ArrayList<List<Drawable>>();
+    Paragraph paragraph = new Paragraph();
+    paragraph.addText("Lorem ipsum dolor sit amet, consetetur sadipscing "
+        + "elitr, sed diam nonumy eirmod tempor invidunt ut labore", 11,
+        PDType1Font.HELVETICA);
+    rows.add(Arrays.<Drawable> asList(paragraph));
+    Table table = new Table(rows, 1, 1);
+
+    table.setMaxWidth(400);
+    assertEquals(400, table.getWidth(), 0.01);
+    float wideHeight = table.getHeight();
+
+    table.setMaxWidth(100);
+    assertEquals(100, table.getWidth(), 0.01);
+    assertTrue(table.getHeight() > wideHeight);
+
+    table.setMaxWidth(400);
+    assertEquals(wideHeight, table.getHeight(), 0.01);
+  }
+
+  private static Document createDocument(
+      final Iterator<List<Drawable>> rows, final List<String> drawn)
+      throws IOException {
+    Document document = new Document(40, 60, 40, 60);
+    Paragraph paragraph = new Paragraph();
+    paragraph.addText("table", 11, PDType1Font.HELVETICA);
+    document.add(paragraph);
+    document.add(createTable(rows, drawn));
+    return document;
+  }
+
+  private static Table createTable(final Iterator<List<Drawable>> rows,
+      final List<String> drawn) {
+    Table table = new Table(rows, 100, 100);
+    table.setCellPadding(0);
+    table.addHeaderRow(new Cell("header", drawn));
+    return table;
+  }
+
+  private static List<List<Drawable>> createRows(final List<String> drawn) {
+    List<List<Drawable>> rows = new ArrayList<List<Drawable>>();
+    for (int index = 0; index < ROWS; ++index) {
+      rows.add(Arrays.<Drawable> asList(new Cell("row " + index, drawn)));
+    }
+    return rows;
+  }
+
+  /**
+   * Asserts that the header has been drawn first and once per page, and all
+   * rows have been drawn once in order.
+   */
+  private static void assertDrawn(final int pages, final List<String> drawn) {
+    assertEquals("header", drawn.get(0));
+    List<String> rows = new ArrayList<String>();
+    int headers = 0;
+    for (String name : drawn) {
+      if (name.equals("header")) {
+        ++headers;
+      } else {
+        rows.add(name);
+      }
+    }
+    assertEquals(pages, headers);
+    for (int index = 0; index < ROWS; ++index) {
+      assertEquals("row " + index, rows.get(index));
+    }
+    assertEquals(ROWS, rows.size());
+  }
+
+  private static void draw(final PDDocument pdDocument,
+      final Drawable drawable) throws IOException {
+    PDPage page = new PDPage();
+    pdDocument.addPage(page);
+    PDPageContentStream contentStream = new PDPageContentStream(pdDocument,
+        page);
+    drawable.draw(pdDocument, contentStream, new Position(0, 800), null);
+    contentStream.close();
+  }
+
+  private static void assertPagesEqual(final PDDocument expected,
+      final PDDocument actual) throws IOException {
+    assertEquals(expected.getNumberOfPages(), actual.getNumberOfPages());
+    for (int index = 0; index < expected.getNumberOfPages(); ++index) {
+      assertArrayEquals("page " + index,
+          CompatibilityHelper.getPageContent(expected, index),
+          CompatibilityHelper.getPageContent(actual, index));
+    }
+  }
+
+  /**
+   * A cell of fixed size recording that it has been drawn.
+   */
+  private static class Cell implements Drawable, Replayable {
+
+    private final String name;
+    private final List<String> drawn;
+
+    Cell(final String name, final List<String> drawn) {
+      this.name = name;
+      this.drawn = drawn;
+    }
+
+    @Override
+    public float getWidth() throws IOException {
+      return 50;
+    }
+
+    @Override
+    public float getHeight() throws IOException {
+      return ROW_HEIGHT;
+    }
+
+    @Override
+    public Position getAbsolutePosition() throws IOException {
+      return null;
+    }
+
+    @Override
+    public void draw(PDDocument pdDocument,
+        PDPageContentStream contentStream, Position upperLeft,
+        DrawListener drawListener) throws IOException {
+      drawn.add(name);
+      contentStream.moveTo(upperLeft.getX(), upperLeft.getY());
+      contentStream.lineTo(upperLeft.getX() + getWidth(), upperLeft.getY());
+      contentStream.stroke();
+    }
+
+    @Override
+    public Drawable removeLeadingEmptyVerticalSpace() throws IOException {
+      return this;
+    }
+
+    @Override
+    public boolean isReplayable() {
+      return true;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package rst.pdfbox.layout.elements.render;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import rst.pdfbox.layout.elements.Document;
+import rst.pdfbox.layout.elements.Paragraph;
+import rst.pdfbox.layout.elements.render.PageMap.Placement;
+
+public class ColumnLayoutTest {
+
+  private static final PDFont FONT = PDType1Font.HELVETICA;
+  private static final float FONT_SIZE = 11;
+  private static final int COLUMNS = 3;
+  private static final String TEXT = "Lorem ipsum dolor sit amet, consetetur "
+      + "sadipscing elitr, sed diam nonumy eirmod tempor invidunt ut labore "
+      + "et dolore magna aliquyam erat, sed diam voluptua. ";
+
+  @Test
+  public void testBalancedColumnsDifferByAtMostOneLine() throws Exception {
+    float lineHeight = getLineHeight();
+    // less than a page, about a page, and several pages
+    for (int paragraphs : new int[] { 5, 11, 24, 47, 90 }) {
+      List<Paragraph> elements = new ArrayList<Paragraph>();
+      PageMap pageMap = createDocument(elements, paragraphs, true).layout();
+      List<Float> heights = getColumnHeights(pageMap, elements,
+          pageMap.getPageCount() - 1);
+
+      String message = paragraphs + " paragraphs: " + heights;
+      assertEquals(message, COLUMNS, heights.size());
+      float min = Float.MAX_VALUE;
+      float max = 0;
+      for (float height : heights) {
+        min = Math.min(min, height);
+        max = Math.max(max, height);
+      }
+      assertTrue(message, max - min <= lineHeight + 0.01f);
+    }
+  }
+
+  @Test
+  public void testBalancingKeepsPageCount() throws Exception {
+    for (int paragraphs : new int[] { 5, 24, 90 }) {
+      int unbalanced = createDocument(new ArrayList<Paragraph>(), paragraphs,
+          false).layout().getPageCount();
+      int balanced = createDocument(new ArrayList<Paragraph>(), paragraphs,
+          true).layout().getPageCount();
+      assertEquals(paragraphs + " paragraphs", unbalanced, balanced);
+    }
+  }
+
+  private static Document createDocument(final List<Paragraph> elements,
+      final int paragraphs, final boolean balanced) throws IOException {
+    Document document = new Document(40, 60, 40, 60);
+    ColumnLayout layout = new ColumnLayout(COLUMNS, 10);
+    layout.setBalanced(balanced);
+    document.add(layout);
+    for (int index = 0; index < paragraphs; ++index) {
+      Paragraph paragraph = new Paragraph();
+      StringBuilder text = new StringBuilder(index + ": ");
+      // paragraphs of 1 to 5 sentences
+      for (int sentence = 0; sentence <= index % 5; ++sentence) {
+        text.append(TEXT);
+      }
+      paragraph.addText(text.toString(), FONT_SIZE, FONT);
+      elements.add(paragraph);
+      document.add(paragraph);
+    }
+    return document;
+  }
+
+  /**
+   * @return the height of the content of each column on the given page,
+   *         ordered from left to right.
+   */
+  private static List<Float> getColumnHeights(final PageMap pageMap,
+      final List<Paragraph> elements, final int pageIndex) {
+    Map<Float, float[]> columns = new TreeMap<Float, float[]>();
+    for (Paragraph element : elements) {
+      for (Placement placement : pageMap.getPlacements(element)) {
+        if (placement.getPageIndex() != pageIndex) {
+          continue;
+        }
+        float x = placement.getUpperLeft().getX();
+        float top = placement.getUpperLeft().getY();
+        float bottom = top - placement.getHeight();
+        float[] extent = columns.get(x);
+        if (extent == null) {
+          columns.put(x, new float[] { top, bottom });
+        } else {
+          extent[0] = Math.max(extent[0], top);
+          extent[1] = Math.min(extent[1], bottom);
+        }
+      }
+    }
+    List<Float> heights = new ArrayList<Float>();
+    for (float[] extent : columns.values()) {
+      heights.add(extent[0] - extent[1]);
+    }
+    return heights;
+  }
+
+  private static float getLineHeight() throws IOException {
+    Paragraph paragraph = new Paragraph();
+    paragraph.addText("line", FONT_SIZE, FONT);
+    return paragraph.getHeight();
+  }
+}
@@ -0,0 +1,181 @@
+package rst.pdfbox.layout.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import rst.pdfbox.layout.elements.Document;
+import rst.pdfbox.layout.elements.Paragraph;
+import rst.pdfbox.layout.util.CompatibilityHelper;
+
+public class PlaceholderTest {
+
+  private static final PDFont FONT = PDType1Font.HELVETICA;
+  private static final String TEXT = "Lorem ipsum dolor sit amet, consetetur "
+      + "sadipscing elitr, sed diam nonumy eirmod tempor invidunt ut labore "
+      + "et dolore magna aliquyam erat, sed diam voluptua.\n";
+  private static final int ELEMENTS = 200;
+  private static final int CHANGED = 120;
+
+  @Test
+  public void testValueIsResolvedAfterRender() throws Exception {
+    final List<PDPage> resolvedPages = new ArrayList<PDPage>();
+    Placeholder placeholder = new Placeholder("999", 11, FONT) {
+
+      @Override
+      protected String resolveValue(PDDocument pdDocument, PDPage page)
+          throws IOException {
+        resolvedPages.add(page);
+        return super.resolveValue(pdDocument, page);
+      }
+    };
+    Paragraph paragraph = new Paragraph();
+    paragraph.addText("page 1 of ", 11, FONT);
+    paragraph.add(placeholder);
+
+    PDDocument pdDocument = new PDDocument();
+    try {
+      PDPage page = new PDPage();
+      pdDocument.addPage(page);
+      PDPageContentStream contentStream = new PDPageContentStream(
+          pdDocument, page);
+      PlaceholderDrawListener listener = new PlaceholderDrawListener(
+          new SimpleDrawContext(pdDocument, page, contentStream));
+      paragraph.draw(pdDocument, contentStream, new Position(50, 700),
+          listener);
+      contentStream.close();
+
+      // the value is set after drawing, but before the listener resolves it
+      placeholder.setValue("42");
+      assertTrue(resolvedPages.isEmpty());
+      assertFalse(getContent(pdDocument, 0).contains("(42) Tj"));
+
+      listener.afterRender();
+      assertEquals(1, resolvedPages.size());
+      assertSame(page, resolvedPages.get(0));
+      assertTrue(getContent(pdDocument, 0).contains("(42) Tj"));
+      // the reserved text itself is never drawn
+      assertFalse(getContent(pdDocument, 0).contains("(999) Tj"));
+    } finally {
+      pdDocument.close();
+    }
+  }
+
+  /**
+   * Placeholders are resolved by the render pass that drew them. The pages
+   * reused by a resumed rendering keep the values resolved in the previous
+   * run, while the re-rendered pages get the new values.
+   */
+  @Test
+  public void testPlaceholdersOnReusedPagesAreNotUpdated() throws Exception {
+    List<Paragraph> paragraphs = new ArrayList<Paragraph>();
+    Document document = createDocument(paragraphs);
+    PDDocument previous = document.render();
+    PDDocument resumed = null;
+    try {
+      int previousPages = previous.getNumberOfPages();
+      assertTrue(getContent(previous, 0).contains(
+          "(" + previousPages + ") Tj"));
+
+      // adds some pages
+      for (int index = 0; index < 30; ++index) {
+        paragraphs.get(CHANGED).addText(TEXT, 11, FONT);
+      }
+      resumed = document.render(previous, CHANGED);
+      int pages = resumed.getNumberOfPages();
+      assertTrue(pages > previousPages);
+
+      // the first page is reused with the old total
+      assertSame(CompatibilityHelper.getPage(previous, 0).getCOSObject(),
+          CompatibilityHelper.getPage(resumed, 0).getCOSObject());
+      assertTrue(getContent(resumed, 0).contains(
+          "(" + previousPages + ") Tj"));
+      assertFalse(getContent(resumed, 0).contains("(" + pages + ") Tj"));
+
+      // the last page is re-rendered with the new total
+      assertTrue(getContent(resumed, pages - 1).contains(
+          "(" + pages + ") Tj"));
+    } finally {
+      if (resumed != null) {
+        resumed.close();
+      }
+      previous.close();
+    }
+  }
+
+  /**
+   * Creates a document of several pages, showing the total number of pages
+   * on the first and the last page.
+   */
+  private static Document createDocument(final List<Paragraph> paragraphs)
+      throws IOException {
+    Document document = new Document(40, 60, 40, 60);
+    paragraphs.add(createTotalPagesParagraph());
+    for (int index = 1; index < ELEMENTS; ++index) {
+      Paragraph paragraph = new Paragraph();
+      paragraph.addText(index + ": " + TEXT, 11, FONT);
+      paragraphs.add(paragraph);
+    }
+    paragraphs.add(createTotalPagesParagraph());
+    for (Paragraph paragraph : paragraphs) {
+      document.add(paragraph);
+    }
+    return document;
+  }
+
+  private static Paragraph createTotalPagesParagraph() throws IOException {
+    Paragraph paragraph = new Paragraph();
+    paragraph.addText("pages: ", 11, FONT);
+    paragraph.add(Placeholder.createTotalPages(new FontDescriptor(FONT, 11),
+        Color.black));
+    return paragraph;
+  }
+
+  private static String getContent(final PDDocument pdDocument,
+      final int pageIndex) throws IOException {
+    return new String(CompatibilityHelper.getPageContent(pdDocument,
+        pageIndex), "ISO-8859-1");
+  }
+
+  private static class SimpleDrawContext implements DrawContext {
+
+    private final PDDocument pdDocument;
+    private final PDPage page;
+    private final PDPageContentStream contentStream;
+
+    SimpleDrawContext(final PDDocument pdDocument, final PDPage page,
+        final PDPageContentStream contentStream) {
+      this.pdDocument = pdDocument;
+      this.page = page;
+      this.contentStream = contentStream;
+    }
+
+    @Override
+    public PDDocument getPdDocument() {
+      return pdDocument;
+    }
+
+    @Override
+    public PDPage getCurrentPage() {
+      return page;
+    }
+
+    @Override
+    public PDPageContentStream getCurrentPageContentStream() {
+      return contentStream;
+    }
+  }
+}
@@ -0,0 +1,426 @@
+package rst.pdfbox.layout.text;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import rst.pdfbox.layout.elements.Document;
+import rst.pdfbox.layout.elements.Paragraph;
+import rst.pdfbox.layout.util.CompatibilityHelper;
+import rst.pdfbox.layout.util.ContentStreamBuffer;
+import rst.pdfbox.layout.util.GraphicsState;
+
+public class TextEmitterTest {
+
+  private static final PDFont FONT = PDType1Font.HELVETICA;
+  private static final FontDescriptor FONT_DESCRIPTOR = new FontDescriptor(
+      FONT, 10);
+  private static final String TYPE0_FONT_FILE = "/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf";
+
+  private PDDocument pdDocument;
+  private PDPageContentStream contentStream;
+
+  @Before
+  public void setUp() throws Exception {
+    pdDocument = new PDDocument();
+    PDPage page = new PDPage();
+    pdDocument.addPage(page);
+    contentStream = CompatibilityHelper.createAppendablePDPageContentStream(
+        pdDocument, page);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pdDocument.close();
+  }
+
+  @Test
+  public void testLinesAtEqualSpacingUseNextLine() throws Exception {
+    TextEmitter emitter = new TextEmitter(contentStream);
+    emitter.setFont(FONT_DESCRIPTOR);
+    emitter.setColor(Color.black);
+    for (int line = 0; line < 4; ++line) {
+      emitter.moveTo(50, 700 - line * 12);
+      emitter.showText("line", width("line"));
+    }
+    // a different spacing needs an explicit move
+    emitter.moveTo(50, 600);
+    emitter.showText("last", width("last"));
+    emitter.end();
+
+    String content = getContent();
+    assertEquals(content, 1, count(content, "BT\n"));
+    assertEquals(content, 1, count(content, " Tm\n"));
+    assertEquals(content, 1, count(content, "12 TL\n"));
+    assertEquals(content, 3, count(content, "T*\n"));
+    assertEquals(content, 1, count(content, "0 -64 Td\n"));
+    assertEquals(content, 1, count(content, " Tf\n"));
+  }
+
+  @Test
+  public void testParagraphIsEmittedIntoOneTextObject() throws Exception {
+    Document document = new Document(40, 60, 40, 60);
+    Paragraph paragraph = new Paragraph();
+    paragraph.addText("first\nsecond\nthird", 10, FONT);
+    document.add(paragraph);
+    PDDocument rendered = document.render();
+    try {
+      String content = new String(CompatibilityHelper.getPageContent(
+          rendered, 0), "ISO-8859-1");
+      assertEquals(content, 1, count(content, "BT\n"));
+      assertEquals(content, 2, count(content, "T*\n"));
+      assertEquals(content, 3, count(content, " Tj\n"));
+    } finally {
+      rendered.close();
+    }
+  }
+
+  @Test
+  public void testRiseIsResetOnEnd() throws Exception {
+    GraphicsState.track(contentStream);
+    try {
+      TextEmitter emitter = new TextEmitter(contentStream);
+      emitter.setFont(FONT_DESCRIPTOR);
+      emitter.moveTo(50, 700);
+      emitter.showText("base", width("base"));
+      emitter.setRise(3);
+      emitter.showText("up", width("up"));
+      emitter.end();
+    } finally {
+      GraphicsState.untrack(contentStream);
+    }
+
+    String content = getContent();
+    // not bracketed by save and restore, so the rise has to be reset
+    assertEquals(content, 0, count(content, "q\n"));
+    assertTrue(content, content.contains("3 Ts\n(up) Tj\n0 Ts\nET\n"));
+  }
+
+  @Test
+  public void testRiseIsRestoredIfNotTracked() throws Exception {
+    TextEmitter emitter = new TextEmitter(contentStream);
+    emitter.setFont(FONT_DESCRIPTOR);
+    emitter.setRise(-2);
+    emitter.moveTo(50, 700);
+    emitter.showText("down", width("down"));
+    emitter.end();
+
+    String content = getContent();
+    // restoring the graphics state resets the rise
+    assertTrue(content, content.contains("(down) Tj\nET\nQ"));
+    assertEquals(content, 1, count(content, " Ts\n"));
+  }
+
+  @Test
+  public void testAdjacentTextsAreShownAtOnce() throws Exception {
+    TextEmitter emitter = new TextEmitter(contentStream);
+    emitter.setFont(FONT_DESCRIPTOR);
+    emitter.moveTo(50, 700);
+    emitter.showText("one", width("one"));
+    emitter.showText(" two", width(" two"));
+    emitter.end();
+
+    String content = getContent();
+    assertTrue(content, content.contains("(one two) Tj\n"));
+    assertEquals(content, 1, count(content, " Tj\n"));
+    assertEquals(content, 0, count(content, " TJ\n"));
+  }
+
+  @Test
+  public void testMarginsAreAdjustedInTextArray() throws Exception {
+    TextLine line = new TextLine();
+    line.add(new StyledText("left", FONT_DESCRIPTOR, Color.black, 0, 0, 5));
+    line.add(new StyledText("right", FONT_DESCRIPTOR, Color.black, 0, 2, 0));
+    line.drawText(contentStream, new Position(50, 700), Alignment.Left, null);
+
+    String content = getContent();
+    // 7pt at a font size of 10 are 700 units of text space
+    assertEquals(-700f, getAdjustment(content,
+        "\\[\\(left\\)(\\S+)\\(right\\)\\] TJ\n"), 0.01f);
+    assertEquals(content, 0, count(content, " Tj\n"));
+    assertEquals(content, 1, count(content, " Tm\n"));
+  }
+
+  @Test
+  public void testChangedFontEndsTextArray() throws Exception {
+    TextLine line = new TextLine();
+    line.add(new StyledText("plain", FONT_DESCRIPTOR, Color.black, 0, 0, 5));
+    line.add(new StyledText("bold", new FontDescriptor(
+        PDType1Font.HELVETICA_BOLD, 10), Color.black, 0, 0, 0));
+    line.drawText(contentStream, new Position(50, 700), Alignment.Left, null);
+
+    String content = getContent();
+    // the margin is skipped at the start of the next run
+    assertTrue(content, content.contains("(plain) Tj\n"));
+    assertEquals(-500f, getAdjustment(content, "\\[(\\S+)\\(bold\\)\\] TJ\n"),
+        0.01f);
+    assertEquals(content, 2, count(content, " Tf\n"));
+  }
+
+  @Test
+  public void testJustifiedLineUsesWordSpacing() throws Exception {
+    justify(FONT_DESCRIPTOR, "justified", " text", 30);
+
+    String content = getContent();
+    assertTrue(content, content.contains("30 Tw\n"));
+    assertTrue(content, content.contains("(justified text) Tj\n"));
+    // restoring the graphics state resets the word spacing
+    assertEquals(content, 1, count(content, " Tw\n"));
+  }
+
+  @Test
+  public void testWordSpacingIsResetOnEnd() throws Exception {
+    GraphicsState.track(contentStream);
+    try {
+      justify(FONT_DESCRIPTOR, "justified", " text", 30);
+    } finally {
+      GraphicsState.untrack(contentStream);
+    }
+
+    String content = getContent();
+    assertTrue(content, content.contains("(justified text) Tj\n0 Tw\nET\n"));
+  }
+
+  @Test
+  public void testWordSpacingNeedsLeadingSpace() throws Exception {
+    justify(FONT_DESCRIPTOR, "justified", "text", 30);
+
+    String content = getContent();
+    assertEquals(content, 0, count(content, " Tw\n"));
+    assertEquals(-3000f, getAdjustment(content,
+        "\\[\\(justified\\)(\\S+)\\(text\\)\\] TJ\n"), 0.1f);
+  }
+
+  @Test
+  public void testWordSpacingIsNotUsedForType0Font() throws Exception {
+    PDFont font = loadType0Font(pdDocument);
+    assumeTrue(font != null);
+    justify(new FontDescriptor(font, 10), "justified", " text", 30);
+
+    String content = getContent();
+    assertEquals(content, 0, count(content, " Tw\n"));
+    assertEquals(content, 1, count(content, " TJ\n"));
+  }
+
+  @Test
+  public void testWordSpacingIsOnlyUsedForJustifiedLines() throws Exception {
+    TextLine line = new TextLine();
+    line.add(new StyledText("left", FONT_DESCRIPTOR, Color.black));
+    line.add(new StyledText(" aligned", FONT_DESCRIPTOR, Color.black));
+    line.setNewLine(new WrappingNewLine(FONT_DESCRIPTOR));
+    line.drawAligned(contentStream, new Position(50, 700), Alignment.Left,
+        200, null);
+
+    String content = getContent();
+    assertEquals(content, 0, count(content, " Tw\n"));
+    assertTrue(content, content.contains("(left aligned) Tj\n"));
+  }
+
+  @Test
+  public void testEncodedTextEqualsShownText() throws Exception {
+    String text = "(Stra\u00dfe) \\ 100 \u00e4";
+    assertArrayEqualsAll(show(text, false, false), show(text, false, true));
+  }
+
+  @Test
+  public void testEncodedTextEqualsShownTextForSubsetFont() throws Exception {
+    String text = "Gr\u00fc\u00dfe \u20ac \u0394";
+    byte[][] shown = show(text, true, false);
+    assumeTrue(shown != null);
+    byte[][] encoded = show(text, true, true);
+    // the characters have also been added to the subset
+    assertTrue(encoded[1].length > 0);
+    assertArrayEqualsAll(shown, encoded);
+  }
+
+  /**
+   * Draws a wrapped line of the given texts justified to their width plus
+   * the given extra space.
+   */
+  private void justify(final FontDescriptor fontDescriptor,
+      final String first, final String second, final float extra)
+      throws IOException {
+    TextLine line = new TextLine();
+    StyledText firstText = new StyledText(first, fontDescriptor, Color.black);
+    StyledText secondText = new StyledText(second, fontDescriptor,
+        Color.black);
+    line.add(firstText);
+    line.add(secondText);
+    line.setNewLine(new WrappingNewLine(fontDescriptor));
+    float width = firstText.getWidthWithoutMargin()
+        + secondText.getWidthWithoutMargin();
+    line.drawAligned(contentStream, new Position(50, 700), Alignment.Justify,
+        width + extra, null);
+  }
+
+  /**
+   * Loads a composite font using <code>PDType0Font.load()</code>, which is
+   * available in pdfbox 2 only.
+   *
+   * @return the font, or <code>null</code> if not available.
+   */
+  private static PDFont loadType0Font(final PDDocument pdDocument)
+      throws Exception {
+    File file = new File(TYPE0_FONT_FILE);
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      Method load = PDType0Font.class.getMethod("load", PDDocument.class,
+          File.class);
+      return (PDFont) load.invoke(null, pdDocument, file);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Shows the given text in a new document, either by pdfbox or using the
+   * encoded text, and saves the document.
+   *
+   * @return the page content and the embedded font file of the saved
+   *         document, or <code>null</code> if the composite font is not
+   *         available.
+   */
+  private static byte[][] show(final String text, final boolean type0,
+      final boolean encoded) throws Exception {
+    PDDocument document = new PDDocument();
+    try {
+      PDPage page = new PDPage();
+      document.addPage(page);
+      PDFont font = type0 ? loadType0Font(document) : FONT;
+      if (font == null) {
+        return null;
+      }
+      PDPageContentStream stream = CompatibilityHelper
+          .createAppendablePDPageContentStream(document, page);
+      stream.beginText();
+      stream.setFont(font, 10);
+      if (encoded) {
+        ContentStreamBuffer buffer = new ContentStreamBuffer();
+        buffer.appendString(Collections.singletonList(FontMetrics
+            .getEncodedText(font, text)));
+        buffer.append(' ').appendOperator("Tj");
+        buffer.flush(stream);
+      } else {
+        CompatibilityHelper.showText(stream, text);
+      }
+      stream.endText();
+      stream.close();
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      document.save(out);
+      PDDocument saved = PDDocument.load(new ByteArrayInputStream(out
+          .toByteArray()));
+      try {
+        return new byte[][] { CompatibilityHelper.getPageContent(saved, 0),
+            getFontFile(saved) };
+      } finally {
+        saved.close();
+      }
+    } finally {
+      document.close();
+    }
+  }
+
+  /**
+   * @return the decoded font file of the (single) composite font on the
+   *         first page, or an empty array if there is none.
+   */
+  private static byte[] getFontFile(final PDDocument pdDocument)
+      throws IOException {
+    COSDictionary page = (COSDictionary) CompatibilityHelper.getPage(
+        pdDocument, 0).getCOSObject();
+    COSDictionary resources = (COSDictionary) page
+        .getDictionaryObject(COSName.RESOURCES);
+    COSDictionary fonts = (COSDictionary) resources
+        .getDictionaryObject(COSName.FONT);
+    assertEquals(1, fonts.size());
+    COSDictionary font = (COSDictionary) fonts.getDictionaryObject(fonts
+        .keySet().iterator().next());
+    COSArray descendants = (COSArray) font
+        .getDictionaryObject(COSName.DESCENDANT_FONTS);
+    if (descendants == null) {
+      return new byte[0];
+    }
+    COSDictionary descriptor = (COSDictionary) ((COSDictionary) descendants
+        .getObject(0)).getDictionaryObject(COSName.FONT_DESC);
+    COSStream fontFile = (COSStream) descriptor
+        .getDictionaryObject(COSName.FONT_FILE2);
+    InputStream in = new PDStream(fontFile).createInputStream();
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void assertArrayEqualsAll(final byte[][] expected,
+      final byte[][] actual) throws IOException {
+    assertEquals(new String(expected[0], "ISO-8859-1"), new String(
+        actual[0], "ISO-8859-1"));
+    assertArrayEquals(expected[1], actual[1]);
+  }
+
+  private static float width(final String text) throws IOException {
+    return FONT.getStringWidth(text) / 1000f * FONT_DESCRIPTOR.getSize();
+  }
+
+  private String getContent() throws IOException {
+    contentStream.close();
+    return new String(CompatibilityHelper.getPageContent(pdDocument, 0),
+        "ISO-8859-1");
+  }
+
+  /**
+   * @return the adjustment matched by the first group of the given pattern.
+   */
+  private static float getAdjustment(final String content,
+      final String pattern) {
+    Matcher matcher = Pattern.compile(pattern).matcher(content);
+    assertTrue(content, matcher.find());
+    return Float.parseFloat(matcher.group(1));
+  }
+
+  private static int count(final String text, final String part) {
+    int count = 0;
+    for (int index = text.indexOf(part); index >= 0; index = text.indexOf(
+        part, index + part.length())) {
+      ++count;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,134 @@
+package rst.pdfbox.layout.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import rst.pdfbox.layout.text.annotations.AnnotatedStyledText;
+import rst.pdfbox.layout.text.annotations.Annotation;
+
+public class TextFlowUtilTest {
+
+  private static final int LINES = 300;
+  private static final int CHUNKS = 8;
+
+  @Test
+  public void testParallelParsingEqualsSerialParsing() throws Exception {
+    String markup = createMarkup();
+    List<String> serial = describe(parse(markup, Integer.MAX_VALUE, 1));
+    List<String> parallel = describe(parse(markup, 1, CHUNKS));
+    assertTrue(serial.size() > LINES);
+    assertEquals(serial, parallel);
+  }
+
+  @Test
+  public void testParallelParsingWithFewLines() throws Exception {
+    // more chunks than new lines
+    String markup = "*bold\n{color:#ff0000}red* text\n  -+ item";
+    assertEquals(describe(parse(markup, Integer.MAX_VALUE, 1)),
+        describe(parse(markup, 1, CHUNKS)));
+  }
+
+  @Test
+  public void testAnnotationsKeepTheirOrder() throws Exception {
+    TextFlow flow = parse("{link[http://example.com]}__{anchor:a}text"
+        + "{anchor}__{link}", Integer.MAX_VALUE, 1);
+    List<String> types = new ArrayList<String>();
+    for (TextFragment fragment : flow) {
+      if (fragment instanceof AnnotatedStyledText) {
+        for (Annotation annotation : (AnnotatedStyledText) fragment) {
+          types.add(annotation.getClass().getSimpleName());
+        }
+      }
+    }
+    assertEquals("[HyperlinkAnnotation, UnderlineAnnotation, AnchorAnnotation]",
+        types.toString());
+  }
+
+  @Test
+  public void testParallelWrappingEqualsSerialWrapping() throws Exception {
+    TextFlow flow = parse(createMarkup(), Integer.MAX_VALUE, 1);
+    for (float maxWidth : new float[] { 120, 200, 400 }) {
+      List<String> serial = describe(TextSequenceUtil.wordWrap(flow,
+          maxWidth, Integer.MAX_VALUE, 1));
+      List<String> parallel = describe(TextSequenceUtil.wordWrap(flow,
+          maxWidth, 1, CHUNKS));
+      assertEquals("max width " + maxWidth, serial, parallel);
+    }
+  }
+
+  /**
+   * Creates markup whose formatting, annotations and indents span the
+   * boundaries of the chunks.
+   */
+  private static String createMarkup() {
+    StringBuilder markup = new StringBuilder();
+    for (int line = 0; line < LINES; ++line) {
+      switch (line % 7) {
+      case 0:
+        markup.append("-+ item ").append(line).append(" *bold starts");
+        break;
+      case 1:
+        markup.append("  -- nested _italic_ bold ends* here");
+        break;
+      case 2:
+        markup.append("{color:#ff5000}{link[http://example.com/").append(line)
+            .append("]}a link spanning");
+        break;
+      case 3:
+        markup.append("two lines{link}{color:#000000} and __underlined__");
+        break;
+      case 4:
+        markup.append("-!");
+        break;
+      case 5:
+        markup.append("-#{a:2em} lettered {anchor:a").append(line)
+            .append("}anchor{anchor} _italic starts");
+        break;
+      default:
+        markup.append("a rather long line of text which will be wrapped "
+            + "at narrow widths, italic ends_");
+      }
+      markup.append('\n');
+    }
+    return markup.toString();
+  }
+
+  private static TextFlow parse(final String markup, final int minNewLines,
+      final int maxChunks) throws IOException {
+    PDFont plain = PDType1Font.HELVETICA;
+    return TextFlowUtil.createTextFlowFromMarkup(markup, minNewLines,
+        maxChunks, 11, plain, PDType1Font.HELVETICA_BOLD,
+        PDType1Font.HELVETICA_OBLIQUE, PDType1Font.HELVETICA_BOLD_OBLIQUE);
+  }
+
+  private static List<String> describe(final TextSequence text)
+      throws IOException {
+    List<String> result = new ArrayList<String>();
+    for (TextFragment fragment : text) {
+      StringBuilder description = new StringBuilder();
+      description.append(fragment.getClass().getSimpleName()).append(" '")
+          .append(fragment.getText()).append("' ").append(fragment.getWidth())
+          .append(" ").append(fragment.getHeight()).append(" ")
+          .append(fragment.getColor());
+      if (fragment.getFontDescriptor() != null) {
+        description.append(" ").append(fragment.getFontDescriptor());
+      }
+      if (fragment instanceof AnnotatedStyledText) {
+        for (Annotation annotation : (AnnotatedStyledText) fragment) {
+          description.append(" ").append(
+              annotation.getClass().getSimpleName());
+        }
+      }
+      result.add(description.toString());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,242 @@
+package rst.pdfbox.layout.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.junit.Test;
+
+import rst.pdfbox.layout.text.Position;
+
+public class CCITTEncodingTest {
+
+  private static final int BLACK = 0x000000;
+  private static final int WHITE = 0xFFFFFF;
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    BufferedImage image = createBilevelImage(77, 60);
+    assertRoundTrip(image, EncodedImage.CCITT_BILEVEL);
+  }
+
+  @Test
+  public void testRoundTripWithLongRuns() throws Exception {
+    // runs longer than 2560 pixel need more than one make up code
+    BufferedImage image = new BufferedImage(5200, 4,
+        BufferedImage.TYPE_BYTE_BINARY);
+    fill(image, 0, 0, 5200, WHITE);
+    fill(image, 1, 0, 5200, BLACK);
+    fill(image, 2, 10, 3000, BLACK);
+    fill(image, 3, 2600, 5199, BLACK);
+    assertRoundTrip(image, EncodedImage.CCITT_BILEVEL);
+  }
+
+  @Test
+  public void testRoundTripWithThreshold() throws Exception {
+    BufferedImage image = new BufferedImage(33, 20,
+        BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(7);
+    for (int y = 0; y < image.getHeight(); ++y) {
+      for (int x = 0; x < image.getWidth(); ++x) {
+        int gray = random.nextInt(256);
+        image.setRGB(x, y, (gray << 16) | (gray << 8) | gray);
+      }
+    }
+    assertRoundTrip(image, 100);
+  }
+
+  @Test
+  public void testFlateIsDefault() throws Exception {
+    BufferedImage image = createBilevelImage(20, 10);
+    PDDocument document = new PDDocument();
+    try {
+      drawImage(document, image, null);
+      assertEquals(COSName.FLATE_DECODE,
+          getImageStream(document).getDictionaryObject(COSName.FILTER));
+    } finally {
+      document.close();
+    }
+  }
+
+  @Test
+  public void testRoundTripWithInvertedPalette() throws Exception {
+    BufferedImage image = createBilevelImage(41, 30, new IndexColorModel(1,
+        2, new byte[] { -1, 0 }, new byte[] { -1, 0 }, new byte[] { -1, 0 }));
+    assertTrue(EncodedImage.isCCITTApplicable(image,
+        EncodedImage.CCITT_BILEVEL));
+    assertRoundTrip(image, EncodedImage.CCITT_BILEVEL);
+  }
+
+  @Test
+  public void testColoredPaletteIsNotConverted() throws Exception {
+    // red and blue
+    BufferedImage image = createBilevelImage(20, 10, new IndexColorModel(1,
+        2, new byte[] { -1, 0 }, new byte[] { 0, 0 }, new byte[] { 0, -1 }));
+    assertFalse(EncodedImage.isCCITTApplicable(image,
+        EncodedImage.CCITT_BILEVEL));
+    assertFalse(EncodedImage.encode(image, EncodedImage.CCITT_BILEVEL)
+        .isCCITT());
+    PDDocument document = new PDDocument();
+    try {
+      drawImage(document, image, EncodedImage.CCITT_BILEVEL);
+      assertEquals(COSName.FLATE_DECODE,
+          getImageStream(document).getDictionaryObject(COSName.FILTER));
+    } finally {
+      document.close();
+    }
+  }
+
+  private static void assertRoundTrip(final BufferedImage image,
+      final int ccittThreshold) throws IOException {
+    PDDocument document = new PDDocument();
+    try {
+      drawImage(document, image, ccittThreshold);
+      COSStream stream = getImageStream(document);
+      assertEquals(COSName.CCITTFAX_DECODE,
+          stream.getDictionaryObject(COSName.FILTER));
+      assertArrayEquals(getExpectedBitmap(image, ccittThreshold),
+          clearPadding(decode(stream), image.getWidth()));
+    } finally {
+      document.close();
+    }
+  }
+
+  private static BufferedImage createBilevelImage(final int width,
+      final int height) {
+    return createBilevelImage(width, height, null);
+  }
+
+  /**
+   * Creates a random bilevel image using the given palette, or black and
+   * white if <code>null</code>. The first palette entry is considered as
+   * white, the second as black.
+   */
+  private static BufferedImage createBilevelImage(final int width,
+      final int height, final IndexColorModel palette) {
+    BufferedImage image = palette == null ? new BufferedImage(width, height,
+        BufferedImage.TYPE_BYTE_BINARY) : new BufferedImage(width, height,
+        BufferedImage.TYPE_BYTE_BINARY, palette);
+    int white = palette == null ? WHITE : palette.getRGB(0) & 0xFFFFFF;
+    int black = palette == null ? BLACK : palette.getRGB(1) & 0xFFFFFF;
+    Random random = new Random(42);
+    for (int y = 0; y < height; ++y) {
+      if (y % 10 == 0) {
+        // a line equal to its reference line
+        continue;
+      }
+      for (int x = 0; x < width; ++x) {
+        // runs of various length, also single pixels
+        if (random.nextInt(y % 5 + 2) == 0) {
+          image.setRGB(x, y,
+              (image.getRGB(x, y) & 0xFFFFFF) == white ? black : white);
+        } else {
+          image.setRGB(x, y, x > 0 ? image.getRGB(x - 1, y) : white);
+        }
+      }
+    }
+    return image;
+  }
+
+  private static void fill(final BufferedImage image, final int y,
+      final int fromX, final int toX, final int rgb) {
+    for (int x = fromX; x < toX; ++x) {
+      image.setRGB(x, y, rgb);
+    }
+  }
+
+  private static void drawImage(final PDDocument document,
+      final BufferedImage image, final Integer ccittThreshold)
+      throws IOException {
+    PDPage page = new PDPage();
+    document.addPage(page);
+    PDPageContentStream contentStream = new PDPageContentStream(document,
+        page);
+    Position upperLeft = new Position(0, image.getHeight());
+    if (ccittThreshold == null) {
+      CompatibilityHelper.drawImage(image, document, contentStream,
+          upperLeft, image.getWidth(), image.getHeight());
+    } else {
+      CompatibilityHelper.drawImage(image, ccittThreshold, document,
+          contentStream, upperLeft, image.getWidth(), image.getHeight());
+    }
+    contentStream.close();
+  }
+
+  private static COSStream getImageStream(final PDDocument document) {
+    COSDictionary page = (COSDictionary) CompatibilityHelper.getPage(
+        document, 0).getCOSObject();
+    COSDictionary resources = (COSDictionary) page
+        .getDictionaryObject(COSName.RESOURCES);
+    COSDictionary xObjects = (COSDictionary) resources
+        .getDictionaryObject(COSName.XOBJECT);
+    COSName name = xObjects.keySet().iterator().next();
+    return (COSStream) xObjects.getDictionaryObject(name);
+  }
+
+  /**
+   * @return the rows of the image, one bit per pixel, where (as BlackIs1 is
+   *         false) black is 0.
+   */
+  private static byte[] getExpectedBitmap(final BufferedImage image,
+      final int ccittThreshold) {
+    int threshold = ccittThreshold == EncodedImage.CCITT_BILEVEL ? 128
+        : ccittThreshold;
+    int rowLength = (image.getWidth() + 7) / 8;
+    byte[] bitmap = new byte[rowLength * image.getHeight()];
+    for (int y = 0; y < image.getHeight(); ++y) {
+      for (int x = 0; x < image.getWidth(); ++x) {
+        int rgb = image.getRGB(x, y);
+        int r = (rgb >> 16) & 0xFF;
+        int g = (rgb >> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        boolean black = (r * 299 + g * 587 + b * 114) / 1000 < threshold;
+        if (!black) {
+          bitmap[y * rowLength + x / 8] |= 0x80 >> (x % 8);
+        }
+      }
+    }
+    return bitmap;
+  }
+
+  /**
+   * Clears the bits padding each row to a byte boundary, which the decoders
+   * fill as white.
+   */
+  private static byte[] clearPadding(final byte[] bitmap, final int width) {
+    int rowLength = (width + 7) / 8;
+    int padding = rowLength * 8 - width;
+    for (int index = rowLength - 1; index < bitmap.length; index += rowLength) {
+      bitmap[index] &= 0xFF << padding;
+    }
+    return bitmap;
+  }
+
+  private static byte[] decode(final COSStream stream) throws IOException {
+    InputStream in = stream.getUnfilteredStream();
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+}
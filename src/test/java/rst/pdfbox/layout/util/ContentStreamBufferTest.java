@@ -0,0 +1,110 @@
+package rst.pdfbox.layout.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.junit.Test;
+
+public class ContentStreamBufferTest {
+
+  @Test
+  public void testFormatting() throws Exception {
+    assertFormat("0", 0f);
+    assertFormat("100", 100f);
+    assertFormat("12.25", 12.25f);
+    assertFormat("0.5", 0.5f);
+    assertFormat("0.00001", 0.00001f);
+    assertFormat("3.14159", 3.14159f);
+  }
+
+  @Test
+  public void testNegatives() throws Exception {
+    assertFormat("-1.5", -1.5f);
+    assertFormat("-100", -100f);
+    assertFormat("-0.00001", -0.00001f);
+  }
+
+  @Test
+  public void testNegativeZero() throws Exception {
+    assertFormat("0", -0f);
+    // rounds to zero, which has no sign either
+    assertFormat("0", -0.000001f);
+  }
+
+  @Test
+  public void testRoundingCarry() throws Exception {
+    assertFormat("1", 0.999999f);
+    assertFormat("-1", -0.999999f);
+    assertFormat("10", 9.999996f);
+    assertFormat("0.99999", 0.999994f);
+  }
+
+  @Test
+  public void testLargeValues() throws Exception {
+    assertFormat("123456792", 123456789f);
+    assertFormat("-16777216", -16777216f);
+    assertFormat("1125899906842624", 1125899906842624f);
+    assertFormat("-1125899906842624", -1125899906842624f);
+    // beyond the range of long
+    assertFormat("300000006012263202816", 3e20f);
+    assertFormat("-300000006012263202816", -3e20f);
+  }
+
+  @Test
+  public void testNotANumber() throws Exception {
+    assertFormat("0", Float.NaN);
+    assertFormat("0", Float.POSITIVE_INFINITY);
+  }
+
+  @Test
+  public void testFlushWritesBufferedBytesOnly() throws Exception {
+    PDDocument pdDocument = new PDDocument();
+    try {
+      PDPage page = new PDPage();
+      pdDocument.addPage(page);
+      PDPageContentStream contentStream = CompatibilityHelper
+          .createAppendablePDPageContentStream(pdDocument, page);
+      // grows the buffer beyond the length of its content
+      ContentStreamBuffer buffer = new ContentStreamBuffer(16);
+      buffer.appendOperand(1).appendOperand(0.5f).appendOperand(-0.25f)
+          .appendOperand(0).appendOperand(0).appendOperator("cm");
+      buffer.flush(contentStream);
+      assertEquals(0, buffer.length());
+      buffer.appendOperand(2).appendOperator("w");
+      buffer.flush(contentStream);
+      contentStream.close();
+
+      assertEquals("1 0.5 -0.25 0 0 cm\n2 w\n", new String(
+          CompatibilityHelper.getPageContent(pdDocument, 0), "ISO-8859-1"));
+    } finally {
+      pdDocument.close();
+    }
+  }
+
+  @Test
+  public void testStrings() throws Exception {
+    ContentStreamBuffer buffer = new ContentStreamBuffer();
+    buffer.appendString(Arrays.asList("a(b".getBytes("ISO-8859-1"),
+        ")\\".getBytes("ISO-8859-1")));
+    assertEquals("(a\\(b\\)\\\\)", toString(buffer));
+    buffer.clear();
+    buffer.appendString(Arrays.asList(new byte[] { 0x41, (byte) 0xe4 }));
+    assertEquals("<41E4>", toString(buffer));
+  }
+
+  private static void assertFormat(final String expected, final float value)
+      throws Exception {
+    ContentStreamBuffer buffer = new ContentStreamBuffer();
+    buffer.append(value);
+    assertEquals(String.valueOf(value), expected, toString(buffer));
+  }
+
+  private static String toString(final ContentStreamBuffer buffer)
+      throws Exception {
+    return new String(buffer.toByteArray(), "ISO-8859-1");
+  }
+}
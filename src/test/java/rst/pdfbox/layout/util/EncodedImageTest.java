@@ -0,0 +1,99 @@
+package rst.pdfbox.layout.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.junit.Test;
+
+import rst.pdfbox.layout.elements.Document;
+import rst.pdfbox.layout.elements.ImageElement;
+
+public class EncodedImageTest {
+
+  private static final int WIDTH = 37;
+  private static final int HEIGHT = 20;
+
+  @Test
+  public void testGraySamplesAreNotConverted() throws Exception {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_BYTE_GRAY);
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        image.getRaster().setSample(x, y, 0, (x * 7 + y * 13) % 256);
+      }
+    }
+    byte[] preEncoded = getSamples(image, true);
+    assertArrayEquals(getSamples(image, false), preEncoded);
+
+    // e.g. a sample of 128 must not be written as 188
+    byte[] expected = new byte[WIDTH * HEIGHT];
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        expected[y * WIDTH + x] = (byte) image.getRaster()
+            .getSample(x, y, 0);
+      }
+    }
+    assertArrayEquals(expected, preEncoded);
+  }
+
+  @Test
+  public void testBilevelSamples() throws Exception {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT,
+        BufferedImage.TYPE_BYTE_BINARY);
+    for (int y = 0; y < HEIGHT; ++y) {
+      for (int x = 0; x < WIDTH; ++x) {
+        image.getRaster().setSample(x, y, 0, (x + y) % 3 == 0 ? 1 : 0);
+      }
+    }
+    assertArrayEquals(getSamples(image, false), getSamples(image, true));
+  }
+
+  /**
+   * Renders the image and returns the decoded samples of its XObject.
+   */
+  private static byte[] getSamples(final BufferedImage image,
+      final boolean preEncode) throws Exception {
+    Document document = new Document();
+    document.setPreEncodeImages(preEncode);
+    document.add(new ImageElement(image));
+    PDDocument pdDocument = document.render();
+    try {
+      COSDictionary page = (COSDictionary) CompatibilityHelper.getPage(
+          pdDocument, 0).getCOSObject();
+      COSDictionary resources = (COSDictionary) page
+          .getDictionaryObject(COSName.RESOURCES);
+      COSDictionary xObjects = (COSDictionary) resources
+          .getDictionaryObject(COSName.XOBJECT);
+      assertEquals(1, xObjects.size());
+      COSStream xObject = (COSStream) xObjects.getDictionaryObject(xObjects
+          .keySet().iterator().next());
+      return read(new PDStream(xObject).createInputStream());
+    } finally {
+      pdDocument.close();
+    }
+  }
+
+  private static byte[] read(final InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,401 @@
+package rst.pdfbox.layout.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.junit.Test;
+
+import rst.pdfbox.layout.elements.Document;
+import rst.pdfbox.layout.elements.Drawable;
+import rst.pdfbox.layout.elements.Element;
+import rst.pdfbox.layout.elements.Frame;
+import rst.pdfbox.layout.elements.HorizontalRuler;
+import rst.pdfbox.layout.elements.Paragraph;
+import rst.pdfbox.layout.elements.Table;
+import rst.pdfbox.layout.elements.render.LayoutHint;
+import rst.pdfbox.layout.elements.render.RenderContext;
+import rst.pdfbox.layout.elements.render.RenderListener;
+import rst.pdfbox.layout.elements.render.Renderer;
+import rst.pdfbox.layout.shape.Stroke;
+import rst.pdfbox.layout.shape.Stroke.DashPattern;
+import rst.pdfbox.layout.text.DrawContext;
+import rst.pdfbox.layout.text.DrawListener;
+import rst.pdfbox.layout.text.FontDescriptor;
+import rst.pdfbox.layout.text.Position;
+import rst.pdfbox.layout.text.annotations.Annotated;
+import rst.pdfbox.layout.text.annotations.AnnotatedStyledText;
+import rst.pdfbox.layout.text.annotations.Annotation;
+import rst.pdfbox.layout.text.annotations.AnnotationProcessor;
+import rst.pdfbox.layout.text.annotations.AnnotationProcessorFactory;
+
+public class GraphicsStateTest {
+
+  private static final PDFont FONT = PDType1Font.HELVETICA;
+
+  static {
+    AnnotationProcessorFactory.register(RedBoxProcessor.class);
+  }
+
+  @Test
+  public void testRedundantColorIsSuppressed() throws Exception {
+    PDDocument pdDocument = new PDDocument();
+    try {
+      PDPage page = new PDPage();
+      pdDocument.addPage(page);
+      PDPageContentStream contentStream = CompatibilityHelper
+              .createAppendablePDPageContentStream(pdDocument, page);
+      GraphicsState.track(contentStream);
+      try {
+        paragraph("first").draw(pdDocument, contentStream,
+                new Position(40, 700), null);
+        paragraph("second").draw(pdDocument, contentStream,
+                new Position(40, 680), null);
+      } finally {
+        GraphicsState.untrack(contentStream);
+        contentStream.close();
+      }
+
+      String content = getContent(pdDocument, 0);
+      assertEquals(content, 1, count(content, " rg\n"));
+      assertEquals(content, 1, count(content, " Tf\n"));
+    } finally {
+      pdDocument.close();
+    }
+  }
+
+  @Test
+  public void testTrackingIsSuspendedInRenderListener() throws Exception {
+    Document document = new Document(40, 60, 40, 60);
+    document.addRenderListener(new RenderListener() {
+
+      @Override
+      public void beforePage(RenderContext renderContext) throws IOException {
+        PDPageContentStream contentStream = renderContext.getContentStream();
+        paragraph("black").draw(renderContext.getPdDocument(), contentStream,
+                new Position(40, 20), null);
+        contentStream.setNonStrokingColor(Color.red);
+        contentStream.addRect(0, 0, 10, 10);
+        CompatibilityHelper.fillNonZero(contentStream);
+        paragraph("again").draw(renderContext.getPdDocument(),
+                contentStream, new Position(40, 40), null);
+      }
+
+      @Override
+      public void afterPage(RenderContext renderContext) throws IOException {
+        assertNull(renderContext.getGraphicsState());
+      }
+    });
+    document.add(paragraph("body"));
+
+    String content = render(document);
+    assertBlackBefore(content, "(again) Tj");
+    assertBlackBefore(content, "(body) Tj");
+  }
+
+  @Test
+  public void testTrackingIsSuspendedInAnnotationProcessor() throws Exception {
+    Document document = new Document(40, 60, 40, 60);
+    Paragraph paragraph = new Paragraph();
+    paragraph.add(new AnnotatedStyledText("boxed", new FontDescriptor(FONT,
+            12), Color.black, 0, 0, 0, Collections
+            .singleton(new RedBox())));
+    document.add(paragraph);
+    document.add(paragraph("after"));
+
+    String content = render(document);
+    assertBlackBefore(content, "(after) Tj");
+  }
+
+  @Test
+  public void testForeignDrawableIsIsolated() throws Exception {
+    Document document = new Document(40, 60, 40, 60);
+    document.add(paragraph("before"));
+    document.add(new RedDrawable());
+    document.add(paragraph("after"));
+
+    assertEquals("0 0 0", getTextColors(render(document)).get("after"));
+  }
+
+  @Test
+  public void testForeignDrawableInFrameIsIsolated() throws Exception {
+    Document document = new Document(40, 60, 40, 60);
+    document.add(paragraph("before"));
+    document.add(new Frame(new RedDrawable()));
+    document.add(paragraph("after"));
+
+    String content = render(document);
+    Map<String, String> textColors = getTextColors(content);
+    assertEquals(content, "0 0 0", textColors.get("before"));
+    assertEquals(content, "0 0 0", textColors.get("after"));
+  }
+
+  @Test
+  public void testForeignDrawableInFrameFollowedByFrame() throws Exception {
+    Document document = new Document(40, 60, 40, 60);
+    Frame frame = new Frame();
+    frame.add(new RedDrawable());
+    frame.add(paragraph("inner"));
+    document.add(frame);
+    document.add(paragraph("after"));
+
+    String content = render(document);
+    Map<String, String> textColors = getTextColors(content);
+    assertEquals(content, "0 0 0", textColors.get("inner"));
+    assertEquals(content, "0 0 0", textColors.get("after"));
+  }
+
+  @Test
+  public void testForeignDrawableInTableIsIsolated() throws Exception {
+    Document document = new Document(40, 60, 40, 60);
+    document.add(paragraph("before"));
+    List<List<Drawable>> rows = new ArrayList<List<Drawable>>();
+    rows.add(Arrays.<Drawable> asList(new RedDrawable(), paragraph("cell")));
+    document.add(new Table(rows, 100, 100));
+    document.add(paragraph("after"));
+
+    String content = render(document);
+    Map<String, String> textColors = getTextColors(content);
+    assertEquals(content, "0 0 0", textColors.get("cell"));
+    assertEquals(content, "0 0 0", textColors.get("after"));
+  }
+
+  @Test
+  public void testDashPatternIsReset() throws Exception {
+    Document document = new Document(40, 60, 40, 60);
+    Frame frame = new Frame(paragraph("framed"));
+    frame.setBorder(Color.black, new Stroke(Stroke.CapStyle.Cap,
+            Stroke.JoinStyle.Miter, new DashPattern(3), 1));
+    document.add(frame);
+    document.add(new HorizontalRuler(new Stroke(null, null, null, 1), null));
+
+    String content = render(document);
+    List<String> dashPatterns = new ArrayList<String>();
+    for (String line : content.split("\n")) {
+      if (line.endsWith(" d")) {
+        dashPatterns.add(line.replace(" ", ""));
+      }
+    }
+    assertEquals(content, Arrays.asList("[33]0d", "[]0d"), dashPatterns);
+  }
+
+  @Test
+  public void testTrackingIsBoundToThread() throws Exception {
+    final PDDocument pdDocument = new PDDocument();
+    try {
+      final PDPageContentStream contentStream = CompatibilityHelper
+              .createAppendablePDPageContentStream(pdDocument,
+                      new PDPage());
+      GraphicsState.track(contentStream);
+      try {
+        assertNotNull(GraphicsState.get(contentStream));
+        final Object[] other = new Object[1];
+        Thread thread = new Thread() {
+          @Override
+          public void run() {
+            other[0] = GraphicsState.get(contentStream);
+          }
+        };
+        thread.start();
+        thread.join();
+        assertNull(other[0]);
+
+        GraphicsState.suspend();
+        assertNull(GraphicsState.get(contentStream));
+        GraphicsState.resume();
+        assertNotNull(GraphicsState.get(contentStream));
+      } finally {
+        GraphicsState.untrack(contentStream);
+        contentStream.close();
+      }
+      assertNull(GraphicsState.get(contentStream));
+    } finally {
+      pdDocument.close();
+    }
+  }
+
+  @Test
+  public void testTrackingIsReleasedIfRenderingFails() throws Exception {
+    final PDPageContentStream[] contentStream = new PDPageContentStream[1];
+    Document document = new Document(40, 60, 40, 60);
+    document.addRenderer(new Renderer() {
+
+      @Override
+      public boolean render(RenderContext renderContext, Element element,
+              LayoutHint layoutHint) throws IOException {
+        if (element instanceof HorizontalRuler) {
+          contentStream[0] = renderContext.getContentStream();
+          throw new IOException("failed");
+        }
+        return false;
+      }
+    });
+    document.add(paragraph("before"));
+    document.add(new HorizontalRuler(new Stroke(), Color.black));
+    try {
+      document.render();
+      fail("rendering should have failed");
+    } catch (IOException e) {
+      assertEquals("failed", e.getMessage());
+    }
+    assertNotNull(contentStream[0]);
+    assertNull(GraphicsState.get(contentStream[0]));
+  }
+
+  /**
+   * Asserts that black is set as non-stroking color after any red, and
+   * before the given text.
+   */
+  static void assertBlackBefore(final String content, final String text) {
+    int textIndex = content.indexOf(text);
+    assertTrue(content, textIndex >= 0);
+    int redIndex = content.lastIndexOf("1 0 0 rg", textIndex);
+    int blackIndex = content.lastIndexOf("0 0 0 rg", textIndex);
+    assertTrue(content, blackIndex > redIndex);
+  }
+
+  /**
+   * Interprets the <code>q</code>, <code>Q</code>, <code>rg</code> and
+   * <code>Tj</code> operators of the given content.
+   *
+   * @return the non-stroking color of each shown text.
+   */
+  static Map<String, String> getTextColors(final String content) {
+    Map<String, String> textColors = new HashMap<String, String>();
+    List<String> stack = new ArrayList<String>();
+    String color = "0 0 0";
+    for (String line : content.split("\n")) {
+      if (line.equals("q")) {
+        stack.add(color);
+      } else if (line.equals("Q")) {
+        color = stack.remove(stack.size() - 1);
+      } else if (line.endsWith(" rg")) {
+        color = line.substring(0, line.length() - 3);
+      } else if (line.endsWith(") Tj")) {
+        textColors.put(line.substring(1, line.length() - 4), color);
+      }
+    }
+    return textColors;
+  }
+
+  static Paragraph paragraph(final String text) throws IOException {
+    Paragraph paragraph = new Paragraph();
+    paragraph.addText(text, 12, FONT);
+    return paragraph;
+  }
+
+  static String render(final Document document) throws IOException {
+    PDDocument pdDocument = document.render();
+    try {
+      return getContent(pdDocument, 0);
+    } finally {
+      pdDocument.close();
+    }
+  }
+
+  /**
+   * @return the content of the given page, with colors normalized to the
+   * <code>rg</code> operator of pdfbox 1.
+   */
+  static String getContent(final PDDocument pdDocument, final int pageIndex)
+          throws IOException {
+    String content = new String(CompatibilityHelper.getPageContent(
+            pdDocument, pageIndex), "ISO-8859-1");
+    return content.replace("/DeviceRGB cs\n", "").replace(" sc\n", " rg\n");
+  }
+
+  static int count(final String content, final String operator) {
+    int count = 0;
+    for (int index = content.indexOf(operator); index >= 0; index = content
+            .indexOf(operator, index + 1)) {
+      ++count;
+    }
+    return count;
+  }
+
+  /**
+   * A drawable filling a red rectangle without restoring the color.
+   */
+  public static class RedDrawable implements Drawable, Element {
+
+    @Override
+    public float getWidth() throws IOException {
+      return 20;
+    }
+
+    @Override
+    public float getHeight() throws IOException {
+      return 20;
+    }
+
+    @Override
+    public Position getAbsolutePosition() throws IOException {
+      return null;
+    }
+
+    @Override
+    public void draw(PDDocument pdDocument, PDPageContentStream contentStream,
+                     Position upperLeft, DrawListener drawListener) throws IOException {
+      contentStream.setNonStrokingColor(Color.red);
+      contentStream.addRect(upperLeft.getX(), upperLeft.getY() - 20, 20, 20);
+      CompatibilityHelper.fillNonZero(contentStream);
+    }
+
+    @Override
+    public Drawable removeLeadingEmptyVerticalSpace() throws IOException {
+      return this;
+    }
+  }
+
+  public static class RedBox implements Annotation {
+  }
+
+  /**
+   * Sets red as non-stroking color directly on the content stream for each
+   * {@link RedBox} annotation.
+   */
+  public static class RedBoxProcessor implements AnnotationProcessor {
+
+    @Override
+    public void annotatedObjectDrawn(Annotated drawnObject,
+                                     DrawContext drawContext, Position upperLeft, float width,
+                                     float height) throws IOException {
+      if (!drawnObject.getAnnotationsOfType(RedBox.class).iterator()
+              .hasNext()) {
+        return;
+      }
+      // the processor is called inside the text object, so it may change
+      // the graphics state but must not draw any graphics
+      drawContext.getCurrentPageContentStream().setNonStrokingColor(
+              Color.red);
+    }
+
+    @Override
+    public void beforePage(DrawContext drawContext) throws IOException {
+    }
+
+    @Override
+    public void afterPage(DrawContext drawContext) throws IOException {
+    }
+
+    @Override
+    public void afterRender(PDDocument document) throws IOException {
+    }
+  }
+}